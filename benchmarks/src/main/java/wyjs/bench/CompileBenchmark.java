@@ -0,0 +1,78 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import wyc.command.Compile;
+
+/**
+ * Benchmark complete runs of the <code>jscompile</code> command over a
+ * synthetic project. This includes parsing, type checking and WyIL generation,
+ * as well as translation into JavaScript. Each operation corresponds to
+ * compiling the whole project, such that the time and allocation per file can
+ * be obtained by dividing by the number of modules.
+ *
+ * @author David J. Pearce
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CompileBenchmark {
+
+	/**
+	 * Number of modules in the synthetic project.
+	 */
+	@Param({ "10", "100" })
+	public int modules;
+
+	/**
+	 * Number of functions in each module.
+	 */
+	@Param({ "20" })
+	public int functions;
+
+	/**
+	 * Number of threads used to translate files.
+	 */
+	@Param({ "1" })
+	public int threads;
+
+	private Workspace workspace;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		workspace = new Workspace();
+		for (int i = 0; i != modules; ++i) {
+			workspace.generateModule("m" + i, functions);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown() throws IOException {
+		workspace.delete();
+	}
+
+	@Benchmark
+	public Compile.Result compile() throws IOException {
+		return workspace.compile("jsthreads", threads);
+	}
+}
@@ -0,0 +1,135 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.bench;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmark the generated JavaScript, rather than the compiler itself. Each
+ * program in the benchmark corpus is compiled once per trial, loaded into an
+ * embedded JavaScript engine along with the WyJS runtime, and then its
+ * <code>test()</code> method is executed repeatedly. Hence, each operation
+ * corresponds to one complete run of the program. By default, the engine used
+ * is Nashorn which is only available on Java 8 through 14. Another engine can
+ * be selected using the <code>wyjs.engine</code> system property.
+ *
+ * @author David J. Pearce
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RuntimeBenchmark {
+
+	/**
+	 * The location of the WyJS runtime library. This can be overridden using
+	 * the <code>wyjs.runtime</code> system property, and defaults to the
+	 * location relative to this module.
+	 */
+	public final static String WYJS_RUNTIME = System.getProperty("wyjs.runtime",
+			"../lib/wy.js".replace('/', File.separatorChar));
+
+	/**
+	 * The name of the JavaScript engine to use.
+	 */
+	public final static String ENGINE = System.getProperty("wyjs.engine", "nashorn");
+
+	@Param({ "Matrix", "Particles", "Primes", "Sort" })
+	public String program;
+
+	@Param({ "true", "false" })
+	public boolean debug;
+
+	/**
+	 * Additional compiler options, given as a space-separated list of
+	 * assignments (e.g. <code>jscow=true jselide=true</code>). This allows
+	 * the effect of different code generation options to be compared. Since
+	 * JMH separates parameter values with commas, different sets of options
+	 * can be compared in one run (e.g. <code>-p options=,jscow=true</code>).
+	 */
+	@Param({ "" })
+	public String options;
+
+	private Workspace workspace;
+
+	private Invocable engine;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, ScriptException, NoSuchMethodException {
+		workspace = new Workspace();
+		workspace.copyProgram(program);
+		workspace.compile(parseOptions());
+		ScriptEngine js = new ScriptEngineManager().getEngineByName(ENGINE);
+		if (js == null) {
+			throw new IllegalStateException("JavaScript engine \"" + ENGINE + "\" not available");
+		}
+		// Load the WyJS runtime which provides necessary support methods.
+		try (Reader reader = new FileReader(WYJS_RUNTIME)) {
+			js.eval(reader);
+		}
+		try (Reader reader = new FileReader(new File(workspace.getDirectory(), program + ".js"))) {
+			js.eval(reader);
+		}
+		engine = (Invocable) js;
+		// Sanity check the program runs successfully
+		engine.invokeFunction("test");
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown() throws IOException {
+		workspace.delete();
+	}
+
+	@Benchmark
+	public Object run() throws ScriptException, NoSuchMethodException {
+		return engine.invokeFunction("test");
+	}
+
+	private Object[] parseOptions() {
+		List<Object> result = new ArrayList<>();
+		result.add("debug");
+		result.add(debug);
+		for (String option : options.trim().split("\\s+")) {
+			if (!option.isEmpty()) {
+				String[] kv = option.split("=", 2);
+				String value = kv.length > 1 ? kv[1] : "true";
+				result.add(kv[0]);
+				if (value.equals("true") || value.equals("false")) {
+					result.add(Boolean.valueOf(value));
+				} else if (value.matches("[0-9]+")) {
+					result.add(Integer.valueOf(value));
+				} else {
+					result.add(value);
+				}
+			}
+		}
+		return result.toArray();
+	}
+}
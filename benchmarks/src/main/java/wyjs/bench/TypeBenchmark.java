@@ -0,0 +1,114 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import wybs.lang.Build;
+import wyc.lang.WhileyFile;
+import wyc.lang.WhileyFile.Type;
+import wyil.type.TypeSystem;
+import wyjs.io.JavaScriptFileWriter;
+
+/**
+ * Benchmark the generation of type mangles and of type tests in isolation.
+ * The types used are all those occurring in a representative set of valid
+ * test cases. Each operation corresponds to processing every type from those
+ * files once, using a fresh writer (and, hence, an empty mangle cache).
+ *
+ * @author David J. Pearce
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypeBenchmark {
+
+	private static final String[] TESTS = { "Complex_Valid_1", "Complex_Valid_2", "Complex_Valid_8",
+			"ConstrainedRecord_Valid_9", "Lambda_Valid_4", "Record_Valid_5", "RecursiveType_Valid_7",
+			"UnionType_Valid_1" };
+
+	private Workspace workspace;
+
+	private Build.Project project;
+
+	private TypeSystem typeSystem;
+
+	private List<Type> types;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		workspace = new Workspace();
+		for (String test : TESTS) {
+			workspace.copyTest(test);
+		}
+		workspace.compile();
+		project = workspace.createProject();
+		typeSystem = new TypeSystem(project);
+		// Collect all distinct types from the given files
+		LinkedHashSet<Type> all = new LinkedHashSet<>();
+		for (String test : TESTS) {
+			WhileyFile module = workspace.load(project, test);
+			all.addAll(module.getSyntacticItems(Type.class));
+		}
+		// Exclude types which cannot be tested (e.g. void), or which remain
+		// unresolved in the heap
+		types = new ArrayList<>();
+		for (Type type : all) {
+			try {
+				newWriter(new ByteArrayOutputStream()).applyTypeTests(Collections.singleton(type));
+				types.add(type);
+			} catch (RuntimeException e) {
+				// skip
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown() throws IOException {
+		workspace.delete();
+	}
+
+	@Benchmark
+	public void mangles(Blackhole bh) {
+		JavaScriptFileWriter writer = newWriter(new ByteArrayOutputStream());
+		for (int i = 0; i != types.size(); ++i) {
+			bh.consume(writer.getTypeMangle(types.get(i)));
+		}
+	}
+
+	@Benchmark
+	public int typeTests() {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		newWriter(output).applyTypeTests(types);
+		return output.size();
+	}
+
+	private JavaScriptFileWriter newWriter(ByteArrayOutputStream output) {
+		return new JavaScriptFileWriter(project, typeSystem, output, new HashMap<>());
+	}
+}
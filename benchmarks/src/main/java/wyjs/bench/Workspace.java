@@ -0,0 +1,241 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import wybs.lang.Build;
+import wybs.util.StdProject;
+import wyc.command.Compile;
+import wyc.lang.WhileyFile;
+import wycc.util.Logger;
+import wyfs.lang.Content;
+import wyfs.lang.Path;
+import wyfs.util.DirectoryRoot;
+import wyfs.util.Trie;
+import wyjs.commands.JsCompile;
+
+/**
+ * A temporary directory of Whiley source files used by the benchmarks. The
+ * sources are either copied from the valid test cases, or generated
+ * synthetically. In either case, they can be compiled into WyIL files which
+ * are then loaded so that the JavaScript backend can be benchmarked in
+ * isolation.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class Workspace {
+	/**
+	 * The directory containing the valid test cases. This can be overridden
+	 * using the <code>wyjs.tests</code> system property, and defaults to the
+	 * location relative to this module.
+	 */
+	public final static String WHILEY_SRC_DIR = System.getProperty("wyjs.tests",
+			"../tests/valid".replace('/', File.separatorChar));
+
+	private final Content.Registry registry = new wyc.Activator.Registry();
+
+	private final File dir;
+
+	private final List<String> names = new ArrayList<>();
+
+	public Workspace() throws IOException {
+		this.dir = Files.createTempDirectory("wyjs-bench").toFile();
+	}
+
+	/**
+	 * Get the directory holding the source files for this workspace.
+	 *
+	 * @return
+	 */
+	public File getDirectory() {
+		return dir;
+	}
+
+	/**
+	 * Get the names of all modules in this workspace.
+	 *
+	 * @return
+	 */
+	public List<String> getModules() {
+		return names;
+	}
+
+	/**
+	 * Copy a given test case from the valid test directory into this
+	 * workspace.
+	 *
+	 * @param name
+	 *            Name of the test case (without the extension).
+	 * @throws IOException
+	 */
+	public void copyTest(String name) throws IOException {
+		File from = new File(WHILEY_SRC_DIR, name + ".whiley");
+		Files.copy(from.toPath(), new File(dir, name + ".whiley").toPath(), StandardCopyOption.REPLACE_EXISTING);
+		names.add(name);
+	}
+
+	/**
+	 * Copy a given program from the benchmark corpus (i.e. the
+	 * <code>wyjs/bench</code> resources of this module) into this workspace.
+	 *
+	 * @param name
+	 *            Name of the program (without the extension).
+	 * @throws IOException
+	 */
+	public void copyProgram(String name) throws IOException {
+		try (InputStream from = Workspace.class.getResourceAsStream(name + ".whiley")) {
+			if (from == null) {
+				throw new FileNotFoundException("unknown benchmark program: " + name);
+			}
+			Files.copy(from, new File(dir, name + ".whiley").toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		names.add(name);
+	}
+
+	/**
+	 * Generate a synthetic module into this workspace. Every module has the
+	 * same shape, consisting of constrained types, records, loops over arrays
+	 * and a mix of function and method calls. The size of the module is
+	 * determined by the number of functions it contains.
+	 *
+	 * @param name
+	 *            Name of the module to generate.
+	 * @param functions
+	 *            Number of functions to generate in the module.
+	 * @throws IOException
+	 */
+	public void generateModule(String name, int functions) throws IOException {
+		try (PrintWriter out = new PrintWriter(new File(dir, name + ".whiley"))) {
+			out.println("type nat is (int x) where x >= 0");
+			out.println("type Point is {int x, int y}");
+			out.println("type Shape is {Point[] points, nat id} where |points| > 0");
+			out.println();
+			for (int i = 0; i != functions; ++i) {
+				out.println("function sum" + i + "(int[] xs) -> (int r):");
+				out.println("    int s = " + i);
+				out.println("    nat j = 0");
+				out.println("    while j < |xs| where j >= 0:");
+				out.println("        s = s + xs[j]");
+				out.println("        j = j + 1");
+				out.println("    return s");
+				out.println();
+				out.println("function move" + i + "(Shape s, int dx) -> (Shape r)");
+				out.println("ensures |r.points| == |s.points|:");
+				out.println("    nat j = 0");
+				out.println("    while j < |s.points| where |s.points| > 0:");
+				out.println("        Point p = s.points[j]");
+				out.println("        s.points[j] = {x: p.x + dx, y: p.y}");
+				out.println("        j = j + 1");
+				out.println("    return s");
+				out.println();
+				out.println("function test" + i + "(int|null x) -> (bool r):");
+				out.println("    if x is int:");
+				out.println("        return sum" + i + "([x; 4]) >= 0");
+				out.println("    else:");
+				out.println("        return all { k in 0.." + (i + 1) + " | k >= 0 }");
+				out.println();
+			}
+			out.println("public export method test():");
+			out.println("    Shape s = {points: [{x: 1, y: 2}], id: 0}");
+			for (int i = 0; i != functions; ++i) {
+				out.println("    s = move" + i + "(s, 1)");
+				out.println("    assume test" + i + "(" + i + ")");
+			}
+		}
+		names.add(name);
+	}
+
+	/**
+	 * Compile all source files in this workspace to JavaScript, producing
+	 * WyIL files along the way.
+	 *
+	 * @param options
+	 *            Options for the compiler given as name and value pairs (e.g.
+	 *            <code>"debug", false</code>).
+	 * @return
+	 * @throws IOException
+	 */
+	public Compile.Result compile(Object... options) throws IOException {
+		ByteArrayOutputStream sysout = new ByteArrayOutputStream();
+		ByteArrayOutputStream syserr = new ByteArrayOutputStream();
+		JsCompile cmd = new JsCompile(registry, Logger.NULL, sysout, syserr);
+		cmd.setWhileydir(dir);
+		try {
+			for (int i = 0; i < options.length; i += 2) {
+				cmd.set((String) options[i], options[i + 1]);
+			}
+		} catch (Exception e) {
+			throw new IllegalArgumentException(e);
+		}
+		String[] files = new String[names.size()];
+		for (int i = 0; i != files.length; ++i) {
+			files[i] = new File(dir, names.get(i) + ".whiley").getPath();
+		}
+		Compile.Result result = cmd.execute(files);
+		if (result != Compile.Result.SUCCESS) {
+			throw new IllegalStateException("compilation failed (" + result + "): " + syserr + sysout);
+		}
+		return result;
+	}
+
+	/**
+	 * Create a project over the compiled WyIL files in this workspace, as
+	 * needed for resolving types during translation.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public Build.Project createProject() throws IOException {
+		return new StdProject(Arrays.<Path.Root>asList(new DirectoryRoot(dir, registry)));
+	}
+
+	/**
+	 * Load the compiled WyIL file for a given module in this workspace. This
+	 * requires the workspace to have been compiled already.
+	 *
+	 * @param project
+	 *            Project created for this workspace.
+	 * @param name
+	 *            Name of the module to load.
+	 * @return
+	 * @throws IOException
+	 */
+	public WhileyFile load(Build.Project project, String name) throws IOException {
+		Path.Entry<WhileyFile> entry = project.get(Trie.fromString(name), WhileyFile.BinaryContentType);
+		return entry.read();
+	}
+
+	/**
+	 * Remove this workspace and everything in it.
+	 *
+	 * @throws IOException
+	 */
+	public void delete() throws IOException {
+		Files.walk(dir.toPath()).sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile)
+				.forEach(File::delete);
+	}
+}
@@ -0,0 +1,85 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import wybs.lang.Build;
+import wyc.lang.WhileyFile;
+import wyil.type.TypeSystem;
+import wyjs.io.JavaScriptFileWriter;
+import wyjs.io.JavaScriptFileWriter.Checks;
+
+/**
+ * Benchmark translation of a single WyIL file into JavaScript, using
+ * representative files from the valid test cases. The file is compiled and
+ * loaded once per trial, such that only <code>JavaScriptFileWriter.apply</code>
+ * is measured. Hence, each operation corresponds to translating one file.
+ *
+ * @author David J. Pearce
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriterBenchmark {
+
+	@Param({ "Byte_Valid_9", "Complex_Valid_1", "Complex_Valid_8", "ConstrainedRecord_Valid_9", "Lambda_Valid_4",
+			"Record_Valid_5", "RecursiveType_Valid_7", "While_Valid_2" })
+	public String test;
+
+	@Param({ "true", "false" })
+	public boolean debug;
+
+	private Workspace workspace;
+
+	private Build.Project project;
+
+	private TypeSystem typeSystem;
+
+	private WhileyFile module;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		workspace = new Workspace();
+		workspace.copyTest(test);
+		workspace.compile();
+		project = workspace.createProject();
+		typeSystem = new TypeSystem(project);
+		module = workspace.load(project, test);
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown() throws IOException {
+		workspace.delete();
+	}
+
+	@Benchmark
+	public int apply() {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		JavaScriptFileWriter writer = new JavaScriptFileWriter(project, typeSystem, output);
+		writer.setDebug(debug);
+		writer.setChecks(debug ? Checks.FULL : Checks.NONE, Collections.emptyMap());
+		writer.apply(module);
+		return output.size();
+	}
+}
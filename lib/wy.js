@@ -18,9 +18,22 @@ Wy.all = function(start,end,predicate) {
 }
 
 /**
- *
+ * Create an array of a given length where every element is the given
+ * value.  Since every element refers to the same value, the
+ * copy-on-write representation marks this as shared beforehand.  If
+ * a typed array constructor is given (e.g. Uint8Array), then this is
+ * used to provide the backing storage instead of a plain array.
  */
-Wy.array = function(val, len) {
+Wy.array = function(val, len, ctor) {
+    if(ctor !== undefined) {
+	var arr = new ctor(len);
+	if(val != 0) {
+	    for(var i=0;i<len;i=i+1) {
+		arr[i] = val;
+	    }
+	}
+	return arr;
+    }
     var arr = [];
     for(var i=0;i<len;i=i+1) {
 	arr[i] = val;
@@ -29,20 +42,248 @@ Wy.array = function(val, len) {
 };
 
 /**
- * Provide a generic mechanism for raising assertions
+ * Check whether a given value is a Whiley array.  This may be either
+ * a plain array or a typed array (for arrays of bytes or bounded
+ * integers).
  */
-Wy.assert = function(result) {
+Wy.isArray = function(obj) {
+    return obj != null && (obj.constructor === Array || Wy.isTypedArray(obj));
+};
+
+/**
+ * Check whether a given value is a Whiley array backed by a typed
+ * array.
+ */
+Wy.isTypedArray = function(obj) {
+    return (typeof Uint8Array !== "undefined" && obj instanceof Uint8Array)
+	|| (typeof Int32Array !== "undefined" && obj instanceof Int32Array);
+};
+
+/**
+ * Convert any typed arrays within a value into plain arrays.  This is
+ * necessary when a value is stored into a location whose type admits
+ * elements which are not bounded (e.g. int[] rather than i32[]).
+ * Arrays and records are only cloned when something within them was
+ * converted.
+ */
+Wy.untyped = function(obj) {
+    if (obj == null || "object" != typeof obj) {
+	return obj;
+    } else if(Wy.isTypedArray(obj)) {
+	return Array.prototype.slice.call(obj);
+    } else if(obj.constructor === Array) {
+	var r = obj;
+	for(var i=0;i!=obj.length;++i) {
+	    var v = Wy.untyped(obj[i]);
+	    if(v !== obj[i]) {
+		r = (r === obj) ? obj.slice(0) : r;
+		r[i] = v;
+	    }
+	}
+	return r;
+    } else if(obj.constructor === Wy.Record) {
+	var r = obj;
+	for(var p in obj) {
+	    var v = Wy.untyped(obj[p]);
+	    if(v !== obj[p]) {
+		r = (r === obj) ? Wy.Record.clone(obj) : r;
+		r[p] = v;
+	    }
+	}
+	return r;
+    } else {
+	return obj;
+    }
+};
+
+/**
+ * Number of times each assertion site has passed and failed so far.
+ */
+Wy.assertions = {};
+
+/**
+ * Provide a generic mechanism for raising assertions.  The site (if
+ * given) identifies the assertion, and is reported on failure.
+ */
+Wy.assert = function(result, site) {
+    if(site !== undefined) {
+	var counts = Wy.assertions[site];
+	if(counts === undefined) {
+	    counts = Wy.assertions[site] = { passed: 0, failed: 0 };
+	}
+	if(result) {
+	    counts.passed++;
+	} else {
+	    counts.failed++;
+	}
+    }
     if(!result) {
 	// Assertion failed, now try to raise exception
+	var message = site === undefined ? "assertion failure" : "assertion failure at " + site;
 	if(typeof console !== "undefined") {
 	    // Use console assert (if available)
-	    console.assert(false);
+	    console.assert(false, message);
 	} else {
-	    throw "assertion failure";
+	    throw message;
 	}
     }
 };
 
+/**
+ * Obtain the number of times each assertion site reached so far has
+ * passed and failed, ordered by site.  Sites are of the form
+ * "module:index" and are ordered by module and then numerically by
+ * index (e.g. "M:2" comes before "M:10").
+ */
+Wy.dumpAssertions = function() {
+    var r = [];
+    for(var site in Wy.assertions) {
+	var counts = Wy.assertions[site];
+	r.push({ site: site, passed: counts.passed, failed: counts.failed });
+    }
+    return r.sort(function(a, b) {
+	var i = a.site.lastIndexOf(":");
+	var j = b.site.lastIndexOf(":");
+	var m = a.site.substring(0, i);
+	var n = b.site.substring(0, j);
+	if(m != n) {
+	    return m < n ? -1 : 1;
+	}
+	return parseInt(a.site.substring(i + 1)) - parseInt(b.site.substring(j + 1));
+    });
+};
+
+/**
+ * Discard the counts for all assertion sites.
+ */
+Wy.resetAssertions = function() {
+    Wy.assertions = {};
+};
+
+/**
+ * Policy for sampling runtime contract checks, when these are
+ * generated with sampling enabled.  Either every nth check at each
+ * site is performed (starting with the first), or each check is
+ * performed with a given probability.
+ */
+Wy.sampling = { every: 1, rate: 0 };
+
+/**
+ * Number of times each sampled check site has been reached.
+ */
+Wy.samples = {};
+
+/**
+ * Set the policy for sampling runtime contract checks, for example
+ * <code>{every: 100}</code> or <code>{rate: 0.01}</code>.
+ */
+Wy.setSampling = function(policy) {
+    Wy.sampling = { every: policy.every || 1, rate: policy.rate || 0 };
+};
+
+/**
+ * Determine whether or not the checks at a given site should be
+ * performed on this occasion.
+ */
+Wy.sample = function(site) {
+    var n = Wy.samples[site] || 0;
+    Wy.samples[site] = n + 1;
+    if(Wy.sampling.rate > 0) {
+	return Math.random() < Wy.sampling.rate;
+    } else {
+	return n % Wy.sampling.every == 0;
+    }
+};
+
+/**
+ * Number of calls made to each instrumented function, keyed by name.
+ */
+Wy.calls = {};
+
+/**
+ * Ring buffer recording the most recent calls to instrumented
+ * functions which are timed.  For each call, this records the name of
+ * the function and the time spent (in milliseconds).  This is only
+ * allocated when first needed.
+ */
+Wy.PROFILE_SIZE = 65536;
+Wy.profile = { next: 0, count: 0, names: null, times: null };
+
+/**
+ * Obtain the current time in milliseconds, using a high resolution
+ * timer if available.
+ */
+Wy.now = (typeof performance !== "undefined") ? function() { return performance.now(); } : Date.now;
+
+/**
+ * Record a call to an instrumented function which is not timed.
+ */
+Wy.enter = function(name) {
+    Wy.calls[name] = (Wy.calls[name] || 0) + 1;
+};
+
+/**
+ * Record a call to an instrumented function which is timed, returning
+ * the time at which it started.
+ */
+Wy.start = function(name) {
+    Wy.calls[name] = (Wy.calls[name] || 0) + 1;
+    return Wy.now();
+};
+
+/**
+ * Record the time spent in a call to an instrumented function which
+ * started at a given time, returning the result of the call.
+ */
+Wy.stop = function(name, start, result) {
+    var time = Wy.now() - start;
+    var p = Wy.profile;
+    if(p.names === null) {
+	p.names = new Array(Wy.PROFILE_SIZE);
+	p.times = new Float64Array(Wy.PROFILE_SIZE);
+    }
+    p.names[p.next] = name;
+    p.times[p.next] = time;
+    p.next = (p.next + 1) % Wy.PROFILE_SIZE;
+    p.count++;
+    return result;
+};
+
+/**
+ * Obtain a flat profile of the instrumented functions called so far.
+ * For each function, this gives the number of calls along with the
+ * number of calls timed and the total time spent in them.  The latter
+ * cover only the calls still recorded in the ring buffer, and include
+ * the time spent in nested calls.  Functions are ordered by time
+ * spent, and then by number of calls.
+ */
+Wy.dumpProfile = function() {
+    var entries = {};
+    var r = [];
+    for(var name in Wy.calls) {
+	entries[name] = { name: name, calls: Wy.calls[name], samples: 0, time: 0 };
+	r.push(entries[name]);
+    }
+    var p = Wy.profile;
+    var n = Math.min(p.count, Wy.PROFILE_SIZE);
+    for(var i=0;i!=n;++i) {
+	var e = entries[p.names[i]];
+	if(e !== undefined) {
+	    e.samples++;
+	    e.time += p.times[i];
+	}
+    }
+    return r.sort(function(a, b) { return (b.time - a.time) || (b.calls - a.calls); });
+};
+
+/**
+ * Discard all calls recorded for instrumented functions.
+ */
+Wy.resetProfile = function() {
+    Wy.calls = {};
+    Wy.profile = { next: 0, count: 0, names: null, times: null };
+};
+
 /**
  * Clone an arbitrary value or object.  This is a deep clone,
  * meaning that nested references are also cloned.
@@ -59,12 +300,16 @@ Wy.copy = function(obj) {
 	    r[i] = Wy.copy(obj[i]);
 	}
 	return r;
+    } else if(Wy.isTypedArray(obj)) {
+	// Clone typed arrays in bulk.  Their elements are always
+	// primitive and, hence, need not be cloned themselves.
+	return new obj.constructor(obj);
     } else if(obj.constructor == Wy.Record) {
 	// Clone whiley records by recursively (i.e. deep) cloning
 	// all fields.
-	var r = {};
-	for(p in obj) {
-	    r[p] = Wy.copy(obj[p]);
+	var r = Wy.Record.clone(obj);
+	for(var p in r) {
+	    r[p] = Wy.copy(r[p]);
 	}
 	return r;
     } else {
@@ -74,6 +319,61 @@ Wy.copy = function(obj) {
     }
 };
 
+/**
+ * Copy an arbitrary value or object using the copy-on-write
+ * representation.  This simply marks Whiley arrays and records as
+ * shared, meaning they will be cloned on the first write through
+ * them.  The shared flag is not enumerable so it does not affect
+ * record type tests or equality.
+ */
+Wy.share = function(obj) {
+    if (obj != null && (Wy.isArray(obj) || obj.constructor === Wy.Record) && !obj.$shared) {
+	Object.defineProperty(obj, "$shared", { value: true, writable: true });
+    }
+    return obj;
+};
+
+/**
+ * Obtain a version of a value which is not shared and, hence, can be
+ * written.  If the value is shared, then a shallow clone is taken.
+ * Since its elements are now reachable from both the original and the
+ * clone, these are themselves marked as shared.
+ */
+Wy.own = function(obj) {
+    if (obj == null || !obj.$shared) {
+	return obj;
+    } else if(obj.constructor === Array) {
+	var r = obj.slice(0);
+	for(var i=0;i!=r.length;++i) {
+	    Wy.share(r[i]);
+	}
+	return r;
+    } else if(Wy.isTypedArray(obj)) {
+	return new obj.constructor(obj);
+    } else if(obj.constructor === Wy.Record) {
+	var r = Wy.Record.clone(obj);
+	for(var p in r) {
+	    Wy.share(r[p]);
+	}
+	return r;
+    } else {
+	return obj;
+    }
+};
+
+/**
+ * Obtain a version of a given element or field of an (unshared)
+ * container which is not shared, updating the container as necessary.
+ */
+Wy.ownAt = function(obj, key) {
+    var val = obj[key];
+    if (val != null && val.$shared) {
+	val = Wy.own(val);
+	obj[key] = val;
+    }
+    return val;
+};
+
 /**
  * Provide a generic equality method for objects.
  */
@@ -91,9 +391,27 @@ Wy.equals = function(o1, o2) {
     } else if(typeof o1 != typeof o2) {
 	// perhaps comparing an array with a record or similar
 	return false;
+    } else if(Wy.isArray(o1) != Wy.isArray(o2)) {
+	// comparing an array with a record
+	return false;
+    } else if(Wy.isTypedArray(o1) || Wy.isTypedArray(o2)) {
+	// comparing arrays where at least one is a typed array.  These
+	// are compared element-wise, since a typed array may be equal
+	// to a plain array.
+	if(o1.length != o2.length) {
+	    return false;
+	}
+	for(var i=0;i!=o1.length;++i) {
+	    if(!Wy.equals(o1[i],o2[i])) {
+		return false;
+	    }
+	}
+	return true;
     } else {
-	var o1Fields = Object.getOwnPropertyNames(o1);
-	var o2Fields = Object.getOwnPropertyNames(o2);
+	// NOTE: only enumerable fields are considered, which excludes
+	// the length of arrays and the copy-on-write shared flag.
+	var o1Fields = Object.keys(o1);
+	var o2Fields = Object.keys(o2);
 	// Check whether same number of fields
 	if (o1Fields.length != o2Fields.length) {
 	    // No, different numbers of fields
@@ -141,6 +459,28 @@ Wy.Record = function(x) {
     }
 };
 
+/**
+ * Construct the prototype for records constructed by the constructor
+ * generated for a closed record type.  Such records are still
+ * identified as Whiley records by their constructor property, whilst
+ * the given function clones them using the same constructor (and,
+ * hence, with the same shape).
+ */
+Wy.Record.shape = function(clone) {
+    return Object.create(Wy.Record.prototype, {
+	constructor: { value: Wy.Record, writable: true },
+	$clone: { value: clone }
+    });
+};
+
+/**
+ * Take a shallow clone of a Whiley record, retaining the shape of
+ * its type where it has one.
+ */
+Wy.Record.clone = function(obj) {
+    return (obj.$clone !== undefined) ? obj.$clone(obj) : new Wy.Record(obj);
+};
+
 /**
  * Whiley reference constuctor.
  */
@@ -170,7 +510,7 @@ Wy.embed = function(node,contents) {
     // Check whether we have a leaf which corresponds to a text node.
     // This is an array because strings are represented as arrays in
     // Whiley.
-    if(contents.constructor === Array) {
+    if(Wy.isArray(contents)) {
 	var text = Wy.fromString(contents);
 	var child = document.createTextNode(text);
 	node.appendChild(child);
@@ -19,6 +19,8 @@ import wycc.util.Logger;
 import wyfs.lang.Content;
 import wyfs.lang.Path;
 import wyjs.commands.JsCompile;
+import wyjs.commands.JsDaemon;
+import wyjs.core.JavaScriptFile;
 
 public class Activator implements Module.Activator {
 	// =======================================================================
@@ -26,8 +28,10 @@ public class Activator implements Module.Activator {
 	// =======================================================================
 
 	/**
-	 * Default implementation of a content registry. This associates whiley and
-	 * wyil files with their respective content types.
+	 * Default implementation of a content registry. This associates whiley,
+	 * wyil and generated javascript files with their respective content types.
+	 * The latter is necessary to determine whether generated files are up to
+	 * date.
 	 *
 	 * @author David J. Pearce
 	 *
@@ -35,7 +39,11 @@ public class Activator implements Module.Activator {
 	public static class Registry extends wyc.Activator.Registry {
 		@Override
 		public void associate(Path.Entry e) {
-			super.associate(e);
+			if (e.suffix().equals(JavaScriptFile.ContentType.getSuffix())) {
+				e.associate(JavaScriptFile.ContentType, null);
+			} else {
+				super.associate(e);
+			}
 		}
 
 		@Override
@@ -61,7 +69,8 @@ public class Activator implements Module.Activator {
 		final Logger logger = new Logger.Default(System.err);
 		// List of commands to use
 		final Command[] commands = {
-				new JsCompile(registry, logger)};
+				new JsCompile(registry, logger),
+				new JsDaemon(registry, logger)};
 		// Register all commands
 		for (Command c : commands) {
 			context.register(wycc.lang.Command.class, c);
@@ -16,8 +16,15 @@ package wyjs.commands;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import wybs.lang.Build;
 import wybs.util.StdBuildRule;
 import wybs.util.StdProject;
 import wyc.command.Compile;
@@ -28,7 +35,10 @@ import wyfs.lang.Path;
 import wyfs.util.DirectoryRoot;
 import wyc.lang.WhileyFile;
 import wyjs.core.JavaScriptFile;
+import wyjs.io.JavaScriptFileWriter.Checks;
 import wyjs.tasks.JavaScriptCompileTask;
+import wyjs.util.BuildCache;
+import wyjs.util.BuildMetrics;
 
 public class JsCompile extends Compile {
 
@@ -43,6 +53,106 @@ public class JsCompile extends Compile {
 	 */
 	protected boolean debug = true;
 
+	/**
+	 * Determine which contracts to check at runtime, or null if this is
+	 * determined by debug mode.
+	 */
+	protected Checks checks = null;
+
+	/**
+	 * Determine which contracts to check at runtime for particular modules or
+	 * functions.
+	 */
+	protected Map<String, Checks> checkOverrides = Collections.emptyMap();
+
+	/**
+	 * Determine whether or not to check contracts on only a sample of
+	 * occasions.
+	 */
+	protected boolean sampling = false;
+
+	/**
+	 * Determine whether or not to count calls to generated functions.
+	 */
+	protected boolean instrument = false;
+
+	/**
+	 * Determine whether or not to time calls to generated functions.
+	 */
+	protected boolean timing = false;
+
+	/**
+	 * Determine whether or not to use the copy-on-write representation of
+	 * arrays and records.
+	 */
+	protected boolean copyOnWrite = false;
+
+	/**
+	 * Determine whether or not to elide provably unnecessary copies.
+	 */
+	protected boolean elide = false;
+
+	/**
+	 * Determine whether or not to back byte and bounded integer arrays with
+	 * typed arrays.
+	 */
+	protected boolean typedArrays = false;
+
+	/**
+	 * Determine whether or not to optimise the generated JavaScript.
+	 */
+	protected boolean optimise = false;
+
+	/**
+	 * Determine whether or not to minify the generated JavaScript.
+	 */
+	protected boolean minify = false;
+
+	/**
+	 * Determine number of threads to use for generating JavaScript.
+	 */
+	protected int threads = 1;
+
+	/**
+	 * Determine whether or not to stream generated files directly to disk.
+	 */
+	protected boolean streaming = false;
+
+	/**
+	 * The name of the shared type test library to generate, or null if type
+	 * tests should be generated in each file.
+	 */
+	protected String typeTestLibrary = null;
+
+	/**
+	 * Determine whether or not to generate source maps.
+	 */
+	protected boolean sourceMaps = false;
+
+	/**
+	 * Determine whether or not to skip translating files which are unchanged
+	 * since they were last translated.
+	 */
+	protected boolean cache = false;
+
+	/**
+	 * The persistent cache recording the files previously translated, or null
+	 * if not enabled. This is stored in the javascript directory.
+	 */
+	protected BuildCache buildCache = null;
+
+	/**
+	 * Determine whether or not to write a report of the cost of translating
+	 * each file.
+	 */
+	protected boolean metrics = false;
+
+	/**
+	 * Records the cost of translating each file, or null if not enabled. This
+	 * is written alongside the javascript directory.
+	 */
+	protected BuildMetrics buildMetrics = null;
+
 	/**
 	 * Construct a new instance of this command.
 	 *
@@ -78,9 +188,35 @@ public class JsCompile extends Compile {
 		return "Compile Whiley source files to JavaScript source files [EXPERIMENTAL]";
 	}
 
+	/**
+	 * The name of the cache file within the javascript directory.
+	 */
+	private static final String CACHE_FILE = ".jscache";
+
+	/**
+	 * The suffix added to the name of the javascript directory to give the
+	 * name of the metrics report.
+	 */
+	private static final String METRICS_SUFFIX = "-metrics.json";
+
 	private static final String[] SCHEMA = {
 			"jsdir",
-			"debug"
+			"debug",
+			"jschecks",
+			"jssample",
+			"jsinstrument",
+			"jstiming",
+			"jscow",
+			"jselide",
+			"jstyped",
+			"jsopt",
+			"jsminify",
+			"jsthreads",
+			"jsstream",
+			"jstypelib",
+			"jssourcemap",
+			"jscache",
+			"jsmetrics"
 	};
 
 	@Override
@@ -98,6 +234,51 @@ public class JsCompile extends Compile {
 			case "debug":
 				setDebug((boolean)value);
 				break;
+			case "jschecks":
+				setChecks((String)value);
+				break;
+			case "jssample":
+				setSampling((boolean)value);
+				break;
+			case "jsinstrument":
+				setInstrument((boolean)value);
+				break;
+			case "jstiming":
+				setTiming((boolean)value);
+				break;
+			case "jscow":
+				setCopyOnWrite((boolean)value);
+				break;
+			case "jselide":
+				setElide((boolean)value);
+				break;
+			case "jstyped":
+				setTypedArrays((boolean)value);
+				break;
+			case "jsopt":
+				setOptimise((boolean)value);
+				break;
+			case "jsminify":
+				setMinify((boolean)value);
+				break;
+			case "jsthreads":
+				setThreads((int)value);
+				break;
+			case "jsstream":
+				setStreaming((boolean)value);
+				break;
+			case "jstypelib":
+				setTypeTestLibrary((String)value);
+				break;
+			case "jssourcemap":
+				setSourceMaps((boolean)value);
+				break;
+			case "jscache":
+				setCache((boolean)value);
+				break;
+			case "jsmetrics":
+				setMetrics((boolean)value);
+				break;
 			default:
 				super.set(option, value);
 			}
@@ -113,6 +294,36 @@ public class JsCompile extends Compile {
 			return "Specify where to place generated javascript files";
 		case "debug":
 			return "Set debug mode (default is ON)";
+		case "jschecks":
+			return "Set contracts to check at runtime as one of none, entry (preconditions), boundaries (also postconditions) or full (also loop and type invariants), optionally followed by overrides for particular modules or functions (e.g. entry,util/math=full,util/math::sqrt=none) (default is full in debug mode, otherwise none)";
+		case "jssample":
+			return "Check preconditions, postconditions and loop invariants only on a sample of occasions, as set at runtime using Wy.setSampling (default is OFF)";
+		case "jsinstrument":
+			return "Count calls to each generated function, which can be exported at runtime using Wy.dumpProfile (default is OFF)";
+		case "jstiming":
+			return "Count and time calls to each generated function using performance.now(), which can be exported at runtime using Wy.dumpProfile (default is OFF)";
+		case "jscow":
+			return "Use copy-on-write representation for arrays and records, rather than copying eagerly (default is OFF)";
+		case "jselide":
+			return "Elide copies of variables at their last use, where provably safe (default is OFF)";
+		case "jstyped":
+			return "Use typed arrays for arrays of bytes and of integers bounded to 32 bits (default is OFF)";
+		case "jsopt":
+			return "Optimise generated javascript using constant folding, dead code elimination and common subexpression elimination (default is OFF)";
+		case "jsminify":
+			return "Minify generated javascript by removing whitespace and comments, and by shortening identifiers (default is OFF)";
+		case "jsthreads":
+			return "Set number of threads used to generate javascript files (default is 1)";
+		case "jsstream":
+			return "Stream generated javascript directly to disk, rather than buffering in memory (default is OFF)";
+		case "jstypelib":
+			return "Generate all type tests once into a shared javascript file with the given name, which must be loaded before other generated files";
+		case "jssourcemap":
+			return "Generate a source map alongside each generated javascript file (default is OFF)";
+		case "jscache":
+			return "Skip translating files which are unchanged since they were last translated, as recorded in a cache file (default is OFF)";
+		case "jsmetrics":
+			return "Write a JSON report of the time and memory spent in each phase of translating each file alongside the javascript directory (default is OFF)";
 		default:
 			return super.describe(option);
 		}
@@ -126,10 +337,113 @@ public class JsCompile extends Compile {
 		this.debug = debug;
 	}
 
+	/**
+	 * Set the contracts to check at runtime. This is a comma-separated list,
+	 * where the first element gives the level for all modules and each
+	 * subsequent element overrides this for a given module or function.
+	 *
+	 * @param checks
+	 * @throws ConfigurationError
+	 */
+	public void setChecks(String checks) throws ConfigurationError {
+		String[] items = checks.split(",");
+		HashMap<String, Checks> overrides = new HashMap<>();
+		this.checks = parseChecks(items[0].trim());
+		for (int i = 1; i != items.length; ++i) {
+			String[] override = items[i].split("=");
+			if (override.length != 2) {
+				throw new ConfigurationError("invalid check override \"" + items[i] + "\"");
+			}
+			overrides.put(override[0].trim(), parseChecks(override[1].trim()));
+		}
+		this.checkOverrides = overrides;
+	}
+
+	private static Checks parseChecks(String level) throws ConfigurationError {
+		try {
+			return Checks.valueOf(level.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new ConfigurationError("invalid check level \"" + level + "\"");
+		}
+	}
+
+	public void setSampling(boolean sampling) {
+		this.sampling = sampling;
+	}
+
+	public void setInstrument(boolean instrument) {
+		this.instrument = instrument;
+	}
+
+	public void setTiming(boolean timing) {
+		this.timing = timing;
+	}
+
+	public void setCopyOnWrite(boolean copyOnWrite) {
+		this.copyOnWrite = copyOnWrite;
+	}
+
+	public void setElide(boolean elide) {
+		this.elide = elide;
+	}
+
+	public void setTypedArrays(boolean typedArrays) {
+		this.typedArrays = typedArrays;
+	}
+
+	public void setOptimise(boolean optimise) {
+		this.optimise = optimise;
+	}
+
+	public void setMinify(boolean minify) {
+		this.minify = minify;
+	}
+
+	/**
+	 * Set the number of threads used to generate javascript files.
+	 *
+	 * @param threads
+	 * @throws ConfigurationError
+	 */
+	public void setThreads(int threads) throws ConfigurationError {
+		if (threads < 1) {
+			throw new ConfigurationError("invalid number of threads \"" + threads + "\"");
+		}
+		this.threads = threads;
+	}
+
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	public void setTypeTestLibrary(String name) {
+		this.typeTestLibrary = name;
+	}
+
+	public void setSourceMaps(boolean sourceMaps) {
+		this.sourceMaps = sourceMaps;
+	}
+
+	public void setCache(boolean cache) {
+		this.cache = cache;
+	}
+
+	public void setMetrics(boolean metrics) {
+		this.metrics = metrics;
+	}
+
 	@Override
 	protected void finaliseConfiguration() throws IOException {
 		super.finaliseConfiguration();
 		this.javascriptdir = getDirectoryRoot(javascriptdir,wyildir);
+		if (cache) {
+			this.buildCache = new BuildCache(new File(javascriptdir.location(), CACHE_FILE));
+		}
+		if (metrics) {
+			java.nio.file.Path dir = javascriptdir.location().getAbsoluteFile().toPath().normalize();
+			File parent = dir.getParent() == null ? dir.toFile() : dir.getParent().toFile();
+			this.buildMetrics = new BuildMetrics(new File(parent, dir.getFileName() + METRICS_SUFFIX));
+		}
 	}
 
 	@Override
@@ -137,6 +451,14 @@ public class JsCompile extends Compile {
 		try {
 			Result r = super.compile(project, entries);
 			javascriptdir.flush();
+			// NOTE: cache is only updated once generated files are written
+			if (buildCache != null) {
+				buildCache.flush();
+			}
+			// NOTE: metrics are only complete once generated files are written
+			if (buildMetrics != null) {
+				buildMetrics.flush();
+			}
 			return r;
 		} catch (IOException e) {
 			// now what?
@@ -166,11 +488,92 @@ public class JsCompile extends Compile {
 			jsBuilder.setLogger(logger);
 		}
 		jsBuilder.setDebug(debug);
-		project.add(new StdBuildRule(jsBuilder, wyildir, wyilIncludes, wyilExcludes, javascriptdir));
+		jsBuilder.setChecks(checks != null ? checks : debug ? Checks.FULL : Checks.NONE, checkOverrides);
+		jsBuilder.setSampling(sampling);
+		jsBuilder.setInstrument(instrument);
+		jsBuilder.setTiming(timing);
+		jsBuilder.setCopyOnWrite(copyOnWrite);
+		jsBuilder.setElide(elide);
+		jsBuilder.setTypedArrays(typedArrays);
+		jsBuilder.setOptimise(optimise);
+		jsBuilder.setMinify(minify);
+		jsBuilder.setThreads(threads);
+		jsBuilder.setStreaming(streaming);
+		jsBuilder.setTypeTestLibrary(typeTestLibrary);
+		jsBuilder.setSourceMaps(sourceMaps);
+		jsBuilder.setSourceRoot(getSourceRoot());
+		jsBuilder.setCache(buildCache);
+		jsBuilder.setMetrics(buildMetrics);
+		if (typeTestLibrary == null) {
+			project.add(new StdBuildRule(jsBuilder, wyildir, wyilIncludes, wyilExcludes, javascriptdir));
+		} else {
+			project.add(new TypeTestLibraryRule(jsBuilder, wyilIncludes, wyilExcludes));
+		}
 	}
 
+	/**
+	 * The shared type test library is regenerated from the type tests of the
+	 * files translated in a build. Therefore, whenever any binary file is
+	 * translated, all binary files must be translated as well. Otherwise, the
+	 * library would be missing the type tests of those files which were not
+	 * modified.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private class TypeTestLibraryRule extends StdBuildRule {
+		private final Content.Filter<WhileyFile> includes;
+
+		public TypeTestLibraryRule(JavaScriptCompileTask task, Content.Filter<WhileyFile> includes,
+				Content.Filter<WhileyFile> excludes) {
+			super(task, wyildir, includes, excludes, javascriptdir);
+			this.includes = includes;
+		}
+
+		@Override
+		public Set<Path.Entry<?>> apply(Collection<? extends Path.Entry<?>> group, Build.Graph graph)
+				throws IOException {
+			LinkedHashMap<Path.ID, Path.Entry<?>> entries = new LinkedHashMap<>();
+			boolean matched = false;
+			for (Path.Entry<?> e : group) {
+				entries.put(e.id(), e);
+				matched |= e.contentType() == WhileyFile.BinaryContentType
+						&& includes.matches(e.id(), WhileyFile.BinaryContentType);
+			}
+			if (matched) {
+				for (Path.Entry<?> e : wyildir.get(includes)) {
+					entries.putIfAbsent(e.id(), e);
+				}
+			}
+			return super.apply(entries.values(), graph);
+		}
+	}
+
+	/**
+	 * Determine the location of the whiley source files relative to the
+	 * generated javascript files, for use in source maps.
+	 *
+	 * @return
+	 */
+	private String getSourceRoot() {
+		java.nio.file.Path from = javascriptdir.location().getAbsoluteFile().toPath().normalize();
+		java.nio.file.Path to = whileydir.location().getAbsoluteFile().toPath().normalize();
+		String root = from.relativize(to).toString().replace(File.separatorChar, '/');
+		return root.isEmpty() ? root : root + "/";
+	}
+
+	/**
+	 * Determine the binary files which need to be translated. When the cache
+	 * is enabled, all files are considered since the cache determines which
+	 * have actually changed. This is cheap when nothing has changed, since no
+	 * file is read unless the options or the timestamp of some file differ
+	 * from those recorded in the cache. Otherwise, this is based on timestamps.
+	 */
 	@Override
 	public List<? extends Path.Entry<?>> getModifiedSourceFiles() throws IOException {
+		if (buildCache != null) {
+			return wyildir.get(wyilIncludes);
+		}
 		return getModifiedSourceFiles(wyildir, wyilIncludes, javascriptdir, JavaScriptFile.ContentType);
 	}
 }
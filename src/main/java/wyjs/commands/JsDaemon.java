@@ -0,0 +1,358 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.commands;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import wybs.util.StdProject;
+import wycc.util.ArrayUtils;
+import wycc.util.Logger;
+import wyfs.lang.Content;
+import wyfs.lang.Path;
+import wyc.lang.WhileyFile;
+
+/**
+ * A long-running variant of the compile command, which accepts compile
+ * requests on standard input. This avoids the cost of starting a fresh JVM
+ * for each build and, furthermore, the same project is reused between
+ * requests. In particular, modules loaded from the standard library and
+ * other dependencies are only read once, whilst the build rules (and hence
+ * the type system and any cache) are constructed only once.
+ *
+ * Each request is a single line consisting of the Whiley source files to
+ * compile, separated by whitespace. An empty line compiles all source and
+ * binary files modified since they were last compiled. The response to each
+ * request is any messages produced by the compiler, followed by a line giving
+ * the result (e.g. <code>SUCCESS</code>). The daemon stops at the end of its
+ * input. Any source files given on the command line are compiled as an
+ * initial request, before any others.
+ *
+ * Alternatively, in watch mode, requests are not read from standard input.
+ * Instead, the source and binary directories are watched for changes and, once
+ * a burst of changes has finished, all modified files are compiled.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class JsDaemon extends JsCompile {
+	/**
+	 * Stream to which the result of each request is written.
+	 */
+	private final PrintStream sysout;
+
+	/**
+	 * The project reused between requests, or null if no request has been
+	 * received yet.
+	 */
+	private StdProject project;
+
+	/**
+	 * Indicate whether the compilation and verification build rules
+	 * (respectively) have been added to the project.
+	 */
+	private boolean compilationRules, verificationRules;
+
+	/**
+	 * Determine whether or not to watch for changes, rather than reading
+	 * requests from standard input.
+	 */
+	protected boolean watch = false;
+
+	/**
+	 * Time to wait (in milliseconds) after a change for any further changes,
+	 * such that a burst of changes results in a single build.
+	 */
+	private static final int DEBOUNCE = 100;
+
+	/**
+	 * Construct a new instance of this command.
+	 *
+	 * @param registry
+	 *            The content registry being used to match files to content
+	 *            types.
+	 */
+	public JsDaemon(Content.Registry registry, Logger logger) {
+		super(registry, logger);
+		this.sysout = System.out;
+	}
+
+	/**
+	 * Construct a new instance of this command.
+	 *
+	 * @param registry
+	 *            The content registry being used to match files to content
+	 *            types.
+	 */
+	public JsDaemon(Content.Registry registry, Logger logger, OutputStream sysout, OutputStream syserr) {
+		super(registry, logger, sysout, syserr);
+		this.sysout = new PrintStream(sysout);
+	}
+
+	@Override
+	public String getName() {
+		return "jsdaemon";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Compile Whiley source files to JavaScript source files as requested on standard input [EXPERIMENTAL]";
+	}
+
+	private static final String[] SCHEMA = {
+			"jswatch"
+	};
+
+	@Override
+	public String[] getOptions() {
+		return ArrayUtils.append(super.getOptions(),SCHEMA);
+	}
+
+	@Override
+	public void set(String option, Object value) throws ConfigurationError {
+		switch(option) {
+		case "jswatch":
+			setWatch((boolean)value);
+			break;
+		default:
+			super.set(option, value);
+		}
+	}
+
+	@Override
+	public String describe(String option) {
+		switch(option) {
+		case "jswatch":
+			return "Compile modified files whenever the source or binary directories change, rather than reading requests from standard input (default is OFF)";
+		default:
+			return super.describe(option);
+		}
+	}
+
+	public void setWatch(boolean watch) {
+		this.watch = watch;
+	}
+
+	@Override
+	public Result execute(String... args) {
+		try {
+			return watch ? watch(args) : serve(System.in, args);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Process compile requests from a given input stream until it is
+	 * exhausted.
+	 *
+	 * @param input
+	 * @param files
+	 *            Source files to compile before reading any requests (if
+	 *            any).
+	 * @return The result of the last request, or <code>SUCCESS</code> if
+	 *         there were none.
+	 * @throws IOException
+	 */
+	public Result serve(InputStream input, String... files) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input));
+		Result result = Result.SUCCESS;
+		if (files.length > 0) {
+			result = request(files);
+		}
+		for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+			line = line.trim();
+			result = request(line.isEmpty() ? new String[0] : line.split("\\s+"));
+		}
+		return result;
+	}
+
+	/**
+	 * Process a single compile request, writing its result.
+	 *
+	 * @param files
+	 *            Source files to compile or, if none, all modified files are
+	 *            compiled.
+	 * @return
+	 * @throws IOException
+	 */
+	private Result request(String... files) throws IOException {
+		refresh();
+		Result result;
+		if (files.length == 0) {
+			result = execute(getModifiedFiles());
+		} else {
+			result = super.execute(files);
+		}
+		sysout.println(result);
+		sysout.flush();
+		return result;
+	}
+
+	/**
+	 * Compile all modified files whenever the source or binary directories
+	 * change, until interrupted. Any modified files are compiled immediately.
+	 * Since the watch service does not watch directories recursively, each
+	 * subdirectory is registered separately (including those created later).
+	 *
+	 * @param files
+	 *            Source files to compile before any modified files (if any).
+	 * @return The result of the last build, or <code>SUCCESS</code> if there
+	 *         were none.
+	 * @throws IOException
+	 */
+	public Result watch(String... files) throws IOException {
+		Result result = Result.SUCCESS;
+		if (files.length > 0) {
+			result = request(files);
+		}
+		try (WatchService service = FileSystems.getDefault().newWatchService()) {
+			HashSet<java.nio.file.Path> dirs = new HashSet<>();
+			refresh();
+			register(whileydir.location().toPath(), service, dirs);
+			register(wyildir.location().toPath(), service, dirs);
+			while (true) {
+				List<Path.Entry<?>> entries = getModifiedFiles();
+				if (!entries.isEmpty()) {
+					result = execute(entries);
+					sysout.println(result);
+					sysout.flush();
+				}
+				// Wait for a change, followed by a quiet period
+				WatchKey key = service.take();
+				while (key != null) {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+							java.nio.file.Path dir = (java.nio.file.Path) key.watchable();
+							register(dir.resolve((java.nio.file.Path) event.context()), service, dirs);
+						}
+					}
+					key.reset();
+					key = service.poll(DEBOUNCE, TimeUnit.MILLISECONDS);
+				}
+				refresh();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			return result;
+		}
+	}
+
+	/**
+	 * Register a directory and all of its subdirectories with a given watch
+	 * service, unless already registered.
+	 *
+	 * @param root
+	 * @param service
+	 * @param dirs
+	 *            The directories already registered.
+	 * @throws IOException
+	 */
+	private static void register(java.nio.file.Path root, WatchService service, HashSet<java.nio.file.Path> dirs)
+			throws IOException {
+		if (!Files.isDirectory(root)) {
+			return;
+		}
+		Files.walkFileTree(root, new SimpleFileVisitor<java.nio.file.Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(java.nio.file.Path dir, BasicFileAttributes attrs)
+					throws IOException {
+				if (dirs.add(dir.toAbsolutePath().normalize())) {
+					dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+							StandardWatchEventKinds.ENTRY_DELETE);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Initialise the project if this has not already happened. Otherwise,
+	 * pick up any changes made since the last build.
+	 *
+	 * @throws IOException
+	 */
+	private void refresh() throws IOException {
+		if (project == null) {
+			project = super.initialiseProject();
+		} else {
+			whileydir.refresh();
+			wyildir.refresh();
+			javascriptdir.refresh();
+		}
+	}
+
+	/**
+	 * Determine the source files modified since they were last compiled, along
+	 * with the binary files modified since they were last translated. The
+	 * latter excludes binary files which will be regenerated from their
+	 * source files anyway.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private List<Path.Entry<?>> getModifiedFiles() throws IOException {
+		ArrayList<Path.Entry<?>> entries = new ArrayList<>();
+		HashSet<Path.ID> ids = new HashSet<>();
+		for (Path.Entry<?> e : getModifiedSourceFiles(whileydir, whileyIncludes, wyildir,
+				WhileyFile.BinaryContentType)) {
+			entries.add(e);
+			ids.add(e.id());
+		}
+		for (Path.Entry<?> e : getModifiedSourceFiles()) {
+			if (!ids.contains(e.id())) {
+				entries.add(e);
+			}
+		}
+		return entries;
+	}
+
+	@Override
+	protected StdProject initialiseProject() throws IOException {
+		return project;
+	}
+
+	@Override
+	protected void addCompilationBuildRules(StdProject project) {
+		if (!compilationRules) {
+			super.addCompilationBuildRules(project);
+			compilationRules = true;
+		}
+	}
+
+	@Override
+	protected void addVerificationBuildRules(StdProject project) {
+		if (!verificationRules) {
+			super.addVerificationBuildRules(project);
+			verificationRules = true;
+		}
+	}
+}
@@ -0,0 +1,775 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.core;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Provides an Abstract Syntax Tree (AST) for the subset of JavaScript generated
+ * from WyIL files. This sits between the translation of a WyIL file and the
+ * textual output, such that the generated code can be transformed (e.g.
+ * optimised) before being written. As for WyIL, there are two main kinds of
+ * term: statements and expressions. Some terms (e.g. invocations and
+ * assignments) can be used as both.
+ *
+ * <p>
+ * Terms are immutable and, hence, may be safely shared between trees. The
+ * lists of children given when constructing a term are retained as is and,
+ * hence, should not be modified afterwards.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public class JavaScript {
+
+	/**
+	 * Operator precedence for terms which are never bracketed (e.g. variables
+	 * and literals).
+	 */
+	public static final int PRECEDENCE_PRIMARY = 20;
+	/**
+	 * Operator precedence for member accesses, invocations and object
+	 * construction.
+	 */
+	public static final int PRECEDENCE_MEMBER = 19;
+	/**
+	 * Operator precedence for prefix operators (e.g. <code>!</code>).
+	 */
+	public static final int PRECEDENCE_UNARY = 16;
+	/**
+	 * Operator precedence for assignments and function expressions.
+	 */
+	public static final int PRECEDENCE_ASSIGNMENT = 3;
+
+	public interface Term {
+
+	}
+
+	public interface Stmt extends Term {
+
+	}
+
+	public interface Expr extends Term {
+		/**
+		 * Get the precedence of this expression. This determines whether or
+		 * not it needs to be bracketed when used as the operand of another
+		 * expression. Higher values bind more tightly.
+		 *
+		 * @return
+		 */
+		public int getPrecedence();
+	}
+
+	// =========================================================================
+	// Statements
+	// =========================================================================
+
+	/**
+	 * A sequence of zero or more statements. Since variables in JavaScript
+	 * are scoped at the function level, a block nested directly within another
+	 * is equivalent to its statements being inlined.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static class Block implements Stmt {
+		private final List<Stmt> stmts;
+
+		public Block(Stmt... stmts) {
+			this(Arrays.asList(stmts));
+		}
+
+		public Block(List<Stmt> stmts) {
+			this.stmts = stmts;
+		}
+
+		public List<Stmt> getStatements() {
+			return Collections.unmodifiableList(stmts);
+		}
+
+		public int size() {
+			return stmts.size();
+		}
+
+		public Stmt get(int i) {
+			return stmts.get(i);
+		}
+	}
+
+	/**
+	 * A single line comment. Comments have no semantic meaning and, hence, may
+	 * be dropped when the output is compacted.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static class Comment implements Stmt {
+		private final String text;
+
+		public Comment(String text) {
+			this.text = text;
+		}
+
+		public String getText() {
+			return text;
+		}
+	}
+
+	/**
+	 * Marks the position in the original source from which the following
+	 * statements were generated. Like a comment, this has no semantic meaning
+	 * and is not written out. Instead, it determines the mappings written into
+	 * a source map.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static class SourceLocation implements Stmt {
+		private final int offset;
+
+		public SourceLocation(int offset) {
+			this.offset = offset;
+		}
+
+		/**
+		 * Get the character offset in the original source.
+		 *
+		 * @return
+		 */
+		public int getOffset() {
+			return offset;
+		}
+	}
+
+	/**
+	 * Declares one or more variables, each with an optional initialiser (which
+	 * is <code>null</code> if absent).
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static class VariableDeclaration implements Stmt {
+		private final List<String> names;
+		private final List<Expr> initialisers;
+
+		public VariableDeclaration(String name, Expr initialiser) {
+			this(Collections.singletonList(name), Collections.singletonList(initialiser));
+		}
+
+		public VariableDeclaration(List<String> names, List<Expr> initialisers) {
+			if (names.size() != initialisers.size()) {
+				throw new IllegalArgumentException("mismatched variable initialisers");
+			}
+			this.names = names;
+			this.initialisers = initialisers;
+		}
+
+		public int size() {
+			return names.size();
+		}
+
+		public String getName(int i) {
+			return names.get(i);
+		}
+
+		public List<String> getNames() {
+			return Collections.unmodifiableList(names);
+		}
+
+		public Expr getInitialiser(int i) {
+			return initialisers.get(i);
+		}
+
+		public List<Expr> getInitialisers() {
+			return Collections.unmodifiableList(initialisers);
+		}
+	}
+
+	public static class If implements Stmt {
+		private final Expr condition;
+		private final Block trueBranch;
+		private final Block falseBranch;
+
+		public If(Expr condition, Block trueBranch) {
+			this(condition, trueBranch, null);
+		}
+
+		public If(Expr condition, Block trueBranch, Block falseBranch) {
+			this.condition = condition;
+			this.trueBranch = trueBranch;
+			this.falseBranch = falseBranch;
+		}
+
+		public Expr getCondition() {
+			return condition;
+		}
+
+		public Block getTrueBranch() {
+			return trueBranch;
+		}
+
+		public boolean hasFalseBranch() {
+			return falseBranch != null;
+		}
+
+		public Block getFalseBranch() {
+			return falseBranch;
+		}
+	}
+
+	public static class While implements Stmt {
+		private final Expr condition;
+		private final Block body;
+
+		public While(Expr condition, Block body) {
+			this.condition = condition;
+			this.body = body;
+		}
+
+		public Expr getCondition() {
+			return condition;
+		}
+
+		public Block getBody() {
+			return body;
+		}
+	}
+
+	public static class DoWhile implements Stmt {
+		private final Block body;
+		private final Expr condition;
+
+		public DoWhile(Block body, Expr condition) {
+			this.body = body;
+			this.condition = condition;
+		}
+
+		public Block getBody() {
+			return body;
+		}
+
+		public Expr getCondition() {
+			return condition;
+		}
+	}
+
+	/**
+	 * A <code>for</code> loop of the form
+	 * <code>for(var i=s; c; i = i + 1) { ... }</code>.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static class For implements Stmt {
+		private final VariableDeclaration initialiser;
+		private final Expr condition;
+		private final Expr increment;
+		private final Block body;
+
+		public For(VariableDeclaration initialiser, Expr condition, Expr increment, Block body) {
+			this.initialiser = initialiser;
+			this.condition = condition;
+			this.increment = increment;
+			this.body = body;
+		}
+
+		public VariableDeclaration getInitialiser() {
+			return initialiser;
+		}
+
+		public Expr getCondition() {
+			return condition;
+		}
+
+		public Expr getIncrement() {
+			return increment;
+		}
+
+		public Block getBody() {
+			return body;
+		}
+	}
+
+	public static class Switch implements Stmt {
+		private final Expr condition;
+		private final List<Case> cases;
+
+		public Switch(Expr condition, List<Case> cases) {
+			this.condition = condition;
+			this.cases = cases;
+		}
+
+		public Expr getCondition() {
+			return condition;
+		}
+
+		public List<Case> getCases() {
+			return Collections.unmodifiableList(cases);
+		}
+	}
+
+	/**
+	 * A case within a switch statement, which is matched by any of the given
+	 * values. If there are no values, then this is the default case.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static class Case {
+		private final List<Expr> values;
+		private final Block body;
+
+		public Case(List<Expr> values, Block body) {
+			this.values = values;
+			this.body = body;
+		}
+
+		public boolean isDefault() {
+			return values.isEmpty();
+		}
+
+		public List<Expr> getValues() {
+			return Collections.unmodifiableList(values);
+		}
+
+		public Block getBody() {
+			return body;
+		}
+	}
+
+	public static class Labelled implements Stmt {
+		private final String label;
+		private final Block body;
+
+		public Labelled(String label, Block body) {
+			this.label = label;
+			this.body = body;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+
+		public Block getBody() {
+			return body;
+		}
+	}
+
+	public static class Return implements Stmt {
+		private final Expr operand;
+
+		public Return() {
+			this(null);
+		}
+
+		public Return(Expr operand) {
+			this.operand = operand;
+		}
+
+		public boolean hasOperand() {
+			return operand != null;
+		}
+
+		public Expr getOperand() {
+			return operand;
+		}
+	}
+
+	public static class Break implements Stmt {
+
+	}
+
+	public static class Continue implements Stmt {
+
+	}
+
+	// =========================================================================
+	// Expressions
+	// =========================================================================
+
+	/**
+	 * A literal value, which is either an integer (represented as a
+	 * <code>BigInteger</code>), a boolean, a string or <code>null</code>.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static class Constant implements Expr {
+		private final Object value;
+
+		public Constant(Object value) {
+			if (value != null && !(value instanceof BigInteger || value instanceof Boolean
+					|| value instanceof String)) {
+				throw new IllegalArgumentException("invalid constant: " + value);
+			}
+			this.value = value;
+		}
+
+		public Constant(long value) {
+			this(BigInteger.valueOf(value));
+		}
+
+		public Object getValue() {
+			return value;
+		}
+
+		@Override
+		public int getPrecedence() {
+			if (value instanceof BigInteger && ((BigInteger) value).signum() < 0) {
+				return PRECEDENCE_UNARY;
+			} else {
+				return PRECEDENCE_PRIMARY;
+			}
+		}
+	}
+
+	public static class Variable implements Expr {
+		private final String name;
+
+		public Variable(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public int getPrecedence() {
+			return PRECEDENCE_PRIMARY;
+		}
+	}
+
+	/**
+	 * A unary or binary operator, such as <code>!x</code> or
+	 * <code>x + y</code>. Binary operators are left associative.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static class Operator implements Expr {
+		public enum Kind {
+			NOT("!", PRECEDENCE_UNARY),
+			NEG("-", PRECEDENCE_UNARY),
+			BITWISEINVERT("~", PRECEDENCE_UNARY),
+			TYPEOF("typeof ", PRECEDENCE_UNARY),
+			MUL("*", 14),
+			DIV("/", 14),
+			REM("%", 14),
+			ADD("+", 13),
+			SUB("-", 13),
+			LEFTSHIFT("<<", 12),
+			RIGHTSHIFT(">>", 12),
+			LT("<", 11),
+			LTEQ("<=", 11),
+			GT(">", 11),
+			GTEQ(">=", 11),
+			INSTANCEOF("instanceof", 11),
+			EQ("==", 10),
+			NEQ("!=", 10),
+			EEQ("===", 10),
+			NEEQ("!==", 10),
+			BITWISEAND("&", 9),
+			BITWISEXOR("^", 8),
+			BITWISEOR("|", 7),
+			AND("&&", 6),
+			OR("||", 5);
+
+			private final String symbol;
+			private final int precedence;
+
+			Kind(String symbol, int precedence) {
+				this.symbol = symbol;
+				this.precedence = precedence;
+			}
+
+			public String getSymbol() {
+				return symbol;
+			}
+
+			public int getPrecedence() {
+				return precedence;
+			}
+
+			public boolean isUnary() {
+				return precedence == PRECEDENCE_UNARY;
+			}
+		}
+
+		private final Kind kind;
+		private final List<Expr> operands;
+
+		public Operator(Kind kind, Expr... operands) {
+			this(kind, Arrays.asList(operands));
+		}
+
+		public Operator(Kind kind, List<Expr> operands) {
+			if (operands.size() != (kind.isUnary() ? 1 : 2)) {
+				throw new IllegalArgumentException("invalid number of operands for " + kind);
+			}
+			this.kind = kind;
+			this.operands = operands;
+		}
+
+		public Kind getKind() {
+			return kind;
+		}
+
+		public List<Expr> getOperands() {
+			return Collections.unmodifiableList(operands);
+		}
+
+		public Expr getOperand(int i) {
+			return operands.get(i);
+		}
+
+		@Override
+		public int getPrecedence() {
+			return kind.getPrecedence();
+		}
+	}
+
+	/**
+	 * Reads a named property of an object, such as <code>xs.length</code>.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static class PropertyAccess implements Expr {
+		private final Expr source;
+		private final String property;
+
+		public PropertyAccess(Expr source, String property) {
+			this.source = source;
+			this.property = property;
+		}
+
+		public Expr getSource() {
+			return source;
+		}
+
+		public String getProperty() {
+			return property;
+		}
+
+		@Override
+		public int getPrecedence() {
+			return PRECEDENCE_MEMBER;
+		}
+	}
+
+	public static class ArrayAccess implements Expr {
+		private final Expr source;
+		private final Expr index;
+
+		public ArrayAccess(Expr source, Expr index) {
+			this.source = source;
+			this.index = index;
+		}
+
+		public Expr getSource() {
+			return source;
+		}
+
+		public Expr getIndex() {
+			return index;
+		}
+
+		@Override
+		public int getPrecedence() {
+			return PRECEDENCE_MEMBER;
+		}
+	}
+
+	public static class ArrayLiteral implements Expr {
+		private final List<Expr> elements;
+
+		public ArrayLiteral(List<Expr> elements) {
+			this.elements = elements;
+		}
+
+		public List<Expr> getElements() {
+			return Collections.unmodifiableList(elements);
+		}
+
+		@Override
+		public int getPrecedence() {
+			return PRECEDENCE_PRIMARY;
+		}
+	}
+
+	public static class ObjectLiteral implements Expr {
+		private final List<String> fields;
+		private final List<Expr> values;
+
+		public ObjectLiteral(List<String> fields, List<Expr> values) {
+			if (fields.size() != values.size()) {
+				throw new IllegalArgumentException("mismatched object literal fields");
+			}
+			this.fields = fields;
+			this.values = values;
+		}
+
+		public List<String> getFields() {
+			return Collections.unmodifiableList(fields);
+		}
+
+		public List<Expr> getValues() {
+			return Collections.unmodifiableList(values);
+		}
+
+		@Override
+		public int getPrecedence() {
+			return PRECEDENCE_PRIMARY;
+		}
+	}
+
+	/**
+	 * Invokes a function, such as <code>f(x)</code> or
+	 * <code>Wy.copy(x)</code>. This may be used as a statement.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static class Invoke implements Expr, Stmt {
+		private final Expr receiver;
+		private final List<Expr> arguments;
+
+		public Invoke(Expr receiver, Expr... arguments) {
+			this(receiver, Arrays.asList(arguments));
+		}
+
+		public Invoke(Expr receiver, List<Expr> arguments) {
+			this.receiver = receiver;
+			this.arguments = arguments;
+		}
+
+		public Expr getReceiver() {
+			return receiver;
+		}
+
+		public List<Expr> getArguments() {
+			return Collections.unmodifiableList(arguments);
+		}
+
+		@Override
+		public int getPrecedence() {
+			return PRECEDENCE_MEMBER;
+		}
+	}
+
+	/**
+	 * Constructs an object, such as <code>new Wy.Ref(x)</code>.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static class New implements Expr {
+		private final Expr constructor;
+		private final List<Expr> arguments;
+
+		public New(Expr constructor, Expr... arguments) {
+			this(constructor, Arrays.asList(arguments));
+		}
+
+		public New(Expr constructor, List<Expr> arguments) {
+			this.constructor = constructor;
+			this.arguments = arguments;
+		}
+
+		public Expr getConstructor() {
+			return constructor;
+		}
+
+		public List<Expr> getArguments() {
+			return Collections.unmodifiableList(arguments);
+		}
+
+		@Override
+		public int getPrecedence() {
+			return PRECEDENCE_MEMBER;
+		}
+	}
+
+	/**
+	 * Assigns a value to a variable, property or array element. This may be
+	 * used as a statement or within an expression (e.g.
+	 * <code>(xs = Wy.own(xs))</code>).
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static class Assignment implements Expr, Stmt {
+		private final Expr lhs;
+		private final Expr rhs;
+
+		public Assignment(Expr lhs, Expr rhs) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+		}
+
+		public Expr getLeftHandSide() {
+			return lhs;
+		}
+
+		public Expr getRightHandSide() {
+			return rhs;
+		}
+
+		@Override
+		public int getPrecedence() {
+			return PRECEDENCE_ASSIGNMENT;
+		}
+	}
+
+	/**
+	 * A function, which is either a named declaration or an anonymous
+	 * function expression (in which case the name is <code>null</code>).
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static class Function implements Expr, Stmt {
+		private final String name;
+		private final List<String> parameters;
+		private final Block body;
+
+		public Function(String name, List<String> parameters, Block body) {
+			this.name = name;
+			this.parameters = parameters;
+			this.body = body;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public List<String> getParameters() {
+			return Collections.unmodifiableList(parameters);
+		}
+
+		public Block getBody() {
+			return body;
+		}
+
+		@Override
+		public int getPrecedence() {
+			return PRECEDENCE_ASSIGNMENT;
+		}
+	}
+}
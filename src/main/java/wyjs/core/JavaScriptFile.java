@@ -13,6 +13,7 @@
 // limitations under the License.
 package wyjs.core;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
@@ -48,7 +49,7 @@ public class JavaScriptFile extends AbstractCompilationUnit {
 
 		@Override
 		public void write(OutputStream output, JavaScriptFile jf) throws IOException {
-			output.write(jf.bytes);
+			jf.write(output);
 		}
 
 		@Override
@@ -62,22 +63,78 @@ public class JavaScriptFile extends AbstractCompilationUnit {
 		}
 	};
 
+	/**
+	 * Responsible for generating the contents of a JavaScript file directly
+	 * into a given output stream. This allows the contents of a file to be
+	 * generated at the point it is written to its destination, rather than
+	 * being buffered in memory beforehand.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public interface Generator {
+		public void write(OutputStream output) throws IOException;
+	}
+
 	/**
 	 * Raw contents of the JavaScript file. Eventually, this will use a
 	 * structured form here to help support different ECMAScript standards, etc.
+	 * This is null when the file is streamed from a generator.
 	 */
 	private byte[] bytes;
 
+	/**
+	 * Generator responsible for producing the contents of this file on demand.
+	 * This is null when the raw contents are already available.
+	 */
+	private final Generator generator;
+
 	public JavaScriptFile(Path.Entry<? extends CompilationUnit> entry, byte[] bytes) {
 		super(entry);
 		this.bytes = bytes;
+		this.generator = null;
+	}
+
+	public JavaScriptFile(Path.Entry<? extends CompilationUnit> entry, Generator generator) {
+		super(entry);
+		this.bytes = null;
+		this.generator = generator;
+	}
+
+	/**
+	 * Write the contents of this file to a given output stream. For a streamed
+	 * file, this generates the contents directly into the stream without
+	 * buffering them in memory.
+	 *
+	 * @param output
+	 * @throws IOException
+	 */
+	public void write(OutputStream output) throws IOException {
+		if (bytes != null) {
+			output.write(bytes);
+		} else {
+			generator.write(output);
+		}
 	}
 
 	public byte[] getBytes() {
+		if (bytes == null) {
+			// NOTE: the contents are not retained here since the whole point of
+			// streaming is to avoid holding them in memory.
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			try {
+				generator.write(bos);
+			} catch (IOException e) {
+				// Should be impossible for a byte array stream
+				throw new RuntimeException(e);
+			}
+			return bos.toByteArray();
+		}
 		return bytes;
 	}
+
 	@Override
 	public String toString() {
-		return new String(bytes);
+		return new String(getBytes());
 	}
 }
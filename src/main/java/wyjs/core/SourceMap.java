@@ -0,0 +1,260 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import wybs.lang.CompilationUnit;
+import wybs.util.AbstractCompilationUnit;
+import wyfs.lang.Content;
+import wyfs.lang.Path;
+
+/**
+ * A source map (version 3) relating the lines of a generated JavaScript file
+ * back to the Whiley source file from which they were generated. This allows
+ * tools (e.g. browser debuggers and profilers) to report locations in the
+ * original source. Mappings are added as the JavaScript file is written and,
+ * hence, a source map must only be written after its JavaScript file.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class SourceMap extends AbstractCompilationUnit {
+	// =========================================================================
+	// Content Type
+	// =========================================================================
+
+	/**
+	 * Responsible for identifying and writing source maps. The normal extension
+	 * is ".js.map", such that a source map sits alongside the JavaScript file
+	 * it describes.
+	 */
+	public static final Content.Type<SourceMap> ContentType = new Content.Type<SourceMap>() {
+		public Path.Entry<SourceMap> accept(Path.Entry<?> e) {
+			if (e.contentType() == this) {
+				return (Path.Entry<SourceMap>) e;
+			}
+			return null;
+		}
+
+		@Override
+		public SourceMap read(Path.Entry<SourceMap> e, InputStream input) throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void write(OutputStream output, SourceMap map) throws IOException {
+			map.write(output);
+		}
+
+		@Override
+		public String toString() {
+			return "Content-Type: source map";
+		}
+
+		@Override
+		public String getSuffix() {
+			return "js.map";
+		}
+	};
+
+	private static final String BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+	/**
+	 * Name of the JavaScript file described by this map.
+	 */
+	private final String file;
+
+	/**
+	 * Prefix added to the source file when locating it, or empty if it is
+	 * located relative to the map itself.
+	 */
+	private final String sourceRoot;
+
+	/**
+	 * Path of the Whiley source file, relative to the source root.
+	 */
+	private final String source;
+
+	/**
+	 * Contents of the source file, which are embedded in the map so that it
+	 * does not depend on the source file being deployed.
+	 */
+	private final String content;
+
+	/**
+	 * Offset of the start of each line in the source file.
+	 */
+	private final int[] lines;
+
+	/**
+	 * The mappings added so far, each consisting of the generated line and
+	 * column followed by the original line and column (all zero-based).
+	 * Mappings must be added in order of their generated position.
+	 */
+	private final ArrayList<int[]> mappings = new ArrayList<>();
+
+	public SourceMap(Path.Entry<? extends CompilationUnit> entry, String file, String sourceRoot, String source,
+			String content) {
+		super(entry);
+		this.file = file;
+		this.sourceRoot = sourceRoot;
+		this.source = source;
+		this.content = content;
+		ArrayList<Integer> starts = new ArrayList<>();
+		starts.add(0);
+		for (int i = 0; i != content.length(); ++i) {
+			if (content.charAt(i) == '\n') {
+				starts.add(i + 1);
+			}
+		}
+		this.lines = new int[starts.size()];
+		for (int i = 0; i != lines.length; ++i) {
+			lines[i] = starts.get(i);
+		}
+	}
+
+	/**
+	 * Get the name of the file containing this map, as used to reference it
+	 * from the JavaScript file it describes.
+	 *
+	 * @return
+	 */
+	public String getFileName() {
+		return entry.id().last() + "." + ContentType.getSuffix();
+	}
+
+	/**
+	 * Record that the code generated from a given position onwards originates
+	 * from a given position in the source file. Generated positions are
+	 * zero-based.
+	 *
+	 * @param line
+	 *            Line in the generated file.
+	 * @param column
+	 *            Column in the generated file.
+	 * @param offset
+	 *            Character offset in the source file.
+	 */
+	public void add(int line, int column, int offset) {
+		int sourceLine = Arrays.binarySearch(lines, offset);
+		if (sourceLine < 0) {
+			// Offset is not the start of a line
+			sourceLine = -sourceLine - 2;
+		}
+		mappings.add(new int[] { line, column, sourceLine, offset - lines[sourceLine] });
+	}
+
+	public int size() {
+		return mappings.size();
+	}
+
+	/**
+	 * Write this source map in its JSON form.
+	 *
+	 * @param output
+	 * @throws IOException
+	 */
+	public void write(OutputStream output) throws IOException {
+		Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+		writer.write("{\"version\":3,\"file\":");
+		writeString(file, writer);
+		writer.write(",\"sourceRoot\":");
+		writeString(sourceRoot, writer);
+		writer.write(",\"sources\":[");
+		writeString(source, writer);
+		writer.write("],\"sourcesContent\":[");
+		writeString(content, writer);
+		writer.write("],\"names\":[],\"mappings\":\"");
+		writer.write(getMappings());
+		writer.write("\"}\n");
+		writer.flush();
+	}
+
+	/**
+	 * Encode the mappings. Each generated line is separated by a semi-colon,
+	 * and each mapping on a line by a comma. A mapping is encoded as four
+	 * Base64 VLQ fields, each of which is relative to the same field of the
+	 * previous mapping (except the generated column, which is relative to the
+	 * previous mapping on the same line).
+	 *
+	 * @return
+	 */
+	private String getMappings() {
+		StringBuilder r = new StringBuilder();
+		int line = 0;
+		int column = 0;
+		int sourceLine = 0;
+		int sourceColumn = 0;
+		for (int i = 0; i != mappings.size(); ++i) {
+			int[] mapping = mappings.get(i);
+			if (mapping[0] != line) {
+				for (; line < mapping[0]; ++line) {
+					r.append(';');
+				}
+				column = 0;
+			} else if (i != 0) {
+				r.append(',');
+			}
+			// NOTE: the source index is always zero
+			writeVLQ(mapping[1] - column, r);
+			writeVLQ(0, r);
+			writeVLQ(mapping[2] - sourceLine, r);
+			writeVLQ(mapping[3] - sourceColumn, r);
+			column = mapping[1];
+			sourceLine = mapping[2];
+			sourceColumn = mapping[3];
+		}
+		return r.toString();
+	}
+
+	private static void writeVLQ(int value, StringBuilder r) {
+		// The sign is stored in the least significant bit
+		int vlq = value < 0 ? ((-value) << 1) | 1 : value << 1;
+		do {
+			int digit = vlq & 0x1F;
+			vlq >>>= 5;
+			if (vlq != 0) {
+				// Continuation bit
+				digit |= 0x20;
+			}
+			r.append(BASE64.charAt(digit));
+		} while (vlq != 0);
+	}
+
+	private static void writeString(String str, Writer writer) throws IOException {
+		writer.write('"');
+		for (int i = 0; i != str.length(); ++i) {
+			char c = str.charAt(i);
+			if (c == '"' || c == '\\') {
+				writer.write('\\');
+				writer.write(c);
+			} else if (c == '\n') {
+				writer.write("\\n");
+			} else if (c < 0x20) {
+				writer.write(String.format("\\u%04x", (int) c));
+			} else {
+				writer.write(c);
+			}
+		}
+		writer.write('"');
+	}
+}
@@ -14,26 +14,43 @@
 package wyjs.io;
 
 import java.io.*;
+import java.math.BigInteger;
 import java.util.*;
 
 import wybs.lang.Build;
 import wybs.lang.NameID;
 import wybs.lang.NameResolver.ResolutionError;
 import wybs.lang.SyntacticElement;
+import wybs.lang.SyntacticItem;
+import wybs.util.AbstractCompilationUnit.Attribute;
 import static wybs.lang.SyntaxError.*;
 
 import wyfs.lang.Path;
 import wyil.type.TypeSystem;
 
 import static wyc.lang.WhileyFile.*;
+import static wyjs.core.JavaScript.Operator.Kind.*;
 
 import wyc.lang.WhileyFile;
 import wyc.util.ErrorMessages;
 import wyc.util.AbstractConsumer;
+import wyc.util.AbstractFunction;
+import wyjs.core.JavaScript;
+import wyjs.core.SourceMap;
+import wyjs.util.AbstractTransformer;
+import wyjs.util.BuildMetrics;
+import wyjs.util.CommonSubexpressionElimination;
+import wyjs.util.ConstantFolding;
+import wyjs.util.DeadCodeElimination;
+import wyjs.util.LastUseAnalysis;
+import wyjs.util.NameMinifier;
+import wyjs.util.ResolutionCache;
 
 
 /**
-* Writes WYIL bytecodes in a textual from to a given file.
+* Translates a Whiley file into JavaScript, which is then written to a given
+* file. Each declaration is first translated into JavaScript terms, which are
+* then (optionally) optimised before being written out.
 *
 * <b>NOTE:</b> currently, this class is somewhat broken since it does not
 * provide any way to specify the output directory. Rather, it simply puts the
@@ -42,8 +59,9 @@ import wyc.util.AbstractConsumer;
 * @author David J. Pearce
 *
 */
-public final class JavaScriptFileWriter extends AbstractConsumer<JavaScriptFileWriter.Context> {
+public final class JavaScriptFileWriter extends AbstractFunction<JavaScriptFileWriter.Context, JavaScript.Term> {
 	private final PrintWriter out;
+	private final JavaScriptPrinter printer;
 
 	/**
 	 * The master project for identifying all resources available to the
@@ -56,22 +74,184 @@ public final class JavaScriptFileWriter extends AbstractConsumer<JavaScriptFileW
 	 * into their underlying types.
 	 */
 	protected final TypeSystem typeSystem;
+	/**
+	 * Cache of previously computed type mangles. Since types are compared
+	 * structurally, this can be safely shared between writers for different
+	 * files (provided it is thread safe when they run concurrently).
+	 */
+	private final Map<Type, String> mangles;
+	/**
+	 * Cache of resolved nominal types. This can be shared between writers in
+	 * the same build, in the same way as the cache of type mangles.
+	 */
+	private ResolutionCache resolutions;
+	/**
+	 * Library of type tests shared between several files, keyed by their
+	 * mangle. When this is non-null, type tests are registered here rather
+	 * than being written out at the end of the file. Only structural types are
+	 * registered and, for these, the mangle determines the type test.
+	 * Therefore, the library does not depend on the order in which types are
+	 * registered.
+	 */
+	private Map<String, Type> typeTestLibrary;
 	private boolean verbose = false;
 	// Debug options
 	private boolean debug = true;
+	/**
+	 * Determines which contracts are checked at runtime, unless overridden for
+	 * a given module or function.
+	 */
+	private Checks checks = Checks.FULL;
+	/**
+	 * Overrides of the contracts checked for particular modules (e.g.
+	 * <code>util/math</code>) or functions (e.g.
+	 * <code>util/math::sqrt</code>).
+	 */
+	private Map<String, Checks> checkOverrides = Collections.emptyMap();
+	/**
+	 * Contracts checked in the declaration currently being translated.
+	 */
+	private Checks level = Checks.FULL;
+	/**
+	 * Determines whether the checks of preconditions, postconditions and loop
+	 * invariants are only performed on a sample of occasions, as determined by
+	 * the runtime's sampling policy. Each group of checks is a separate site
+	 * with its own counter.
+	 */
+	private boolean sampling = false;
+	/**
+	 * Identifies the module being translated, for use in naming assertion and
+	 * sampling sites.
+	 */
+	private String moduleId;
+	/**
+	 * Number of sites in the module being translated.
+	 */
+	private int siteIndex = 0;
+	/**
+	 * Determines whether each function, method and lambda counts the number
+	 * of times it is called, as recorded by the runtime under its name.
+	 */
+	private boolean instrument = false;
+	/**
+	 * Determines whether each function, method and lambda also measures the
+	 * time spent in each call, as recorded by the runtime under its name.
+	 */
+	private boolean timing = false;
+	/**
+	 * Determines whether arrays and records use a copy-on-write
+	 * representation. In this case, copying a value simply marks it as shared
+	 * and the actual clone is performed lazily on the first write.
+	 */
+	private boolean copyOnWrite = false;
+	/**
+	 * Determines whether copies which are provably unnecessary should be
+	 * elided. This uses a last-use analysis over each function or method.
+	 */
+	private boolean elide = false;
+	/**
+	 * Variable accesses in the current function or method for which no copy
+	 * is required.
+	 */
+	private Set<Expr.VariableAccess> elidable = Collections.emptySet();
+	/**
+	 * Determines whether arrays of bytes and of integers which are provably
+	 * bounded to 32 bits are backed by typed arrays (i.e.
+	 * <code>Uint8Array</code> and <code>Int32Array</code>) rather than plain
+	 * JavaScript arrays.
+	 */
+	private boolean typedArrays = false;
+	/**
+	 * Determines whether the generated JavaScript is optimised before being
+	 * written out. This performs constant folding, dead code elimination and
+	 * the elimination of repeated array length and dereference operations.
+	 */
+	private boolean optimise = false;
+	/**
+	 * Renames identifiers to shorter forms when minifying the generated
+	 * JavaScript, or <code>null</code> if not minifying.
+	 */
+	private NameMinifier minifier = null;
+	/**
+	 * Names of functions generated with a name mangle, which can therefore be
+	 * renamed when minifying.
+	 */
+	private final Set<String> mangledNames = new HashSet<>();
+	/**
+	 * Source map relating the generated code back to the source file, or
+	 * <code>null</code> if no source map is being written. When this is
+	 * <code>null</code>, source locations are not even translated.
+	 */
+	private SourceMap sourceMap = null;
+	/**
+	 * Maps each item in the file being written to its span in the source
+	 * file. This is only constructed when writing a source map.
+	 */
+	private Map<SyntacticItem, Attribute.Span> spans = Collections.emptyMap();
+	/**
+	 * Number of copies written so far.
+	 */
+	private int copiesWritten = 0;
+	/**
+	 * Number of copies elided so far.
+	 */
+	private int copiesElided = 0;
+	/**
+	 * Number of type tests written so far.
+	 */
+	private int typeTestsWritten = 0;
+	/**
+	 * Records the cost of each phase of translation, or <code>null</code> if
+	 * this is not being recorded.
+	 */
+	private BuildMetrics.FileMetrics metrics = null;
+	/**
+	 * Quantifiers which have been lifted into separate functions, mapped to
+	 * the names of those functions. Since the same expression can be
+	 * translated more than once (e.g. loop invariants are checked on entry and
+	 * after each iteration), this ensures each is only lifted once.
+	 */
+	private final Map<Expr.Quantifier, String> quantifiers = new IdentityHashMap<>();
+	/**
+	 * Lifted quantifier functions which are yet to be written out. These are
+	 * written immediately after the declaration which contains them.
+	 */
+	private final List<JavaScript.Function> lifted = new ArrayList<>();
+	/**
+	 * Prefix used to name lifted quantifier functions within the current
+	 * declaration, along with a counter for making them unique.
+	 */
+	private String quantifierPrefix = "";
+	private int quantifierIndex = 0;
+	/**
+	 * Counter used to name lambdas within the current declaration, when these
+	 * are instrumented.
+	 */
+	private int lambdaIndex = 0;
 
 	private WhileyFile wyilfile;
 
 	public JavaScriptFileWriter(Build.Project project, TypeSystem typeSystem, PrintWriter writer) {
-		this.project = project;
-		this.typeSystem = typeSystem;
-		this.out = writer;
+		this(project, typeSystem, writer, new HashMap<>());
 	}
 
 	public JavaScriptFileWriter(Build.Project project, TypeSystem typeSystem, OutputStream stream) {
+		this(project, typeSystem, stream, new HashMap<>());
+	}
+
+	public JavaScriptFileWriter(Build.Project project, TypeSystem typeSystem, PrintWriter writer,
+			Map<Type, String> mangles) {
 		this.project = project;
 		this.typeSystem = typeSystem;
-		this.out = new PrintWriter(new OutputStreamWriter(stream));
+		this.out = writer;
+		this.printer = new JavaScriptPrinter(writer);
+		this.mangles = mangles;
+		this.resolutions = new ResolutionCache(typeSystem);
+	}
+
+	public JavaScriptFileWriter(Build.Project project, TypeSystem typeSystem, OutputStream stream,
+			Map<Type, String> mangles) {
+		this(project, typeSystem, new PrintWriter(new OutputStreamWriter(stream)), mangles);
 	}
 
 	// ======================================================================
@@ -86,183 +266,387 @@ public final class JavaScriptFileWriter extends AbstractConsumer<JavaScriptFileW
 		this.debug = flag;
 	}
 
+	public void setChecks(Checks checks, Map<String, Checks> overrides) {
+		this.checks = checks;
+		this.checkOverrides = overrides;
+	}
+
+	public void setSampling(boolean flag) {
+		this.sampling = flag;
+	}
+
+	public void setInstrument(boolean flag) {
+		this.instrument = flag;
+	}
+
+	public void setTiming(boolean flag) {
+		this.timing = flag;
+	}
+
+	public void setCopyOnWrite(boolean flag) {
+		this.copyOnWrite = flag;
+	}
+
+	public void setElide(boolean flag) {
+		this.elide = flag;
+	}
+
+	public void setTypedArrays(boolean flag) {
+		this.typedArrays = flag;
+	}
+
+	public void setOptimise(boolean flag) {
+		this.optimise = flag;
+	}
+
+	/**
+	 * Enable minification of the generated JavaScript. This omits comments
+	 * and unnecessary whitespace, and shortens the names of local variables
+	 * and of mangled globals. The given map records the shortened globals and
+	 * must be shared between all writers in the same build, so that names are
+	 * chosen consistently between them.
+	 *
+	 * @param names
+	 *            Map of shortened globals, or <code>null</code> to disable
+	 *            minification.
+	 */
+	public void setMinify(Map<String, String> names) {
+		if (names == null) {
+			this.minifier = null;
+		} else {
+			this.minifier = new NameMinifier(names, n -> n.indexOf('$') >= 0 || mangledNames.contains(n));
+		}
+		printer.setCompact(names != null);
+	}
+
+	/**
+	 * Set the source map into which the locations of declarations and
+	 * statements in the source file are written.
+	 *
+	 * @param sourceMap
+	 *            Source map for the file being written, or <code>null</code>
+	 *            if none.
+	 */
+	public void setSourceMap(SourceMap sourceMap) {
+		this.sourceMap = sourceMap;
+		printer.setSourceMap(sourceMap);
+	}
+
+	/**
+	 * Get the number of copies written by this writer.
+	 *
+	 * @return
+	 */
+	public int getCopiesWritten() {
+		return copiesWritten;
+	}
+
+	/**
+	 * Get the number of copies which were elided by this writer, since they
+	 * were provably unnecessary.
+	 *
+	 * @return
+	 */
+	public int getCopiesElided() {
+		return copiesElided;
+	}
+
+	/**
+	 * Get the number of type tests written by this writer (excluding those
+	 * written to a shared library).
+	 *
+	 * @return
+	 */
+	public int getTypeTestsWritten() {
+		return typeTestsWritten;
+	}
+
+	public void setMetrics(BuildMetrics.FileMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public void setResolutionCache(ResolutionCache resolutions) {
+		this.resolutions = resolutions;
+	}
+
+	public void setTypeTestLibrary(Map<String, Type> library) {
+		this.typeTestLibrary = library;
+	}
+
 	// ======================================================================
 	// Apply Method
 	// ======================================================================
 
 	public void apply(WhileyFile module) {
-		Context context = new Context(0,new HashSet<>());
-		this.visitWhileyFile(module, context);
-		writeTypeTests(context.typeTests, new HashSet<>());
+		if (metrics != null) {
+			metrics.enter(BuildMetrics.Phase.TRANSLATE);
+		}
+		if (sourceMap != null) {
+			spans = new IdentityHashMap<>();
+			for (Attribute.Span span : module.getSyntacticItems(Attribute.Span.class)) {
+				spans.put(span.getItem(), span);
+			}
+		}
+		Context context = new Context(new LinkedHashSet<>());
+		String id = module.getEntry().id().toString();
+		Checks moduleChecks = checkOverrides.getOrDefault(id, checks);
+		moduleId = id;
+		siteIndex = 0;
+		ArrayList<JavaScript.Block> declarations = new ArrayList<>();
+		for (Decl decl : module.getDeclarations()) {
+			level = moduleChecks;
+			if (decl instanceof Decl.FunctionOrMethod) {
+				level = checkOverrides.getOrDefault(id + "::" + ((Decl.FunctionOrMethod) decl).getName().get(), level);
+			}
+			declarations.add(visitDeclaration(decl, context));
+		}
+		ArrayList<JavaScript.Stmt> copies = new ArrayList<>();
+		writeCopies(context.copies, context.records, copies);
+		// NOTE: constructors are written before any declaration since, unlike
+		// the functions themselves, assignments to their prototypes are not
+		// hoisted. Otherwise, a record constructed by the initialiser of a
+		// static variable would not be recognised as a record.
+		writeConstructors(context.records);
+		for (JavaScript.Block declaration : declarations) {
+			write(declaration);
+		}
+		if (metrics != null) {
+			metrics.enter(BuildMetrics.Phase.TYPETESTS);
+		}
+		writeTypeTests(context.typeTests, typeTestLibrary);
+		if (metrics != null) {
+			metrics.exit();
+		}
+		writeEqualities(context.equalities);
+		write(new JavaScript.Block(copies));
+		if (sourceMap != null) {
+			out.println("//# sourceMappingURL=" + sourceMap.getFileName());
+		}
+		out.flush();
+		if (metrics != null) {
+			metrics.exit();
+		}
+	}
+
+	/**
+	 * Write out the type tests for a given collection of types, along with any
+	 * type tests they depend upon. This is used to write a library of type
+	 * tests shared between several files, rather than writing them out for
+	 * each file separately.
+	 *
+	 * @param types
+	 */
+	public void applyTypeTests(Collection<Type> types) {
+		writeTypeTests(types, null);
 		out.flush();
 	}
 
+	/**
+	 * Write out a given term, which is either a top-level statement or a block
+	 * of them. When enabled, each statement is optimised before being written.
+	 *
+	 * @param term
+	 */
+	private void write(JavaScript.Term term) {
+		if (term instanceof JavaScript.Block) {
+			for (JavaScript.Stmt stmt : ((JavaScript.Block) term).getStatements()) {
+				write(stmt);
+			}
+		} else if (term != null) {
+			JavaScript.Stmt stmt = (JavaScript.Stmt) term;
+			if (optimise) {
+				stmt = new ConstantFolding().transform(stmt);
+				stmt = new DeadCodeElimination().transform(stmt);
+				stmt = new CommonSubexpressionElimination().transform(stmt);
+			}
+			if (minifier != null) {
+				stmt = minifier.transform(stmt);
+			}
+			printer.print(stmt);
+		}
+	}
+
+	@Override
+	public JavaScript.Block visitDeclaration(Decl decl, Context context) {
+		// Determine prefix for naming any lifted quantifiers. This is based on
+		// the name of the JavaScript function generated for the declaration,
+		// since this is unique across all files.
+		if (decl instanceof Decl.FunctionOrMethod) {
+			Decl.FunctionOrMethod fm = (Decl.FunctionOrMethod) decl;
+			quantifierPrefix = getFunctionName(fm.getName().get(), fm.getType());
+		} else if (decl instanceof Decl.Property) {
+			Decl.Property p = (Decl.Property) decl;
+			quantifierPrefix = getFunctionName(p.getName().get(), p.getType()) + "$property";
+		} else if (decl instanceof Decl.Type) {
+			quantifierPrefix = ((Decl.Type) decl).getName().get() + "$type";
+		} else if (decl instanceof Decl.Named) {
+			quantifierPrefix = ((Decl.Named) decl).getName().get();
+		}
+		quantifierIndex = 0;
+		lambdaIndex = 0;
+		ArrayList<JavaScript.Stmt> stmts = new ArrayList<>();
+		append(locate(decl, super.visitDeclaration(decl, context)), stmts);
+		// Write out any quantifiers lifted from this declaration
+		stmts.addAll(lifted);
+		lifted.clear();
+		return new JavaScript.Block(stmts);
+	}
+
 	@Override
-	public void visitType(Decl.Type td, Context context) {
+	public JavaScript.Function visitType(Decl.Type td, Context context) {
 		Decl.Variable vardecl = td.getVariableDeclaration();
 		String name = vardecl.getName().get();
-		out.print("function ");
-		out.print(td.getName());
-		out.println("$type(" + name + ") {");
+		ArrayList<JavaScript.Stmt> body = new ArrayList<>();
 		// Check type invariant
-		writeInvariantTest(vardecl,context.indent());
+		writeInvariantTest(vardecl, body, context);
 		// Check local invariant
 		Tuple<Expr> invariant = td.getInvariant();
-		if(invariant.size() == 0) {
-			tabIndent(context.indent());
-			out.println("return true;");
-		} else if(invariant.size() == 1) {
-			tabIndent(context.indent());
-			out.print("return ");
-			visitExpression(invariant.get(0), context);
-			out.println(";");
+		if (invariant.size() == 0) {
+			body.add(new JavaScript.Return(constant(true)));
 		} else {
-			for(int i=0;i!=invariant.size();++i) {
-				tabIndent(context.indent());
-				if(i == 0) {
-					out.print("var result = (");
-				} else {
-					out.print("result = result && (");
-				}
-				visitExpression(invariant.get(i), context);
-				out.println(");");
+			JavaScript.Expr result = translate(invariant.get(0), context);
+			for (int i = 1; i != invariant.size(); ++i) {
+				result = new JavaScript.Operator(AND, result, translate(invariant.get(i), context));
 			}
-			tabIndent(context.indent());
-			out.println("return result;");
+			body.add(new JavaScript.Return(result));
 		}
-		out.println("}");
-		out.println();
+		return new JavaScript.Function(td.getName().get() + "$type", Arrays.asList(name), new JavaScript.Block(body));
 	}
 
 	@Override
-	public void visitStaticVariable(Decl.StaticVariable cd, Context context) {
-		out.print("var " + cd.getName());
+	public JavaScript.VariableDeclaration visitStaticVariable(Decl.StaticVariable cd, Context context) {
+		JavaScript.Expr initialiser = null;
 		if (cd.hasInitialiser()) {
-			out.print(" = ");
-			visitExpression(cd.getInitialiser(), context);
+			initialiser = writeExpression(cd.getInitialiser(), cd.getType(), context);
 		}
-		out.println(";");
+		return new JavaScript.VariableDeclaration(cd.getName().get(), initialiser);
 	}
 
 	@Override
-	public void visitFunctionOrMethod(Decl.FunctionOrMethod method, Context context) {
+	public JavaScript.Block visitFunctionOrMethod(Decl.FunctionOrMethod method, Context context) {
+		ArrayList<JavaScript.Stmt> stmts = new ArrayList<>();
 		// FIXME: what to do with private methods?
 		if (method.getModifiers().match(Modifier.Export.class) != null) {
-			writeExportTrampoline(method,context);
-		}
-		//
-		out.print("function ");
-		out.print(method.getName());
-		writeTypeMangle(method.getType());
-		visitVariables(method.getParameters(), context);
-		if(debug) {
-			if (method.getReturns().size() > 0) {
-				out.print("// -> ");
-				visitVariables(method.getReturns(), context);
-			}
-		} else {
-			out.print(" ");
+			append(writeExportTrampoline(method, context), stmts);
 		}
-		if(debug) {
-			//
-			out.println();
-			for (Expr precondition : method.getRequires()) {
-				out.print("// requires ");
-				visitExpression(precondition, context);
-				out.println();
+		// NOTE: specification clauses are translated only once, since they are
+		// written both in comments and in checks.
+		List<JavaScript.Expr> requires = translate(method.getRequires(), context);
+		if (debug) {
+			for (JavaScript.Expr precondition : requires) {
+				stmts.add(new JavaScript.Comment("requires " + JavaScriptPrinter.toString(precondition)));
 			}
 			for (Expr postcondition : method.getEnsures()) {
-				out.print("// ensures ");
-				visitExpression(postcondition, context);
-				out.println();
+				JavaScript.Expr e = translate(postcondition, context);
+				stmts.add(new JavaScript.Comment("ensures " + JavaScriptPrinter.toString(e)));
 			}
 		}
-		out.println("{");
-		writeInvariantCheck(method.getRequires(), "precondition", context.indent());
-		writeShadowVariables(method.getParameters(), false, context.indent());
+		ArrayList<JavaScript.Stmt> body = new ArrayList<>();
+		writeInvariantCheck(requires, "precondition", Checks.ENTRY, body);
+		writeShadowVariables(method.getParameters(), false, body);
 		if (method.getBody() != null) {
 			if(debug) {
-				tabIndent(context.indent());
-				out.println("// function or method body");
+				body.add(new JavaScript.Comment("function or method body"));
 			}
-			visitBlock(method.getBody(), context);
-		}
-		out.println("}");
-	}
-
-	@Override
-	public void visitProperty(Decl.Property method, Context context) {
-		out.print("function ");
-		out.print(method.getName());
-		writeTypeMangle(method.getType());
-		out.print("$property");
-		visitVariables(method.getParameters(), context);
-		if(debug) {
-			if (method.getReturns().size() > 0) {
-				out.print("// -> ");
-				visitVariables(method.getReturns(), context);
-				out.println();
-			} else {
-				out.println();
+			if (elide) {
+				elidable = new LastUseAnalysis(t -> isCopyable(t, null), this::getUnderlyingType,
+						isChecked(Checks.FULL)).apply(method);
 			}
-		} else {
-			out.print(" ");
+			append(visitBlock(method.getBody(), context), body);
+			elidable = Collections.emptySet();
+		}
+		String name = getFunctionName(method.getName().get(), method.getType());
+		JavaScript.Block block = new JavaScript.Block(body);
+		if (method.getBody() != null && (instrument || timing)) {
+			block = writeInstrumentation(moduleId + "::" + quantifierPrefix, block);
 		}
-		out.println("{");
-		writeInvariantCheck(method.getInvariant(), "invariant", context.indent());
-		tabIndent(context.indent());
-		out.println("return true;");
-		out.println("}");
+		stmts.add(new JavaScript.Function(name, getNames(method.getParameters()), block));
+		return new JavaScript.Block(stmts);
 	}
 
 	@Override
-	public void visitVariables(Tuple<Decl.Variable> parameters, Context context) {
-		out.print("(");
-		for (int i = 0; i != parameters.size(); ++i) {
-			if (i != 0) {
-				out.print(", ");
-			}
-			Decl.Variable decl = parameters.get(i);
-			writeType(decl.getType());
-			out.print(decl.getName());
-		}
-		out.print(")");
+	public JavaScript.Function visitProperty(Decl.Property method, Context context) {
+		ArrayList<JavaScript.Stmt> body = new ArrayList<>();
+		// Properties are only invoked from checked contracts and, hence, always
+		// check their own invariant.
+		writeInvariantCheck(translate(method.getInvariant(), context), "invariant", Checks.NONE, body);
+		body.add(new JavaScript.Return(constant(true)));
+		String name = getFunctionName(method.getName().get(), method.getType()) + "$property";
+		return new JavaScript.Function(name, getNames(method.getParameters()), new JavaScript.Block(body));
 	}
 
 	@Override
-	public void visitVariable(Decl.Variable decl, Context context) {
-		tabIndent(context);
-		out.print("var ");
-		writeType(decl.getType());
-		out.print(decl.getName());
+	public JavaScript.Block visitVariable(Decl.Variable decl, Context context) {
+		String name = decl.getName().get();
 		if (decl.hasInitialiser()) {
-			out.print(" = ");
-			visitExpression(decl.getInitialiser(), context);
-			out.println(";");
-			writeInvariantCheck(decl,context);
+			ArrayList<JavaScript.Stmt> stmts = new ArrayList<>();
+			JavaScript.Expr initialiser = writeExpression(decl.getInitialiser(), decl.getType(), context);
+			stmts.add(new JavaScript.VariableDeclaration(name, initialiser));
+			writeInvariantCheck(decl, stmts);
+			return new JavaScript.Block(stmts);
 		} else {
-			out.println(";");
+			return new JavaScript.Block(new JavaScript.VariableDeclaration(name, null));
 		}
 	}
 
 	@Override
-	public void visitLambda(Decl.Lambda expr, Context context) {
-		out.print("function(");
-		Tuple<Decl.Variable> parameters = expr.getParameters();
-		for (int i = 0; i != parameters.size(); ++i) {
-			Decl.Variable var = parameters.get(i);
-			if (i != 0) {
-				out.print(", ");
+	public JavaScript.Function visitLambda(Decl.Lambda expr, Context context) {
+		JavaScript.Expr body = translate(expr.getBody(), context);
+		JavaScript.Block block = new JavaScript.Block(new JavaScript.Return(body));
+		if (instrument || timing) {
+			block = writeInstrumentation(moduleId + "::" + quantifierPrefix + "$lambda" + (lambdaIndex++), block);
+		}
+		return new JavaScript.Function(null, getNames(expr.getParameters()), block);
+	}
+
+	/**
+	 * Instrument the body of a function, method or lambda such that the
+	 * runtime counts each call under a given name. When timing, the runtime
+	 * is also given the time spent in each call. In this case, each return
+	 * reports the time spent once its operand has been evaluated, and this is
+	 * also reported if the body completes without returning. Returns within
+	 * nested functions are left alone, since these are instrumented
+	 * separately.
+	 *
+	 * @param name
+	 *            The name identifying the function, which combines its Whiley
+	 *            name and mangle.
+	 * @param body
+	 * @return
+	 */
+	private JavaScript.Block writeInstrumentation(String name, JavaScript.Block body) {
+		JavaScript.Constant key = constant(name);
+		ArrayList<JavaScript.Stmt> stmts = new ArrayList<>();
+		if (!timing) {
+			stmts.add(invoke("Wy.enter", key));
+			stmts.addAll(body.getStatements());
+		} else {
+			stmts.add(new JavaScript.VariableDeclaration("start$", invoke("Wy.start", key)));
+			body = new AbstractTransformer() {
+				@Override
+				public JavaScript.Stmt transformReturn(JavaScript.Return stmt) {
+					if (stmt.hasOperand()) {
+						return new JavaScript.Return(invoke("Wy.stop", key, START, stmt.getOperand()));
+					} else {
+						return new JavaScript.Return(invoke("Wy.stop", key, START));
+					}
+				}
+
+				@Override
+				public JavaScript.Function transformFunction(JavaScript.Function expr) {
+					return expr;
+				}
+			}.transformBlock(body);
+			stmts.addAll(body.getStatements());
+			if (stmts.isEmpty() || !(stmts.get(stmts.size() - 1) instanceof JavaScript.Return)) {
+				stmts.add(invoke("Wy.stop", key, START));
 			}
-			writeType(var.getType());
-			out.print(var.getName());
 		}
-		out.print(") { ");
-		out.print("return ");
-		visitExpression(expr.getBody(), context);
-		out.print("; }");
+		return new JavaScript.Block(stmts);
 	}
 
+	private static final JavaScript.Variable START = new JavaScript.Variable("start$");
+
 	/**
 	 * Create a trampoline for an exported function. This is simply a function
 	 * without a name mangle which redirects to the same function with the name
@@ -270,410 +654,363 @@ public final class JavaScriptFileWriter extends AbstractConsumer<JavaScriptFileW
 	 *
 	 * @param method
 	 */
-	private void writeExportTrampoline(Decl.FunctionOrMethod method, Context context) {
+	private JavaScript.Function writeExportTrampoline(Decl.FunctionOrMethod method, Context context) {
 		Type.Callable ft = method.getType();
 		Tuple<Decl.Variable> params = method.getParameters();
 		Tuple<Decl.Variable> returns = method.getReturns();
 		if (params.size() > 0) {
-			out.print("function ");
-			out.print(method.getName());
-			visitVariables(params, null);
-			out.println(" {");
-			tabIndent(context.indent());
-			if (returns.size() > 0) {
-				out.print("return ");
-			}
-			out.print(method.getName());
-			writeTypeMangle(ft);
-			writeTrampolineArguments(params);
-			out.println("}");
-			out.println();
-		}
-	}
-
-	private void writeTrampolineArguments(Tuple<Decl.Variable> parameters) {
-		out.print("(");
-		for (int i = 0; i != parameters.size(); ++i) {
-			if (i != 0) {
-				out.print(", ");
+			List<String> names = getNames(params);
+			ArrayList<JavaScript.Expr> arguments = new ArrayList<>();
+			for (String name : names) {
+				arguments.add(variable(name));
 			}
-			Decl.Variable decl = parameters.get(i);
-			out.print(decl.getName());
+			JavaScript.Invoke invoke = new JavaScript.Invoke(variable(getFunctionName(method.getName().get(), ft)),
+					arguments);
+			JavaScript.Stmt body = returns.size() > 0 ? new JavaScript.Return(invoke) : invoke;
+			return new JavaScript.Function(method.getName().get(), names, new JavaScript.Block(body));
 		}
-		out.println(");");
+		return null;
 	}
 
 	@Override
-	public void visitBlock(Stmt.Block stmt, Context context) {
-		super.visitBlock(stmt, context.indent());
+	public JavaScript.Block visitBlock(Stmt.Block block, Context context) {
+		ArrayList<JavaScript.Stmt> stmts = new ArrayList<>();
+		for (int i = 0; i != block.size(); ++i) {
+			append(visitStatement(block.get(i), context), stmts);
+		}
+		return new JavaScript.Block(stmts);
 	}
 
 	@Override
-	public void visitStatement(Stmt stmt, Context context) {
+	public JavaScript.Term visitStatement(Stmt stmt, Context context) {
 		//
 		switch(stmt.getOpcode()) {
 		case EXPR_invoke:
 		case EXPR_indirectinvoke:
-			tabIndent(context);
-			super.visitStatement(stmt, context);
-			// Need as an invocation expression won't terminate itself.
-			out.println(";");
-			break;
+			// Invocations are the only expressions used as statements
+			return locate(stmt, visitExpression((Expr) stmt, context));
 		default:
-			super.visitStatement(stmt, context);
+			return locate(stmt, super.visitStatement(stmt, context));
+		}
+	}
+
+	/**
+	 * Mark the location in the source file of the element from which a given
+	 * term was translated, when writing a source map.
+	 *
+	 * @param element
+	 * @param term
+	 * @return
+	 */
+	private JavaScript.Term locate(SyntacticItem item, JavaScript.Term term) {
+		Attribute.Span span = spans.get(item);
+		if (span == null || term == null) {
+			return term;
 		}
+		ArrayList<JavaScript.Stmt> stmts = new ArrayList<>();
+		stmts.add(new JavaScript.SourceLocation(span.getStart().get().intValue()));
+		append(term, stmts);
+		return new JavaScript.Block(stmts);
 	}
 
 	@Override
-	public void visitAssert(Stmt.Assert c, Context context) {
-		tabIndent(context);
-		out.print("Wy.assert(");
-		visitExpression(c.getCondition(), context);
-		out.println(");");
+	public JavaScript.Invoke visitAssert(Stmt.Assert c, Context context) {
+		return writeAssert(translate(c.getCondition(), context));
 	}
 
-	@Override public void visitAssume(Stmt.Assume c, Context context) {
-		tabIndent(context);
-		out.print("Wy.assert(");
-		visitExpression(c.getCondition(), context);
-		out.println(");");
+	@Override
+	public JavaScript.Invoke visitAssume(Stmt.Assume c, Context context) {
+		return writeAssert(translate(c.getCondition(), context));
 	}
 
 	@Override
-	public void visitAssign(Stmt.Assign stmt, Context context) {
-		tabIndent(context);
+	public JavaScript.Block visitAssign(Stmt.Assign stmt, Context context) {
 		Tuple<LVal> lhs = stmt.getLeftHandSide();
 		Tuple<Expr> rhs = stmt.getRightHandSide();
+		ArrayList<JavaScript.Stmt> stmts = new ArrayList<>();
 		if (lhs.size() == 1) {
 			// easy case
-			writeLVal(lhs.get(0), context);
-			out.print(" = ");
-			visitExpression(rhs.get(0), context);
-			out.println(";");
-			writeInvariantCheck(lhs.get(0),context);
+			JavaScript.Expr lval = writeLVal(lhs.get(0), context);
+			stmts.add(new JavaScript.Assignment(lval, writeExpression(rhs.get(0), lhs.get(0).getType(), context)));
+			writeInvariantCheck(lhs.get(0), stmts);
 		} else if (lhs.size() > 1) {
 			// FIXME: this is broken when multiple rhs expressions
-			out.print("var $ = ");
 			// Translate right-hand sides
-			visitExpression(rhs.get(0), context);
-			out.println(";");
+			stmts.add(new JavaScript.VariableDeclaration("$", translate(rhs.get(0), context)));
 			// Translate left-hand sides
 			for (int i = 0; i != lhs.size(); ++i) {
-				tabIndent(context.indent());
-				writeLVal(lhs.get(i), context);
-				out.println(" = $[" + i + "];");
-				writeInvariantCheck(lhs.get(i),context);
+				JavaScript.Expr lval = writeLVal(lhs.get(i), context);
+				stmts.add(new JavaScript.Assignment(lval, new JavaScript.ArrayAccess(variable("$"), constant(i))));
+				writeInvariantCheck(lhs.get(i), stmts);
 			}
 		}
+		return new JavaScript.Block(stmts);
 	}
 
 	@Override
-	public void visitBreak(Stmt.Break b, Context context) {
-		tabIndent(context);
-		out.println("break;");
+	public JavaScript.Break visitBreak(Stmt.Break b, Context context) {
+		return new JavaScript.Break();
 	}
 
 	@Override
-	public void visitContinue(Stmt.Continue b, Context context) {
-		tabIndent(context);
-		out.println("continue;");
+	public JavaScript.Continue visitContinue(Stmt.Continue b, Context context) {
+		return new JavaScript.Continue();
 	}
 
 	@Override
-	public void visitDebug(Stmt.Debug b, Context context) {
-
+	public JavaScript.Block visitDebug(Stmt.Debug b, Context context) {
+		return new JavaScript.Block();
 	}
 
 	@Override
-	public void visitDoWhile(Stmt.DoWhile b, Context context) {
-		tabIndent(context);
-		out.println("do {");
-		//
-		visitBlock(b.getBody(), context);
-		writeInvariantCheck(b.getInvariant(), "loop invariant", context.indent());
-		tabIndent(context.indent());
+	public JavaScript.DoWhile visitDoWhile(Stmt.DoWhile b, Context context) {
+		ArrayList<JavaScript.Stmt> body = new ArrayList<>();
+		append(visitBlock(b.getBody(), context), body);
 		// FIXME: write loop invariant if DEBUG mode
-		out.print("} while(");
-		visitExpression(b.getCondition(), context);
-		out.println(");");
+		writeInvariantCheck(translate(b.getInvariant(), context), "loop invariant", Checks.FULL, body);
+		return new JavaScript.DoWhile(new JavaScript.Block(body), translate(b.getCondition(), context));
 	}
 
-	@Override public void visitFail(Stmt.Fail c, Context context) {
-		if(debug) {
-			tabIndent(context);
-			out.println("Wy.assert(false);");
+	@Override
+	public JavaScript.Block visitFail(Stmt.Fail c, Context context) {
+		if(isChecked(Checks.ENTRY)) {
+			return new JavaScript.Block(writeAssert(constant(false)));
 		}
+		return new JavaScript.Block();
 	}
 
 	@Override
-	public void visitIfElse(Stmt.IfElse b, Context context) {
-		tabIndent(context);
-		out.print("if(");
-		visitExpression(b.getCondition(), context);
-		context = context.indent();
-		//
-		out.println(") {");
-		visitBlock(b.getTrueBranch(), context);
+	public JavaScript.If visitIfElse(Stmt.IfElse b, Context context) {
+		JavaScript.Expr condition = translate(b.getCondition(), context);
+		JavaScript.Block trueBranch = visitBlock(b.getTrueBranch(), context);
 		if (b.hasFalseBranch()) {
-			tabIndent(context);
-			out.println("} else {");
-			visitBlock(b.getFalseBranch(), context);
+			return new JavaScript.If(condition, trueBranch, visitBlock(b.getFalseBranch(), context));
 		}
-		tabIndent(context);
-		out.println("}");
+		return new JavaScript.If(condition, trueBranch);
 	}
 
 	@Override
-	public void visitNamedBlock(Stmt.NamedBlock b, Context context) {
-		tabIndent(context.indent());
-		out.print(b.getName());
-		out.println(":");
-		visitBlock(b.getBlock(), context);
+	public JavaScript.Labelled visitNamedBlock(Stmt.NamedBlock b, Context context) {
+		return new JavaScript.Labelled(b.getName().get(), visitBlock(b.getBlock(), context));
 	}
 
 	@Override
-	public void visitWhile(Stmt.While b, Context context) {
-		writeInvariantCheck(b.getInvariant(),"loop invariant on entry",context);
-		tabIndent(context);
-		out.print("while(");
-		visitExpression(b.getCondition(), context);
-		out.println(") {");
-		visitBlock(b.getBody(), context);
-		writeInvariantCheck(b.getInvariant(),"loop invariant restored",context.indent());
-		tabIndent(context);
-		out.println("}");
+	public JavaScript.Block visitWhile(Stmt.While b, Context context) {
+		ArrayList<JavaScript.Stmt> stmts = new ArrayList<>();
+		List<JavaScript.Expr> invariant = translate(b.getInvariant(), context);
+		writeInvariantCheck(invariant, "loop invariant on entry", Checks.FULL, stmts);
+		JavaScript.Expr condition = translate(b.getCondition(), context);
+		ArrayList<JavaScript.Stmt> body = new ArrayList<>();
+		append(visitBlock(b.getBody(), context), body);
+		writeInvariantCheck(invariant, "loop invariant restored", Checks.FULL, body);
+		stmts.add(new JavaScript.While(condition, new JavaScript.Block(body)));
+		return new JavaScript.Block(stmts);
 	}
 
 	@Override
-	public void visitReturn(Stmt.Return stmt, Context context) {
-		if(debug) {
+	public JavaScript.Block visitReturn(Stmt.Return stmt, Context context) {
+		if(isChecked(Checks.BOUNDARIES)) {
 			// Write return values
-			writeReturnsWithChecks(stmt, context);
+			return writeReturnsWithChecks(stmt, context);
 		} else {
-			writeReturnsWithoutChecks(stmt, context);
+			return writeReturnsWithoutChecks(stmt, context);
 		}
 	}
 
-	private void writeReturnsWithChecks(Stmt.Return stmt, Context context) {
+	private JavaScript.Block writeReturnsWithChecks(Stmt.Return stmt, Context context) {
 		Decl.FunctionOrMethod decl = stmt.getAncestor(Decl.FunctionOrMethod.class);
 		Tuple<Decl.Variable> returns = decl.getReturns();
 		Tuple<Expr> operands = stmt.getReturns();
-		tabIndent(context);
+		ArrayList<JavaScript.Stmt> stmts = new ArrayList<>();
 		for (int i = 0; i != returns.size(); ++i) {
-			if (i != 0) {
-				out.print(" ");
-			}
-			out.print("var ");
-			out.print(returns.get(i).getName().get() + " = ");
-			visitExpression(operands.get(i), context);
-			out.print(";");
-		}
-		out.println();
-		writeShadowVariables(decl.getParameters(),true,context);
-		writeInvariantCheck(decl.getEnsures(), "postcondition", context);
-		tabIndent(context);
+			JavaScript.Expr operand = writeExpression(operands.get(i), returns.get(i).getType(), context);
+			stmts.add(new JavaScript.VariableDeclaration(returns.get(i).getName().get(), operand));
+		}
+		writeShadowVariables(decl.getParameters(), true, stmts);
+		writeInvariantCheck(translate(decl.getEnsures(), context), "postcondition", Checks.BOUNDARIES, stmts);
 		//
-		out.print("return ");
 		if (returns.size() == 1) {
 			// easy case
-			out.print(returns.get(0).getName().get());
+			stmts.add(new JavaScript.Return(variable(returns.get(0).getName().get())));
 		} else if (returns.size() > 0) {
 			// harder case
-			out.print("[");
+			ArrayList<JavaScript.Expr> values = new ArrayList<>();
 			for (int i = 0; i != returns.size(); ++i) {
-				if (i != 0) {
-					out.print(", ");
-				}
-				out.print(returns.get(i).getName().get());
+				values.add(variable(returns.get(i).getName().get()));
 			}
-			out.print("]");
+			stmts.add(new JavaScript.Return(new JavaScript.ArrayLiteral(values)));
+		} else {
+			stmts.add(new JavaScript.Return());
 		}
-		out.println(";");
+		return new JavaScript.Block(stmts);
 	}
 
-	private void writeReturnsWithoutChecks(Stmt.Return stmt, Context context) {
+	private JavaScript.Block writeReturnsWithoutChecks(Stmt.Return stmt, Context context) {
+		Decl.FunctionOrMethod decl = stmt.getAncestor(Decl.FunctionOrMethod.class);
+		Tuple<Decl.Variable> returns = decl.getReturns();
 		Tuple<Expr> operands = stmt.getReturns();
 		//
-		tabIndent(context);
-		out.print("return ");
 		if (operands.size() == 1) {
 			// easy case
-			visitExpression(operands.get(0), context);
+			JavaScript.Expr operand = writeExpression(operands.get(0), returns.get(0).getType(), context);
+			return new JavaScript.Block(new JavaScript.Return(operand));
 		} else if (operands.size() > 0) {
 			// harder case
-			out.print("[");
+			ArrayList<JavaScript.Expr> values = new ArrayList<>();
 			for (int i = 0; i != operands.size(); ++i) {
-				if (i != 0) {
-					out.print(", ");
-				}
-				visitExpression(operands.get(i), context);
+				values.add(writeExpression(operands.get(i), returns.get(i).getType(), context));
 			}
-			out.print("]");
+			return new JavaScript.Block(new JavaScript.Return(new JavaScript.ArrayLiteral(values)));
+		} else {
+			return new JavaScript.Block(new JavaScript.Return());
 		}
-		out.println(";");
 	}
 
 	@Override
-	public void visitSkip(Stmt.Skip b, Context context) {
-		out.println("// skip");
+	public JavaScript.Comment visitSkip(Stmt.Skip b, Context context) {
+		return new JavaScript.Comment("skip");
 	}
 
 	@Override
-	public void visitSwitch(Stmt.Switch b, Context context) {
-		out.print("switch(");
-		visitExpression(b.getCondition(), context);
-		out.println(") {");
-		Tuple<Stmt.Case> cases = b.getCases();
-		for (int i = 0; i != cases.size(); ++i) {
-			// FIXME: ugly
-			Stmt.Case cAse = cases.get(i);
-			Tuple<Expr> values = cAse.getConditions();
-			if (values.size() == 0) {
-				tabIndent(context);
-				out.println("default:");
-			} else {
-				for (int j = 0; j != values.size(); ++j) {
-					tabIndent(context);
-					out.print("case ");
-					// FIXME: this needs to be fixed
-					out.print(values.get(j));
-					out.println(":");
-				}
-			}
-			visitBlock(cAse.getBlock(), context);
-			tabIndent(context);
-			out.println("break;");
-		}
-		tabIndent(context);
-		out.println("}");
-	}
-
-	/**
-	 * Write a bracketed operand if necessary. Any operand whose human-readable
-	 * representation can contain whitespace must have brackets around it.
-	 *
-	 * @param operand
-	 * @param enclosing
-	 * @param out
-	 */
-	private void writeBracketedExpression(Expr expr, Context context) {
-		boolean needsBrackets = needsBrackets(expr);
-		if (needsBrackets) {
-			out.print("(");
-		}
-		visitExpression(expr, context);
-		if (needsBrackets) {
-			out.print(")");
+	public JavaScript.Switch visitSwitch(Stmt.Switch b, Context context) {
+		JavaScript.Expr condition = translate(b.getCondition(), context);
+		ArrayList<JavaScript.Case> cases = new ArrayList<>();
+		for (Stmt.Case cAse : b.getCases()) {
+			List<JavaScript.Expr> values = translate(cAse.getConditions(), context);
+			ArrayList<JavaScript.Stmt> body = new ArrayList<>();
+			append(visitBlock(cAse.getBlock(), context), body);
+			body.add(new JavaScript.Break());
+			cases.add(new JavaScript.Case(values, new JavaScript.Block(body)));
 		}
+		return new JavaScript.Switch(condition, cases);
 	}
 
 	@Override
-	public void visitCast(Expr.Cast expr, Context context) {
-		visitExpression(expr.getOperand(), context);
+	public JavaScript.Expr visitCast(Expr.Cast expr, Context context) {
+		return translate(expr.getOperand(), context);
 	}
 
 	@Override
-	public void visitConstant(Expr.Constant expr, Context context) {
+	public JavaScript.Expr visitConstant(Expr.Constant expr, Context context) {
 		Value val = expr.getValue();
 		if (val instanceof Value.Byte) {
 			Value.Byte b = (Value.Byte) val;
+			if (minifier != null) {
+				return constant(b.get() & 0xFF);
+			}
 			// FIXME: support es6 binary literals
-			// out.print("0b");
-			out.print("parseInt('");
-			out.print(Integer.toBinaryString(b.get() & 0xFF));
-			out.print("',2)");
+			return invoke("parseInt", constant(Integer.toBinaryString(b.get() & 0xFF)), constant(2));
 		} else if (val instanceof Value.UTF8) {
 			Value.UTF8 s = (Value.UTF8) val;
 			byte[] bytes = s.get();
-			out.print("[");
+			ArrayList<JavaScript.Expr> elements = new ArrayList<>();
 			for (int i = 0; i != bytes.length; ++i) {
-				if (i != 0) {
-					out.print(", ");
-				}
-				out.print(bytes[i]);
+				elements.add(constant(bytes[i]));
 			}
-			out.print("]");
+			String constructor = getTypedArrayConstructor(expr.getType());
+			return newArray(new JavaScript.ArrayLiteral(elements), constructor);
+		} else if (val instanceof Value.Int) {
+			return constant(((Value.Int) val).get());
+		} else if (val instanceof Value.Bool) {
+			return constant(((Value.Bool) val).get());
+		} else if (val instanceof Value.Null) {
+			return constant(null);
 		} else {
-			out.print(val);
+			throw new IllegalArgumentException("unknown constant encountered: " + val);
 		}
 	}
 
 	@Override
-	public void visitEqual(Expr.Equal expr, Context context) {
-		visitEqualityOperator(expr, context);
+	public JavaScript.Expr visitEqual(Expr.Equal expr, Context context) {
+		return visitEqualityOperator(expr, context);
 	}
 
 	@Override
-	public void visitNotEqual(Expr.NotEqual expr, Context context) {
-		visitEqualityOperator(expr, context);
+	public JavaScript.Expr visitNotEqual(Expr.NotEqual expr, Context context) {
+		return visitEqualityOperator(expr, context);
 	}
 
-	private void visitEqualityOperator(Expr.BinaryOperator expr, Context context) {
+	private JavaScript.Expr visitEqualityOperator(Expr.BinaryOperator expr, Context context) {
 		// Extract the type information
 		Expr lhs = expr.getFirstOperand();
 		Expr rhs = expr.getSecondOperand();
 		// FIXME: put this back
 		Type lhsT = lhs.getType();
 		Type rhsT = rhs.getType();
+		boolean equal = expr instanceof Expr.Equal;
+		JavaScript.Expr l = translate(lhs, context);
+		JavaScript.Expr r = translate(rhs, context);
 		//
 		if (isCopyable(lhsT, lhs) && isCopyable(rhsT, rhs)) {
-			writeInfixOperator(expr, context);
+			return new JavaScript.Operator(equal ? EQ : NEQ, l, r);
+		} else if (lhsT.equals(rhsT)) {
+			return getEquality(lhsT, l, r, equal, context.equalities);
 		} else {
-			if (expr instanceof Expr.NotEqual) {
-				out.print("!");
-			}
-			out.print("Wy.equals(");
-			visitExpression(lhs, context);
-			out.print(", ");
-			visitExpression(rhs, context);
-			out.print(")");
+			JavaScript.Expr e = invoke("Wy.equals", l, r);
+			return equal ? e : new JavaScript.Operator(NOT, e);
 		}
 	}
 
-	@Override
-	public void visitIs(Expr.Is expr, Context context) {
-		Type t = expr.getTestType();
-		// Handle all non-trivial cases directly
-		if (t instanceof Type.Null) {
-			visitExpression(expr.getOperand(), context);
-			out.print(" === null");
-		} else if (t instanceof Type.Int) {
-			// FIXME: this will need to be updated when unbounded arithmetic is
-			// supported
-			out.print("typeof ");
-			visitExpression(expr.getOperand(), context);
-			out.print(" === \"number\"");
-		} else if (t instanceof Type.Bool) {
-			out.print("typeof ");
-			visitExpression(expr.getOperand(), context);
-			out.print(" === \"boolean\"");
+	/**
+	 * Compare two values of the same type for equality (or inequality). Values
+	 * of copyable types are compared directly. Arrays and closed records are
+	 * compared using a generated equality function specialised to their type,
+	 * which avoids the reflective comparison performed by
+	 * <code>Wy.equals</code>. Otherwise, for example when the type is a union,
+	 * the runtime's generic comparison is used.
+	 *
+	 * @param type
+	 *            The type of both values.
+	 * @param lhs
+	 * @param rhs
+	 * @param equal
+	 *            Indicates whether to test for equality or inequality.
+	 * @param equalities
+	 *            Records the types whose equality functions are required.
+	 * @return
+	 */
+	private JavaScript.Expr getEquality(Type type, JavaScript.Expr lhs, JavaScript.Expr rhs, boolean equal,
+			Set<Type> equalities) {
+		if (isCopyable(type, null)) {
+			return new JavaScript.Operator(equal ? EQ : NEQ, lhs, rhs);
+		}
+		while (type instanceof Type.Nominal) {
+			type = getUnderlyingType((Type.Nominal) type);
+		}
+		JavaScript.Expr e;
+		if (type instanceof Type.Array || (type instanceof Type.Record && !((Type.Record) type).isOpen())) {
+			equalities.add(type);
+			e = new JavaScript.Invoke(variable("eq$" + getTypeMangle(type)), lhs, rhs);
 		} else {
-			// Fall back case
-			out.print("is$");
-			writeTypeMangle(t);
-			out.print("(");
-			visitExpression(expr.getOperand(), context);
-			out.print(")");
-			// Register this type test to be written out as an appropriately
-			// named function.
-			context.typeTests.add(t);
+			e = invoke("Wy.equals", lhs, rhs);
 		}
+		return equal ? e : new JavaScript.Operator(NOT, e);
+	}
+
+	@Override
+	public JavaScript.Expr visitIs(Expr.Is expr, Context context) {
+		return getTypeTest(expr.getTestType(), translate(expr.getOperand(), context), context);
 	}
 
 	@Override
-	public void visitStaticVariableAccess(Expr.StaticVariableAccess expr, Context context) {
+	public JavaScript.Expr visitStaticVariableAccess(Expr.StaticVariableAccess expr, Context context) {
 		// FIXME: this is horrendously broken
-		out.print("Wy.copy(" + expr.getName() + ")");
+		return writeCopy(expr.getName().toString());
 	}
 
 	@Override
-	public void visitVariableAccess(Expr.VariableAccess expr, Context context) {
+	public JavaScript.Expr visitVariableAccess(Expr.VariableAccess expr, Context context) {
 		Decl.Variable vd = expr.getVariableDeclaration();
+		String name = vd.getName().get();
 		// Variable move needs to be supported here
 		if (isCopyable(vd.getType(), expr) || expr.isMove()) {
-			out.print(vd.getName());
+			return variable(name);
+		} else if (elidable.contains(expr)) {
+			// Copy is provably unnecessary
+			copiesElided++;
+			return variable(name);
 		} else {
-			out.print("Wy.copy(" + vd.getName() + ")");
+			return writeCopy(name, vd.getType(), context);
 		}
 	}
 
@@ -682,40 +1019,59 @@ public final class JavaScriptFileWriter extends AbstractConsumer<JavaScriptFileW
 	// ================================================================================
 
 	@Override
-	public void visitArrayLength(Expr.ArrayLength expr, Context context) {
-		visitExpression(expr.getOperand(), context);
-		out.print(".length");
+	public JavaScript.Expr visitArrayLength(Expr.ArrayLength expr, Context context) {
+		return new JavaScript.PropertyAccess(translate(expr.getOperand(), context), "length");
 	}
 
 	@Override
-	public void visitArrayAccess(Expr.ArrayAccess expr, Context context) {
+	public JavaScript.Expr visitArrayAccess(Expr.ArrayAccess expr, Context context) {
 		// FIXME: need to clone here
-		visitExpression(expr.getFirstOperand(), context);
-		out.print("[");
-		visitExpression(expr.getSecondOperand(), context);
-		out.print("]");
+		JavaScript.Expr source = translate(expr.getFirstOperand(), context);
+		return new JavaScript.ArrayAccess(source, translate(expr.getSecondOperand(), context));
 	}
 
 	@Override
-	public void visitArrayInitialiser(Expr.ArrayInitialiser expr, Context context) {
-		Tuple<Expr> operands = expr.getOperands();
-		out.print("[");
-		for (int i = 0; i != operands.size(); ++i) {
-			if (i != 0) {
-				out.print(", ");
-			}
-			visitExpression(operands.get(i), context);
+	public JavaScript.Expr visitArrayInitialiser(Expr.ArrayInitialiser expr, Context context) {
+		return writeArrayInitialiser(expr, getTypedArrayConstructor(expr.getType()), context);
+	}
+
+	private JavaScript.Expr writeArrayInitialiser(Expr.ArrayInitialiser expr, String constructor,
+			Context context) {
+		return newArray(new JavaScript.ArrayLiteral(translate(expr.getOperands(), context)), constructor);
+	}
+
+	/**
+	 * Construct an array from a given array literal, using typed array storage
+	 * if a constructor is given.
+	 *
+	 * @param literal
+	 * @param constructor
+	 * @return
+	 */
+	private static JavaScript.Expr newArray(JavaScript.ArrayLiteral literal, String constructor) {
+		if (constructor != null) {
+			return new JavaScript.New(variable(constructor), literal);
+		} else {
+			return literal;
 		}
-		out.print("]");
 	}
 
 	@Override
-	public void visitArrayGenerator(Expr.ArrayGenerator expr, Context context) {
-		out.print("Wy.array(");
-		visitExpression(expr.getFirstOperand(), context);
-		out.print(", ");
-		visitExpression(expr.getSecondOperand(), context);
-		out.print(")");
+	public JavaScript.Expr visitArrayGenerator(Expr.ArrayGenerator expr, Context context) {
+		return writeArrayGenerator(expr, getTypedArrayConstructor(expr.getType()), context);
+	}
+
+	private JavaScript.Expr writeArrayGenerator(Expr.ArrayGenerator expr, String constructor, Context context) {
+		JavaScript.Expr value = translate(expr.getFirstOperand(), context);
+		JavaScript.Expr length = translate(expr.getSecondOperand(), context);
+		if (constructor != null) {
+			return invoke("Wy.array", value, length, variable(constructor));
+		} else if (copyOnWrite) {
+			// Every element refers to the same value
+			return invoke("Wy.array", invoke("Wy.share", value), length);
+		} else {
+			return invoke("Wy.array", value, length);
+		}
 	}
 
 	// ================================================================================
@@ -723,44 +1079,36 @@ public final class JavaScriptFileWriter extends AbstractConsumer<JavaScriptFileW
 	// ================================================================================
 
 	@Override
-	public void visitBitwiseAnd(Expr.BitwiseAnd expr, Context context) {
-		writeInfixOperator(expr,context);
+	public JavaScript.Expr visitBitwiseAnd(Expr.BitwiseAnd expr, Context context) {
+		return writeInfixOperator(BITWISEAND, expr, context);
 	}
 
 	@Override
-	public void visitBitwiseComplement(Expr.BitwiseComplement expr, Context context) {
-		// Prefix operators
-		out.print("((~");
-		writeBracketedExpression(expr.getOperand(), context);
-		out.print(") & 0xFF)");
+	public JavaScript.Expr visitBitwiseComplement(Expr.BitwiseComplement expr, Context context) {
+		JavaScript.Expr operand = translate(expr.getOperand(), context);
+		return new JavaScript.Operator(BITWISEAND, new JavaScript.Operator(BITWISEINVERT, operand), constant(0xFF));
 	}
 
 	@Override
-	public void visitBitwiseOr(Expr.BitwiseOr expr, Context context) {
-		writeInfixOperator(expr,context);
+	public JavaScript.Expr visitBitwiseOr(Expr.BitwiseOr expr, Context context) {
+		return writeInfixOperator(BITWISEOR, expr, context);
 	}
 
 	@Override
-	public void visitBitwiseShiftLeft(Expr.BitwiseShiftLeft expr, Context context) {
-		out.print("((");
-		writeBracketedExpression(expr.getFirstOperand(), context);
-		out.print(" << ");
-		writeBracketedExpression(expr.getSecondOperand(), context);
-		out.print(") & 0xFF)");
+	public JavaScript.Expr visitBitwiseShiftLeft(Expr.BitwiseShiftLeft expr, Context context) {
+		JavaScript.Expr shift = writeInfixOperator(LEFTSHIFT, expr, context);
+		return new JavaScript.Operator(BITWISEAND, shift, constant(0xFF));
 	}
 
 	@Override
-	public void visitBitwiseShiftRight(Expr.BitwiseShiftRight expr, Context context) {
-		out.print("((");
-		writeBracketedExpression(expr.getFirstOperand(), context);
-		out.print(" >> ");
-		writeBracketedExpression(expr.getSecondOperand(), context);
-		out.print(") & 0xFF)");
+	public JavaScript.Expr visitBitwiseShiftRight(Expr.BitwiseShiftRight expr, Context context) {
+		JavaScript.Expr shift = writeInfixOperator(RIGHTSHIFT, expr, context);
+		return new JavaScript.Operator(BITWISEAND, shift, constant(0xFF));
 	}
 
 	@Override
-	public void visitBitwiseXor(Expr.BitwiseXor expr, Context context) {
-		writeInfixOperator(expr,context);
+	public JavaScript.Expr visitBitwiseXor(Expr.BitwiseXor expr, Context context) {
+		return writeInfixOperator(BITWISEXOR, expr, context);
 	}
 
 	// ================================================================================
@@ -768,65 +1116,44 @@ public final class JavaScriptFileWriter extends AbstractConsumer<JavaScriptFileW
 	// ================================================================================
 
 	@Override
-	public void visitIndirectInvoke(Expr.IndirectInvoke expr, Context context) {
-		visitExpression(expr.getSource(), context);
-		Tuple<Expr> arguments = expr.getArguments();
-		out.print("(");
-		for (int i = 0; i != arguments.size(); ++i) {
-			if (i != 0) {
-				out.print(", ");
-			}
-			visitExpression(arguments.get(i), context);
-		}
-		out.print(")");
+	public JavaScript.Invoke visitIndirectInvoke(Expr.IndirectInvoke expr, Context context) {
+		JavaScript.Expr source = translate(expr.getSource(), context);
+		return new JavaScript.Invoke(source, translate(expr.getArguments(), context));
 	}
 
 	@Override
-	public void visitInvoke(Expr.Invoke expr, Context context) {
+	public JavaScript.Invoke visitInvoke(Expr.Invoke expr, Context context) {
 		Name name = expr.getName();
 		// FIXME: this doesn't work for imported function symbols!
-		out.print(name.getLast());
-		writeTypeMangle(expr.getSignature());
+		String function = getFunctionName(name.getLast().get(), expr.getSignature());
 		if(expr.getSignature() instanceof Type.Property) {
-			out.print("$property");
+			function += "$property";
 		}
-		out.print("(");
 		Tuple<Expr> args = expr.getOperands();
+		Tuple<Type> params = expr.getSignature().getParameters();
+		ArrayList<JavaScript.Expr> arguments = new ArrayList<>();
 		for (int i = 0; i != args.size(); ++i) {
-			if (i != 0) {
-				out.print(", ");
-			}
-			visitExpression(args.get(i), context);
+			arguments.add(writeExpression(args.get(i), params.get(i), context));
 		}
-		out.print(")");
+		return new JavaScript.Invoke(variable(function), arguments);
 	}
 
-
 	@Override
-	public void visitLambdaAccess(Expr.LambdaAccess expr, Context context) {
+	public JavaScript.Function visitLambdaAccess(Expr.LambdaAccess expr, Context context) {
 		// NOTE: the reason we use a function declaration here (i.e. instead of
 		// just assigning the name) is that it protects against potential name
 		// clashes with local variables.
 		Type.Callable ft = expr.getSignature();
 		Tuple<Type> params = ft.getParameters();
-		out.print("function(");
+		ArrayList<String> parameters = new ArrayList<>();
+		ArrayList<JavaScript.Expr> arguments = new ArrayList<>();
 		for (int i = 0; i != params.size(); ++i) {
-			if (i != 0) {
-				out.print(",");
-			}
-			out.print("p" + i);
+			parameters.add("p" + i);
+			arguments.add(variable("p" + i));
 		}
-		out.print(") { return ");
-		out.print(expr.getName());
-		writeTypeMangle(ft);
-		out.print("(");
-		for (int i = 0; i != params.size(); ++i) {
-			if (i != 0) {
-				out.print(",");
-			}
-			out.print("p" + i);
-		}
-		out.print("); }");
+		JavaScript.Invoke invoke = new JavaScript.Invoke(variable(getFunctionName(expr.getName().toString(), ft)),
+				arguments);
+		return new JavaScript.Function(null, parameters, new JavaScript.Block(new JavaScript.Return(invoke)));
 	}
 
 	// ================================================================================
@@ -834,57 +1161,53 @@ public final class JavaScriptFileWriter extends AbstractConsumer<JavaScriptFileW
 	// ================================================================================
 
 	@Override
-	public void visitIntegerAddition(Expr.IntegerAddition expr, Context context) {
-		writeInfixOperator(expr,context);
+	public JavaScript.Expr visitIntegerAddition(Expr.IntegerAddition expr, Context context) {
+		return writeInfixOperator(ADD, expr, context);
 	}
 
 	@Override
-	public void visitIntegerDivision(Expr.IntegerDivision expr, Context context) {
-		out.print("Math.floor(");
-		writeInfixOperator(expr, context);
-		out.print(")");
+	public JavaScript.Expr visitIntegerDivision(Expr.IntegerDivision expr, Context context) {
+		return invoke("Math.floor", writeInfixOperator(DIV, expr, context));
 	}
 
 	@Override
-	public void visitIntegerRemainder(Expr.IntegerRemainder expr, Context context) {
-		writeInfixOperator(expr, context);
+	public JavaScript.Expr visitIntegerRemainder(Expr.IntegerRemainder expr, Context context) {
+		return writeInfixOperator(REM, expr, context);
 	}
 
 	@Override
-	public void visitIntegerGreaterThan(Expr.IntegerGreaterThan expr, Context context) {
-		writeInfixOperator(expr,context);
+	public JavaScript.Expr visitIntegerGreaterThan(Expr.IntegerGreaterThan expr, Context context) {
+		return writeInfixOperator(GT, expr, context);
 	}
 
 	@Override
-	public void visitIntegerGreaterThanOrEqual(Expr.IntegerGreaterThanOrEqual expr, Context context) {
-		writeInfixOperator(expr,context);
+	public JavaScript.Expr visitIntegerGreaterThanOrEqual(Expr.IntegerGreaterThanOrEqual expr, Context context) {
+		return writeInfixOperator(GTEQ, expr, context);
 	}
 
 	@Override
-	public void visitIntegerLessThan(Expr.IntegerLessThan expr, Context context) {
-		writeInfixOperator(expr,context);
+	public JavaScript.Expr visitIntegerLessThan(Expr.IntegerLessThan expr, Context context) {
+		return writeInfixOperator(LT, expr, context);
 	}
 
 	@Override
-	public void visitIntegerLessThanOrEqual(Expr.IntegerLessThanOrEqual expr, Context context) {
-		writeInfixOperator(expr,context);
+	public JavaScript.Expr visitIntegerLessThanOrEqual(Expr.IntegerLessThanOrEqual expr, Context context) {
+		return writeInfixOperator(LTEQ, expr, context);
 	}
 
 	@Override
-	public void visitIntegerMultiplication(Expr.IntegerMultiplication expr, Context context) {
-		writeInfixOperator(expr,context);
+	public JavaScript.Expr visitIntegerMultiplication(Expr.IntegerMultiplication expr, Context context) {
+		return writeInfixOperator(MUL, expr, context);
 	}
 
 	@Override
-	public void visitIntegerNegation(Expr.IntegerNegation expr, Context context) {
-		// Prefix operators
-		out.print("-");
-		writeBracketedExpression(expr.getOperand(), context);
+	public JavaScript.Expr visitIntegerNegation(Expr.IntegerNegation expr, Context context) {
+		return new JavaScript.Operator(NEG, translate(expr.getOperand(), context));
 	}
 
 	@Override
-	public void visitIntegerSubtraction(Expr.IntegerSubtraction expr, Context context) {
-		writeInfixOperator(expr,context);
+	public JavaScript.Expr visitIntegerSubtraction(Expr.IntegerSubtraction expr, Context context) {
+		return writeInfixOperator(SUB, expr, context);
 	}
 
 	// ================================================================================
@@ -892,64 +1215,134 @@ public final class JavaScriptFileWriter extends AbstractConsumer<JavaScriptFileW
 	// ================================================================================
 
 	@Override
-	public void visitLogicalAnd(Expr.LogicalAnd expr, Context context) {
-		writeInfixOperator(expr,context);
+	public JavaScript.Expr visitLogicalAnd(Expr.LogicalAnd expr, Context context) {
+		return writeInfixOperator(AND, expr, context);
 	}
 
-	@Override public void visitLogicalImplication(Expr.LogicalImplication expr, Context context) {
-		out.print("!");
-		writeBracketedExpression(expr.getFirstOperand(), context);
-		out.print("||");
-		writeBracketedExpression(expr.getSecondOperand(), context);
+	@Override
+	public JavaScript.Expr visitLogicalImplication(Expr.LogicalImplication expr, Context context) {
+		JavaScript.Expr lhs = translate(expr.getFirstOperand(), context);
+		JavaScript.Expr rhs = translate(expr.getSecondOperand(), context);
+		return new JavaScript.Operator(OR, new JavaScript.Operator(NOT, lhs), rhs);
 	}
 
-	@Override public void visitLogicalIff(Expr.LogicalIff expr, Context context) {
-		writeInfixOperator(expr,context);
+	@Override
+	public JavaScript.Expr visitLogicalIff(Expr.LogicalIff expr, Context context) {
+		return writeInfixOperator(EQ, expr, context);
 	}
 
 	@Override
-	public void visitLogicalNot(Expr.LogicalNot expr, Context context) {
-		// Prefix operators
-		out.print("!");
-		writeBracketedExpression(expr.getOperand(), context);
+	public JavaScript.Expr visitLogicalNot(Expr.LogicalNot expr, Context context) {
+		return new JavaScript.Operator(NOT, translate(expr.getOperand(), context));
 	}
 
 	@Override
-	public void visitLogicalOr(Expr.LogicalOr expr, Context context) {
-		writeInfixOperator(expr,context);
+	public JavaScript.Expr visitLogicalOr(Expr.LogicalOr expr, Context context) {
+		return writeInfixOperator(OR, expr, context);
 	}
 
 	@Override
-	public void visitUniversalQuantifier(Expr.UniversalQuantifier expr, Context context) {
-		writeQuantifier(expr,context);
+	public JavaScript.Expr visitUniversalQuantifier(Expr.UniversalQuantifier expr, Context context) {
+		return writeQuantifier(expr,context);
 	}
 
 	@Override
-	public void visitExistentialQuantifier(Expr.ExistentialQuantifier expr, Context context) {
-		writeQuantifier(expr,context);
+	public JavaScript.Expr visitExistentialQuantifier(Expr.ExistentialQuantifier expr, Context context) {
+		return writeQuantifier(expr,context);
+	}
+
+	/**
+	 * Translate a quantifier over one or more integer ranges. Rather than
+	 * creating a closure for the quantifier's body on every evaluation, the
+	 * quantifier is lifted into a separate function using a loop (or nested
+	 * loops) with an early exit. The variables used in the quantifier, other
+	 * than those it declares, are passed to this function as parameters.
+	 *
+	 * @param expr
+	 * @param context
+	 */
+	public JavaScript.Expr writeQuantifier(Expr.Quantifier expr, Context context) {
+		List<Decl.Variable> free = getFreeVariables(expr);
+		String name = quantifiers.get(expr);
+		if (name == null) {
+			String kind = (expr instanceof Expr.UniversalQuantifier) ? "all" : "some";
+			name = quantifierPrefix + "$" + kind + (quantifierIndex++);
+			quantifiers.put(expr, name);
+			lifted.add(writeLiftedQuantifier(name, expr, free, context));
+		}
+		ArrayList<JavaScript.Expr> arguments = new ArrayList<>();
+		for (int i = 0; i != free.size(); ++i) {
+			arguments.add(variable(free.get(i).getName().get()));
+		}
+		return new JavaScript.Invoke(variable(name), arguments);
 	}
 
-	public void writeQuantifier(Expr.Quantifier expr, Context context) {
-		out.print("Wy.");
-		out.print((expr instanceof Expr.UniversalQuantifier) ? "all" : "some");
-		out.print("(");
+	/**
+	 * Construct the function implementing a lifted quantifier. This is only
+	 * written out after the enclosing declaration.
+	 *
+	 * @param name
+	 * @param expr
+	 * @param free
+	 * @param context
+	 */
+	private JavaScript.Function writeLiftedQuantifier(String name, Expr.Quantifier expr, List<Decl.Variable> free,
+			Context context) {
+		boolean universal = expr instanceof Expr.UniversalQuantifier;
 		Tuple<Decl.Variable> params = expr.getParameters();
+		// Translate the loop bounds, from the outermost loop inwards
+		ArrayList<JavaScript.VariableDeclaration> bounds = new ArrayList<>();
 		for (int i = 0; i != params.size(); ++i) {
 			Decl.Variable param = params.get(i);
+			String var = param.getName().get();
 			// FIXME: for now assume initialiser must be an array range.
 			Expr.ArrayRange range = (Expr.ArrayRange) param.getInitialiser();
-			visitExpression(range.getFirstOperand(), context);
-			out.print(",");
-			visitExpression(range.getSecondOperand(), context);
+			JavaScript.Expr start = translate(range.getFirstOperand(), context);
+			JavaScript.Expr end = translate(range.getSecondOperand(), context);
+			bounds.add(new JavaScript.VariableDeclaration(Arrays.asList(var, var + "$end"), Arrays.asList(start, end)));
 		}
-		out.print(",function(");
-		for (int i = 0; i != params.size(); ++i) {
-			Decl.Variable param = params.get(i);
-			out.print(param.getName());
+		JavaScript.Expr condition = translate(expr.getOperand(), context);
+		if (universal) {
+			condition = new JavaScript.Operator(NOT, condition);
+		}
+		JavaScript.Stmt body = new JavaScript.If(condition,
+				new JavaScript.Block(new JavaScript.Return(constant(!universal))));
+		// Construct the loops, from the innermost loop outwards
+		for (int i = params.size() - 1; i >= 0; --i) {
+			JavaScript.Expr var = variable(params.get(i).getName().get());
+			JavaScript.Expr end = variable(params.get(i).getName().get() + "$end");
+			body = new JavaScript.For(bounds.get(i), new JavaScript.Operator(LT, var, end),
+					new JavaScript.Assignment(var, new JavaScript.Operator(ADD, var, constant(1))),
+					new JavaScript.Block(body));
 		}
-		out.print("){return ");
-		visitExpression(expr.getOperand(), context);
-		out.print(";})");
+		JavaScript.Block block = new JavaScript.Block(body, new JavaScript.Return(constant(universal)));
+		return new JavaScript.Function(name, getNames(free), block);
+	}
+
+	/**
+	 * Determine the variables used within a quantifier which are declared
+	 * outside of it, in order of their first use.
+	 *
+	 * @param expr
+	 * @return
+	 */
+	private static List<Decl.Variable> getFreeVariables(Expr.Quantifier expr) {
+		LinkedHashSet<Decl.Variable> used = new LinkedHashSet<>();
+		Set<Decl.Variable> declared = Collections.newSetFromMap(new IdentityHashMap<>());
+		new AbstractConsumer<Object>() {
+			@Override
+			public void visitVariable(Decl.Variable decl, Object data) {
+				declared.add(decl);
+				super.visitVariable(decl, data);
+			}
+
+			@Override
+			public void visitVariableAccess(Expr.VariableAccess access, Object data) {
+				used.add(access.getVariableDeclaration());
+			}
+		}.visitExpression(expr, null);
+		used.removeAll(declared);
+		return new ArrayList<>(used);
 	}
 
 	// ================================================================================
@@ -957,18 +1350,14 @@ public final class JavaScriptFileWriter extends AbstractConsumer<JavaScriptFileW
 	// ================================================================================
 
 	@Override
-	public void visitNew(Expr.New expr, Context context) {
-		out.print("new Wy.Ref(");
-		visitExpression(expr.getOperand(), context);
-		out.print(")");
+	public JavaScript.Expr visitNew(Expr.New expr, Context context) {
+		return new JavaScript.New(name("Wy.Ref"), translate(expr.getOperand(), context));
 	}
 
 	@Override
-	public void visitDereference(Expr.Dereference expr, Context context) {
+	public JavaScript.Expr visitDereference(Expr.Dereference expr, Context context) {
 		// FIXME: need to clone here
-		out.print("Wy.deref(");
-		visitExpression(expr.getOperand(), context);
-		out.print(")");
+		return invoke("Wy.deref", translate(expr.getOperand(), context));
 	}
 
 	// ================================================================================
@@ -976,111 +1365,221 @@ public final class JavaScriptFileWriter extends AbstractConsumer<JavaScriptFileW
 	// ================================================================================
 
 	@Override
-	public void visitRecordAccess(Expr.RecordAccess expr, Context context) {
+	public JavaScript.Expr visitRecordAccess(Expr.RecordAccess expr, Context context) {
 		// FIXME: need to clone here
-		writeBracketedExpression(expr.getOperand(), context);
-		out.print("." + expr.getField());
+		return new JavaScript.PropertyAccess(translate(expr.getOperand(), context), expr.getField().get());
 	}
 
 	@Override
-	public void visitRecordInitialiser(Expr.RecordInitialiser expr, Context context) {
-		out.print("Wy.record({");
-		Tuple<Expr> operands = expr.getOperands();
+	public JavaScript.Expr visitRecordInitialiser(Expr.RecordInitialiser expr, Context context) {
 		Tuple<Identifier> fields = expr.getFields();
-		for (int i = 0; i != operands.size(); ++i) {
-			if (i != 0) {
-				out.print(", ");
+		ArrayList<String> names = new ArrayList<>();
+		for (int i = 0; i != fields.size(); ++i) {
+			names.add(fields.get(i).get());
+		}
+		List<JavaScript.Expr> values = translate(expr.getOperands(), context);
+		Type.Record type = getConstructorType(expr.getType());
+		if (type != null && hasFieldOrder(type, names)) {
+			// Construct record using the constructor for its type
+			context.records.add(type);
+			return new JavaScript.New(variable("R$" + getTypeMangle(type)), values);
+		} else {
+			return invoke("Wy.record", new JavaScript.ObjectLiteral(names, values));
+		}
+	}
+
+	/**
+	 * Determine the closed record type (if any) underlying a given type. Records
+	 * of such types are constructed using a constructor generated for their
+	 * type, such that all records of the same type share the same shape (i.e.
+	 * hidden class). Records of open types have no fixed set of fields and,
+	 * hence, no such constructor.
+	 *
+	 * @param type
+	 * @return
+	 */
+	private Type.Record getConstructorType(Type type) {
+		while (type instanceof Type.Nominal) {
+			type = getUnderlyingType((Type.Nominal) type);
+		}
+		if (type instanceof Type.Record && !((Type.Record) type).isOpen()) {
+			return (Type.Record) type;
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Check whether the fields of a record type are given in a particular
+	 * order. The arguments of a record constructor are evaluated in the order
+	 * of fields in its type and, hence, this must match the order in which the
+	 * fields were initialised.
+	 *
+	 * @param type
+	 * @param names
+	 * @return
+	 */
+	private static boolean hasFieldOrder(Type.Record type, List<String> names) {
+		Tuple<Decl.Variable> fields = type.getFields();
+		if (fields.size() != names.size()) {
+			return false;
+		}
+		for (int i = 0; i != names.size(); ++i) {
+			if (!fields.get(i).getName().get().equals(names.get(i))) {
+				return false;
 			}
-			out.print(fields.get(i));
-			out.print(": ");
-			visitExpression(operands.get(i), context);
 		}
-		out.print("})");
+		return true;
 	}
 
 	// ================================================================================
 	// Helpers
 	// ================================================================================
 
-	private void writeName(Name name) {
+	private JavaScript.Expr translate(Expr expr, Context context) {
+		return (JavaScript.Expr) visitExpression(expr, context);
+	}
+
+	private List<JavaScript.Expr> translate(Tuple<Expr> exprs, Context context) {
+		ArrayList<JavaScript.Expr> result = new ArrayList<>();
+		for (int i = 0; i != exprs.size(); ++i) {
+			result.add(translate(exprs.get(i), context));
+		}
+		return result;
+	}
+
+	/**
+	 * Append a translated statement onto a list of statements. Blocks are
+	 * inlined into the list, since JavaScript variables are scoped at the
+	 * function level.
+	 *
+	 * @param term
+	 * @param stmts
+	 */
+	private static void append(JavaScript.Term term, List<JavaScript.Stmt> stmts) {
+		if (term instanceof JavaScript.Block) {
+			stmts.addAll(((JavaScript.Block) term).getStatements());
+		} else if (term != null) {
+			stmts.add((JavaScript.Stmt) term);
+		}
+	}
+
+	private static List<String> getNames(Iterable<Decl.Variable> variables) {
+		ArrayList<String> names = new ArrayList<>();
+		for (Decl.Variable variable : variables) {
+			names.add(variable.getName().get());
+		}
+		return names;
+	}
+
+	private static JavaScript.Variable variable(String name) {
+		return new JavaScript.Variable(name);
+	}
+
+	/**
+	 * Construct a reference to a (possibly qualified) name, such as
+	 * <code>Wy.copy</code>.
+	 *
+	 * @param name
+	 * @return
+	 */
+	private static JavaScript.Expr name(String name) {
+		int index = name.lastIndexOf('.');
+		if (index < 0) {
+			return variable(name);
+		} else {
+			return new JavaScript.PropertyAccess(name(name.substring(0, index)), name.substring(index + 1));
+		}
+	}
+
+	private static JavaScript.Invoke invoke(String name, JavaScript.Expr... arguments) {
+		return new JavaScript.Invoke(name(name), arguments);
+	}
+
+	private static JavaScript.Constant constant(Object value) {
+		return new JavaScript.Constant(value);
+	}
+
+	private static JavaScript.Constant constant(long value) {
+		return new JavaScript.Constant(value);
+	}
+
+	private static String writeName(Name name) {
+		StringBuilder r = new StringBuilder();
 		for(int i=0;i!=name.size();++i) {
 			if (i != 0) {
 				// FIXME: this is a temporary hack for now.
-				out.print("$");
+				r.append("$");
 			}
-			out.print(name.get(i).get());
+			r.append(name.get(i).get());
 		}
+		return r.toString();
 	}
 
-	private void writeShadowVariables(Tuple<Decl.Variable> parameters, boolean restore, Context context) {
-		if (debug) {
-			tabIndent(context);
+	private void writeShadowVariables(Tuple<Decl.Variable> parameters, boolean restore,
+			List<JavaScript.Stmt> stmts) {
+		if (isChecked(Checks.BOUNDARIES)) {
 			if(restore) {
-				out.println("// restore shadow variables");
+				stmts.add(new JavaScript.Comment("restore shadow variables"));
 			} else {
-				out.println("// create shadow variables");
+				stmts.add(new JavaScript.Comment("create shadow variables"));
 			}
-			tabIndent(context);
 			for (int i = 0; i != parameters.size(); ++i) {
-				if (i != 0) {
-					out.print(" ");
-				}
 				String var = parameters.get(i).getName().get();
 				if (restore) {
-					out.print(var + " = $" + var);
+					stmts.add(new JavaScript.Assignment(variable(var), variable("$" + var)));
 				} else {
-					out.print("var $" + var + " = " + var);
+					stmts.add(new JavaScript.VariableDeclaration("$" + var, variable(var)));
 				}
-				out.print(";");
 			}
-			out.println();
 		}
 	}
 
-	private void writeInvariantTest(Decl.Variable var, Context context) {
+	private void writeInvariantTest(Decl.Variable var, List<JavaScript.Stmt> stmts, Context context) {
 		String name = var.getName().get();
-		writeInvariantTest(name, 0, var.getType(), context);
+		writeInvariantTest(variable(name), 0, var.getType(), stmts, context);
 	}
 
-	private void writeInvariantTest(String access, int depth, Type type, Context context) {
+	private void writeInvariantTest(JavaScript.Expr access, int depth, Type type, List<JavaScript.Stmt> stmts,
+			Context context) {
 		switch(type.getOpcode()) {
 		case TYPE_record:
-			writeInvariantTest(access, depth, (Type.Record) type, context);
+			writeInvariantTest(access, depth, (Type.Record) type, stmts, context);
 			break;
 		case TYPE_array:
-			writeInvariantTest(access, depth, (Type.Array) type, context);
+			writeInvariantTest(access, depth, (Type.Array) type, stmts, context);
 			 break;
 		case TYPE_reference:
-			writeInvariantTest(access, depth, (Type.Reference) type, context);
+			writeInvariantTest(access, depth, (Type.Reference) type, stmts, context);
 			break;
-//		case TYPE_negation:
-//			writeInvariantTest(access, depth, (Type.Negation) type, context);
-//			break;
 		case TYPE_union:
-			writeInvariantTest(access, depth, (Type.Union) type, context);
+			writeInvariantTest(access, depth, (Type.Union) type, stmts, context);
 			break;
 		case TYPE_intersection:
-			writeInvariantTest(access, depth, (Type.Intersection) type, context);
+			writeInvariantTest(access, depth, (Type.Intersection) type, stmts, context);
 			break;
 		case TYPE_nominal:
-			writeInvariantTest(access, depth, (Type.Nominal) type, context);
+			writeInvariantTest(access, depth, (Type.Nominal) type, stmts, context);
 			break;
 		default:
 			// Do nothing
 		}
 	}
 
-	private void writeInvariantTest(String access, int depth, Type.Record type, Context context) {
+	private void writeInvariantTest(JavaScript.Expr access, int depth, Type.Record type,
+			List<JavaScript.Stmt> stmts, Context context) {
 		Tuple<Decl.Variable> fields = type.getFields();
 		for (int i = 0; i != fields.size(); ++i) {
 			Decl.Variable field = fields.get(i);
-			writeInvariantTest(access + "." + field.getName().get(), depth, field.getType(), context);
+			JavaScript.Expr fieldAccess = new JavaScript.PropertyAccess(access, field.getName().get());
+			writeInvariantTest(fieldAccess, depth, field.getType(), stmts, context);
 		}
 	}
 
 	private static String[] indexVariableNames = { "i", "j", "k", "l", "m" };
 
-	private void writeInvariantTest(String access, int depth, Type.Array type, Context context) {
+	private void writeInvariantTest(JavaScript.Expr access, int depth, Type.Array type,
+			List<JavaScript.Stmt> stmts, Context context) {
 		int variableNameIndex = depth % indexVariableNames.length;
 		int variableNameGroup = depth / indexVariableNames.length;
 		String var = indexVariableNames[variableNameIndex];
@@ -1088,91 +1587,101 @@ public final class JavaScriptFileWriter extends AbstractConsumer<JavaScriptFileW
 			// In case we wrap around the selection of variable names.
 			var = var + variableNameGroup;
 		}
-		tabIndent(context);
-		out.println("for(var " + var + "=0; " + var + "<" + access + ".length; " + var + "++) {");
-		writeInvariantTest(access + "[" + var + "]", depth + 1, type.getElement(), context.indent());
-		tabIndent(context);
-		out.println("}");
+		ArrayList<JavaScript.Stmt> body = new ArrayList<>();
+		JavaScript.Expr element = new JavaScript.ArrayAccess(access, variable(var));
+		writeInvariantTest(element, depth + 1, type.getElement(), body, context);
+		if (body.size() > 0) {
+			// NOTE: the loop is omitted when elements have no invariant
+			JavaScript.Expr length = new JavaScript.PropertyAccess(access, "length");
+			stmts.add(new JavaScript.For(new JavaScript.VariableDeclaration(var, constant(0)),
+					new JavaScript.Operator(LT, variable(var), length), increment(var),
+					new JavaScript.Block(body)));
+		}
 	}
 
-	private void writeInvariantTest(String access, int depth, Type.Reference type, Context context) {
+	private void writeInvariantTest(JavaScript.Expr access, int depth, Type.Reference type,
+			List<JavaScript.Stmt> stmts, Context context) {
 		// FIXME: to do.
 	}
 
-//	private void writeInvariantTest(String access, int depth, Type.Negation type, Context context) {
-//		out.println("if(" + getTypeTest(type.getElement(),access,context) + ") { return false; }");
-//	}
-
-	private void writeInvariantTest(String access, int depth, Type.Union type, Context context) {
-		for (int i = 0; i != type.size(); ++i) {
-			Type bound = type.get(i);
-			tabIndent(context);
-			if(i != 0) {
-				out.print("else ");
-			}
-			// FIXME: this could be made more efficient
-			out.println("if(" + getTypeTest(bound,access,context) + ") {}");
+	private void writeInvariantTest(JavaScript.Expr access, int depth, Type.Union type,
+			List<JavaScript.Stmt> stmts, Context context) {
+		// FIXME: this could be made more efficient
+		JavaScript.Expr test = getTypeTest(type.get(0), access, context);
+		for (int i = 1; i != type.size(); ++i) {
+			test = new JavaScript.Operator(OR, test, getTypeTest(type.get(i), access, context));
 		}
-		tabIndent(context);
-		out.println("else { return false; }");
+		stmts.add(new JavaScript.If(new JavaScript.Operator(NOT, test),
+				new JavaScript.Block(new JavaScript.Return(constant(false)))));
 	}
 
-	private void writeInvariantTest(String access, int depth, Type.Intersection type, Context context) {
+	private void writeInvariantTest(JavaScript.Expr access, int depth, Type.Intersection type,
+			List<JavaScript.Stmt> stmts, Context context) {
 		for (int i = 0; i != type.size(); ++i) {
 			Type bound = type.get(i);
-			writeInvariantTest(access, depth, bound, context);
+			writeInvariantTest(access, depth, bound, stmts, context);
 		}
 	}
 
-	private void writeInvariantTest(String access, int depth, Type.Nominal type, Context context) {
-		tabIndent(context);
-		out.print("if(!");
-		writeName(type.getName());
-		out.println("$type(" + access + ")) { return false; }");
+	private void writeInvariantTest(JavaScript.Expr access, int depth, Type.Nominal type,
+			List<JavaScript.Stmt> stmts, Context context) {
+		JavaScript.Expr test = new JavaScript.Invoke(variable(writeName(type.getName()) + "$type"), access);
+		stmts.add(new JavaScript.If(new JavaScript.Operator(NOT, test),
+				new JavaScript.Block(new JavaScript.Return(constant(false)))));
 	}
 
-	private String getTypeTest(Type t, String access, Context context) {
+	/**
+	 * Construct a test that a given value is an instance of a given type.
+	 * Primitive types are tested directly, whilst other types are tested using
+	 * a generated type test function.
+	 *
+	 * @param t
+	 * @param access
+	 * @param context
+	 * @return
+	 */
+	private JavaScript.Expr getTypeTest(Type t, JavaScript.Expr access, Context context) {
 		// Handle all non-trivial cases directly
 		if (t instanceof Type.Null) {
-			return access + " === null";
+			return new JavaScript.Operator(EEQ, access, constant(null));
 		} else if (t instanceof Type.Int) {
-			return "typeof " + access + " === \"number\"";
+			// FIXME: this will need to be updated when unbounded arithmetic is
+			// supported
+			return new JavaScript.Operator(EEQ, new JavaScript.Operator(TYPEOF, access), constant("number"));
 		} else if (t instanceof Type.Bool) {
-			return "typeof " + access + " === \"boolean\"";
+			return new JavaScript.Operator(EEQ, new JavaScript.Operator(TYPEOF, access), constant("boolean"));
 		} else {
 			// Fall back case
-			String r = "is$" + getTypeMangle(t) + "(" + access + ")";
 			// Register this type test to be written out as an appropriately
 			// named function.
 			context.typeTests.add(t);
-			return r;
+			return new JavaScript.Invoke(variable("is$" + getTypeMangle(t)), access);
 		}
 	}
 
-
-	private void writeInvariantCheck(LVal lval, Context context) {
+	private void writeInvariantCheck(LVal lval, List<JavaScript.Stmt> stmts) {
 		switch (lval.getOpcode()) {
 		case EXPR_arrayaccess:
 		case EXPR_arrayborrow: {
 			Expr.ArrayAccess e = (Expr.ArrayAccess) lval;
-			writeInvariantCheck((LVal) e.getFirstOperand(), context);
+			writeInvariantCheck((LVal) e.getFirstOperand(), stmts);
 			break;
 		}
 		case EXPR_dereference: {
 			Expr.Dereference e = (Expr.Dereference) lval;
-			writeInvariantCheck((LVal) e.getOperand(), context);
+			writeInvariantCheck((LVal) e.getOperand(), stmts);
 			break;
 		}
 		case EXPR_recordaccess:
 		case EXPR_recordborrow: {
 			Expr.RecordAccess e = (Expr.RecordAccess) lval;
-			writeInvariantCheck((LVal) e.getOperand(), context);
+			writeInvariantCheck((LVal) e.getOperand(), stmts);
 			break;
 		}
 		case EXPR_variablecopy:
 		case EXPR_variablemove: {
 			Expr.VariableAccess e = (Expr.VariableAccess) lval;
-			writeInvariantCheck(e.getVariableDeclaration(), context);
+			writeInvariantCheck(e.getVariableDeclaration(), stmts);
 			break;
 		}
 		default:
@@ -1180,245 +1689,540 @@ public final class JavaScriptFileWriter extends AbstractConsumer<JavaScriptFileW
 		}
 	}
 
-	private void writeInvariantCheck(Decl.Variable var, Context context) {
-		if (debug) {
+	private void writeInvariantCheck(Decl.Variable var, List<JavaScript.Stmt> stmts) {
+		if (isChecked(Checks.FULL)) {
 			// FIXME: This is completely broken. For example, consider the type "nat[]" ...
 			// it gets completely ignored here.
 			Type type = var.getType();
 			if (type instanceof Type.Nominal) {
 				Type.Nominal nom = (Type.Nominal) type;
-				tabIndent(context);
-				out.println("// check type invariant");
-				tabIndent(context);
-				out.print("Wy.assert(");
-				writeName(nom.getName());
-				out.println("$type(" + var.getName().get() + "));");
+				JavaScript.Expr test = new JavaScript.Invoke(variable(writeName(nom.getName()) + "$type"),
+						variable(var.getName().get()));
+				stmts.add(new JavaScript.Comment("check type invariant"));
+				stmts.add(writeAssert(test));
 			}
 		}
 	}
 
-	private void writeInvariantCheck(Tuple<Expr> invariant, String comment, Context context) {
-		if(debug && invariant.size() > 0) {
-			tabIndent(context);
-			out.println("// check " + comment);
+	/**
+	 * Write checks for a given invariant, provided contracts of the given kind
+	 * are checked in the current declaration.
+	 *
+	 * @param invariant
+	 * @param comment
+	 * @param required
+	 *            The level at which this kind of contract is checked.
+	 * @param stmts
+	 */
+	private void writeInvariantCheck(List<JavaScript.Expr> invariant, String comment, Checks required,
+			List<JavaScript.Stmt> stmts) {
+		if(isChecked(required) && invariant.size() > 0) {
+			stmts.add(new JavaScript.Comment("check " + comment));
+			ArrayList<JavaScript.Stmt> asserts = new ArrayList<>();
 			for(int i=0;i!=invariant.size();++i) {
-				tabIndent(context);
-				out.print("Wy.assert(");
-				visitExpression(invariant.get(i), context);
-				out.println(");");
+				asserts.add(writeAssert(invariant.get(i)));
+			}
+			if (sampling && required != Checks.NONE) {
+				// Only check on those occasions sampled at this site
+				stmts.add(new JavaScript.If(invoke("Wy.sample", nextSite()), new JavaScript.Block(asserts)));
+			} else {
+				stmts.addAll(asserts);
 			}
 		}
 	}
 
-	private void writeInfixOperator(Expr.BinaryOperator expr, Context context) {
-		writeBracketedExpression(expr.getFirstOperand(), context);
-		out.print(" ");
-		out.print(opcode(expr.getOpcode()));
-		out.print(" ");
-		writeBracketedExpression(expr.getSecondOperand(), context);
+	/**
+	 * Construct an assertion of a given condition. Each assertion is a separate
+	 * site, for which the runtime counts the number of times it passed and
+	 * failed.
+	 *
+	 * @param condition
+	 * @return
+	 */
+	private JavaScript.Invoke writeAssert(JavaScript.Expr condition) {
+		return invoke("Wy.assert", condition, nextSite());
+	}
+
+	/**
+	 * Construct the identifier for a new site in the module being translated,
+	 * such as <code>"util/math:3"</code>. Sites are numbered in the order they
+	 * are written and, hence, identifiers are stable between builds of the
+	 * same module.
+	 *
+	 * @return
+	 */
+	private JavaScript.Constant nextSite() {
+		return constant(moduleId + ":" + (siteIndex++));
+	}
+
+	/**
+	 * Determine whether contracts checked at a given level are checked in the
+	 * current declaration.
+	 *
+	 * @param required
+	 * @return
+	 */
+	private boolean isChecked(Checks required) {
+		return level.compareTo(required) >= 0;
+	}
+
+	private JavaScript.Expr writeInfixOperator(JavaScript.Operator.Kind kind, Expr.BinaryOperator expr,
+			Context context) {
+		JavaScript.Expr lhs = translate(expr.getFirstOperand(), context);
+		return new JavaScript.Operator(kind, lhs, translate(expr.getSecondOperand(), context));
 	}
 
-	private void writeInfixOperator(Expr.NaryOperator expr, Context context) {
+	private JavaScript.Expr writeInfixOperator(JavaScript.Operator.Kind kind, Expr.NaryOperator expr,
+			Context context) {
 		Tuple<Expr> operands = expr.getOperands();
-		for (int i = 0; i != operands.size(); ++i) {
-			if (i != 0) {
-				out.print(" ");
-				out.print(opcode(expr.getOpcode()));
-				out.print(" ");
-			}
-			writeBracketedExpression(operands.get(i), context);
+		JavaScript.Expr result = translate(operands.get(0), context);
+		for (int i = 1; i != operands.size(); ++i) {
+			result = new JavaScript.Operator(kind, result, translate(operands.get(i), context));
 		}
+		return result;
 	}
 
-	private void writeLVal(LVal lval, Context context) {
+	/**
+	 * Construct an assignment which increments a given variable.
+	 *
+	 * @param var
+	 * @return
+	 */
+	private static JavaScript.Assignment increment(String var) {
+		return new JavaScript.Assignment(variable(var), new JavaScript.Operator(ADD, variable(var), constant(1)));
+	}
+
+	private JavaScript.Expr writeLVal(LVal lval, Context context) {
 		switch (lval.getOpcode()) {
 		case EXPR_arrayaccess:
 		case EXPR_arrayborrow:
-			writeArrayIndexLVal((Expr.ArrayAccess) lval, context);
-			break;
+			return writeArrayIndexLVal((Expr.ArrayAccess) lval, context);
 		case EXPR_dereference:
-			writeDereferenceLVal((Expr.Dereference) lval, context);
-			break;
+			return writeDereferenceLVal((Expr.Dereference) lval, context);
 		case EXPR_recordaccess:
 		case EXPR_recordborrow:
-			writeFieldLoadLVal((Expr.RecordAccess) lval, context);
-			break;
+			return writeFieldLoadLVal((Expr.RecordAccess) lval, context);
 		case EXPR_variablecopy:
 		case EXPR_variablemove:
-			writeVariableAccessLVal((Expr.VariableAccess) lval, context);
-			break;
+			return writeVariableAccessLVal((Expr.VariableAccess) lval, context);
 		default:
 			throw new IllegalArgumentException("invalid lval: " + lval);
 		}
 	}
 
-	private void writeDereferenceLVal(Expr.Dereference expr, Context context) {
-		writeLVal((LVal) expr.getOperand(), context);
-		out.print(".$ref");
+	private JavaScript.Expr writeDereferenceLVal(Expr.Dereference expr, Context context) {
+		return new JavaScript.PropertyAccess(writeLValContainer((LVal) expr.getOperand(), context), "$ref");
 	}
 
-	private void writeArrayIndexLVal(Expr.ArrayAccess expr, Context context) {
-		writeLVal((LVal) expr.getFirstOperand(), context);
-		out.print("[");
-		visitExpression(expr.getSecondOperand(), context);
-		out.print("]");
+	private JavaScript.Expr writeArrayIndexLVal(Expr.ArrayAccess expr, Context context) {
+		JavaScript.Expr container = writeLValContainer((LVal) expr.getFirstOperand(), context);
+		return new JavaScript.ArrayAccess(container, translate(expr.getSecondOperand(), context));
 	}
 
-	private void writeFieldLoadLVal(Expr.RecordAccess expr, Context context) {
-		writeLVal((LVal) expr.getOperand(), context);
-		out.print("." + expr.getField());
+	private JavaScript.Expr writeFieldLoadLVal(Expr.RecordAccess expr, Context context) {
+		JavaScript.Expr container = writeLValContainer((LVal) expr.getOperand(), context);
+		return new JavaScript.PropertyAccess(container, expr.getField().get());
 	}
 
-	private void writeVariableAccessLVal(Expr.VariableAccess expr, Context context) {
+	private JavaScript.Expr writeVariableAccessLVal(Expr.VariableAccess expr, Context context) {
 		Decl.Variable vd = expr.getVariableDeclaration();
-		out.print(vd.getName());
+		return variable(vd.getName().get());
+	}
+
+	/**
+	 * Translate an lval which is being written through (i.e. whose contents
+	 * are being assigned). For the copy-on-write representation, this must
+	 * ensure that every container along the path is not shared before it is
+	 * written. For example, <code>xs[i].f = e</code> becomes
+	 * <code>Wy.ownAt(xs = Wy.own(xs), i).f = e</code>.
+	 *
+	 * @param lval
+	 * @param context
+	 */
+	private JavaScript.Expr writeLValContainer(LVal lval, Context context) {
+		if (!copyOnWrite) {
+			return writeLVal(lval, context);
+		}
+		switch (lval.getOpcode()) {
+		case EXPR_arrayaccess:
+		case EXPR_arrayborrow: {
+			Expr.ArrayAccess e = (Expr.ArrayAccess) lval;
+			JavaScript.Expr container = writeLValContainer((LVal) e.getFirstOperand(), context);
+			return invoke("Wy.ownAt", container, translate(e.getSecondOperand(), context));
+		}
+		case EXPR_dereference: {
+			Expr.Dereference e = (Expr.Dereference) lval;
+			return invoke("Wy.ownAt", writeLValContainer((LVal) e.getOperand(), context), constant("$ref"));
+		}
+		case EXPR_recordaccess:
+		case EXPR_recordborrow: {
+			Expr.RecordAccess e = (Expr.RecordAccess) lval;
+			JavaScript.Expr container = writeLValContainer((LVal) e.getOperand(), context);
+			return invoke("Wy.ownAt", container, constant(e.getField().get()));
+		}
+		case EXPR_variablecopy:
+		case EXPR_variablemove: {
+			String name = ((Expr.VariableAccess) lval).getVariableDeclaration().getName().get();
+			return new JavaScript.Assignment(variable(name), invoke("Wy.own", variable(name)));
+		}
+		default:
+			throw new IllegalArgumentException("invalid lval: " + lval);
+		}
 	}
 
-	private void writeTypeTests(Set<Type> typeTests, Set<Type> allTests) {
-		HashSet<Type> deps = new HashSet<>();
-		for(Type type : typeTests) {
-			out.print("function is$");
-			writeTypeMangle(type);
-			out.print("(val) {");
-			writeTypeTest(type, deps);
-			out.println("}");
-			out.println();
+	/**
+	 * Construct a copy of a given variable. For the copy-on-write
+	 * representation this is a constant-time operation which simply marks the
+	 * value as shared.
+	 *
+	 * @param name
+	 */
+	private JavaScript.Expr writeCopy(String name) {
+		copiesWritten++;
+		if (copyOnWrite) {
+			return invoke("Wy.share", variable(name));
+		} else {
+			return invoke("Wy.copy", variable(name));
+		}
+	}
+
+	/**
+	 * Construct a copy of a given variable of a given type. Records of closed
+	 * types are (deep) copied using a function generated for their type, which
+	 * constructs the copy with the same shape as the original. Otherwise, this
+	 * is the same as above.
+	 *
+	 * @param name
+	 * @param type
+	 * @param context
+	 */
+	private JavaScript.Expr writeCopy(String name, Type type, Context context) {
+		Type.Record record = getConstructorType(type);
+		if (copyOnWrite || record == null) {
+			return writeCopy(name);
+		} else {
+			copiesWritten++;
+			context.copies.add(record);
+			return new JavaScript.Invoke(variable("cp$" + getTypeMangle(record)), variable(name));
 		}
-		deps.removeAll(allTests);
-		allTests.addAll(deps);
-		if(deps.size() > 0) {
-			writeTypeTests(deps,allTests);
+	}
+
+	/**
+	 * Write out the type tests for a given collection of types, along with any
+	 * type tests they depend upon. Type tests are processed from a worklist in
+	 * the order they are first encountered, such that the output is
+	 * deterministic. Since type tests are named by the mangle of their type,
+	 * each mangle is written at most once.
+	 *
+	 * @param typeTests
+	 * @param library
+	 *            The shared library of type tests, or <code>null</code> if
+	 *            all type tests are written out here.
+	 */
+	private void writeTypeTests(Collection<Type> typeTests, Map<String, Type> library) {
+		ArrayDeque<Type> worklist = new ArrayDeque<>(typeTests);
+		HashSet<String> visited = new HashSet<>();
+		LinkedHashSet<Type> deps = new LinkedHashSet<>();
+		while (!worklist.isEmpty()) {
+			Type type = worklist.remove();
+			String mangle = getTypeMangle(type);
+			if (!visited.add(mangle)) {
+				continue;
+			} else if (library != null && isStructural(type)) {
+				// Type test (and its dependencies) written by library instead
+				library.putIfAbsent(mangle, type);
+				continue;
+			}
+			JavaScript.Block body = writeTypeTest(type, deps);
+			write(new JavaScript.Function("is$" + mangle, Arrays.asList("val"), body));
+			typeTestsWritten++;
+			worklist.addAll(deps);
+			deps.clear();
 		}
 	}
 
-	private void writeTypeTest(Type test, Set<Type> deps) {
+	/**
+	 * Write out the equality functions for a given collection of types, along
+	 * with those for any element or field types they depend upon. As for type
+	 * tests, these are processed from a worklist and each mangle is written at
+	 * most once.
+	 *
+	 * @param equalities
+	 */
+	private void writeEqualities(Collection<Type> equalities) {
+		ArrayDeque<Type> worklist = new ArrayDeque<>(equalities);
+		HashSet<String> visited = new HashSet<>();
+		LinkedHashSet<Type> deps = new LinkedHashSet<>();
+		while (!worklist.isEmpty()) {
+			Type type = worklist.remove();
+			String mangle = getTypeMangle(type);
+			if (!visited.add(mangle)) {
+				continue;
+			}
+			JavaScript.Block body;
+			if (type instanceof Type.Array) {
+				body = writeEqualityArray((Type.Array) type, deps);
+			} else {
+				body = writeEqualityRecord((Type.Record) type, deps);
+			}
+			write(new JavaScript.Function("eq$" + mangle, Arrays.asList("a", "b"), body));
+			worklist.addAll(deps);
+			deps.clear();
+		}
+	}
+
+	private static final JavaScript.Variable A = new JavaScript.Variable("a");
+	private static final JavaScript.Variable B = new JavaScript.Variable("b");
+
+	private JavaScript.Block writeEqualityArray(Type.Array type, Set<Type> deps) {
+		JavaScript.Expr length = new JavaScript.Operator(NEQ, new JavaScript.PropertyAccess(A, "length"),
+				new JavaScript.PropertyAccess(B, "length"));
+		JavaScript.Stmt checkLength = new JavaScript.If(length,
+				new JavaScript.Block(new JavaScript.Return(constant(false))));
+		JavaScript.Expr element = getEquality(type.getElement(), new JavaScript.ArrayAccess(A, variable("i")),
+				new JavaScript.ArrayAccess(B, variable("i")), false, deps);
+		JavaScript.Stmt check = new JavaScript.If(element, new JavaScript.Block(new JavaScript.Return(constant(false))));
+		JavaScript.Stmt loop = new JavaScript.For(new JavaScript.VariableDeclaration("i", constant(0)),
+				new JavaScript.Operator(NEQ, variable("i"), new JavaScript.PropertyAccess(A, "length")),
+				increment("i"), new JavaScript.Block(check));
+		return new JavaScript.Block(checkLength, loop, new JavaScript.Return(constant(true)));
+	}
+
+	private JavaScript.Block writeEqualityRecord(Type.Record type, Set<Type> deps) {
+		JavaScript.Expr condition = constant(true);
+		Tuple<Decl.Variable> fields = type.getFields();
+		for (int i = 0; i != fields.size(); ++i) {
+			Decl.Variable field = fields.get(i);
+			String name = field.getName().get();
+			JavaScript.Expr e = getEquality(field.getType(), new JavaScript.PropertyAccess(A, name),
+					new JavaScript.PropertyAccess(B, name), true, deps);
+			condition = i == 0 ? e : new JavaScript.Operator(AND, condition, e);
+		}
+		return new JavaScript.Block(new JavaScript.Return(condition));
+	}
+
+	/**
+	 * Construct the copy functions for a given collection of record types,
+	 * along with those for any field types they depend upon. Each copy is
+	 * constructed using the constructor for its type. As for type tests,
+	 * these are processed from a worklist and each mangle is constructed at
+	 * most once.
+	 *
+	 * @param copies
+	 * @param records
+	 *            Records the types whose constructors are required.
+	 * @param functions
+	 *            The list to which the copy functions are added.
+	 */
+	private void writeCopies(Collection<Type.Record> copies, Set<Type.Record> records,
+			List<JavaScript.Stmt> functions) {
+		ArrayDeque<Type.Record> worklist = new ArrayDeque<>(copies);
+		HashSet<String> visited = new HashSet<>();
+		while (!worklist.isEmpty()) {
+			Type.Record type = worklist.remove();
+			String mangle = getTypeMangle(type);
+			if (!visited.add(mangle)) {
+				continue;
+			}
+			Tuple<Decl.Variable> fields = type.getFields();
+			ArrayList<JavaScript.Expr> values = new ArrayList<>();
+			for (int i = 0; i != fields.size(); ++i) {
+				Decl.Variable field = fields.get(i);
+				JavaScript.Expr value = new JavaScript.PropertyAccess(A, field.getName().get());
+				Type.Record fieldType = getConstructorType(field.getType());
+				if (isCopyable(field.getType(), null)) {
+					values.add(value);
+				} else if (fieldType != null) {
+					worklist.add(fieldType);
+					values.add(new JavaScript.Invoke(variable("cp$" + getTypeMangle(fieldType)), value));
+				} else {
+					values.add(invoke("Wy.copy", value));
+				}
+			}
+			records.add(type);
+			JavaScript.Expr copy = new JavaScript.New(variable("R$" + mangle), values);
+			functions.add(new JavaScript.Function("cp$" + mangle, Arrays.asList("a"),
+					new JavaScript.Block(new JavaScript.Return(copy))));
+		}
+	}
+
+	/**
+	 * Write out the constructors for a given collection of record types. Each
+	 * constructor initialises the fields of its type in a fixed order and,
+	 * hence, all records it constructs share the same shape. The runtime
+	 * identifies records by their constructor property, which is inherited
+	 * from a prototype derived from that of <code>Wy.Record</code>. This
+	 * prototype also provides a (shallow) clone, such that records copied by
+	 * the runtime retain the shape of their type. Each mangle is written at
+	 * most once.
+	 *
+	 * @param records
+	 */
+	private void writeConstructors(Collection<Type.Record> records) {
+		HashSet<String> visited = new HashSet<>();
+		for (Type.Record type : records) {
+			String mangle = getTypeMangle(type);
+			if (!visited.add(mangle)) {
+				continue;
+			}
+			String name = "R$" + mangle;
+			Tuple<Decl.Variable> fields = type.getFields();
+			ArrayList<String> parameters = new ArrayList<>();
+			ArrayList<JavaScript.Stmt> stmts = new ArrayList<>();
+			ArrayList<JavaScript.Expr> values = new ArrayList<>();
+			for (int i = 0; i != fields.size(); ++i) {
+				// NOTE: field names cannot be used as parameters, since they
+				// may be reserved words in JavaScript (e.g. class).
+				String field = fields.get(i).getName().get();
+				String parameter = "a" + i;
+				parameters.add(parameter);
+				stmts.add(new JavaScript.Assignment(new JavaScript.PropertyAccess(THIS, field), variable(parameter)));
+				values.add(new JavaScript.PropertyAccess(A, field));
+			}
+			write(new JavaScript.Function(name, parameters, new JavaScript.Block(stmts)));
+			JavaScript.Function clone = new JavaScript.Function(null, Arrays.asList("a"),
+					new JavaScript.Block(new JavaScript.Return(new JavaScript.New(variable(name), values))));
+			write(new JavaScript.Assignment(new JavaScript.PropertyAccess(variable(name), "prototype"),
+					invoke("Wy.Record.shape", clone)));
+		}
+	}
+
+	private static final JavaScript.Variable THIS = new JavaScript.Variable("this");
+
+	private JavaScript.Block writeTypeTest(Type test, Set<Type> deps) {
 		if(test instanceof Type.Null) {
-			writeTypeTestNull((Type.Primitive) test,deps);
+			return writeTypeTestNull((Type.Primitive) test,deps);
 		} else if(test instanceof Type.Bool) {
-			writeTypeTestBool((Type.Primitive) test,deps);
+			return writeTypeTestBool((Type.Primitive) test,deps);
 		} else if(test instanceof Type.Byte) {
 			// FIXME: This is clear incorrect. However, there is no better
 			// alternative. The good news is that the byte type is slated to be
 			// removed in future versions of Whiley and, hence, this problem
 			// will go away.
-			writeTypeTestInt((Type.Primitive) test,deps);
+			return writeTypeTestInt((Type.Primitive) test,deps);
 		} else if(test instanceof Type.Int) {
-			writeTypeTestInt((Type.Primitive) test,deps);
+			return writeTypeTestInt((Type.Primitive) test,deps);
 		} else if(test instanceof Type.Nominal) {
-			writeTypeTestNominal((Type.Nominal) test,deps);
+			return writeTypeTestNominal((Type.Nominal) test,deps);
 		} else if(test instanceof Type.Array) {
-			writeTypeTestArray((Type.Array) test,deps);
+			return writeTypeTestArray((Type.Array) test,deps);
 		} else if(test instanceof Type.Reference) {
-			writeTypeTestReference((Type.Reference) test,deps);
+			return writeTypeTestReference((Type.Reference) test,deps);
 		} else if(test instanceof Type.Record) {
-			writeTypeTestRecord((Type.Record) test,deps);
+			return writeTypeTestRecord((Type.Record) test,deps);
 		} else if(test instanceof Type.Callable) {
-			writeTypeTestFunctionOrMethod((Type.Callable) test,deps);
+			return writeTypeTestFunctionOrMethod((Type.Callable) test,deps);
 		} else if(test instanceof Type.Union) {
-			writeTypeTestUnion((Type.Union) test,deps);
+			return writeTypeTestUnion((Type.Union) test,deps);
 		} else if(test instanceof Type.Intersection) {
-			writeTypeTestIntersection((Type.Intersection) test,deps);
+			return writeTypeTestIntersection((Type.Intersection) test,deps);
 		} else {
 			throw new RuntimeException("unknown type encountered: " + test);
 		}
 	}
 
-	private void writeTypeTestNull(Type.Primitive test, Set<Type> deps) {
-		out.print(" return val === null; ");
+	private static final JavaScript.Variable VAL = new JavaScript.Variable("val");
+
+	private JavaScript.Block writeTypeTestNull(Type.Primitive test, Set<Type> deps) {
+		return new JavaScript.Block(new JavaScript.Return(new JavaScript.Operator(EEQ, VAL, constant(null))));
 	}
 
-	private void writeTypeTestBool(Type.Primitive test, Set<Type> deps) {
-		out.print(" return typeof val === \"boolean\"; ");
+	private JavaScript.Block writeTypeTestBool(Type.Primitive test, Set<Type> deps) {
+		JavaScript.Expr type = new JavaScript.Operator(TYPEOF, VAL);
+		return new JavaScript.Block(new JavaScript.Return(new JavaScript.Operator(EEQ, type, constant("boolean"))));
 	}
 
-	private void writeTypeTestInt(Type.Primitive test, Set<Type> deps) {
-		out.print(" return typeof val === \"number\"; ");
+	private JavaScript.Block writeTypeTestInt(Type.Primitive test, Set<Type> deps) {
+		JavaScript.Expr type = new JavaScript.Operator(TYPEOF, VAL);
+		return new JavaScript.Block(new JavaScript.Return(new JavaScript.Operator(EEQ, type, constant("number"))));
 	}
 
-	private void writeTypeTestNominal(Type.Nominal test, Set<Type> deps) {
+	private JavaScript.Block writeTypeTestNominal(Type.Nominal test, Set<Type> deps) {
 		// FIXME: this is so horrendously broken
 		Name name = test.getName();
-		try {
-			Decl.Type td = typeSystem.resolveExactly(name, Decl.Type.class);
-			out.print(" return is$");
-			writeTypeMangle(td.getVariableDeclaration().getType());
-			out.print("(val) && " + name.getLast() + "$type(val); ");
-			//
-		deps.add(td.getVariableDeclaration().getType());
-		} catch (ResolutionError e) {
-			throw new RuntimeException(e);
-		}
+		Type type = getUnderlyingType(test);
+		JavaScript.Expr lhs = new JavaScript.Invoke(variable("is$" + getTypeMangle(type)), VAL);
+		JavaScript.Expr rhs = new JavaScript.Invoke(variable(name.getLast().get() + "$type"), VAL);
+		//
+		deps.add(type);
+		return new JavaScript.Block(new JavaScript.Return(new JavaScript.Operator(AND, lhs, rhs)));
 	}
 
-	private static int variableIndex = 0;
-
-	private void writeTypeTestArray(Type.Array test, Set<Type> deps) {
-		out.println();
-		tabIndent(1);
-		out.println("if(val != null && val.constructor === Array) {");
-		tabIndent(2);
+	/**
+	 * Counter used to generate unique loop variables within type tests. This
+	 * is per-writer (rather than global) so that the generated output for a
+	 * given file does not depend on what other files were translated before
+	 * it.
+	 */
+	private int variableIndex = 0;
+
+	private JavaScript.Block writeTypeTestArray(Type.Array test, Set<Type> deps) {
+		ArrayList<JavaScript.Stmt> body = new ArrayList<>();
+		JavaScript.Expr condition;
+		if (typedArrays) {
+			condition = invoke("Wy.isArray", VAL);
+			if (test.getElement() instanceof Type.Byte) {
+				// Every element of a Uint8Array is a byte by construction. This
+				// cannot be done for other typed arrays, since their storage
+				// bounds need not match the invariant of the element type (e.g.
+				// an i32[] is held in an Int32Array but need not be a u8[]).
+				JavaScript.Expr typed = new JavaScript.Operator(INSTANCEOF, VAL, variable("Uint8Array"));
+				body.add(new JavaScript.If(typed, new JavaScript.Block(new JavaScript.Return(constant(true)))));
+			}
+		} else {
+			condition = new JavaScript.Operator(AND, new JavaScript.Operator(NEQ, VAL, constant(null)),
+					new JavaScript.Operator(EEQ, new JavaScript.PropertyAccess(VAL, "constructor"), variable("Array")));
+		}
 		// FIXME: could optimise this in the case of element "any"
 		String var = "i" + (variableIndex++);
-		out.println("for(var x=0;x!=val.length;++x) {".replaceAll("x", var));
-		tabIndent(3);
-		out.print("if(!is$");
-		writeTypeMangle(test.getElement());
-		out.println("(val[" + var +"])) {");
-		tabIndent(4);
-		out.println("return false;");
-		tabIndent(3);
-		out.println("}");
-		tabIndent(2);
-		out.println("}");
-		tabIndent(2);
-		out.println("return true;");
-		tabIndent(1);
-		out.println("}");
-		tabIndent(1);
-		out.println("return false;");
+		JavaScript.Expr element = new JavaScript.ArrayAccess(VAL, variable(var));
+		JavaScript.Expr isElement = new JavaScript.Invoke(variable("is$" + getTypeMangle(test.getElement())), element);
+		JavaScript.Stmt check = new JavaScript.If(new JavaScript.Operator(NOT, isElement),
+				new JavaScript.Block(new JavaScript.Return(constant(false))));
+		body.add(new JavaScript.For(new JavaScript.VariableDeclaration(var, constant(0)),
+				new JavaScript.Operator(NEQ, variable(var), new JavaScript.PropertyAccess(VAL, "length")),
+				increment(var), new JavaScript.Block(check)));
+		body.add(new JavaScript.Return(constant(true)));
 		// Add a follow-on dependency
 		deps.add(test.getElement());
+		return new JavaScript.Block(new JavaScript.If(condition, new JavaScript.Block(body)),
+				new JavaScript.Return(constant(false)));
 	}
 
-	private void writeTypeTestReference(Type.Reference test, Set<Type> deps) {
-		out.println();
-		tabIndent(1);
-		out.println("if(val != null && val.constructor === Wy.Ref) {");
-		tabIndent(2);
-		out.print(" return is$");
-		writeTypeMangle(test.getElement());
-		out.println("(Wy.deref(val));");
-		tabIndent(1);
-		out.println("}");
-		tabIndent(1);
-		out.println("return false;");
+	private JavaScript.Block writeTypeTestReference(Type.Reference test, Set<Type> deps) {
+		JavaScript.Expr condition = new JavaScript.Operator(AND, new JavaScript.Operator(NEQ, VAL, constant(null)),
+				new JavaScript.Operator(EEQ, new JavaScript.PropertyAccess(VAL, "constructor"), name("Wy.Ref")));
+		JavaScript.Expr element = new JavaScript.Invoke(variable("is$" + getTypeMangle(test.getElement())),
+				invoke("Wy.deref", VAL));
 		//
 		deps.add(test.getElement());
+		return new JavaScript.Block(
+				new JavaScript.If(condition, new JavaScript.Block(new JavaScript.Return(element))),
+				new JavaScript.Return(constant(false)));
 	}
 
-	private void writeTypeTestRecord(Type.Record test, Set<Type> deps) {
-		out.println();
-		tabIndent(1);
-		out.print("if(val != null && typeof val === \"object\"");
+	private JavaScript.Block writeTypeTestRecord(Type.Record test, Set<Type> deps) {
+		JavaScript.Expr condition = new JavaScript.Operator(AND, new JavaScript.Operator(NEQ, VAL, constant(null)),
+				new JavaScript.Operator(EEQ, new JavaScript.Operator(TYPEOF, VAL), constant("object")));
 		Tuple<Decl.Variable> fields = test.getFields();
 		if (!test.isOpen()) {
-			out.print(" && Object.keys(val).length === " + fields.size());
+			JavaScript.Expr keys = new JavaScript.PropertyAccess(invoke("Object.keys", VAL), "length");
+			condition = new JavaScript.Operator(AND, condition,
+					new JavaScript.Operator(EEQ, keys, constant(fields.size())));
 		}
-		out.println(") {");
+		ArrayList<JavaScript.Stmt> body = new ArrayList<>();
 		for (int i = 0; i != fields.size(); ++i) {
 			Decl.Variable field = fields.get(i);
-			tabIndent(2);
-			out.print("if(val." + field.getName() + " === \"undefined\" || !is$");
-			writeTypeMangle(field.getType());
-			out.println("(val." + field.getName() + ")) { return false; }");
+			JavaScript.Expr value = new JavaScript.PropertyAccess(VAL, field.getName().get());
+			JavaScript.Expr isField = new JavaScript.Invoke(variable("is$" + getTypeMangle(field.getType())), value);
+			JavaScript.Expr check = new JavaScript.Operator(OR,
+					new JavaScript.Operator(EEQ, value, constant("undefined")), new JavaScript.Operator(NOT, isField));
+			body.add(new JavaScript.If(check, new JavaScript.Block(new JavaScript.Return(constant(false)))));
 			deps.add(field.getType());
 		}
-		tabIndent(2);
-		out.println("return true;");
-		tabIndent(1);
-		out.println("}");
-		tabIndent(1);
-		out.println("return false;");
+		body.add(new JavaScript.Return(constant(true)));
+		return new JavaScript.Block(new JavaScript.If(condition, new JavaScript.Block(body)),
+				new JavaScript.Return(constant(false)));
 	}
 
 	/**
@@ -1430,168 +2234,245 @@ public final class JavaScriptFileWriter extends AbstractConsumer<JavaScriptFileW
 	 * @param test
 	 * @param deps
 	 */
-	private void writeTypeTestFunctionOrMethod(Type.Callable test, Set<Type> deps) {
-		out.println();
-		tabIndent(1);
-		out.println("if(val != null && typeof val === \"function\") {");
+	private JavaScript.Block writeTypeTestFunctionOrMethod(Type.Callable test, Set<Type> deps) {
 		// FIXME: we need to do more here to distinguish functions. We could,
 		// for example, try to embed their signature string.
-		tabIndent(2);
-		out.println("return true;");
-		tabIndent(1);
-		out.println("}");
-		tabIndent(1);
-		out.println("return false;");
+		JavaScript.Expr condition = new JavaScript.Operator(AND, new JavaScript.Operator(NEQ, VAL, constant(null)),
+				new JavaScript.Operator(EEQ, new JavaScript.Operator(TYPEOF, VAL), constant("function")));
+		return new JavaScript.Block(
+				new JavaScript.If(condition, new JavaScript.Block(new JavaScript.Return(constant(true)))),
+				new JavaScript.Return(constant(false)));
 	}
 
-	private void writeTypeTestUnion(Type.Union test, Set<Type> deps) {
-		out.println();
+	private JavaScript.Block writeTypeTestUnion(Type.Union test, Set<Type> deps) {
+		ArrayList<JavaScript.Stmt> body = new ArrayList<>();
 		for(int i=0;i!=test.size();++i) {
 			Type bound = test.get(i);
-			tabIndent(1);
-			out.print("if(is$");
-			writeTypeMangle(bound);
-			out.println("(val)) { return true; }");
+			JavaScript.Expr condition = new JavaScript.Invoke(variable("is$" + getTypeMangle(bound)), VAL);
+			body.add(new JavaScript.If(condition, new JavaScript.Block(new JavaScript.Return(constant(true)))));
 			//
 			deps.add(bound);
 		}
-		tabIndent(1);
-		out.print("return false;");
+		body.add(new JavaScript.Return(constant(false)));
+		return new JavaScript.Block(body);
 	}
 
-	private void writeTypeTestIntersection(Type.Intersection test, Set<Type> deps) {
-		out.println();
+	private JavaScript.Block writeTypeTestIntersection(Type.Intersection test, Set<Type> deps) {
+		ArrayList<JavaScript.Stmt> body = new ArrayList<>();
 		for(int i=0;i!=test.size();++i) {
 			Type bound = test.get(i);
-			tabIndent(1);
-			out.print("if(!is$");
-			writeTypeMangle(bound);
-			out.println("(val)) { return false; }");
+			JavaScript.Expr condition = new JavaScript.Invoke(variable("is$" + getTypeMangle(bound)), VAL);
+			body.add(new JavaScript.If(new JavaScript.Operator(NOT, condition),
+					new JavaScript.Block(new JavaScript.Return(constant(false)))));
 			//
 			deps.add(bound);
 		}
-		tabIndent(1);
-		out.print("return true;");
+		body.add(new JavaScript.Return(constant(true)));
+		return new JavaScript.Block(body);
+	}
+
+	/**
+	 * Get the name of the JavaScript function generated for a function or
+	 * method with a given name and signature. When minifying, this records
+	 * whether the name was mangled and, hence, can be renamed.
+	 *
+	 * @param name
+	 * @param fmt
+	 * @return
+	 */
+	private String getFunctionName(String name, Type.Callable fmt) {
+		String mangle = getFunctionMangle(fmt);
+		if (mangle.isEmpty()) {
+			return name;
+		}
+		name = name + mangle;
+		if (minifier != null) {
+			mangledNames.add(name);
+		}
+		return name;
 	}
 
-	private void writeTypeMangle(Type.Callable fmt) {
+	/**
+	 * Get the mangle appended to the name of a function or method with a given
+	 * signature, as necessary to distinguish overloaded functions.
+	 *
+	 * @param fmt
+	 * @return
+	 */
+	private String getFunctionMangle(Type.Callable fmt) {
+		StringBuilder r = new StringBuilder();
 		Tuple<Type> params = fmt.getParameters();
 		for (int i = 0; i != params.size(); ++i) {
 			if (i == 0) {
-				out.print("_");
+				r.append('_');
 			}
-			writeTypeMangle(params.get(i));
+			r.append(getTypeMangle(params.get(i)));
 		}
+		return r.toString();
 	}
 
-	private void writeTypeMangle(Type t) {
-		out.print(getTypeMangle(t));
+	/**
+	 * Get the mangle for a given type, as used to name type tests and to
+	 * distinguish overloaded functions in the generated code.
+	 *
+	 * @param t
+	 * @return
+	 */
+	public String getTypeMangle(Type t) {
+		String mangle = mangles.get(t);
+		if (mangle == null) {
+			StringBuilder r = new StringBuilder();
+			writeTypeMangle(t, r);
+			mangle = r.toString();
+			mangles.put(t, mangle);
+		}
+		return mangle;
 	}
 
-	private String getTypeMangle(Type t) {
+	private void writeTypeMangle(Type t, StringBuilder r) {
 		if (t instanceof Type.Null) {
-			return "N";
+			r.append('N');
 		} else if (t instanceof Type.Bool) {
-			return "B";
+			r.append('B');
 		} else if (t instanceof Type.Byte) {
-			return "U";
+			r.append('U');
 		} else if (t instanceof Type.Int) {
-			return "I";
+			r.append('I');
 		} else if (t instanceof Type.Array) {
-			return getTypeMangleArray((Type.Array) t);
+			writeTypeMangleArray((Type.Array) t, r);
 		} else if (t instanceof Type.Reference) {
-			return getTypeMangleReference((Type.Reference) t);
+			writeTypeMangleReference((Type.Reference) t, r);
 		} else if (t instanceof Type.Record) {
-			return getTypeMangleRecord((Type.Record) t);
+			writeTypeMangleRecord((Type.Record) t, r);
 		} else if (t instanceof Type.Nominal) {
-			return getTypeMangleNominal((Type.Nominal) t);
+			writeTypeMangleNominal((Type.Nominal) t, r);
 		} else if (t instanceof Type.Callable) {
-			return getTypeMangleFunctionOrMethod((Type.Callable) t);
+			writeTypeMangleFunctionOrMethod((Type.Callable) t, r);
 		} else if (t instanceof Type.Union) {
-			return getTypeMangleUnion((Type.Union) t);
+			writeTypeMangleUnion((Type.Union) t, r);
 		} else if (t instanceof Type.Intersection) {
-			return getTypeMangleIntersection((Type.Intersection) t);
+			writeTypeMangleIntersection((Type.Intersection) t, r);
 		} else {
 			throw new IllegalArgumentException("unknown type encountered: " + t);
 		}
 	}
 
-	private String getTypeMangleArray(Type.Array t) {
-		return "a" + getTypeMangle(t.getElement());
+	private void writeTypeMangleArray(Type.Array t, StringBuilder r) {
+		r.append('a');
+		writeTypeMangle(t.getElement(), r);
 	}
-	private String getTypeMangleReference(Type.Reference t) {
-		String r = "p";
+
+	private void writeTypeMangleReference(Type.Reference t, StringBuilder r) {
+		r.append('p');
 		if (t.hasLifetime()) {
 			String lifetime = t.getLifetime().get();
 			if(lifetime.equals("*")) {
-				r += "_";
+				r.append('_');
 			} else {
-				r += lifetime.length();
-				r += lifetime;
+				r.append(lifetime.length());
+				r.append(lifetime);
 			}
 		} else {
-			r += "0";
+			r.append('0');
 		}
-		return r + getTypeMangle(t.getElement());
+		writeTypeMangle(t.getElement(), r);
 	}
 
-	private String getTypeMangleRecord(Type.Record rt) {
-		String r = "r";
+	private void writeTypeMangleRecord(Type.Record rt, StringBuilder r) {
+		// NOTE: open and closed records must be distinguished, since their type
+		// tests differ.
+		r.append(rt.isOpen() ? 'o' : 'r');
 		Tuple<Decl.Variable> fields = rt.getFields();
-		r += fields.size();
+		r.append(fields.size());
 		for (int i = 0; i != fields.size(); ++i) {
 			Decl.Variable field = fields.get(i);
-			r += getTypeMangle(field.getType());
+			writeTypeMangle(field.getType(), r);
 			String fieldName = field.getName().get();
-			r += fieldName.length();
-			r += fieldName;
+			r.append(fieldName.length());
+			r.append(fieldName);
 		}
-		return r;
 	}
-	private String getTypeMangleNominal(Type.Nominal t) {
+
+	private void writeTypeMangleNominal(Type.Nominal t, StringBuilder r) {
 		// FIXME: need to figure out package
 		String name = t.getName().getLast().get();
-		return "n" + name.length() + name;
+		r.append('n');
+		r.append(name.length());
+		r.append(name);
 	}
 
-	private String getTypeMangleFunctionOrMethod(Type.Callable t) {
-		String r = (t instanceof Type.Function) ? "f" : "m";
+	private void writeTypeMangleFunctionOrMethod(Type.Callable t, StringBuilder r) {
+		r.append((t instanceof Type.Function) ? 'f' : 'm');
 		Tuple<Type> params = t.getParameters();
-		r += params.size();
+		r.append(params.size());
 		for (int i = 0; i != params.size(); ++i) {
-			r += getTypeMangle(params.get(i));
+			writeTypeMangle(params.get(i), r);
 		}
 		Tuple<Type> returns = t.getReturns();
-		r += returns.size();
+		r.append(returns.size());
 		for (int i = 0; i != returns.size(); ++i) {
-			r += getTypeMangle(returns.get(i));
+			writeTypeMangle(returns.get(i), r);
 		}
-		return r + "e";
+		r.append('e');
 	}
 
-	private String getTypeMangleUnion(Type.Union t) {
-		String r = "u";
-		r += t.size();
+	private void writeTypeMangleUnion(Type.Union t, StringBuilder r) {
+		r.append('u');
+		r.append(t.size());
 		for(int i=0;i!=t.size();++i) {
-			r += getTypeMangle(t.get(i));
+			writeTypeMangle(t.get(i), r);
 		}
-		return r;
 	}
 
-	private String getTypeMangleIntersection(Type.Intersection t) {
-		String r = "c";
-		r += t.size();
+	private void writeTypeMangleIntersection(Type.Intersection t, StringBuilder r) {
+		r.append('c');
+		r.append(t.size());
 		for(int i=0;i!=t.size();++i) {
-			r += getTypeMangle(t.get(i));
+			writeTypeMangle(t.get(i), r);
 		}
-		return r;
 	}
 
-	private void writeType(Type t) {
-		if(debug) {
-			out.print("/*");
-			out.print(t);
-			out.print("*/ ");
+	/**
+	 * Check whether a given type is purely structural. That is, it does not
+	 * involve any nominal types.
+	 *
+	 * @param type
+	 * @return
+	 */
+	private boolean isStructural(Type type) {
+		if (type instanceof Type.Nominal) {
+			return false;
+		} else if (type instanceof Type.Array) {
+			return isStructural(((Type.Array) type).getElement());
+		} else if (type instanceof Type.Reference) {
+			return isStructural(((Type.Reference) type).getElement());
+		} else if (type instanceof Type.Record) {
+			Tuple<Decl.Variable> fields = ((Type.Record) type).getFields();
+			for (int i = 0; i != fields.size(); ++i) {
+				if (!isStructural(fields.get(i).getType())) {
+					return false;
+				}
+			}
+			return true;
+		} else if (type instanceof Type.Union) {
+			Type.Union t = (Type.Union) type;
+			for (int i = 0; i != t.size(); ++i) {
+				if (!isStructural(t.get(i))) {
+					return false;
+				}
+			}
+			return true;
+		} else if (type instanceof Type.Intersection) {
+			Type.Intersection t = (Type.Intersection) type;
+			for (int i = 0; i != t.size(); ++i) {
+				if (!isStructural(t.get(i))) {
+					return false;
+				}
+			}
+			return true;
+		} else {
+			// NOTE: type tests for callables don't examine their parameters
+			return true;
 		}
 	}
 
@@ -1614,11 +2495,8 @@ public final class JavaScriptFileWriter extends AbstractConsumer<JavaScriptFileW
 		} else if (type instanceof Type.Reference) {
 			return true;
 		} else if (type instanceof Type.Nominal) {
-			Type.Nominal tn = (Type.Nominal) type;
-			//
 			try {
-				Decl.Type td = typeSystem.resolveExactly(tn.getName(), Decl.Type.class);
-				return isCopyable(td.getType(), context);
+				return resolutions.isCopyable((Type.Nominal) type, t -> isCopyable(t, context));
 			} catch (ResolutionError e) {
 				throw new RuntimeException(e);
 			}
@@ -1627,114 +2505,284 @@ public final class JavaScriptFileWriter extends AbstractConsumer<JavaScriptFileW
 		}
 	}
 
-	private boolean needsBrackets(Expr e) {
-		switch(e.getOpcode()) {
-		case EXPR_cast:
-		case EXPR_integeraddition:
-		case EXPR_integersubtraction:
-		case EXPR_integermultiplication:
-		case EXPR_integerdivision:
-		case EXPR_integerremainder:
-		case EXPR_equal:
-		case EXPR_notequal:
-		case EXPR_integerlessthan:
-		case EXPR_integerlessequal:
-		case EXPR_integergreaterthan:
-		case EXPR_integergreaterequal:
-		case EXPR_logicaland:
-		case EXPR_logicalor:
-		case EXPR_bitwiseor:
-		case EXPR_bitwisexor:
-		case EXPR_bitwiseand:
-		case EXPR_bitwiseshl:
-		case EXPR_bitwiseshr:
-		case EXPR_is:
-		case EXPR_new:
+	/**
+	 * Resolve a nominal type name to its declaration. Since this happens
+	 * frequently, resolutions are cached.
+	 *
+	 * @param name
+	 * @return
+	 * @throws ResolutionError
+	 */
+	private Decl.Type resolveType(Name name) throws ResolutionError {
+		return resolutions.resolveType(name);
+	}
+
+	private Type getUnderlyingType(Type.Nominal type) {
+		try {
+			return resolveType(type.getName()).getType();
+		} catch (ResolutionError e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Translate an expression whose value is stored into a location (e.g. a
+	 * variable or parameter) of a given type. The type of an array constructed
+	 * directly into that location is inferred from its elements alone and,
+	 * hence, may be less precise than the location itself (e.g.
+	 * <code>int[]</code> rather than <code>i32[]</code>). Therefore, the
+	 * location's type is used to determine whether typed array storage can be
+	 * used. Conversely, when a value which may contain typed arrays is stored
+	 * into a location of a different type (e.g. <code>i32[]</code> into
+	 * <code>int[]</code>), those typed arrays are converted into plain arrays
+	 * since values written through that location need not be bounded.
+	 *
+	 * @param expr
+	 * @param target
+	 * @param context
+	 */
+	private JavaScript.Expr writeExpression(Expr expr, Type target, Context context) {
+		String constructor = getTypedArrayConstructor(target);
+		// NOTE: getTypes() is only non-null for expressions producing
+		// multiple values, in which case getType() is undefined.
+		Type type = expr.getTypes() == null ? expr.getType() : null;
+		if (constructor != null && expr instanceof Expr.ArrayGenerator) {
+			return writeArrayGenerator((Expr.ArrayGenerator) expr, constructor, context);
+		} else if (constructor != null && expr instanceof Expr.ArrayInitialiser) {
+			return writeArrayInitialiser((Expr.ArrayInitialiser) expr, constructor, context);
+		} else if (typedArrays && type != null && !type.equals(target)
+				&& containsTypedArray(type, new HashSet<>())) {
+			return invoke("Wy.untyped", translate(expr, context));
+		} else {
+			return translate(expr, context);
+		}
+	}
+
+	/**
+	 * Determine whether values of a given type may contain typed arrays, either
+	 * directly or within arrays and records. References are not considered,
+	 * since the values they refer to cannot be converted without breaking
+	 * aliasing.
+	 *
+	 * @param type
+	 * @param visited
+	 *            Nominal types already visited, to prevent infinite recursion
+	 *            on recursive types.
+	 * @return
+	 */
+	private boolean containsTypedArray(Type type, Set<Name> visited) {
+		if (getTypedArrayConstructor(type) != null) {
 			return true;
+		} else if (type instanceof Type.Array) {
+			return containsTypedArray(((Type.Array) type).getElement(), visited);
+		} else if (type instanceof Type.Record) {
+			Tuple<Decl.Variable> fields = ((Type.Record) type).getFields();
+			for (int i = 0; i != fields.size(); ++i) {
+				if (containsTypedArray(fields.get(i).getType(), visited)) {
+					return true;
+				}
+			}
+			return false;
+		} else if (type instanceof Type.Union) {
+			Type.Union union = (Type.Union) type;
+			for (int i = 0; i != union.size(); ++i) {
+				if (containsTypedArray(union.get(i), visited)) {
+					return true;
+				}
+			}
+			return false;
+		} else if (type instanceof Type.Nominal) {
+			Type.Nominal nominal = (Type.Nominal) type;
+			return visited.add(nominal.getName()) && containsTypedArray(getUnderlyingType(nominal), visited);
+		} else {
+			return false;
 		}
-		return false;
 	}
 
-	private static String opcode(int k) {
-		switch(k) {
-		case EXPR_integernegation:
-			return "-";
-		case EXPR_logicalnot:
-			return "!";
-		case EXPR_bitwisenot:
-			return "~";
-		case EXPR_dereference:
-			return "*";
-		// Binary
-		case EXPR_integeraddition:
-			return "+";
-		case EXPR_integersubtraction:
-			return "-";
-		case EXPR_integermultiplication:
-			return "*";
-		case EXPR_integerdivision:
-			return "/";
-		case EXPR_integerremainder:
-			return "%";
-		case EXPR_equal:
-			return "==";
-		case EXPR_notequal:
-			return "!=";
+	/**
+	 * Determine the typed array constructor (if any) used to represent values
+	 * of a given array type. Arrays of bytes are represented using
+	 * <code>Uint8Array</code>, whilst arrays of integers are represented using
+	 * <code>Int32Array</code> only when the element type's invariant provably
+	 * bounds it to 32 bits. Otherwise, a plain JavaScript array is used.
+	 *
+	 * @param type
+	 * @return
+	 */
+	private String getTypedArrayConstructor(Type type) {
+		if (typedArrays && type instanceof Type.Nominal) {
+			return getTypedArrayConstructor(getUnderlyingType((Type.Nominal) type));
+		} else if (typedArrays && type instanceof Type.Array) {
+			Type element = ((Type.Array) type).getElement();
+			if (element instanceof Type.Byte) {
+				return "Uint8Array";
+			}
+			BigInteger[] bounds = getIntegerBounds(element);
+			if (bounds != null && bounds[0] != null && bounds[1] != null
+					&& bounds[0].compareTo(INT32_MIN) >= 0 && bounds[1].compareTo(INT32_MAX) <= 0) {
+				return "Int32Array";
+			}
+		}
+		return null;
+	}
+
+	private static final BigInteger INT32_MIN = BigInteger.valueOf(Integer.MIN_VALUE);
+	private static final BigInteger INT32_MAX = BigInteger.valueOf(Integer.MAX_VALUE);
+
+	/**
+	 * Determine the lower and upper bounds of an integer type, as implied by
+	 * the invariants of any nominal types involved. Either bound is
+	 * <code>null</code> if unbounded, whilst <code>null</code> is returned if
+	 * the type is not an integer type.
+	 *
+	 * @param type
+	 * @return
+	 */
+	private BigInteger[] getIntegerBounds(Type type) {
+		if (type instanceof Type.Int) {
+			return new BigInteger[2];
+		} else if (type instanceof Type.Nominal) {
+			Decl.Type td;
+			try {
+				td = resolveType(((Type.Nominal) type).getName());
+			} catch (ResolutionError e) {
+				throw new RuntimeException(e);
+			}
+			Decl.Variable var = td.getVariableDeclaration();
+			BigInteger[] bounds = getIntegerBounds(var.getType());
+			if (bounds != null) {
+				Tuple<Expr> invariant = td.getInvariant();
+				for (int i = 0; i != invariant.size(); ++i) {
+					narrowIntegerBounds(invariant.get(i), var, bounds);
+				}
+			}
+			return bounds;
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Narrow the bounds of a given variable using a clause from a type
+	 * invariant. Only conjunctions of comparisons between the variable and
+	 * integer constants are considered, since these are sufficient for the
+	 * usual fixed-width integer types.
+	 *
+	 * @param clause
+	 * @param var
+	 * @param bounds
+	 */
+	private void narrowIntegerBounds(Expr clause, Decl.Variable var, BigInteger[] bounds) {
+		switch (clause.getOpcode()) {
+		case EXPR_logicaland: {
+			Tuple<Expr> operands = ((Expr.LogicalAnd) clause).getOperands();
+			for (int i = 0; i != operands.size(); ++i) {
+				narrowIntegerBounds(operands.get(i), var, bounds);
+			}
+			break;
+		}
 		case EXPR_integerlessthan:
-			return "<";
 		case EXPR_integerlessequal:
-			return "<=";
 		case EXPR_integergreaterthan:
-			return ">";
-		case EXPR_integergreaterequal:
-			return ">=";
-		case EXPR_logicaland:
-			return "&&";
-		case EXPR_logicalor:
-			return "||";
-		case EXPR_logicaliff:
-			return "==";
-		case EXPR_bitwiseor:
-			return "|";
-		case EXPR_bitwisexor:
-			return "^";
-		case EXPR_bitwiseand:
-			return "&";
-		case EXPR_bitwiseshl:
-			return "<<";
-		case EXPR_bitwiseshr:
-			return ">>";
-		case EXPR_is:
-			return "is";
-		case EXPR_new:
-			return "new";
+		case EXPR_integergreaterequal: {
+			Expr.BinaryOperator c = (Expr.BinaryOperator) clause;
+			Expr lhs = c.getFirstOperand();
+			Expr rhs = c.getSecondOperand();
+			boolean less = clause.getOpcode() == EXPR_integerlessthan
+					|| clause.getOpcode() == EXPR_integerlessequal;
+			boolean strict = clause.getOpcode() == EXPR_integerlessthan
+					|| clause.getOpcode() == EXPR_integergreaterthan;
+			BigInteger constant;
+			if (isVariable(lhs, var) && (constant = getIntegerConstant(rhs)) != null) {
+				// var < c, var <= c, var > c or var >= c
+			} else if (isVariable(rhs, var) && (constant = getIntegerConstant(lhs)) != null) {
+				// c < var, c <= var, c > var or c >= var
+				less = !less;
+			} else {
+				break;
+			}
+			if (less) {
+				BigInteger upper = strict ? constant.subtract(BigInteger.ONE) : constant;
+				bounds[1] = bounds[1] == null ? upper : bounds[1].min(upper);
+			} else {
+				BigInteger lower = strict ? constant.add(BigInteger.ONE) : constant;
+				bounds[0] = bounds[0] == null ? lower : bounds[0].max(lower);
+			}
+			break;
+		}
 		default:
-			throw new IllegalArgumentException("unknown operator kind : " + k);
+			// Other clauses are conservatively ignored
 		}
 	}
 
-	private void tabIndent(Context context) {
-		tabIndent(context.indent);
+	private static boolean isVariable(Expr e, Decl.Variable var) {
+		switch (e.getOpcode()) {
+		case EXPR_variablecopy:
+		case EXPR_variablemove:
+			return ((Expr.VariableAccess) e).getVariableDeclaration() == var;
+		default:
+			return false;
+		}
 	}
 
-	private void tabIndent(int indent) {
-		indent = indent * 4;
-		for (int i = 0; i < indent; ++i) {
-			out.print(" ");
+	private static BigInteger getIntegerConstant(Expr e) {
+		if (e instanceof Expr.Constant && ((Expr.Constant) e).getValue() instanceof Value.Int) {
+			return ((Value.Int) ((Expr.Constant) e).getValue()).get();
+		} else if (e instanceof Expr.IntegerNegation) {
+			BigInteger constant = getIntegerConstant(((Expr.IntegerNegation) e).getOperand());
+			return constant == null ? null : constant.negate();
+		} else {
+			return null;
 		}
 	}
 
-	public static class Context {
-		public final int indent;
-		public final HashSet<Type> typeTests;
+	/**
+	 * The levels at which contracts can be checked at runtime, in order of
+	 * increasing cost. Each level checks everything the previous level does.
+	 */
+	public enum Checks {
+		/**
+		 * No contracts are checked.
+		 */
+		NONE,
+		/**
+		 * Preconditions are checked on entry to each function or method, and
+		 * fail statements are checked.
+		 */
+		ENTRY,
+		/**
+		 * Postconditions are also checked on return from each function or
+		 * method.
+		 */
+		BOUNDARIES,
+		/**
+		 * Loop invariants and the invariants of nominal types are also
+		 * checked.
+		 */
+		FULL
+	}
 
-		public Context(int indent, HashSet<Type> typeTests) {
-			this.indent = indent;
+	public static class Context {
+		/**
+		 * Types for which type tests are required, in the order they were
+		 * first encountered.
+		 */
+		public final Set<Type> typeTests;
+		/**
+		 * Types for which equality functions are required.
+		 */
+		public final Set<Type> equalities = new LinkedHashSet<>();
+		/**
+		 * Record types for which copy functions are required.
+		 */
+		public final Set<Type.Record> copies = new LinkedHashSet<>();
+		/**
+		 * Record types for which constructors are required.
+		 */
+		public final Set<Type.Record> records = new LinkedHashSet<>();
+
+		public Context(Set<Type> typeTests) {
 			this.typeTests = typeTests;
 		}
-
-		public Context indent() {
-			return new Context(indent+1,typeTests);
-		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,630 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.io;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.util.List;
+
+import wyjs.core.JavaScript;
+import wyjs.core.JavaScript.*;
+import wyjs.core.SourceMap;
+
+/**
+ * Writes JavaScript terms in a textual form. Brackets are written only where
+ * required by the precedence of the operators involved and, hence, the
+ * printed form of a term never contains redundant brackets. Function
+ * expressions are written on a single line, whilst statements are otherwise
+ * written one per line. In compact mode, comments are omitted and whitespace
+ * is only written where necessary to separate tokens, except that each
+ * top-level statement is written on its own line.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class JavaScriptPrinter {
+	private final PrintWriter out;
+	/**
+	 * Current indentation level.
+	 */
+	private int indent = 0;
+	/**
+	 * Counts the function expressions currently being written. When this is
+	 * non-zero, statements are written on a single line without comments.
+	 */
+	private int inline = 0;
+	/**
+	 * Determines whether output is written in compact form.
+	 */
+	private boolean compact = false;
+	/**
+	 * The last character written, or a newline at the start of a line.
+	 */
+	private char last = '\n';
+	/**
+	 * Source map to which mappings are added, or <code>null</code> if none.
+	 */
+	private SourceMap sourceMap = null;
+	/**
+	 * Source location for the next text written, or <code>null</code> if none
+	 * is pending.
+	 */
+	private SourceLocation location = null;
+	/**
+	 * Current (zero-based) line and column in the output. These are only
+	 * maintained when writing a source map.
+	 */
+	private int line = 0;
+	private int column = 0;
+
+	public JavaScriptPrinter(PrintWriter out) {
+		this.out = out;
+	}
+
+	public void setCompact(boolean flag) {
+		this.compact = flag;
+	}
+
+	/**
+	 * Set the source map to which mappings are added for the source locations
+	 * encountered. The generated positions are relative to the output at the
+	 * point this is set.
+	 *
+	 * @param sourceMap
+	 */
+	public void setSourceMap(SourceMap sourceMap) {
+		this.sourceMap = sourceMap;
+	}
+
+	/**
+	 * Write a top-level statement. A function declaration is followed by a
+	 * blank line, in order to separate it from what follows (except in compact
+	 * mode).
+	 *
+	 * @param stmt
+	 */
+	public void print(Stmt stmt) {
+		writeStatement(stmt);
+		if (compact) {
+			if (!(stmt instanceof Comment || stmt instanceof SourceLocation)) {
+				println();
+			}
+		} else if (stmt instanceof JavaScript.Function) {
+			println();
+		}
+	}
+
+	/**
+	 * Get the textual form of a given expression, such as for embedding it
+	 * within a comment.
+	 *
+	 * @param expr
+	 * @return
+	 */
+	public static String toString(Expr expr) {
+		StringWriter buffer = new StringWriter();
+		PrintWriter writer = new PrintWriter(buffer);
+		new JavaScriptPrinter(writer).writeExpression(expr);
+		writer.flush();
+		return buffer.toString();
+	}
+
+	// =========================================================================
+	// Statements
+	// =========================================================================
+
+	private void writeStatement(Stmt stmt) {
+		if (stmt instanceof SourceLocation) {
+			// Applies to whatever is written next
+			location = (SourceLocation) stmt;
+			return;
+		} else if (stmt instanceof Comment) {
+			// NOTE: comments are not mapped to the source
+			SourceLocation pending = location;
+			location = null;
+			writeComment((Comment) stmt);
+			location = pending;
+			return;
+		}
+		tabIndent();
+		if (stmt instanceof Block) {
+			writeBlock((Block) stmt);
+		} else if (stmt instanceof VariableDeclaration) {
+			writeVariableDeclaration((VariableDeclaration) stmt);
+			write(";");
+		} else if (stmt instanceof Assignment) {
+			writeAssignment((Assignment) stmt);
+			write(";");
+		} else if (stmt instanceof Invoke) {
+			writeInvoke((Invoke) stmt);
+			write(";");
+		} else if (stmt instanceof If) {
+			writeIf((If) stmt);
+		} else if (stmt instanceof While) {
+			writeWhile((While) stmt);
+		} else if (stmt instanceof DoWhile) {
+			writeDoWhile((DoWhile) stmt);
+		} else if (stmt instanceof For) {
+			writeFor((For) stmt);
+		} else if (stmt instanceof Switch) {
+			writeSwitch((Switch) stmt);
+		} else if (stmt instanceof Labelled) {
+			writeLabelled((Labelled) stmt);
+		} else if (stmt instanceof Return) {
+			writeReturn((Return) stmt);
+		} else if (stmt instanceof Break) {
+			write("break;");
+		} else if (stmt instanceof Continue) {
+			write("continue;");
+		} else if (stmt instanceof JavaScript.Function) {
+			writeFunction((JavaScript.Function) stmt);
+		} else {
+			throw new IllegalArgumentException("unknown statement encountered: " + stmt);
+		}
+		newline();
+	}
+
+	private void writeComment(Comment stmt) {
+		if (inline == 0 && !compact) {
+			tabIndent();
+			write("// ");
+			write(stmt.getText());
+			newline();
+		}
+	}
+
+	/**
+	 * Write a block of statements enclosed in braces. The opening brace is
+	 * written on the current line, whilst the closing brace is written on its
+	 * own line.
+	 *
+	 * @param block
+	 */
+	private void writeBlock(Block block) {
+		if (block.size() == 0) {
+			write("{}");
+		} else {
+			write("{");
+			newline();
+			indent++;
+			for (int i = 0; i != block.size(); ++i) {
+				writeStatement(block.get(i));
+			}
+			indent--;
+			tabIndent();
+			write("}");
+		}
+	}
+
+	private void writeVariableDeclaration(VariableDeclaration stmt) {
+		separator("var ");
+		for (int i = 0; i != stmt.size(); ++i) {
+			if (i != 0) {
+				separator(", ");
+			}
+			write(stmt.getName(i));
+			Expr initialiser = stmt.getInitialiser(i);
+			if (initialiser != null) {
+				separator(" = ");
+				writeExpression(initialiser, JavaScript.PRECEDENCE_ASSIGNMENT);
+			}
+		}
+	}
+
+	private void writeIf(If stmt) {
+		write("if(");
+		writeExpression(stmt.getCondition());
+		separator(") ");
+		writeBlock(stmt.getTrueBranch());
+		if (stmt.hasFalseBranch()) {
+			Block falseBranch = stmt.getFalseBranch();
+			if (falseBranch.size() == 1 && falseBranch.get(0) instanceof If) {
+				// Chain of conditionals
+				separator(" else ");
+				writeIf((If) falseBranch.get(0));
+			} else if (falseBranch.size() == 2 && falseBranch.get(0) instanceof SourceLocation
+					&& falseBranch.get(1) instanceof If) {
+				// Chain of conditionals with source location
+				separator(" else ");
+				writeStatement(falseBranch.get(0));
+				writeIf((If) falseBranch.get(1));
+			} else {
+				separator(" else ");
+				writeBlock(falseBranch);
+			}
+		}
+	}
+
+	private void writeWhile(While stmt) {
+		write("while(");
+		writeExpression(stmt.getCondition());
+		separator(") ");
+		writeBlock(stmt.getBody());
+	}
+
+	private void writeDoWhile(DoWhile stmt) {
+		separator("do ");
+		writeBlock(stmt.getBody());
+		separator(" while(");
+		writeExpression(stmt.getCondition());
+		write(");");
+	}
+
+	private void writeFor(For stmt) {
+		write("for(");
+		writeVariableDeclaration(stmt.getInitialiser());
+		separator("; ");
+		writeExpression(stmt.getCondition());
+		separator("; ");
+		writeExpression(stmt.getIncrement());
+		separator(") ");
+		writeBlock(stmt.getBody());
+	}
+
+	private void writeSwitch(Switch stmt) {
+		write("switch(");
+		writeExpression(stmt.getCondition());
+		separator(") {");
+		newline();
+		indent++;
+		for (Case c : stmt.getCases()) {
+			if (c.isDefault()) {
+				tabIndent();
+				write("default:");
+				newline();
+			} else {
+				for (Expr value : c.getValues()) {
+					tabIndent();
+					separator("case ");
+					writeExpression(value);
+					write(":");
+					newline();
+				}
+			}
+			indent++;
+			Block body = c.getBody();
+			for (int i = 0; i != body.size(); ++i) {
+				writeStatement(body.get(i));
+			}
+			indent--;
+		}
+		indent--;
+		tabIndent();
+		write("}");
+	}
+
+	private void writeLabelled(Labelled stmt) {
+		write(stmt.getLabel());
+		separator(": ");
+		writeBlock(stmt.getBody());
+	}
+
+	private void writeReturn(Return stmt) {
+		if (stmt.hasOperand()) {
+			separator("return ");
+			writeExpression(stmt.getOperand());
+			write(";");
+		} else {
+			write("return;");
+		}
+	}
+
+	// =========================================================================
+	// Expressions
+	// =========================================================================
+
+	private void writeExpression(Expr expr) {
+		writeExpression(expr, 0);
+	}
+
+	/**
+	 * Write an expression which is used in a context requiring at least a
+	 * given precedence. If the expression binds less tightly than this, it is
+	 * bracketed.
+	 *
+	 * @param expr
+	 * @param precedence
+	 */
+	private void writeExpression(Expr expr, int precedence) {
+		boolean needsBrackets = expr.getPrecedence() < precedence;
+		if (needsBrackets) {
+			write("(");
+		}
+		if (expr instanceof Constant) {
+			writeConstant((Constant) expr);
+		} else if (expr instanceof Variable) {
+			write(((Variable) expr).getName());
+		} else if (expr instanceof Operator) {
+			writeOperator((Operator) expr);
+		} else if (expr instanceof PropertyAccess) {
+			writePropertyAccess((PropertyAccess) expr);
+		} else if (expr instanceof ArrayAccess) {
+			writeArrayAccess((ArrayAccess) expr);
+		} else if (expr instanceof ArrayLiteral) {
+			writeArrayLiteral((ArrayLiteral) expr);
+		} else if (expr instanceof ObjectLiteral) {
+			writeObjectLiteral((ObjectLiteral) expr);
+		} else if (expr instanceof Invoke) {
+			writeInvoke((Invoke) expr);
+		} else if (expr instanceof New) {
+			writeNew((New) expr);
+		} else if (expr instanceof Assignment) {
+			writeAssignment((Assignment) expr);
+		} else if (expr instanceof JavaScript.Function) {
+			writeFunction((JavaScript.Function) expr);
+		} else {
+			throw new IllegalArgumentException("unknown expression encountered: " + expr);
+		}
+		if (needsBrackets) {
+			write(")");
+		}
+	}
+
+	private void writeConstant(Constant expr) {
+		Object value = expr.getValue();
+		if (value instanceof String) {
+			writeString((String) value);
+		} else {
+			write(value);
+		}
+	}
+
+	private void writeString(String str) {
+		StringBuilder r = new StringBuilder("\"");
+		for (int i = 0; i != str.length(); ++i) {
+			char c = str.charAt(i);
+			switch (c) {
+			case '"':
+				r.append("\\\"");
+				break;
+			case '\\':
+				r.append("\\\\");
+				break;
+			case '\n':
+				r.append("\\n");
+				break;
+			case '\r':
+				r.append("\\r");
+				break;
+			case '\t':
+				r.append("\\t");
+				break;
+			default:
+				if (c < 0x20 || c > 0x7E) {
+					r.append(String.format("\\u%04x", (int) c));
+				} else {
+					r.append(c);
+				}
+			}
+		}
+		r.append("\"");
+		// NOTE: written as a whole, since it is a single token
+		write(r);
+	}
+
+	private void writeOperator(Operator expr) {
+		Operator.Kind kind = expr.getKind();
+		int precedence = kind.getPrecedence();
+		if (kind.isUnary()) {
+			separator(kind.getSymbol());
+			Expr operand = expr.getOperand(0);
+			if (kind == Operator.Kind.NEG) {
+				// Bracket negative operands to avoid writing "--"
+				writeExpression(operand, precedence + 1);
+			} else {
+				writeExpression(operand, precedence);
+			}
+		} else {
+			// NOTE: binary operators are left associative
+			writeExpression(expr.getOperand(0), precedence);
+			separator(" ");
+			write(kind.getSymbol());
+			separator(" ");
+			writeExpression(expr.getOperand(1), precedence + 1);
+		}
+	}
+
+	private void writePropertyAccess(PropertyAccess expr) {
+		writeMemberSource(expr.getSource());
+		write(".");
+		write(expr.getProperty());
+	}
+
+	private void writeArrayAccess(ArrayAccess expr) {
+		writeMemberSource(expr.getSource());
+		write("[");
+		writeExpression(expr.getIndex());
+		write("]");
+	}
+
+	/**
+	 * Write the source of a member access or invocation. Integer literals
+	 * must be bracketed here, since otherwise the dot would be read as a
+	 * decimal point.
+	 *
+	 * @param source
+	 */
+	private void writeMemberSource(Expr source) {
+		if (source instanceof Constant && ((Constant) source).getValue() instanceof BigInteger) {
+			writeExpression(source, JavaScript.PRECEDENCE_PRIMARY + 1);
+		} else {
+			writeExpression(source, JavaScript.PRECEDENCE_MEMBER);
+		}
+	}
+
+	private void writeArrayLiteral(ArrayLiteral expr) {
+		write("[");
+		writeExpressions(expr.getElements());
+		write("]");
+	}
+
+	private void writeObjectLiteral(ObjectLiteral expr) {
+		List<String> fields = expr.getFields();
+		List<Expr> values = expr.getValues();
+		write("{");
+		for (int i = 0; i != fields.size(); ++i) {
+			if (i != 0) {
+				separator(", ");
+			}
+			write(fields.get(i));
+			separator(": ");
+			writeExpression(values.get(i), JavaScript.PRECEDENCE_ASSIGNMENT);
+		}
+		write("}");
+	}
+
+	private void writeInvoke(Invoke expr) {
+		writeMemberSource(expr.getReceiver());
+		write("(");
+		writeExpressions(expr.getArguments());
+		write(")");
+	}
+
+	private void writeNew(New expr) {
+		separator("new ");
+		writeMemberSource(expr.getConstructor());
+		write("(");
+		writeExpressions(expr.getArguments());
+		write(")");
+	}
+
+	private void writeAssignment(Assignment expr) {
+		writeExpression(expr.getLeftHandSide(), JavaScript.PRECEDENCE_MEMBER);
+		separator(" = ");
+		// NOTE: assignment is right associative
+		writeExpression(expr.getRightHandSide(), JavaScript.PRECEDENCE_ASSIGNMENT);
+	}
+
+	private void writeFunction(JavaScript.Function expr) {
+		write("function");
+		if (expr.getName() != null) {
+			separator(" ");
+			write(expr.getName());
+		}
+		write("(");
+		List<String> parameters = expr.getParameters();
+		for (int i = 0; i != parameters.size(); ++i) {
+			if (i != 0) {
+				separator(", ");
+			}
+			write(parameters.get(i));
+		}
+		separator(") ");
+		if (expr.getName() == null) {
+			// Function expressions are written on a single line
+			inline++;
+			writeBlock(expr.getBody());
+			inline--;
+		} else {
+			writeBlock(expr.getBody());
+		}
+	}
+
+	private void writeExpressions(List<Expr> exprs) {
+		for (int i = 0; i != exprs.size(); ++i) {
+			if (i != 0) {
+				separator(", ");
+			}
+			writeExpression(exprs.get(i), JavaScript.PRECEDENCE_ASSIGNMENT);
+		}
+	}
+
+	// =========================================================================
+	// Helpers
+	// =========================================================================
+
+	/**
+	 * Write a fragment of text. In compact mode, a space is written first if
+	 * the fragment would otherwise be joined with the preceding one into a
+	 * different token (e.g. <code>return x</code> or <code>a - -1</code>).
+	 * Therefore, each fragment must itself consist of whole tokens.
+	 *
+	 * @param text
+	 */
+	private void write(Object text) {
+		String str = String.valueOf(text);
+		if (str.isEmpty()) {
+			return;
+		} else if (compact && isJoined(last, str.charAt(0))) {
+			out.print(" ");
+			column++;
+		}
+		if (sourceMap != null) {
+			if (location != null && !str.trim().isEmpty()) {
+				sourceMap.add(line, column, location.getOffset());
+				location = null;
+			}
+			column += str.length();
+		}
+		out.print(str);
+		last = str.charAt(str.length() - 1);
+	}
+
+	/**
+	 * Write a separator, such as <code>", "</code> or <code>" = "</code>. Any
+	 * whitespace around the separator is only for readability and, hence, is
+	 * omitted in compact mode.
+	 *
+	 * @param separator
+	 */
+	private void separator(String separator) {
+		write(compact ? separator.trim() : separator);
+	}
+
+	private void newline() {
+		if (compact) {
+			return;
+		} else if (inline == 0) {
+			println();
+		} else {
+			write(" ");
+		}
+	}
+
+	private void println() {
+		out.println();
+		last = '\n';
+		line++;
+		column = 0;
+	}
+
+	private void tabIndent() {
+		if (inline == 0 && !compact) {
+			for (int i = 0; i < indent * 4; ++i) {
+				write(" ");
+			}
+		}
+	}
+
+	/**
+	 * Check whether two adjacent characters would be read as part of the same
+	 * token, such that whitespace is required between them.
+	 *
+	 * @param previous
+	 * @param next
+	 * @return
+	 */
+	private static boolean isJoined(char previous, char next) {
+		if (isIdentifierPart(previous) && isIdentifierPart(next)) {
+			return true;
+		} else {
+			return (previous == '-' || previous == '+') && previous == next;
+		}
+	}
+
+	private static boolean isIdentifierPart(char c) {
+		return Character.isLetterOrDigit(c) || c == '$' || c == '_';
+	}
+}
@@ -13,24 +13,64 @@
 // limitations under the License.
 package wyjs.tasks;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import wybs.lang.Build;
 import wybs.lang.Build.Graph;
+import wybs.lang.NameResolver.ResolutionError;
+import wybs.lang.SyntacticHeap;
+import wybs.lang.SyntacticItem;
 import wycc.util.Logger;
 import wycc.util.Pair;
 import wyfs.lang.Path;
 import wyfs.lang.Path.Entry;
 import wyfs.lang.Path.Root;
+import wyfs.util.Trie;
 import wyil.type.TypeSystem;
 import wyc.lang.WhileyFile;
+import wyc.lang.WhileyFile.Decl;
+import wyc.lang.WhileyFile.Type;
 import wyjs.core.JavaScriptFile;
+import wyjs.core.SourceMap;
 import wyjs.io.JavaScriptFileWriter;
+import wyjs.io.JavaScriptFileWriter.Checks;
+import wyjs.util.BuildCache;
+import wyjs.util.BuildMetrics;
+import wyjs.util.ResolutionCache;
 
 public class JavaScriptCompileTask implements Build.Task {
 	/**
@@ -51,6 +91,140 @@ public class JavaScriptCompileTask implements Build.Task {
 	 */
 	protected boolean debug = true;
 
+	/**
+	 * Determines which contracts are checked at runtime, unless overridden for
+	 * particular modules or functions.
+	 */
+	protected Checks checks = Checks.FULL;
+
+	/**
+	 * Overrides of the contracts checked, keyed by module (e.g.
+	 * <code>util/math</code>) or function (e.g.
+	 * <code>util/math::sqrt</code>).
+	 */
+	protected Map<String, Checks> checkOverrides = Collections.emptyMap();
+
+	/**
+	 * Enable sampling of contract checks. In this case, preconditions,
+	 * postconditions and loop invariants are only checked on those occasions
+	 * selected by the sampling policy of the runtime (e.g. every hundredth
+	 * time a given check is reached).
+	 */
+	protected boolean sampling = false;
+
+	/**
+	 * Enable instrumentation of generated functions. In this case, each
+	 * function, method and lambda records the number of times it is called
+	 * with the runtime, keyed by its name and mangle. This can then be
+	 * exported as a flat profile.
+	 */
+	protected boolean instrument = false;
+
+	/**
+	 * Enable timing of instrumented functions. In this case, the time spent in
+	 * each call is also recorded using <code>performance.now()</code>.
+	 */
+	protected boolean timing = false;
+
+	/**
+	 * Enable the copy-on-write representation of arrays and records.
+	 */
+	protected boolean copyOnWrite = false;
+
+	/**
+	 * Enable elision of provably unnecessary copies. When logging, the number
+	 * of copies elided in each file is reported.
+	 */
+	protected boolean elide = false;
+
+	/**
+	 * Enable typed array backing for arrays of bytes and of bounded integers.
+	 * Such arrays are then stored contiguously as <code>Uint8Array</code> or
+	 * <code>Int32Array</code>, which requires a runtime supporting typed
+	 * arrays.
+	 */
+	protected boolean typedArrays = false;
+
+	/**
+	 * Enable optimisation of the generated JavaScript. This performs constant
+	 * folding, dead code elimination and the elimination of repeated array
+	 * length and dereference operations on the translated code before it is
+	 * written.
+	 */
+	protected boolean optimise = false;
+
+	/**
+	 * Enable minification of the generated JavaScript for production use. This
+	 * omits comments and unnecessary whitespace, shortens the names of local
+	 * variables and mangled globals, and writes byte literals as numbers.
+	 * Exported functions retain their names.
+	 */
+	protected boolean minify = false;
+
+	/**
+	 * Number of threads to use when translating files. When this is greater
+	 * than one, files are translated in parallel using a fork-join pool.
+	 * Otherwise, they are translated sequentially on the calling thread.
+	 */
+	protected int threads = 1;
+
+	/**
+	 * Enable streaming mode. In this mode, files are not translated into an
+	 * in-memory buffer during the build. Instead, each file is translated
+	 * directly into its destination as soon as it is read. Thus, only one
+	 * file (and the JavaScript constructed for it) is held in memory at any
+	 * time. This does not apply when generating source maps or a shared type
+	 * test library, since these require all files to be translated first.
+	 * Likewise, streamed files are always translated sequentially.
+	 */
+	protected boolean streaming = false;
+
+	/**
+	 * Name of the shared type test library, or null if type tests should be
+	 * written into each generated file. When set, the type tests required by
+	 * all files in the build are written once into a separate file with this
+	 * name. This must then be loaded before any of the generated files. Since
+	 * the library is regenerated from the files being built, it only covers
+	 * all modules on a full build. Streaming is not supported in this mode,
+	 * since every file must be translated before the library can be written.
+	 */
+	protected String typeTestLibrary = null;
+
+	/**
+	 * Enable generation of source maps. In this case, a source map relating
+	 * each generated file back to its Whiley source file is written alongside
+	 * it. When disabled, source locations are not tracked at all. Streaming is
+	 * not supported in this mode, since a source map is only complete once its
+	 * file has been translated, and files may be flushed in any order.
+	 */
+	protected boolean sourceMaps = false;
+
+	/**
+	 * Location of the Whiley source files relative to the root of the
+	 * generated files, as written into each source map (e.g.
+	 * <code>"../src/"</code>).
+	 */
+	protected String sourceRoot = "";
+
+	/**
+	 * Persistent cache used to skip files which are unchanged since they were
+	 * last translated, or null if every file should be translated. A file is
+	 * unchanged if its contents, the contents of any type declarations it
+	 * depends upon from other modules and the options affecting translation
+	 * are all unchanged. Since both share state between all files in the
+	 * build, the cache is not used when minifying or generating a shared type
+	 * test library.
+	 */
+	protected BuildCache cache = null;
+
+	/**
+	 * Records the cost of translating each file, or null if this is not
+	 * recorded. This includes the time and memory allocated for each phase of
+	 * translation, along with the number of bytes, copies and type tests
+	 * written.
+	 */
+	protected BuildMetrics metrics = null;
+
 	/**
 	 * For logging information.
 	 */
@@ -69,6 +243,74 @@ public class JavaScriptCompileTask implements Build.Task {
 		this.debug = debug;
 	}
 
+	public void setChecks(Checks checks, Map<String, Checks> overrides) {
+		this.checks = checks;
+		this.checkOverrides = overrides;
+	}
+
+	public void setSampling(boolean sampling) {
+		this.sampling = sampling;
+	}
+
+	public void setInstrument(boolean instrument) {
+		this.instrument = instrument;
+	}
+
+	public void setTiming(boolean timing) {
+		this.timing = timing;
+	}
+
+	public void setCopyOnWrite(boolean copyOnWrite) {
+		this.copyOnWrite = copyOnWrite;
+	}
+
+	public void setElide(boolean elide) {
+		this.elide = elide;
+	}
+
+	public void setTypedArrays(boolean typedArrays) {
+		this.typedArrays = typedArrays;
+	}
+
+	public void setOptimise(boolean optimise) {
+		this.optimise = optimise;
+	}
+
+	public void setMinify(boolean minify) {
+		this.minify = minify;
+	}
+
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("invalid number of threads: " + threads);
+		}
+		this.threads = threads;
+	}
+
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	public void setTypeTestLibrary(String name) {
+		this.typeTestLibrary = name;
+	}
+
+	public void setSourceMaps(boolean sourceMaps) {
+		this.sourceMaps = sourceMaps;
+	}
+
+	public void setSourceRoot(String sourceRoot) {
+		this.sourceRoot = sourceRoot;
+	}
+
+	public void setCache(BuildCache cache) {
+		this.cache = cache;
+	}
+
+	public void setMetrics(BuildMetrics metrics) {
+		this.metrics = metrics;
+	}
+
 	@Override
 	public Build.Project project() {
 		return project;
@@ -84,17 +326,131 @@ public class JavaScriptCompileTask implements Build.Task {
 		// Translate files
 		// ========================================================================
 		HashSet<Path.Entry<?>> generatedFiles = new HashSet<>();
-
+		// Type mangles are shared between all files in the build, since the
+		// same types typically arise across many files.
+		Map<Type, String> mangles = new ConcurrentHashMap<>();
+		// Likewise, resolved nominal types are shared between all files in
+		// the build.
+		ResolutionCache resolutions = new ResolutionCache(typeSystem);
+		// Type tests shared between all files are sorted by mangle to ensure
+		// the library is deterministic. Since distinct structural types have
+		// distinct mangles, which type is registered first does not matter.
+		Map<String, Type> typeTests = typeTestLibrary == null ? null : new ConcurrentSkipListMap<>();
+		// Shortened names are shared between all files in the build, so they
+		// are chosen consistently between them.
+		Map<String, String> names = minify ? new ConcurrentHashMap<>() : null;
+		ArrayList<Pair<WhileyFile, Path.Entry<JavaScriptFile>>> jobs = new ArrayList<>();
+		ArrayList<SourceMap> maps = new ArrayList<>();
+		BuildCache cache = typeTests == null && names == null ? this.cache : null;
+		// Keys computed for files in this build, whether or not they were
+		// actually translated.
+		LinkedHashMap<String, byte[]> keys = new LinkedHashMap<>();
+		HashMap<String, Long> stamps = new HashMap<>();
+		byte[] configuration = null;
+		boolean unchanged = false;
+		if (cache != null) {
+			// When nothing has changed since the last build, no file needs to
+			// be read in order to determine whether it is unchanged.
+			configuration = getConfigurationKey();
+			for (Pair<Path.Entry<?>, Path.Root> p : delta) {
+				stamps.put(p.first().id().toString(), p.first().lastModified());
+			}
+			unchanged = cache.isUnchanged(configuration, stamps);
+		}
+		// Files are streamed directly to their destination as they are
+		// translated, unless they must be translated together.
+		boolean stream = streaming && typeTests == null && !sourceMaps;
+		int streamed = 0;
+		Path.Root root = null;
+		// NOTE: the build graph, the destination root and the source entries
+		// are not thread safe. Therefore, targets are created and sources read
+		// here on the calling thread before any translation begins.
 		for (Pair<Path.Entry<?>, Path.Root> p : delta) {
 			Path.Root dst = p.second();
+			root = dst;
 			Path.Entry<WhileyFile> source = (Path.Entry<WhileyFile>) p.first();
 			Path.Entry<JavaScriptFile> target = dst.create(source.id(), JavaScriptFile.ContentType);
 			graph.registerDerivation(source, target);
 			generatedFiles.add(target);
-			// Construct the file
-			JavaScriptFile contents = build(source, target);
-			// Write class file into its destination
-			target.write(contents);
+			if (unchanged && isCached(source, target, dst, graph, generatedFiles)) {
+				// Reuse files generated by a previous build
+				continue;
+			}
+			BuildMetrics.FileMetrics fm = metrics == null ? null : metrics.get(source.id().toString());
+			if (fm != null) {
+				fm.enter(BuildMetrics.Phase.READ);
+			}
+			WhileyFile binary = source.read();
+			if (fm != null) {
+				fm.exit();
+			}
+			byte[] key = cache == null ? null : getCacheKey(binary, configuration, resolutions);
+			if (key != null) {
+				keys.put(source.id().toString(), key);
+				if (cache.contains(source.id().toString(), key)
+						&& isCached(source, target, dst, graph, generatedFiles)) {
+					// Reuse files generated by a previous build
+					continue;
+				}
+			}
+			if (stream) {
+				stream(binary, target, mangles, resolutions, names);
+				streamed++;
+				continue;
+			}
+			jobs.add(new Pair<>(binary, target));
+			SourceMap map = sourceMaps ? createSourceMap(source, dst, graph) : null;
+			if (map != null) {
+				generatedFiles.add(map.getEntry());
+			}
+			maps.add(map);
+		}
+		// Construct the files
+		List<JavaScriptFile> contents;
+		if (threads > 1 && jobs.size() > 1) {
+			contents = buildInParallel(jobs, maps, mangles, resolutions, typeTests, names);
+		} else {
+			contents = new ArrayList<>();
+			for (int i = 0; i != jobs.size(); ++i) {
+				Pair<WhileyFile, Path.Entry<JavaScriptFile>> job = jobs.get(i);
+				contents.add(build(job.first(), job.second(), maps.get(i), mangles, resolutions, typeTests, names));
+			}
+		}
+		// Write files into their destination (in the original order)
+		for (int i = 0; i != jobs.size(); ++i) {
+			Path.Entry<JavaScriptFile> target = jobs.get(i).second();
+			JavaScriptFile content = contents.get(i);
+			if (metrics != null) {
+				content = measure(content, target, metrics.get(target.id().toString()));
+			}
+			target.write(content);
+		}
+		// Write source maps (if applicable)
+		for (SourceMap map : maps) {
+			if (map != null) {
+				((Path.Entry<SourceMap>) map.getEntry()).write(map);
+			}
+		}
+		// Record files written, or found to be unchanged (if applicable)
+		for (Map.Entry<String, byte[]> e : keys.entrySet()) {
+			cache.put(e.getKey(), e.getValue(), stamps.get(e.getKey()));
+		}
+		if (cache != null) {
+			cache.setConfiguration(configuration);
+		}
+		// Write the shared type test library (if applicable)
+		if (typeTests != null && root != null) {
+			Path.Entry<JavaScriptFile> target = root.create(Trie.fromString(typeTestLibrary), JavaScriptFile.ContentType);
+			generatedFiles.add(target);
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			JavaScriptFileWriter jsfw = new JavaScriptFileWriter(project, typeSystem, bos, mangles);
+			jsfw.setResolutionCache(resolutions);
+			jsfw.setDebug(debug);
+			jsfw.setTypedArrays(typedArrays);
+			jsfw.setOptimise(optimise);
+			jsfw.setMinify(names);
+			jsfw.applyTypeTests(typeTests.values());
+			target.write(new JavaScriptFile(target, bos.toByteArray()));
 		}
 
 		// ========================================================================
@@ -102,23 +458,448 @@ public class JavaScriptCompileTask implements Build.Task {
 		// ========================================================================
 
 		long endTime = System.currentTimeMillis();
-		logger.logTimedMessage("Wyil => JavaScript: compiled " + delta.size() + " file(s)", endTime - start,
-				memory - runtime.freeMemory());
+		int compiled = jobs.size() + streamed;
+		String skipped = compiled == delta.size() ? "" : " (" + (delta.size() - compiled) + " unchanged)";
+		logger.logTimedMessage("Wyil => JavaScript: compiled " + compiled + " file(s)" + skipped,
+				endTime - start, memory - runtime.freeMemory());
 
 		return generatedFiles;
 	}
 
-	private JavaScriptFile build(Path.Entry<WhileyFile> source, Path.Entry<JavaScriptFile> target) throws IOException {
-		// FIXME: this is a fairly temporary solution at the moment which just
-		// turns the WyIL file directly into a string. A more useful solution
-		// will be to generate an intermediate file representing JavaScript in
-		// an AST. This would enable, for example, better support for different
-		// standards. It would also enable minification, and allow support for
-		// different module systems (e.g. CommonJS).
+	/**
+	 * Translate a number of files in parallel using a fork-join pool. Each
+	 * file is translated by its own writer and, hence, the output produced for
+	 * any given file is identical to that produced when translating
+	 * sequentially. The returned list is in the same order as the given jobs.
+	 *
+	 * @param jobs
+	 * @return
+	 * @throws IOException
+	 */
+	private List<JavaScriptFile> buildInParallel(List<Pair<WhileyFile, Path.Entry<JavaScriptFile>>> jobs,
+			List<SourceMap> maps, Map<Type, String> mangles, ResolutionCache resolutions, Map<String, Type> typeTests,
+			Map<String, String> names) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			ArrayList<ForkJoinTask<JavaScriptFile>> tasks = new ArrayList<>();
+			for (int i = 0; i != jobs.size(); ++i) {
+				Pair<WhileyFile, Path.Entry<JavaScriptFile>> job = jobs.get(i);
+				SourceMap map = maps.get(i);
+				tasks.add(pool.submit(() -> build(job.first(), job.second(), map, mangles, resolutions, typeTests,
+						names)));
+			}
+			ArrayList<JavaScriptFile> contents = new ArrayList<>();
+			for (ForkJoinTask<JavaScriptFile> task : tasks) {
+				contents.add(task.get());
+			}
+			return contents;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw new IOException(cause);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Check whether the files previously generated from a given binary file
+	 * still exist and, if so, register them as generated by this build.
+	 *
+	 * @param source
+	 * @param target
+	 * @param root
+	 * @param graph
+	 * @param generatedFiles
+	 * @return
+	 * @throws IOException
+	 */
+	private boolean isCached(Path.Entry<WhileyFile> source, Path.Entry<JavaScriptFile> target, Path.Root root,
+			Graph graph, Set<Path.Entry<?>> generatedFiles) throws IOException {
+		if (target.lastModified() == 0) {
+			return false;
+		} else if (sourceMaps) {
+			Path.Entry<SourceMap> map = root.create(source.id(), SourceMap.ContentType);
+			if (map.lastModified() == 0) {
+				return false;
+			}
+			graph.registerDerivation(source, map);
+			generatedFiles.add(map);
+		}
+		return true;
+	}
+
+	/**
+	 * Determine the key identifying the output generated for a given binary
+	 * file. This is a hash of the configuration of the build, the contents of
+	 * the file itself and those of any type
+	 * declarations it depends upon from other modules. The latter are
+	 * included since their structure and invariants determine the type tests
+	 * generated, amongst other things.
+	 * Functions and static variables from other modules are only referred to
+	 * by name and, hence, do not affect the output.
+	 *
+	 * @param binary
+	 * @param configuration
+	 * @return
+	 */
+	private byte[] getCacheKey(WhileyFile binary, byte[] configuration, ResolutionCache resolutions) {
+		MessageDigest digest = getDigest();
+		digest.update(configuration);
+		IdentityHashMap<SyntacticItem, Integer> visited = new IdentityHashMap<>();
+		for (int i = 0; i != binary.size(); ++i) {
+			update(digest, binary.getSyntacticItem(i), visited);
+		}
+		// Include type declarations from other modules, in the order they are
+		// first encountered.
+		ArrayDeque<SyntacticItem> worklist = new ArrayDeque<>();
+		for (int i = 0; i != binary.size(); ++i) {
+			worklist.add(binary.getSyntacticItem(i));
+		}
+		Set<Decl.Type> dependencies = Collections.newSetFromMap(new IdentityHashMap<>());
+		while (!worklist.isEmpty()) {
+			SyntacticItem item = worklist.remove();
+			if (item instanceof Type.Nominal) {
+				Decl.Type decl;
+				try {
+					decl = resolutions.resolveType(((Type.Nominal) item).getName());
+				} catch (ResolutionError e) {
+					// Translation will fail anyway
+					continue;
+				}
+				SyntacticHeap heap = decl.getHeap();
+				if (heap != binary && dependencies.add(decl)) {
+					String name = ((WhileyFile) heap).getEntry().id() + ":" + decl.getName();
+					digest.update(name.getBytes(StandardCharsets.UTF_8));
+					update(digest, decl, visited);
+					addAll(decl, worklist, Collections.newSetFromMap(new IdentityHashMap<>()));
+				}
+			}
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Determine the key identifying the configuration of the build. This is a
+	 * hash of the options affecting translation and the version of the
+	 * backend.
+	 *
+	 * @return
+	 */
+	private byte[] getConfigurationKey() {
+		MessageDigest digest = getDigest();
+		String options = "debug=" + debug + ",checks=" + checks + ",overrides=" + new TreeMap<>(checkOverrides)
+				+ ",sample=" + sampling + ",instrument=" + instrument + ",timing=" + timing + ",cow=" + copyOnWrite
+				+ ",elide=" + elide + ",typed=" + typedArrays + ",opt=" + optimise + ",maps=" + sourceMaps + ",root="
+				+ sourceRoot;
+		digest.update(options.getBytes(StandardCharsets.UTF_8));
+		digest.update(getBackendVersion());
+		return digest.digest();
+	}
+
+	private static MessageDigest getDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Identifies the version of the backend itself, so that files generated
+	 * by a different version are never reused from the cache. The
+	 * implementation version cannot be used for this, since it is not
+	 * recorded in the manifest and does not change during development.
+	 * Instead, this is a hash of the classes making up the backend (i.e. of
+	 * the jar file from which they were loaded or, when loaded from a
+	 * directory, of the class files in the <code>wyjs</code> package).
+	 */
+	private static byte[] backendVersion;
+
+	private static synchronized byte[] getBackendVersion() {
+		if (backendVersion == null) {
+			MessageDigest digest = getDigest();
+			try {
+				java.nio.file.Path location = getBackendLocation();
+				if (Files.isDirectory(location)) {
+					location = location.resolve("wyjs");
+				}
+				List<java.nio.file.Path> files;
+				try (Stream<java.nio.file.Path> stream = Files.walk(location)) {
+					files = stream.filter(JavaScriptCompileTask::isBackendFile).sorted().collect(Collectors.toList());
+				}
+				for (java.nio.file.Path file : files) {
+					digest.update(location.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+					digest.update(Files.readAllBytes(file));
+				}
+			} catch (URISyntaxException | IOException | UncheckedIOException | IllegalArgumentException
+					| FileSystemNotFoundException | SecurityException e) {
+				// The classes cannot be located (e.g. they were not loaded
+				// from a jar file or directory). Hence, fall back on the
+				// version of this package, which is better than nothing.
+				digest.reset();
+				Package pkg = JavaScriptCompileTask.class.getPackage();
+				String version = pkg == null ? null : pkg.getImplementationVersion();
+				digest.update(String.valueOf(version).getBytes(StandardCharsets.UTF_8));
+			}
+			backendVersion = digest.digest();
+		}
+		return backendVersion;
+	}
+
+	/**
+	 * Determine the jar file or directory from which the backend was loaded.
+	 *
+	 * @return
+	 * @throws URISyntaxException
+	 * @throws IOException
+	 *             If the location cannot be determined.
+	 */
+	private static java.nio.file.Path getBackendLocation() throws URISyntaxException, IOException {
+		CodeSource source = JavaScriptCompileTask.class.getProtectionDomain().getCodeSource();
+		URL url = source == null ? null : source.getLocation();
+		if (url == null || !url.getProtocol().equals("file")) {
+			throw new IOException("unable to locate backend classes");
+		}
+		return Paths.get(url.toURI());
+	}
+
+	/**
+	 * Determine whether a given file found when locating the backend is part
+	 * of it. When loaded from a directory, this excludes anything other than
+	 * class files along with any test classes compiled into the same
+	 * directory.
+	 *
+	 * @param file
+	 * @return
+	 */
+	private static boolean isBackendFile(java.nio.file.Path file) {
+		if (!Files.isRegularFile(file)) {
+			return false;
+		}
+		String name = file.getFileName().toString();
+		if (name.endsWith(".jar")) {
+			return true;
+		}
+		return name.endsWith(".class") && !name.matches(".*Tests(\\$.*)?\\.class");
+	}
+
+	/**
+	 * Update a digest with the structure of a given syntactic item. Items
+	 * which have been visited before are replaced by a reference, since items
+	 * are frequently shared.
+	 *
+	 * @param digest
+	 * @param item
+	 * @param visited
+	 */
+	private static void update(MessageDigest digest, SyntacticItem item, Map<SyntacticItem, Integer> visited) {
+		Integer index = visited.get(item);
+		if (index != null) {
+			digest.update((byte) 0);
+			updateInt(digest, index);
+			return;
+		}
+		visited.put(item, visited.size());
+		digest.update((byte) 1);
+		updateInt(digest, item.getOpcode());
+		byte[] data = item.getData();
+		updateInt(digest, data == null ? -1 : data.length);
+		if (data != null) {
+			digest.update(data);
+		}
+		updateInt(digest, item.size());
+		for (int i = 0; i != item.size(); ++i) {
+			SyntacticItem operand = item.get(i);
+			if (operand == null) {
+				digest.update((byte) 2);
+			} else {
+				update(digest, operand, visited);
+			}
+		}
+	}
+
+	private static void updateInt(MessageDigest digest, int value) {
+		digest.update(new byte[] { (byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value });
+	}
+
+	/**
+	 * Add a given item and all items reachable from it to a worklist.
+	 *
+	 * @param item
+	 * @param worklist
+	 * @param visited
+	 */
+	private static void addAll(SyntacticItem item, ArrayDeque<SyntacticItem> worklist, Set<SyntacticItem> visited) {
+		if (item != null && visited.add(item)) {
+			worklist.add(item);
+			for (int i = 0; i != item.size(); ++i) {
+				addAll(item.get(i), worklist, visited);
+			}
+		}
+	}
+
+	/**
+	 * Create the source map for a given binary file. This identifies the
+	 * Whiley source file from which it was compiled relative to the source
+	 * root, which is itself adjusted for the depth of the generated file
+	 * within its root. The contents of the source file are also read, since
+	 * they are needed to determine lines and columns. If the source file
+	 * cannot be determined, then no source map is created.
+	 *
+	 * @param source
+	 * @param root
+	 * @param graph
+	 * @return
+	 * @throws IOException
+	 */
+	private SourceMap createSourceMap(Path.Entry<WhileyFile> binary, Path.Root root, Graph graph)
+			throws IOException {
+		Path.Entry<?> source = graph.parent(binary);
+		if (source == null) {
+			return null;
+		}
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		try (InputStream input = source.inputStream()) {
+			byte[] buffer = new byte[4096];
+			for (int n = input.read(buffer); n >= 0; n = input.read(buffer)) {
+				content.write(buffer, 0, n);
+			}
+		}
+		Path.ID id = binary.id();
+		Path.Entry<SourceMap> target = root.create(id, SourceMap.ContentType);
+		graph.registerDerivation(binary, target);
+		StringBuilder prefix = new StringBuilder();
+		for (int i = 1; i < id.size(); ++i) {
+			prefix.append("../");
+		}
+		String file = id.last() + "." + JavaScriptFile.ContentType.getSuffix();
+		String path = String.join("/", id) + "." + source.suffix();
+		return new SourceMap(target, file, prefix + sourceRoot, path, content.toString("UTF-8"));
+	}
+
+	/**
+	 * Wrap a generated file such that the cost of writing it to its
+	 * destination is recorded, along with the number of bytes written. This
+	 * happens when the destination is flushed.
+	 *
+	 * @param content
+	 * @param target
+	 * @param fm
+	 * @return
+	 */
+	private static JavaScriptFile measure(JavaScriptFile content, Path.Entry<JavaScriptFile> target,
+			BuildMetrics.FileMetrics fm) {
+		return new JavaScriptFile(target, output -> {
+			fm.enter(BuildMetrics.Phase.WRITE);
+			CountingOutputStream counter = new CountingOutputStream(output);
+			content.write(counter);
+			fm.exit();
+			fm.addBytes(counter.count);
+		});
+	}
+
+	/**
+	 * Counts the number of bytes written through it.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		private long count;
+
+		public CountingOutputStream(OutputStream output) {
+			super(output);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	/**
+	 * Translate a given binary file directly into the output stream of its
+	 * destination, rather than buffering the generated file in memory. This
+	 * happens as soon as the binary file is read and, hence, neither needs to
+	 * be retained whilst other files are translated. Any translation error is
+	 * reported here, as for any other file. Since the destination is written
+	 * directly, its contents are not written again when it is flushed.
+	 *
+	 * @param source
+	 * @param target
+	 * @throws IOException
+	 */
+	private void stream(WhileyFile source, Path.Entry<JavaScriptFile> target, Map<Type, String> mangles,
+			ResolutionCache resolutions, Map<String, String> names) throws IOException {
+		BuildMetrics.FileMetrics fm = metrics == null ? null : metrics.get(target.id().toString());
+		try (CountingOutputStream output = new CountingOutputStream(
+				new BufferedOutputStream(target.outputStream()))) {
+			write(source, output, null, mangles, resolutions, null, names);
+			output.flush();
+			if (fm != null) {
+				fm.addBytes(output.count);
+			}
+		}
+	}
+
+	private JavaScriptFile build(WhileyFile source, Path.Entry<JavaScriptFile> target, SourceMap map,
+			Map<Type, String> mangles, ResolutionCache resolutions, Map<String, Type> typeTests,
+			Map<String, String> names) {
 		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		JavaScriptFileWriter jsfw = new JavaScriptFileWriter(project,typeSystem,bos);
+		write(source, bos, map, mangles, resolutions, typeTests, names);
+		return new JavaScriptFile(target, bos.toByteArray());
+	}
+
+	private void write(WhileyFile source, OutputStream output, SourceMap map, Map<Type, String> mangles,
+			ResolutionCache resolutions, Map<String, Type> typeTests, Map<String, String> names) {
+		// FIXME: the JavaScript AST constructed by the writer could be used to
+		// support different standards and different module systems (e.g.
+		// CommonJS).
+		JavaScriptFileWriter jsfw = new JavaScriptFileWriter(project,typeSystem,output,mangles);
 		jsfw.setDebug(debug);
-		jsfw.apply(source.read());
-		return new JavaScriptFile(target,bos.toByteArray());
+		jsfw.setChecks(checks, checkOverrides);
+		jsfw.setSampling(sampling);
+		jsfw.setInstrument(instrument);
+		jsfw.setTiming(timing);
+		jsfw.setCopyOnWrite(copyOnWrite);
+		jsfw.setElide(elide);
+		jsfw.setTypedArrays(typedArrays);
+		jsfw.setOptimise(optimise);
+		jsfw.setResolutionCache(resolutions);
+		jsfw.setTypeTestLibrary(typeTests);
+		jsfw.setMinify(names);
+		jsfw.setSourceMap(map);
+		BuildMetrics.FileMetrics fm = metrics == null ? null : metrics.get(source.getEntry().id().toString());
+		jsfw.setMetrics(fm);
+		long start = System.currentTimeMillis();
+		jsfw.apply(source);
+		if (fm != null) {
+			fm.addCounts(jsfw.getCopiesWritten(), jsfw.getCopiesElided(), jsfw.getTypeTestsWritten());
+		}
+		if (elide) {
+			int elided = jsfw.getCopiesElided();
+			int total = elided + jsfw.getCopiesWritten();
+			// NOTE: files may be translated concurrently
+			synchronized (logger) {
+				logger.logTimedMessage("Wyil => JavaScript: elided " + elided + " of " + total + " copies in "
+						+ source.getEntry().id(), System.currentTimeMillis() - start, 0);
+			}
+		}
 	}
 }
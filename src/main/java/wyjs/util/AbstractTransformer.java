@@ -0,0 +1,333 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import wyjs.core.JavaScript;
+import wyjs.core.JavaScript.*;
+
+/**
+ * A simple base class for transformations over JavaScript terms. By default,
+ * every term is traversed and rebuilt from its transformed children. Since
+ * terms are immutable, a term is only rebuilt when one or more of its
+ * children actually changed and, hence, an identity transformation allocates
+ * nothing. Subclasses override the methods for those terms they are
+ * interested in.
+ *
+ * @author David J. Pearce
+ *
+ */
+public abstract class AbstractTransformer {
+
+	public Stmt transform(Stmt stmt) {
+		if (stmt instanceof Block) {
+			return transformBlock((Block) stmt);
+		} else if (stmt instanceof Comment || stmt instanceof SourceLocation) {
+			return stmt;
+		} else if (stmt instanceof VariableDeclaration) {
+			return transformVariableDeclaration((VariableDeclaration) stmt);
+		} else if (stmt instanceof Assignment) {
+			return transformAssignment((Assignment) stmt);
+		} else if (stmt instanceof Invoke) {
+			Expr expr = transformInvoke((Invoke) stmt);
+			// An invocation without side effects may have been simplified away
+			return (expr instanceof Stmt) ? (Stmt) expr : new Block();
+		} else if (stmt instanceof If) {
+			return transformIf((If) stmt);
+		} else if (stmt instanceof While) {
+			return transformWhile((While) stmt);
+		} else if (stmt instanceof DoWhile) {
+			return transformDoWhile((DoWhile) stmt);
+		} else if (stmt instanceof For) {
+			return transformFor((For) stmt);
+		} else if (stmt instanceof Switch) {
+			return transformSwitch((Switch) stmt);
+		} else if (stmt instanceof Labelled) {
+			return transformLabelled((Labelled) stmt);
+		} else if (stmt instanceof Return) {
+			return transformReturn((Return) stmt);
+		} else if (stmt instanceof Break || stmt instanceof Continue) {
+			return stmt;
+		} else if (stmt instanceof JavaScript.Function) {
+			return transformFunction((JavaScript.Function) stmt);
+		} else {
+			throw new IllegalArgumentException("unknown statement encountered: " + stmt);
+		}
+	}
+
+	public Expr transform(Expr expr) {
+		if (expr instanceof Constant) {
+			return expr;
+		} else if (expr instanceof Variable) {
+			return transformVariable((Variable) expr);
+		} else if (expr instanceof Operator) {
+			return transformOperator((Operator) expr);
+		} else if (expr instanceof PropertyAccess) {
+			return transformPropertyAccess((PropertyAccess) expr);
+		} else if (expr instanceof ArrayAccess) {
+			return transformArrayAccess((ArrayAccess) expr);
+		} else if (expr instanceof ArrayLiteral) {
+			return transformArrayLiteral((ArrayLiteral) expr);
+		} else if (expr instanceof ObjectLiteral) {
+			return transformObjectLiteral((ObjectLiteral) expr);
+		} else if (expr instanceof Invoke) {
+			return transformInvoke((Invoke) expr);
+		} else if (expr instanceof New) {
+			return transformNew((New) expr);
+		} else if (expr instanceof Assignment) {
+			return transformAssignment((Assignment) expr);
+		} else if (expr instanceof JavaScript.Function) {
+			return transformFunction((JavaScript.Function) expr);
+		} else {
+			throw new IllegalArgumentException("unknown expression encountered: " + expr);
+		}
+	}
+
+	// =========================================================================
+	// Statements
+	// =========================================================================
+
+	public Block transformBlock(Block block) {
+		List<Stmt> stmts = block.getStatements();
+		List<Stmt> nStmts = transformStatements(stmts);
+		return stmts == nStmts ? block : new Block(nStmts);
+	}
+
+	/**
+	 * Transform a sequence of statements. Any block resulting from the
+	 * transformation of a statement is inlined into the sequence, which is
+	 * safe since variables are scoped at the function level. The original
+	 * list is returned if nothing changed.
+	 *
+	 * @param stmts
+	 * @return
+	 */
+	public List<Stmt> transformStatements(List<Stmt> stmts) {
+		List<Stmt> nStmts = null;
+		for (int i = 0; i != stmts.size(); ++i) {
+			Stmt stmt = stmts.get(i);
+			Stmt nStmt = transform(stmt);
+			if (nStmt != stmt && nStmts == null) {
+				nStmts = new ArrayList<>(stmts.subList(0, i));
+			}
+			if (nStmts != null) {
+				if (nStmt instanceof Block) {
+					nStmts.addAll(((Block) nStmt).getStatements());
+				} else {
+					nStmts.add(nStmt);
+				}
+			}
+		}
+		return nStmts == null ? stmts : nStmts;
+	}
+
+	public Stmt transformVariableDeclaration(VariableDeclaration stmt) {
+		List<Expr> initialisers = stmt.getInitialisers();
+		List<Expr> nInitialisers = transformExpressions(initialisers);
+		return initialisers == nInitialisers ? stmt : new VariableDeclaration(stmt.getNames(), nInitialisers);
+	}
+
+	public Stmt transformIf(If stmt) {
+		Expr condition = transform(stmt.getCondition());
+		Block trueBranch = transformBlock(stmt.getTrueBranch());
+		Block falseBranch = stmt.hasFalseBranch() ? transformBlock(stmt.getFalseBranch()) : null;
+		if (condition == stmt.getCondition() && trueBranch == stmt.getTrueBranch()
+				&& falseBranch == stmt.getFalseBranch()) {
+			return stmt;
+		}
+		return new If(condition, trueBranch, falseBranch);
+	}
+
+	public Stmt transformWhile(While stmt) {
+		Expr condition = transform(stmt.getCondition());
+		Block body = transformBlock(stmt.getBody());
+		if (condition == stmt.getCondition() && body == stmt.getBody()) {
+			return stmt;
+		}
+		return new While(condition, body);
+	}
+
+	public Stmt transformDoWhile(DoWhile stmt) {
+		Block body = transformBlock(stmt.getBody());
+		Expr condition = transform(stmt.getCondition());
+		if (condition == stmt.getCondition() && body == stmt.getBody()) {
+			return stmt;
+		}
+		return new DoWhile(body, condition);
+	}
+
+	public Stmt transformFor(For stmt) {
+		VariableDeclaration initialiser = stmt.getInitialiser();
+		List<Expr> initialisers = initialiser.getInitialisers();
+		List<Expr> nInitialisers = transformExpressions(initialisers);
+		Expr condition = transform(stmt.getCondition());
+		Expr increment = transform(stmt.getIncrement());
+		Block body = transformBlock(stmt.getBody());
+		if (initialisers == nInitialisers && condition == stmt.getCondition() && increment == stmt.getIncrement()
+				&& body == stmt.getBody()) {
+			return stmt;
+		} else if (initialisers != nInitialisers) {
+			initialiser = new VariableDeclaration(initialiser.getNames(), nInitialisers);
+		}
+		return new For(initialiser, condition, increment, body);
+	}
+
+	public Stmt transformSwitch(Switch stmt) {
+		Expr condition = transform(stmt.getCondition());
+		List<Case> cases = stmt.getCases();
+		List<Case> nCases = new ArrayList<>();
+		boolean changed = condition != stmt.getCondition();
+		for (Case c : cases) {
+			List<Expr> values = c.getValues();
+			List<Expr> nValues = transformExpressions(values);
+			Block body = transformBlock(c.getBody());
+			if (values != nValues || body != c.getBody()) {
+				c = new Case(nValues, body);
+				changed = true;
+			}
+			nCases.add(c);
+		}
+		return changed ? new Switch(condition, nCases) : stmt;
+	}
+
+	public Stmt transformLabelled(Labelled stmt) {
+		Block body = transformBlock(stmt.getBody());
+		return body == stmt.getBody() ? stmt : new Labelled(stmt.getLabel(), body);
+	}
+
+	public Stmt transformReturn(Return stmt) {
+		if (stmt.hasOperand()) {
+			Expr operand = transform(stmt.getOperand());
+			return operand == stmt.getOperand() ? stmt : new Return(operand);
+		}
+		return stmt;
+	}
+
+	// =========================================================================
+	// Expressions
+	// =========================================================================
+
+	public Expr transformVariable(Variable expr) {
+		return expr;
+	}
+
+	public Expr transformOperator(Operator expr) {
+		List<Expr> operands = expr.getOperands();
+		List<Expr> nOperands = transformExpressions(operands);
+		return operands == nOperands ? expr : new Operator(expr.getKind(), nOperands);
+	}
+
+	public Expr transformPropertyAccess(PropertyAccess expr) {
+		Expr source = transform(expr.getSource());
+		return source == expr.getSource() ? expr : new PropertyAccess(source, expr.getProperty());
+	}
+
+	public Expr transformArrayAccess(ArrayAccess expr) {
+		Expr source = transform(expr.getSource());
+		Expr index = transform(expr.getIndex());
+		if (source == expr.getSource() && index == expr.getIndex()) {
+			return expr;
+		}
+		return new ArrayAccess(source, index);
+	}
+
+	public Expr transformArrayLiteral(ArrayLiteral expr) {
+		List<Expr> elements = expr.getElements();
+		List<Expr> nElements = transformExpressions(elements);
+		return elements == nElements ? expr : new ArrayLiteral(nElements);
+	}
+
+	public Expr transformObjectLiteral(ObjectLiteral expr) {
+		List<Expr> values = expr.getValues();
+		List<Expr> nValues = transformExpressions(values);
+		return values == nValues ? expr : new ObjectLiteral(expr.getFields(), nValues);
+	}
+
+	public Expr transformInvoke(Invoke expr) {
+		Expr receiver = transform(expr.getReceiver());
+		List<Expr> arguments = expr.getArguments();
+		List<Expr> nArguments = transformExpressions(arguments);
+		if (receiver == expr.getReceiver() && arguments == nArguments) {
+			return expr;
+		}
+		return new Invoke(receiver, nArguments);
+	}
+
+	public Expr transformNew(New expr) {
+		Expr constructor = transform(expr.getConstructor());
+		List<Expr> arguments = expr.getArguments();
+		List<Expr> nArguments = transformExpressions(arguments);
+		if (constructor == expr.getConstructor() && arguments == nArguments) {
+			return expr;
+		}
+		return new New(constructor, nArguments);
+	}
+
+	public Assignment transformAssignment(Assignment expr) {
+		Expr lhs = transform(expr.getLeftHandSide());
+		Expr rhs = transform(expr.getRightHandSide());
+		if (lhs == expr.getLeftHandSide() && rhs == expr.getRightHandSide()) {
+			return expr;
+		}
+		return new Assignment(lhs, rhs);
+	}
+
+	public JavaScript.Function transformFunction(JavaScript.Function expr) {
+		Block body = transformBlock(expr.getBody());
+		return body == expr.getBody() ? expr : new JavaScript.Function(expr.getName(), expr.getParameters(), body);
+	}
+
+	/**
+	 * Transform a list of expressions, any of which may be <code>null</code>.
+	 * The original list is returned if nothing changed.
+	 *
+	 * @param exprs
+	 * @return
+	 */
+	public List<Expr> transformExpressions(List<Expr> exprs) {
+		List<Expr> nExprs = null;
+		for (int i = 0; i != exprs.size(); ++i) {
+			Expr expr = exprs.get(i);
+			Expr nExpr = expr == null ? null : transform(expr);
+			if (nExpr != expr && nExprs == null) {
+				nExprs = new ArrayList<>(exprs);
+			}
+			if (nExprs != null) {
+				nExprs.set(i, nExpr);
+			}
+		}
+		return nExprs == null ? exprs : nExprs;
+	}
+
+	/**
+	 * Get the qualified name of a variable or property access, such as
+	 * <code>Math.floor</code>, or <code>null</code> if it is not of this form.
+	 *
+	 * @param e
+	 * @return
+	 */
+	protected static String getQualifiedName(Expr e) {
+		if (e instanceof Variable) {
+			return ((Variable) e).getName();
+		} else if (e instanceof PropertyAccess) {
+			PropertyAccess p = (PropertyAccess) e;
+			String source = getQualifiedName(p.getSource());
+			return source == null ? null : source + "." + p.getProperty();
+		} else {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,225 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.util;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A persistent index which records, for each module, the key from which its
+ * generated files were last produced. A module whose key is unchanged since
+ * the last build does not need to be translated again, provided its generated
+ * files still exist. The key is a content hash and, hence, is unaffected by
+ * timestamps (e.g. after a branch switch).
+ *
+ * Computing a key requires reading and hashing a module, which is not cheap.
+ * Therefore, the index also records the timestamp of each module when its key
+ * was computed, along with the configuration (i.e. options and backend
+ * version) of the build. If neither the configuration nor the timestamp of any
+ * module has changed, then no key can have changed either. Since the key of a
+ * module depends on types declared in other modules, this only holds for the
+ * tree as a whole.
+ *
+ * The index is stored in a single binary file, which is memory mapped when it
+ * is first accessed. Changes are only written back when the index is flushed,
+ * which should happen after the generated files themselves have been written.
+ * This ensures the index never records a file which was not actually written.
+ * An index which is missing or cannot be read is simply treated as empty.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class BuildCache {
+	/**
+	 * Identifies the index file format. This should be changed whenever the
+	 * format changes, or the translation changes such that previously
+	 * generated files should no longer be reused.
+	 */
+	private static final int MAGIC = 0x574a5302;
+
+	/**
+	 * The file in which the index is stored.
+	 */
+	private final File file;
+
+	/**
+	 * Maps each module to its key, or null if not yet loaded.
+	 */
+	private Map<String, byte[]> keys;
+
+	/**
+	 * Maps each module to its timestamp when its key was computed.
+	 */
+	private Map<String, Long> stamps;
+
+	/**
+	 * The configuration of the build which last updated the index.
+	 */
+	private byte[] configuration;
+
+	/**
+	 * Indicates whether or not the index has changed since it was loaded.
+	 */
+	private boolean modified;
+
+	public BuildCache(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Check whether a given module was last translated from a given key.
+	 *
+	 * @param module
+	 * @param key
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized boolean contains(String module, byte[] key) throws IOException {
+		return Arrays.equals(load().get(module), key);
+	}
+
+	/**
+	 * Check whether the tree is unchanged since the index was last updated.
+	 * That is, whether the build has the same configuration and every given
+	 * module has the same timestamp as when its key was computed.
+	 *
+	 * @param configuration
+	 * @param timestamps
+	 *            Maps each module in the tree to its current timestamp.
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized boolean isUnchanged(byte[] configuration, Map<String, Long> timestamps) throws IOException {
+		load();
+		if (!Arrays.equals(this.configuration, configuration)) {
+			return false;
+		}
+		for (Map.Entry<String, Long> e : timestamps.entrySet()) {
+			if (!e.getValue().equals(stamps.get(e.getKey()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Record the key from which a given module was translated, along with the
+	 * timestamp of the module when the key was computed.
+	 *
+	 * @param module
+	 * @param key
+	 * @param timestamp
+	 * @throws IOException
+	 */
+	public synchronized void put(String module, byte[] key, long timestamp) throws IOException {
+		byte[] old = load().put(module, key);
+		Long oldTimestamp = stamps.put(module, timestamp);
+		modified |= !Arrays.equals(old, key) || oldTimestamp == null || oldTimestamp != timestamp;
+	}
+
+	/**
+	 * Record the configuration of the build updating the index.
+	 *
+	 * @param configuration
+	 * @throws IOException
+	 */
+	public synchronized void setConfiguration(byte[] configuration) throws IOException {
+		load();
+		modified |= !Arrays.equals(this.configuration, configuration);
+		this.configuration = configuration;
+	}
+
+	/**
+	 * Write the index back to disk, if it has changed. The index is written to
+	 * a temporary file first and then moved into place, such that an
+	 * interrupted write cannot leave a corrupt index.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		if (!modified) {
+			return;
+		}
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+			out.writeInt(MAGIC);
+			byte[] config = configuration == null ? new byte[0] : configuration;
+			out.writeInt(config.length);
+			out.write(config);
+			out.writeInt(keys.size());
+			for (Map.Entry<String, byte[]> e : keys.entrySet()) {
+				byte[] module = e.getKey().getBytes(StandardCharsets.UTF_8);
+				out.writeInt(module.length);
+				out.write(module);
+				out.writeInt(e.getValue().length);
+				out.write(e.getValue());
+				out.writeLong(stamps.getOrDefault(e.getKey(), 0L));
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		modified = false;
+	}
+
+	private Map<String, byte[]> load() throws IOException {
+		if (keys == null) {
+			keys = new HashMap<>();
+			stamps = new HashMap<>();
+			if (file.exists()) {
+				try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+					read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+				} catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+					// Index is corrupt, hence everything must be translated again
+					keys.clear();
+					stamps.clear();
+					configuration = null;
+				}
+			}
+		}
+		return keys;
+	}
+
+	private void read(MappedByteBuffer buffer) {
+		if (buffer.remaining() < 4 || buffer.getInt() != MAGIC) {
+			// Index is from a different version
+			return;
+		}
+		configuration = get(buffer);
+		int count = buffer.getInt();
+		for (int i = 0; i != count; ++i) {
+			String module = new String(get(buffer), StandardCharsets.UTF_8);
+			keys.put(module, get(buffer));
+			stamps.put(module, buffer.getLong());
+		}
+	}
+
+	private static byte[] get(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return bytes;
+	}
+}
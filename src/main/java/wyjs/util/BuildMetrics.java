@@ -0,0 +1,277 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Records the cost of translating each file in a build, broken down into
+ * phases, and writes this out as a JSON report. For each phase, both the
+ * elapsed time and the memory allocated are recorded. The latter is measured
+ * per thread (where supported by the JVM) and, hence, is unaffected by
+ * garbage collection or by other files translated concurrently. Where this is
+ * not supported, the memory allocated is reported as <code>null</code>.
+ *
+ * Phases may be nested, in which case the time spent in the inner phase is
+ * not counted towards the outer phase. For example, a file which is streamed
+ * to disk is translated whilst it is being written.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class BuildMetrics {
+	/**
+	 * The phases of translating a file.
+	 */
+	public enum Phase {
+		/**
+		 * Reading the binary file.
+		 */
+		READ("read"),
+		/**
+		 * Traversing the binary file and writing the generated code, excluding
+		 * type tests.
+		 */
+		TRANSLATE("translate"),
+		/**
+		 * Writing the type tests required by the generated code.
+		 */
+		TYPETESTS("typeTests"),
+		/**
+		 * Writing the generated file to its destination.
+		 */
+		WRITE("write");
+
+		private final String name;
+
+		private Phase(String name) {
+			this.name = name;
+		}
+	}
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * The file to which the report is written.
+	 */
+	private final File file;
+
+	/**
+	 * Metrics for each file in the current build, sorted by module such that
+	 * the report is deterministic.
+	 */
+	private final Map<String, FileMetrics> files = new ConcurrentSkipListMap<>();
+
+	public BuildMetrics(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Get the metrics for a given module, creating them if necessary.
+	 *
+	 * @param module
+	 * @return
+	 */
+	public FileMetrics get(String module) {
+		return files.computeIfAbsent(module, FileMetrics::new);
+	}
+
+	/**
+	 * Write out the report for the current build and then discard its
+	 * metrics, ready for the next build. This should happen once all
+	 * generated files have been written.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		FileMetrics total = new FileMetrics(null);
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			writer.write("{\"files\":[");
+			boolean first = true;
+			for (FileMetrics metrics : files.values()) {
+				if (!first) {
+					writer.write(",");
+				}
+				first = false;
+				writer.write("\n  ");
+				metrics.write(writer);
+				total.add(metrics);
+			}
+			writer.write("\n],\"total\":");
+			total.write(writer);
+			writer.write("}\n");
+		}
+		files.clear();
+	}
+
+	/**
+	 * Get the number of bytes allocated so far by the current thread, or
+	 * <code>-1</code> if this is not supported.
+	 *
+	 * @return
+	 */
+	private static long getAllocatedBytes() {
+		if (THREADS instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+			if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+				return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The metrics for a single file. A file is only translated by one thread
+	 * at a time, though not necessarily the same thread throughout.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static class FileMetrics {
+		private final String module;
+		private final long[] time = new long[Phase.values().length];
+		private final long[] allocated = new long[Phase.values().length];
+		private long bytes;
+		private int copies;
+		private int copiesElided;
+		private int typeTests;
+		/**
+		 * The phase currently being measured (if any), along with the phases
+		 * suspended by it.
+		 */
+		private Phase current;
+		private final ArrayDeque<Phase> suspended = new ArrayDeque<>();
+		/**
+		 * The time and allocation at which the current phase was entered or
+		 * last resumed.
+		 */
+		private long startTime;
+		private long startAllocated;
+		/**
+		 * Indicates whether the memory allocated could not be measured at some
+		 * point and, hence, is unknown.
+		 */
+		private boolean unmeasured;
+
+		private FileMetrics(String module) {
+			this.module = module;
+		}
+
+		/**
+		 * Begin measuring a given phase, suspending the current phase (if
+		 * any) until it ends.
+		 *
+		 * @param phase
+		 */
+		public synchronized void enter(Phase phase) {
+			if (current != null) {
+				suspended.push(current);
+			}
+			update(phase);
+		}
+
+		/**
+		 * Finish measuring the current phase, resuming the phase it suspended
+		 * (if any).
+		 */
+		public synchronized void exit() {
+			update(suspended.isEmpty() ? null : suspended.pop());
+		}
+
+		/**
+		 * Record the cost of the current phase so far, and then switch to a
+		 * given phase.
+		 *
+		 * @param phase
+		 */
+		private void update(Phase phase) {
+			long now = System.nanoTime();
+			long allocation = getAllocatedBytes();
+			if (current != null) {
+				time[current.ordinal()] += now - startTime;
+				if (allocation >= 0 && startAllocated >= 0) {
+					allocated[current.ordinal()] += allocation - startAllocated;
+				} else {
+					unmeasured = true;
+				}
+			}
+			current = phase;
+			startTime = now;
+			startAllocated = allocation;
+		}
+
+		public synchronized void addBytes(long bytes) {
+			this.bytes += bytes;
+		}
+
+		/**
+		 * Record the number of copies written and elided, along with the
+		 * number of type tests written, when translating this file.
+		 *
+		 * @param copies
+		 * @param copiesElided
+		 * @param typeTests
+		 */
+		public synchronized void addCounts(int copies, int copiesElided, int typeTests) {
+			this.copies += copies;
+			this.copiesElided += copiesElided;
+			this.typeTests += typeTests;
+		}
+
+		private synchronized void add(FileMetrics metrics) {
+			for (int i = 0; i != time.length; ++i) {
+				time[i] += metrics.time[i];
+				allocated[i] += metrics.allocated[i];
+			}
+			unmeasured |= metrics.unmeasured;
+			addBytes(metrics.bytes);
+			addCounts(metrics.copies, metrics.copiesElided, metrics.typeTests);
+		}
+
+		private synchronized void write(Writer writer) throws IOException {
+			writer.write("{");
+			if (module != null) {
+				writer.write("\"module\":\"" + escape(module) + "\",");
+			}
+			writer.write("\"bytes\":" + bytes + ",\"copies\":" + copies + ",\"copiesElided\":" + copiesElided
+					+ ",\"typeTests\":" + typeTests + ",\"phases\":{");
+			for (Phase phase : Phase.values()) {
+				int i = phase.ordinal();
+				if (i != 0) {
+					writer.write(",");
+				}
+				// Time is given in milliseconds
+				writer.write("\"" + phase.name + "\":{\"time\":"
+						+ String.format(Locale.ROOT, "%.3f", time[i] / 1000000.0) + ",\"allocated\":"
+						+ (unmeasured ? "null" : allocated[i]) + "}");
+			}
+			writer.write("}}");
+		}
+	}
+
+	private static String escape(String str) {
+		return str.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+}
@@ -0,0 +1,758 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import wyjs.core.JavaScript;
+import wyjs.core.JavaScript.*;
+
+/**
+ * Eliminates repeated loads of the form <code>xs.length</code> and
+ * <code>Wy.deref(p)</code> within a function, where <code>xs</code> and
+ * <code>p</code> are variables. The first evaluation of such a load is stored
+ * in a temporary variable (e.g. <code>xs$length</code>) which subsequent
+ * evaluations then reuse, provided the value cannot have changed in between.
+ * For example, <code>xs.length</code> is invalidated by any assignment to
+ * <code>xs</code>, whilst <code>Wy.deref(p)</code> is additionally
+ * invalidated by any assignment to a <code>$ref</code> property and any
+ * invocation which may have side effects. Furthermore, loads evaluated
+ * unconditionally in the condition of a loop are hoisted out of the loop when
+ * nothing in the loop invalidates them. For example:
+ *
+ * <pre>
+ * while(i &lt; xs.length) { ... }
+ * </pre>
+ *
+ * becomes <code>xs$length = xs.length;</code> followed by
+ * <code>while(i &lt; xs$length) { ... }</code> if the loop does not assign
+ * <code>xs</code>. The analysis is conservative. In particular, loads are
+ * only reused along straight-line code, or within the branches of statements
+ * following them, and loads within function expressions are considered
+ * separately.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class CommonSubexpressionElimination extends AbstractTransformer {
+	private static final String LENGTH_SUFFIX = "$length";
+	private static final String DEREF_SUFFIX = "$deref";
+
+	/**
+	 * Invocations which are known to have no side effects affecting the value
+	 * of a dereference.
+	 */
+	private static final Set<String> PURE_FUNCTIONS = new HashSet<>(Arrays.asList("Wy.deref", "Wy.copy", "Wy.share",
+			"Wy.equals", "Wy.array", "Wy.record", "Wy.untyped", "Wy.isArray", "Wy.isTypedArray", "Wy.assert",
+			"Wy.sample", "Wy.enter", "Wy.start", "Wy.stop", "Math.floor", "parseInt"));
+
+	@Override
+	public JavaScript.Function transformFunction(JavaScript.Function function) {
+		List<Stmt> stmts = function.getBody().getStatements();
+		// First, determine which loads can be reused
+		Walker analysis = new Walker(null);
+		analysis.walkStatements(stmts, new HashMap<>());
+		// Second, rewrite the function accordingly
+		Walker rewriter = new Walker(analysis);
+		List<Stmt> nStmts = rewriter.walkStatements(stmts, new HashMap<>());
+		if (!rewriter.temporaries.isEmpty()) {
+			// Declare temporaries at the start of the function
+			List<String> names = new ArrayList<>(rewriter.temporaries);
+			List<Expr> initialisers = new ArrayList<>(Collections.nCopies(names.size(), null));
+			nStmts.add(0, new VariableDeclaration(names, initialisers));
+		} else if (!rewriter.changed) {
+			return function;
+		}
+		return new JavaScript.Function(function.getName(), function.getParameters(), new Block(nStmts));
+	}
+
+	/**
+	 * Traverses the body of a function in evaluation order, tracking which
+	 * loads are available at each point. Loads are identified by the name of
+	 * the temporary which holds them and are mapped to the occurrence which
+	 * defined this. The traversal is performed twice: once to analyse the
+	 * function, and then again to rewrite it. Since both traversals proceed
+	 * in the same order, the occurrences of loads encountered during the
+	 * latter can be matched with the decisions made during the former.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private class Walker {
+		/**
+		 * The analysis this is rewriting with, or <code>null</code> when
+		 * analysing.
+		 */
+		private final Walker analysis;
+		/**
+		 * For each occurrence of a load, the occurrence which defined its value
+		 * (which is itself if it is a definition) or <code>-1</code> if none.
+		 */
+		private final List<Integer> definitions = new ArrayList<>();
+		/**
+		 * Occurrences which are definitions used by some other occurrence.
+		 */
+		private final BitSet reused = new BitSet();
+		/**
+		 * Loads to be hoisted out of each loop, indexed by the order in which
+		 * loops are encountered.
+		 */
+		private final List<Map<String, Expr>> hoists = new ArrayList<>();
+		/**
+		 * Temporaries which are assigned by the rewritten function.
+		 */
+		private final Set<String> temporaries = new LinkedHashSet<>();
+		private int occurrence = 0;
+		private int loops = 0;
+		private boolean changed = false;
+
+		public Walker(Walker analysis) {
+			this.analysis = analysis;
+		}
+
+		// =====================================================================
+		// Statements
+		// =====================================================================
+
+		public List<Stmt> walkStatements(List<Stmt> stmts, Map<String, Integer> available) {
+			ArrayList<Stmt> nStmts = new ArrayList<>();
+			for (int i = 0; i != stmts.size(); ++i) {
+				walkStatement(stmts.get(i), available, nStmts);
+			}
+			return nStmts;
+		}
+
+		private Block walkBlock(Block block, Map<String, Integer> available) {
+			List<Stmt> stmts = block.getStatements();
+			List<Stmt> nStmts = walkStatements(stmts, available);
+			return nStmts.equals(stmts) ? block : new Block(nStmts);
+		}
+
+		private void walkStatement(Stmt stmt, Map<String, Integer> available, List<Stmt> nStmts) {
+			if (stmt instanceof Block) {
+				nStmts.addAll(walkStatements(((Block) stmt).getStatements(), available));
+			} else if (stmt instanceof VariableDeclaration) {
+				nStmts.add(walkVariableDeclaration((VariableDeclaration) stmt, available));
+			} else if (stmt instanceof Assignment || stmt instanceof Invoke) {
+				Expr expr = walkExpression((Expr) stmt, available, false);
+				// NOTE: a load on its own has no effect and can be dropped
+				if (expr instanceof Stmt) {
+					nStmts.add((Stmt) expr);
+				}
+			} else if (stmt instanceof Return) {
+				Return r = (Return) stmt;
+				if (r.hasOperand()) {
+					Expr operand = walkExpression(r.getOperand(), available, false);
+					stmt = operand == r.getOperand() ? r : new Return(operand);
+				}
+				nStmts.add(stmt);
+			} else if (stmt instanceof If) {
+				nStmts.add(walkIf((If) stmt, available));
+			} else if (stmt instanceof Switch) {
+				nStmts.add(walkSwitch((Switch) stmt, available));
+			} else if (stmt instanceof Labelled) {
+				Labelled l = (Labelled) stmt;
+				Block body = walkBlock(l.getBody(), new HashMap<>(available));
+				invalidate(available, l.getBody());
+				nStmts.add(body == l.getBody() ? l : new Labelled(l.getLabel(), body));
+			} else if (stmt instanceof While) {
+				walkWhile((While) stmt, available, nStmts);
+			} else if (stmt instanceof DoWhile) {
+				nStmts.add(walkDoWhile((DoWhile) stmt, available));
+			} else if (stmt instanceof For) {
+				walkFor((For) stmt, available, nStmts);
+			} else if (stmt instanceof JavaScript.Function) {
+				nStmts.add((Stmt) walkExpression((Expr) stmt, available, false));
+			} else {
+				// Comments, source locations, breaks and continues
+				nStmts.add(stmt);
+			}
+		}
+
+		private VariableDeclaration walkVariableDeclaration(VariableDeclaration stmt,
+				Map<String, Integer> available) {
+			List<Expr> initialisers = stmt.getInitialisers();
+			List<Expr> nInitialisers = new ArrayList<>();
+			for (int i = 0; i != stmt.size(); ++i) {
+				Expr initialiser = initialisers.get(i);
+				if (initialiser != null) {
+					initialiser = walkExpression(initialiser, available, false);
+					invalidate(available, stmt.getName(i));
+				}
+				nInitialisers.add(initialiser);
+			}
+			return nInitialisers.equals(initialisers) ? stmt : new VariableDeclaration(stmt.getNames(), nInitialisers);
+		}
+
+		private Stmt walkIf(If stmt, Map<String, Integer> available) {
+			Expr condition = walkExpression(stmt.getCondition(), available, false);
+			Block trueBranch = walkBlock(stmt.getTrueBranch(), new HashMap<>(available));
+			Block falseBranch = null;
+			if (stmt.hasFalseBranch()) {
+				falseBranch = walkBlock(stmt.getFalseBranch(), new HashMap<>(available));
+				invalidate(available, stmt.getFalseBranch());
+			}
+			invalidate(available, stmt.getTrueBranch());
+			if (condition == stmt.getCondition() && trueBranch == stmt.getTrueBranch()
+					&& falseBranch == stmt.getFalseBranch()) {
+				return stmt;
+			}
+			return new If(condition, trueBranch, falseBranch);
+		}
+
+		private Stmt walkSwitch(Switch stmt, Map<String, Integer> available) {
+			Expr condition = walkExpression(stmt.getCondition(), available, false);
+			ArrayList<Case> cases = new ArrayList<>();
+			for (Case c : stmt.getCases()) {
+				// NOTE: case values are constants
+				Block body = walkBlock(c.getBody(), new HashMap<>(available));
+				cases.add(body == c.getBody() ? c : new Case(c.getValues(), body));
+			}
+			for (Case c : stmt.getCases()) {
+				invalidate(available, c.getBody());
+			}
+			if (condition == stmt.getCondition() && cases.equals(stmt.getCases())) {
+				return stmt;
+			}
+			return new Switch(condition, cases);
+		}
+
+		private void walkWhile(While stmt, Map<String, Integer> available, List<Stmt> nStmts) {
+			Set<Term> loop = Collections.singleton(stmt);
+			Map<String, Expr> hoist = getHoists(stmt.getCondition(), loop, available);
+			Map<String, Integer> body = enterLoop(hoist, loop, available, nStmts);
+			Expr condition = walkExpression(stmt.getCondition(), body, false);
+			Block nBody = walkBlock(stmt.getBody(), body);
+			exitLoop(hoist, loop, available, body);
+			if (condition == stmt.getCondition() && nBody == stmt.getBody()) {
+				nStmts.add(stmt);
+			} else {
+				nStmts.add(new While(condition, nBody));
+			}
+		}
+
+		private Stmt walkDoWhile(DoWhile stmt, Map<String, Integer> available) {
+			Set<Term> loop = Collections.singleton(stmt);
+			Map<String, Integer> body = new HashMap<>(available);
+			invalidate(body, loop);
+			// NOTE: the condition may be reached by a continue statement and,
+			// hence, loads defined in the body are not available there.
+			Map<String, Integer> entry = new HashMap<>(body);
+			Block nBody = walkBlock(stmt.getBody(), body);
+			Expr condition = walkExpression(stmt.getCondition(), entry, false);
+			invalidate(available, loop);
+			if (condition == stmt.getCondition() && nBody == stmt.getBody()) {
+				return stmt;
+			}
+			return new DoWhile(nBody, condition);
+		}
+
+		private void walkFor(For stmt, Map<String, Integer> available, List<Stmt> nStmts) {
+			Set<Term> loop = Collections.singleton(stmt);
+			// NOTE: hoisted loads are evaluated before the initialiser, which
+			// is safe since they cannot be invalidated by it.
+			List<Stmt> hoisted = new ArrayList<>();
+			VariableDeclaration initialiser = walkVariableDeclaration(stmt.getInitialiser(), available);
+			Map<String, Expr> hoist = getHoists(stmt.getCondition(), loop, available);
+			Map<String, Integer> body = enterLoop(hoist, loop, available, hoisted);
+			Expr condition = walkExpression(stmt.getCondition(), body, false);
+			// NOTE: the increment may be reached by a continue statement and,
+			// hence, loads defined in the body are not available there.
+			Map<String, Integer> entry = new HashMap<>(body);
+			invalidate(entry, loop);
+			Block nBody = walkBlock(stmt.getBody(), body);
+			Expr increment = walkExpression(stmt.getIncrement(), entry, false);
+			exitLoop(hoist, loop, available, body);
+			nStmts.addAll(hoisted);
+			if (initialiser == stmt.getInitialiser() && condition == stmt.getCondition() && nBody == stmt.getBody()
+					&& increment == stmt.getIncrement()) {
+				nStmts.add(stmt);
+			} else {
+				nStmts.add(new For(initialiser, condition, increment, nBody));
+			}
+		}
+
+		/**
+		 * Determine the loads evaluated unconditionally by the condition of a
+		 * given loop which can be hoisted out of it. These are those which are
+		 * not already available, and which are not invalidated by the loop.
+		 * When rewriting, the loads determined during analysis are returned.
+		 *
+		 * @param condition
+		 * @param loop
+		 * @param available
+		 * @return
+		 */
+		private Map<String, Expr> getHoists(Expr condition, Set<Term> loop, Map<String, Integer> available) {
+			if (analysis != null) {
+				return analysis.hoists.get(loops++);
+			}
+			Map<String, Expr> hoist = new LinkedHashMap<>();
+			findUnconditionalLoads(condition, hoist);
+			hoist.keySet().removeAll(available.keySet());
+			hoist.keySet().removeIf(temporary -> isInvalidated(temporary, loop));
+			hoists.add(hoist);
+			return hoist;
+		}
+
+		/**
+		 * Determine the loads available within a given loop, whilst hoisting
+		 * the given loads out of it. Any statements required to perform the
+		 * hoisting are added to the given list.
+		 *
+		 * @param hoist
+		 * @param loop
+		 * @param available
+		 * @param nStmts
+		 * @return
+		 */
+		private Map<String, Integer> enterLoop(Map<String, Expr> hoist, Set<Term> loop, Map<String, Integer> available,
+				List<Stmt> nStmts) {
+			Map<String, Integer> body = new HashMap<>(available);
+			invalidate(body, loop);
+			for (Map.Entry<String, Expr> e : hoist.entrySet()) {
+				String temporary = e.getKey();
+				int index = define();
+				if (analysis == null) {
+					// Hoisted loads are always reused
+					reused.set(index);
+				} else {
+					nStmts.add(new Assignment(new Variable(temporary), e.getValue()));
+					temporaries.add(temporary);
+					changed = true;
+				}
+				body.put(temporary, index);
+			}
+			return body;
+		}
+
+		/**
+		 * Update the loads available after a given loop. These are those
+		 * available before the loop which were not invalidated by it, along
+		 * with any loads which were hoisted out of it.
+		 *
+		 * @param hoist
+		 * @param loop
+		 * @param available
+		 * @param body
+		 */
+		private void exitLoop(Map<String, Expr> hoist, Set<Term> loop, Map<String, Integer> available,
+				Map<String, Integer> body) {
+			invalidate(available, loop);
+			for (String temporary : hoist.keySet()) {
+				available.put(temporary, body.get(temporary));
+			}
+		}
+
+		// =====================================================================
+		// Expressions
+		// =====================================================================
+
+		/**
+		 * Walk an expression in evaluation order.
+		 *
+		 * @param expr
+		 * @param available
+		 * @param conditional
+		 *            Indicates whether the expression is only evaluated
+		 *            conditionally. In this case, loads cannot be defined since
+		 *            they may not be available afterwards.
+		 * @return
+		 */
+		private Expr walkExpression(Expr expr, Map<String, Integer> available, boolean conditional) {
+			String temporary = getTemporary(expr);
+			if (temporary != null) {
+				return walkLoad(temporary, expr, available, conditional);
+			} else if (expr instanceof Operator) {
+				Operator e = (Operator) expr;
+				List<Expr> operands = e.getOperands();
+				boolean shortCircuit = e.getKind() == Operator.Kind.AND || e.getKind() == Operator.Kind.OR;
+				ArrayList<Expr> nOperands = new ArrayList<>();
+				for (int i = 0; i != operands.size(); ++i) {
+					nOperands.add(walkExpression(operands.get(i), available, conditional || (shortCircuit && i > 0)));
+				}
+				return nOperands.equals(operands) ? e : new Operator(e.getKind(), nOperands);
+			} else if (expr instanceof PropertyAccess) {
+				PropertyAccess e = (PropertyAccess) expr;
+				Expr source = walkExpression(e.getSource(), available, conditional);
+				return source == e.getSource() ? e : new PropertyAccess(source, e.getProperty());
+			} else if (expr instanceof ArrayAccess) {
+				ArrayAccess e = (ArrayAccess) expr;
+				Expr source = walkExpression(e.getSource(), available, conditional);
+				Expr index = walkExpression(e.getIndex(), available, conditional);
+				return source == e.getSource() && index == e.getIndex() ? e : new ArrayAccess(source, index);
+			} else if (expr instanceof ArrayLiteral) {
+				ArrayLiteral e = (ArrayLiteral) expr;
+				List<Expr> elements = walkExpressions(e.getElements(), available, conditional);
+				return elements.equals(e.getElements()) ? e : new ArrayLiteral(elements);
+			} else if (expr instanceof ObjectLiteral) {
+				ObjectLiteral e = (ObjectLiteral) expr;
+				List<Expr> values = walkExpressions(e.getValues(), available, conditional);
+				return values.equals(e.getValues()) ? e : new ObjectLiteral(e.getFields(), values);
+			} else if (expr instanceof Invoke) {
+				Invoke e = (Invoke) expr;
+				Expr receiver = walkExpression(e.getReceiver(), available, conditional);
+				List<Expr> arguments = walkExpressions(e.getArguments(), available, conditional);
+				if (!isPure(e)) {
+					invalidateDereferences(available);
+				}
+				return receiver == e.getReceiver() && arguments.equals(e.getArguments()) ? e
+						: new Invoke(receiver, arguments);
+			} else if (expr instanceof New) {
+				New e = (New) expr;
+				Expr constructor = walkExpression(e.getConstructor(), available, conditional);
+				List<Expr> arguments = walkExpressions(e.getArguments(), available, conditional);
+				return constructor == e.getConstructor() && arguments.equals(e.getArguments()) ? e
+						: new New(constructor, arguments);
+			} else if (expr instanceof Assignment) {
+				return walkAssignment((Assignment) expr, available, conditional);
+			} else if (expr instanceof JavaScript.Function) {
+				if (analysis == null) {
+					return expr;
+				} else {
+					// Function expressions are considered separately.
+					Expr nExpr = transformFunction((JavaScript.Function) expr);
+					changed |= nExpr != expr;
+					return nExpr;
+				}
+			} else {
+				// Constants and variables
+				return expr;
+			}
+		}
+
+		private List<Expr> walkExpressions(List<Expr> exprs, Map<String, Integer> available, boolean conditional) {
+			ArrayList<Expr> nExprs = new ArrayList<>();
+			for (int i = 0; i != exprs.size(); ++i) {
+				nExprs.add(walkExpression(exprs.get(i), available, conditional));
+			}
+			return nExprs;
+		}
+
+		private Expr walkAssignment(Assignment expr, Map<String, Integer> available, boolean conditional) {
+			Expr lhs = expr.getLeftHandSide();
+			Expr nLhs;
+			// Evaluate the location being assigned, but not its current value
+			if (lhs instanceof PropertyAccess) {
+				PropertyAccess p = (PropertyAccess) lhs;
+				Expr source = walkExpression(p.getSource(), available, conditional);
+				nLhs = source == p.getSource() ? p : new PropertyAccess(source, p.getProperty());
+			} else if (lhs instanceof ArrayAccess) {
+				ArrayAccess a = (ArrayAccess) lhs;
+				Expr source = walkExpression(a.getSource(), available, conditional);
+				Expr index = walkExpression(a.getIndex(), available, conditional);
+				nLhs = source == a.getSource() && index == a.getIndex() ? a : new ArrayAccess(source, index);
+			} else {
+				nLhs = lhs;
+			}
+			Expr rhs = walkExpression(expr.getRightHandSide(), available, conditional);
+			invalidate(available, lhs);
+			return nLhs == lhs && rhs == expr.getRightHandSide() ? expr : new Assignment(nLhs, rhs);
+		}
+
+		/**
+		 * Walk an occurrence of a load held by a given temporary. During
+		 * analysis, this is either a use of an available definition, or a new
+		 * definition. During rewriting, a definition which is used elsewhere
+		 * is turned into an assignment to the temporary whilst a use is
+		 * turned into a read of the temporary.
+		 *
+		 * @param temporary
+		 * @param expr
+		 * @param available
+		 * @param conditional
+		 * @return
+		 */
+		private Expr walkLoad(String temporary, Expr expr, Map<String, Integer> available, boolean conditional) {
+			if (analysis == null) {
+				Integer definition = available.get(temporary);
+				if (definition != null) {
+					definitions.add(definition);
+					reused.set(definition);
+					occurrence++;
+				} else if (!conditional) {
+					available.put(temporary, define());
+				} else {
+					definitions.add(-1);
+					occurrence++;
+				}
+				return expr;
+			} else {
+				int index = occurrence++;
+				int definition = analysis.definitions.get(index);
+				if (definition == index && analysis.reused.get(index)) {
+					temporaries.add(temporary);
+					changed = true;
+					return new Assignment(new Variable(temporary), expr);
+				} else if (definition >= 0 && definition != index) {
+					changed = true;
+					return new Variable(temporary);
+				} else {
+					return expr;
+				}
+			}
+		}
+
+		private int define() {
+			int index = occurrence++;
+			if (analysis == null) {
+				definitions.add(index);
+			}
+			return index;
+		}
+
+		// =====================================================================
+		// Invalidation
+		// =====================================================================
+
+		private void invalidate(Map<String, Integer> available, Set<Term> terms) {
+			available.keySet().removeIf(temporary -> isInvalidated(temporary, terms));
+		}
+
+		private void invalidate(Map<String, Integer> available, Block block) {
+			invalidate(available, new HashSet<>(block.getStatements()));
+		}
+
+		private void invalidate(Map<String, Integer> available, String variable) {
+			available.remove(variable + LENGTH_SUFFIX);
+			available.remove(variable + DEREF_SUFFIX);
+		}
+
+		/**
+		 * Invalidate any loads affected by an assignment to a given location.
+		 *
+		 * @param available
+		 * @param lhs
+		 */
+		private void invalidate(Map<String, Integer> available, Expr lhs) {
+			if (lhs instanceof Variable) {
+				invalidate(available, ((Variable) lhs).getName());
+			} else if (lhs instanceof PropertyAccess && ((PropertyAccess) lhs).getProperty().equals("$ref")) {
+				invalidateDereferences(available);
+			}
+		}
+
+		private void invalidateDereferences(Map<String, Integer> available) {
+			available.keySet().removeIf(temporary -> temporary.endsWith(DEREF_SUFFIX));
+		}
+	}
+
+	/**
+	 * Find loads which are always evaluated by a given expression, along with
+	 * the temporaries which would hold them.
+	 *
+	 * @param expr
+	 * @param loads
+	 */
+	private static void findUnconditionalLoads(Expr expr, Map<String, Expr> loads) {
+		String temporary = getTemporary(expr);
+		if (temporary != null) {
+			loads.putIfAbsent(temporary, expr);
+		} else if (expr instanceof Operator) {
+			Operator e = (Operator) expr;
+			findUnconditionalLoads(e.getOperand(0), loads);
+			if (e.getKind() != Operator.Kind.AND && e.getKind() != Operator.Kind.OR && e.getOperands().size() > 1) {
+				findUnconditionalLoads(e.getOperand(1), loads);
+			}
+		} else if (expr instanceof PropertyAccess) {
+			findUnconditionalLoads(((PropertyAccess) expr).getSource(), loads);
+		} else if (expr instanceof ArrayAccess) {
+			findUnconditionalLoads(((ArrayAccess) expr).getSource(), loads);
+			findUnconditionalLoads(((ArrayAccess) expr).getIndex(), loads);
+		} else if (expr instanceof Invoke) {
+			findUnconditionalLoads(((Invoke) expr).getReceiver(), loads);
+			for (Expr argument : ((Invoke) expr).getArguments()) {
+				findUnconditionalLoads(argument, loads);
+			}
+		}
+	}
+
+	/**
+	 * Determine whether a load held by a given temporary could be invalidated
+	 * by executing any of the given terms.
+	 *
+	 * @param temporary
+	 * @param terms
+	 * @return
+	 */
+	private static boolean isInvalidated(String temporary, Set<Term> terms) {
+		String variable = temporary.substring(0, temporary.lastIndexOf('$'));
+		boolean dereference = temporary.endsWith(DEREF_SUFFIX);
+		for (Term term : terms) {
+			if (isInvalidated(variable, dereference, term)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isInvalidated(String variable, boolean dereference, Term term) {
+		if (term == null) {
+			return false;
+		} else if (term instanceof VariableDeclaration) {
+			VariableDeclaration d = (VariableDeclaration) term;
+			for (int i = 0; i != d.size(); ++i) {
+				if (d.getName(i).equals(variable) || isInvalidated(variable, dereference, d.getInitialiser(i))) {
+					return true;
+				}
+			}
+			return false;
+		} else if (term instanceof Assignment) {
+			Assignment a = (Assignment) term;
+			Expr lhs = a.getLeftHandSide();
+			if (lhs instanceof Variable && ((Variable) lhs).getName().equals(variable)) {
+				return true;
+			} else if (dereference && lhs instanceof PropertyAccess
+					&& ((PropertyAccess) lhs).getProperty().equals("$ref")) {
+				return true;
+			}
+		} else if (term instanceof Invoke) {
+			if (dereference && !isPure((Invoke) term)) {
+				return true;
+			}
+		}
+		for (Term child : getChildren(term)) {
+			if (isInvalidated(variable, dereference, child)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the immediate children of a given term.
+	 *
+	 * @param term
+	 * @return
+	 */
+	private static List<Term> getChildren(Term term) {
+		ArrayList<Term> children = new ArrayList<>();
+		if (term instanceof Block) {
+			children.addAll(((Block) term).getStatements());
+		} else if (term instanceof VariableDeclaration) {
+			children.addAll(((VariableDeclaration) term).getInitialisers());
+		} else if (term instanceof Assignment) {
+			children.add(((Assignment) term).getLeftHandSide());
+			children.add(((Assignment) term).getRightHandSide());
+		} else if (term instanceof Invoke) {
+			children.add(((Invoke) term).getReceiver());
+			children.addAll(((Invoke) term).getArguments());
+		} else if (term instanceof If) {
+			If s = (If) term;
+			children.add(s.getCondition());
+			children.add(s.getTrueBranch());
+			children.add(s.getFalseBranch());
+		} else if (term instanceof While) {
+			children.add(((While) term).getCondition());
+			children.add(((While) term).getBody());
+		} else if (term instanceof DoWhile) {
+			children.add(((DoWhile) term).getBody());
+			children.add(((DoWhile) term).getCondition());
+		} else if (term instanceof For) {
+			For s = (For) term;
+			children.add(s.getInitialiser());
+			children.add(s.getCondition());
+			children.add(s.getIncrement());
+			children.add(s.getBody());
+		} else if (term instanceof Switch) {
+			Switch s = (Switch) term;
+			children.add(s.getCondition());
+			for (Case c : s.getCases()) {
+				children.addAll(c.getValues());
+				children.add(c.getBody());
+			}
+		} else if (term instanceof Labelled) {
+			children.add(((Labelled) term).getBody());
+		} else if (term instanceof Return) {
+			children.add(((Return) term).getOperand());
+		} else if (term instanceof Operator) {
+			children.addAll(((Operator) term).getOperands());
+		} else if (term instanceof PropertyAccess) {
+			children.add(((PropertyAccess) term).getSource());
+		} else if (term instanceof ArrayAccess) {
+			children.add(((ArrayAccess) term).getSource());
+			children.add(((ArrayAccess) term).getIndex());
+		} else if (term instanceof ArrayLiteral) {
+			children.addAll(((ArrayLiteral) term).getElements());
+		} else if (term instanceof ObjectLiteral) {
+			children.addAll(((ObjectLiteral) term).getValues());
+		} else if (term instanceof New) {
+			children.add(((New) term).getConstructor());
+			children.addAll(((New) term).getArguments());
+		} else if (term instanceof JavaScript.Function) {
+			children.add(((JavaScript.Function) term).getBody());
+		}
+		return children;
+	}
+
+	/**
+	 * Determine the temporary which would hold a given expression, if it is a
+	 * load of interest (i.e. <code>xs.length</code> or
+	 * <code>Wy.deref(p)</code> for some variable). Otherwise,
+	 * <code>null</code> is returned.
+	 *
+	 * @param expr
+	 * @return
+	 */
+	private static String getTemporary(Expr expr) {
+		if (expr instanceof PropertyAccess) {
+			PropertyAccess e = (PropertyAccess) expr;
+			if (e.getProperty().equals("length") && e.getSource() instanceof Variable) {
+				return ((Variable) e.getSource()).getName() + LENGTH_SUFFIX;
+			}
+		} else if (expr instanceof Invoke) {
+			Invoke e = (Invoke) expr;
+			List<Expr> arguments = e.getArguments();
+			if ("Wy.deref".equals(getQualifiedName(e.getReceiver())) && arguments.size() == 1
+					&& arguments.get(0) instanceof Variable) {
+				return ((Variable) arguments.get(0)).getName() + DEREF_SUFFIX;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Determine whether a given invocation is known to have no side effects
+	 * which could affect a dereference. This includes runtime functions such
+	 * as <code>Wy.copy()</code>, and generated functions for type tests,
+	 * invariants, properties and quantifiers (which cannot have side
+	 * effects).
+	 *
+	 * @param expr
+	 * @return
+	 */
+	private static boolean isPure(Invoke expr) {
+		String name = getQualifiedName(expr.getReceiver());
+		if (name == null) {
+			return false;
+		} else if (PURE_FUNCTIONS.contains(name)) {
+			return true;
+		} else if (name.indexOf('.') >= 0) {
+			return false;
+		} else {
+			return name.startsWith("is$") || name.startsWith("eq$") || name.startsWith("cp$") || name.endsWith("$type") || name.endsWith("$property")
+					|| name.matches(".*\\$(all|some)[0-9]+");
+		}
+	}
+}
@@ -0,0 +1,278 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.util;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import wyjs.core.JavaScript.*;
+
+/**
+ * Evaluates operators whose operands are constants, along with byte literals
+ * of the form <code>parseInt('1010',2)</code> and integer divisions of the
+ * form <code>Math.floor(x / y)</code>. Since JavaScript numbers are double
+ * precision, integer arithmetic is only folded when the operands and result
+ * are within the range of integers which can be represented exactly (i.e.
+ * <code>-2^53 ... 2^53</code>). Likewise, bitwise operators are only folded
+ * for operands within the range of 32-bit integers (on which JavaScript
+ * performs them). Logical operators are simplified when their left operand is
+ * a constant, or when their right operand is a constant which does not affect
+ * the result.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ConstantFolding extends AbstractTransformer {
+	private static final BigInteger MAX_SAFE_INTEGER = BigInteger.valueOf(2).pow(53);
+	private static final BigInteger MIN_SAFE_INTEGER = MAX_SAFE_INTEGER.negate();
+	private static final BigInteger INT32_MAX = BigInteger.valueOf(Integer.MAX_VALUE);
+	private static final BigInteger INT32_MIN = BigInteger.valueOf(Integer.MIN_VALUE);
+
+	@Override
+	public Expr transformOperator(Operator expr) {
+		expr = (Operator) super.transformOperator(expr);
+		List<Expr> operands = expr.getOperands();
+		if (operands.size() == 1) {
+			return foldUnary(expr.getKind(), operands.get(0), expr);
+		} else {
+			return foldBinary(expr.getKind(), operands.get(0), operands.get(1), expr);
+		}
+	}
+
+	@Override
+	public Expr transformInvoke(Invoke expr) {
+		Expr e = super.transformInvoke(expr);
+		if (!(e instanceof Invoke)) {
+			return e;
+		}
+		expr = (Invoke) e;
+		String receiver = getQualifiedName(expr.getReceiver());
+		List<Expr> arguments = expr.getArguments();
+		if ("parseInt".equals(receiver) && arguments.size() == 2) {
+			String digits = getString(arguments.get(0));
+			BigInteger radix = getInteger(arguments.get(1));
+			if (digits != null && radix != null && digits.matches("[01]{1,32}") && radix.intValue() == 2) {
+				return new Constant(new BigInteger(digits, 2));
+			}
+		} else if ("Math.floor".equals(receiver) && arguments.size() == 1) {
+			Expr argument = arguments.get(0);
+			BigInteger i = getInteger(argument);
+			if (i != null) {
+				return argument;
+			} else if (argument instanceof Operator && ((Operator) argument).getKind() == Operator.Kind.DIV) {
+				BigInteger lhs = getInteger(((Operator) argument).getOperand(0));
+				BigInteger rhs = getInteger(((Operator) argument).getOperand(1));
+				if (lhs != null && rhs != null && rhs.signum() != 0 && (lhs.signum() != 0 || rhs.signum() > 0)) {
+					// NOTE: cannot overflow since |lhs / rhs| <= |lhs|
+					BigInteger[] qr = lhs.divideAndRemainder(rhs);
+					BigInteger q = qr[0];
+					if (qr[1].signum() != 0 && lhs.signum() != rhs.signum()) {
+						// Division in Java rounds towards zero
+						q = q.subtract(BigInteger.ONE);
+					}
+					return new Constant(q);
+				}
+			}
+		}
+		return expr;
+	}
+
+	private Expr foldUnary(Operator.Kind kind, Expr operand, Expr original) {
+		Object value = getValue(operand);
+		switch (kind) {
+		case NOT:
+			if (value instanceof Boolean) {
+				return new Constant(!((Boolean) value));
+			}
+			break;
+		case NEG:
+			if (value instanceof BigInteger && ((BigInteger) value).signum() != 0) {
+				// NOTE: negating zero gives -0 in JavaScript
+				return new Constant(((BigInteger) value).negate());
+			}
+			break;
+		case BITWISEINVERT:
+			if (isInt32(value)) {
+				return new Constant(~((BigInteger) value).intValue());
+			}
+			break;
+		default:
+		}
+		return original;
+	}
+
+	private Expr foldBinary(Operator.Kind kind, Expr lhs, Expr rhs, Expr original) {
+		Object l = getValue(lhs);
+		Object r = getValue(rhs);
+		switch (kind) {
+		case AND:
+			if (l instanceof Boolean) {
+				return ((Boolean) l) ? rhs : lhs;
+			} else if (Boolean.TRUE.equals(r)) {
+				return lhs;
+			}
+			break;
+		case OR:
+			if (l instanceof Boolean) {
+				return ((Boolean) l) ? lhs : rhs;
+			} else if (Boolean.FALSE.equals(r)) {
+				return lhs;
+			}
+			break;
+		case EQ:
+		case EEQ:
+			if (isComparable(l, r)) {
+				return new Constant(l == null ? r == null : l.equals(r));
+			}
+			break;
+		case NEQ:
+		case NEEQ:
+			if (isComparable(l, r)) {
+				return new Constant(l == null ? r != null : !l.equals(r));
+			}
+			break;
+		default:
+			if (l instanceof BigInteger && r instanceof BigInteger) {
+				Object result = foldArithmetic(kind, (BigInteger) l, (BigInteger) r);
+				if (result != null) {
+					return new Constant(result);
+				}
+			}
+		}
+		return original;
+	}
+
+	private Object foldArithmetic(Operator.Kind kind, BigInteger l, BigInteger r) {
+		if (safe(l) == null || safe(r) == null) {
+			// Cannot be represented exactly in JavaScript
+			return null;
+		}
+		switch (kind) {
+		case ADD:
+			return safe(l.add(r));
+		case SUB:
+			return safe(l.subtract(r));
+		case MUL:
+			if (l.signum() == 0 && r.signum() < 0 || r.signum() == 0 && l.signum() < 0) {
+				// NOTE: this produces -0 in JavaScript
+				return null;
+			}
+			return safe(l.multiply(r));
+		case DIV:
+			if (r.signum() != 0 && l.mod(r.abs()).signum() == 0 && l.signum() != 0) {
+				return safe(l.divide(r));
+			}
+			return null;
+		case REM:
+			if (r.signum() != 0 && l.signum() >= 0) {
+				// NOTE: sign of remainder follows dividend in both Java and
+				// JavaScript, but avoid producing -0
+				return safe(l.remainder(r));
+			}
+			return null;
+		case LT:
+			return l.compareTo(r) < 0;
+		case LTEQ:
+			return l.compareTo(r) <= 0;
+		case GT:
+			return l.compareTo(r) > 0;
+		case GTEQ:
+			return l.compareTo(r) >= 0;
+		default:
+		}
+		if (isInt32(l) && isInt32(r)) {
+			int x = l.intValue();
+			int y = r.intValue();
+			switch (kind) {
+			case BITWISEAND:
+				return BigInteger.valueOf(x & y);
+			case BITWISEOR:
+				return BigInteger.valueOf(x | y);
+			case BITWISEXOR:
+				return BigInteger.valueOf(x ^ y);
+			case LEFTSHIFT:
+				return BigInteger.valueOf(x << y);
+			case RIGHTSHIFT:
+				return BigInteger.valueOf(x >> y);
+			default:
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Check whether two constants can be compared for equality at compile
+	 * time. This requires they are both primitive values of the same kind, or
+	 * <code>null</code>.
+	 *
+	 * @param l
+	 * @param r
+	 * @return
+	 */
+	private static boolean isComparable(Object l, Object r) {
+		if (l == NOT_CONSTANT || r == NOT_CONSTANT) {
+			return false;
+		} else if (l == null || r == null) {
+			return true;
+		} else if (l instanceof String || r instanceof String) {
+			// Conservatively ignore string coercions
+			return false;
+		} else if (l instanceof BigInteger && r instanceof BigInteger) {
+			// Must be represented exactly in JavaScript
+			return safe((BigInteger) l) != null && safe((BigInteger) r) != null;
+		} else {
+			return l.getClass() == r.getClass();
+		}
+	}
+
+	private static BigInteger safe(BigInteger i) {
+		if (i.compareTo(MIN_SAFE_INTEGER) >= 0 && i.compareTo(MAX_SAFE_INTEGER) <= 0) {
+			return i;
+		} else {
+			return null;
+		}
+	}
+
+	private static boolean isInt32(Object value) {
+		if (value instanceof BigInteger) {
+			BigInteger i = (BigInteger) value;
+			return i.compareTo(INT32_MIN) >= 0 && i.compareTo(INT32_MAX) <= 0;
+		}
+		return false;
+	}
+
+	/**
+	 * Marker used to indicate an expression is not a constant, since
+	 * <code>null</code> is itself a valid constant.
+	 */
+	private static final Object NOT_CONSTANT = new Object();
+
+	private static Object getValue(Expr e) {
+		if (e instanceof Constant) {
+			return ((Constant) e).getValue();
+		} else {
+			return NOT_CONSTANT;
+		}
+	}
+
+	private static BigInteger getInteger(Expr e) {
+		Object value = getValue(e);
+		return value instanceof BigInteger ? (BigInteger) value : null;
+	}
+
+	private static String getString(Expr e) {
+		Object value = getValue(e);
+		return value instanceof String ? (String) value : null;
+	}
+}
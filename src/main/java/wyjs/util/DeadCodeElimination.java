@@ -0,0 +1,97 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.util;
+
+import java.util.List;
+
+import wyjs.core.JavaScript.*;
+
+/**
+ * Removes statements which can never be executed. This includes statements
+ * following a <code>return</code>, <code>break</code> or
+ * <code>continue</code> (or a conditional whose branches all end in one of
+ * these), along with the branches of conditionals and loops whose conditions
+ * are constant (e.g. as a result of constant folding). For example, the
+ * <code>break</code> written after each case of a switch statement is removed
+ * when that case ends in a <code>return</code>.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class DeadCodeElimination extends AbstractTransformer {
+
+	@Override
+	public List<Stmt> transformStatements(List<Stmt> stmts) {
+		stmts = super.transformStatements(stmts);
+		for (int i = 0; i < stmts.size() - 1; ++i) {
+			if (isTerminator(stmts.get(i))) {
+				// Everything after this point is unreachable
+				return stmts.subList(0, i + 1);
+			}
+		}
+		return stmts;
+	}
+
+	@Override
+	public Stmt transformIf(If stmt) {
+		Stmt s = super.transformIf(stmt);
+		if (s instanceof If) {
+			stmt = (If) s;
+			Object condition = getConstant(stmt.getCondition());
+			if (Boolean.TRUE.equals(condition)) {
+				return stmt.getTrueBranch();
+			} else if (Boolean.FALSE.equals(condition)) {
+				return stmt.hasFalseBranch() ? stmt.getFalseBranch() : new Block();
+			}
+		}
+		return s;
+	}
+
+	@Override
+	public Stmt transformWhile(While stmt) {
+		Stmt s = super.transformWhile(stmt);
+		if (s instanceof While && Boolean.FALSE.equals(getConstant(((While) s).getCondition()))) {
+			return new Block();
+		}
+		return s;
+	}
+
+	/**
+	 * Determine whether control can never pass beyond a given statement to the
+	 * statement following it. This is conservative, in that it may return
+	 * false for statements which never complete normally.
+	 *
+	 * @param stmt
+	 * @return
+	 */
+	private static boolean isTerminator(Stmt stmt) {
+		if (stmt instanceof Return || stmt instanceof Break || stmt instanceof Continue) {
+			return true;
+		} else if (stmt instanceof Block) {
+			Block b = (Block) stmt;
+			return b.size() > 0 && isTerminator(b.get(b.size() - 1));
+		} else if (stmt instanceof If) {
+			If s = (If) stmt;
+			return s.hasFalseBranch() && isTerminator(s.getTrueBranch()) && isTerminator(s.getFalseBranch());
+		} else {
+			// NOTE: a labelled block may be exited by a break and, hence, is
+			// not considered here.
+			return false;
+		}
+	}
+
+	private static Object getConstant(Expr e) {
+		return e instanceof Constant ? ((Constant) e).getValue() : null;
+	}
+}
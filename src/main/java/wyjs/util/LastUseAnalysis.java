@@ -0,0 +1,678 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static wyc.lang.WhileyFile.*;
+
+import wyc.util.AbstractConsumer;
+
+/**
+ * Determines those variable accesses within a function or method where a copy
+ * of the variable's value is unnecessary. This is the case when the access is
+ * the last use of the variable's current value (i.e. the variable is dead
+ * afterwards) and no other variable can refer to the same value. For example,
+ * consider:
+ *
+ * <pre>
+ * function f(int n) -> (int[] r):
+ *    int[] xs = [0; n]
+ *    int[] ys = xs
+ *    ys[0] = 1
+ *    return ys
+ * </pre>
+ *
+ * Here, the copy of <code>xs</code> when initialising <code>ys</code> is
+ * unnecessary since <code>xs</code> is never used again.
+ *
+ * <p>
+ * The analysis is conservative. In particular, a variable is only considered
+ * when every value assigned to it is known to be unaliased. Values read from
+ * an array, record or reference are not (since no copy is made for them), nor
+ * are parameters (since callers may pass such values). Variables captured by
+ * lambdas, and accesses within quantifiers, are never considered.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public class LastUseAnalysis {
+	/**
+	 * Determines whether a given type can be copied directly, in which case
+	 * aliasing is irrelevant.
+	 */
+	private final Predicate<Type> copyable;
+
+	/**
+	 * Resolves a nominal type to its underlying type.
+	 */
+	private final Function<Type.Nominal, Type> resolver;
+
+	/**
+	 * Indicates whether loop invariants are checked at runtime. In this case,
+	 * they are evaluated and, hence, their uses must be considered.
+	 */
+	private final boolean checkInvariants;
+
+	/**
+	 * Local variables whose values are known to be unaliased.
+	 */
+	private Set<Decl.Variable> owned;
+
+	/**
+	 * Variables which are captured by a lambda.
+	 */
+	private Set<Decl.Variable> captured;
+
+	/**
+	 * Variable accesses for which no copy is required.
+	 */
+	private Set<Expr.VariableAccess> elidable;
+
+	public LastUseAnalysis(Predicate<Type> copyable, Function<Type.Nominal, Type> resolver,
+			boolean checkInvariants) {
+		this.copyable = copyable;
+		this.resolver = resolver;
+		this.checkInvariants = checkInvariants;
+	}
+
+	/**
+	 * Determine the set of variable accesses within a given function or method
+	 * for which no copy is required.
+	 *
+	 * @param method
+	 * @return
+	 */
+	public Set<Expr.VariableAccess> apply(Decl.FunctionOrMethod method) {
+		elidable = newIdentitySet();
+		if (method.getBody() != null) {
+			captured = newIdentitySet();
+			owned = newIdentitySet();
+			// Determine variables captured by lambdas and variables defined
+			new Definitions().visitBlock(method.getBody(), false);
+			computeOwnership(method.getBody());
+			// Now, determine last uses
+			visitBlock(method.getBody(), newIdentitySet(), null, true);
+		}
+		return elidable;
+	}
+
+	// ======================================================================
+	// Ownership
+	// ======================================================================
+
+	/**
+	 * Record the assignments made to each local variable.
+	 */
+	private final IdentityHashMap<Decl.Variable, List<Expr>> definitions = new IdentityHashMap<>();
+
+	/**
+	 * Determine which local variables are owned. Initially, every local
+	 * variable is assumed owned and, then, those with a definition which may
+	 * be aliased are removed until a fixed point is reached.
+	 *
+	 * @param body
+	 */
+	private void computeOwnership(Stmt.Block body) {
+		owned.addAll(definitions.keySet());
+		owned.removeAll(captured);
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Decl.Variable var : definitions.keySet()) {
+				if (owned.contains(var)) {
+					for (Expr e : definitions.get(var)) {
+						if (!isOwned(e)) {
+							owned.remove(var);
+							changed = true;
+							break;
+						}
+					}
+				}
+			}
+		}
+		definitions.clear();
+	}
+
+	/**
+	 * Determine whether the value produced by a given expression is known not
+	 * to be aliased by any other variable.
+	 *
+	 * @param e
+	 * @return
+	 */
+	private boolean isOwned(Expr e) {
+		Type type = getType(e);
+		if (type != null && copyable.test(type)) {
+			return true;
+		}
+		switch (e.getOpcode()) {
+		case EXPR_variablecopy:
+		case EXPR_variablemove: {
+			Expr.VariableAccess v = (Expr.VariableAccess) e;
+			// Unless this is a move, either a copy is taken or the variable is
+			// owned and its last use.
+			return !v.isMove() || owned.contains(v.getVariableDeclaration());
+		}
+		case EXPR_staticvariable:
+		case EXPR_constant:
+			return true;
+		case EXPR_cast:
+			return isOwned(((Expr.Cast) e).getOperand());
+		case EXPR_arraygenerator:
+			return isOwned(((Expr.ArrayGenerator) e).getFirstOperand());
+		case EXPR_arrayinitialiser:
+			return isOwned(((Expr.ArrayInitialiser) e).getOperands());
+		case EXPR_recordinitialiser:
+			return isOwned(((Expr.RecordInitialiser) e).getOperands());
+		case EXPR_invoke: {
+			// The result of an invocation may alias any of its arguments, or
+			// anything reachable from them through references.
+			Tuple<Expr> args = ((Expr.Invoke) e).getOperands();
+			for (int i = 0; i != args.size(); ++i) {
+				Type argType = getType(args.get(i));
+				if (argType == null || !isReferenceFree(argType, new HashSet<>())) {
+					return false;
+				}
+			}
+			return isOwned(args);
+		}
+		default:
+			// Includes array, record and reference accesses, as well as
+			// indirect invocations whose source may have captured anything.
+			return false;
+		}
+	}
+
+	/**
+	 * Get the type of a given expression, or <code>null</code> if it does not
+	 * produce exactly one value (e.g. an invocation with multiple returns).
+	 *
+	 * @param e
+	 * @return
+	 */
+	private static Type getType(Expr e) {
+		// NOTE: getTypes() is only non-null for expressions producing
+		// multiple values, in which case getType() is undefined.
+		return e.getTypes() == null ? e.getType() : null;
+	}
+
+	private boolean isOwned(Tuple<Expr> exprs) {
+		for (int i = 0; i != exprs.size(); ++i) {
+			if (!isOwned(exprs.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether a given type cannot contain references or callables (which
+	 * may refer to values elsewhere).
+	 *
+	 * @param type
+	 * @param visited
+	 *            Names of nominal types already visited (to handle recursive
+	 *            types).
+	 * @return
+	 */
+	private boolean isReferenceFree(Type type, Set<String> visited) {
+		if (type instanceof Type.Reference || type instanceof Type.Callable) {
+			return false;
+		} else if (type instanceof Type.Nominal) {
+			Type.Nominal t = (Type.Nominal) type;
+			return !visited.add(t.getName().toString()) || isReferenceFree(resolver.apply(t), visited);
+		} else if (type instanceof Type.Array) {
+			return isReferenceFree(((Type.Array) type).getElement(), visited);
+		} else if (type instanceof Type.Record) {
+			Tuple<Decl.Variable> fields = ((Type.Record) type).getFields();
+			for (int i = 0; i != fields.size(); ++i) {
+				if (!isReferenceFree(fields.get(i).getType(), visited)) {
+					return false;
+				}
+			}
+			return true;
+		} else if (type instanceof Type.Union) {
+			Type.Union t = (Type.Union) type;
+			for (int i = 0; i != t.size(); ++i) {
+				if (!isReferenceFree(t.get(i), visited)) {
+					return false;
+				}
+			}
+			return true;
+		} else if (type instanceof Type.Intersection) {
+			Type.Intersection t = (Type.Intersection) type;
+			for (int i = 0; i != t.size(); ++i) {
+				if (!isReferenceFree(t.get(i), visited)) {
+					return false;
+				}
+			}
+			return true;
+		} else {
+			return type instanceof Type.Primitive;
+		}
+	}
+
+	/**
+	 * Responsible for recording the definitions of each local variable, along
+	 * with those variables captured by lambdas.
+	 */
+	private class Definitions extends AbstractConsumer<Boolean> {
+		@Override
+		public void visitVariable(Decl.Variable decl, Boolean inLambda) {
+			if (!inLambda) {
+				List<Expr> defs = new ArrayList<>();
+				if (decl.hasInitialiser()) {
+					defs.add(decl.getInitialiser());
+				}
+				definitions.put(decl, defs);
+			}
+			super.visitVariable(decl, inLambda);
+		}
+
+		@Override
+		public void visitAssign(Stmt.Assign stmt, Boolean inLambda) {
+			Tuple<LVal> lhs = stmt.getLeftHandSide();
+			Tuple<Expr> rhs = stmt.getRightHandSide();
+			for (int i = 0; i != lhs.size(); ++i) {
+				List<Expr> defs = definitions.get(getRoot(lhs.get(i)));
+				if (defs != null) {
+					// NOTE: conservatively assume any right-hand side may be
+					// assigned to any left-hand side.
+					for (int j = 0; j != rhs.size(); ++j) {
+						defs.add(rhs.get(j));
+					}
+				}
+			}
+			super.visitAssign(stmt, inLambda);
+		}
+
+		@Override
+		public void visitLambda(Decl.Lambda expr, Boolean inLambda) {
+			super.visitLambda(expr, true);
+		}
+
+		@Override
+		public void visitVariableAccess(Expr.VariableAccess expr, Boolean inLambda) {
+			if (inLambda) {
+				captured.add(expr.getVariableDeclaration());
+			}
+		}
+	}
+
+	// ======================================================================
+	// Liveness
+	// ======================================================================
+
+	/**
+	 * Identifies where control flow goes for a break or continue statement.
+	 * Specifically, this records the variables live at their targets.
+	 */
+	private static class Scope {
+		public final Set<Decl.Variable> breakLive;
+		public final Set<Decl.Variable> continueLive;
+		public final Scope parent;
+
+		public Scope(Set<Decl.Variable> breakLive, Set<Decl.Variable> continueLive, Scope parent) {
+			this.breakLive = breakLive;
+			this.continueLive = continueLive;
+			this.parent = parent;
+		}
+	}
+
+	/**
+	 * Determine the variables live on entry to a block, given those live on
+	 * exit. When record is true, variable accesses which are last uses are
+	 * recorded as elidable.
+	 *
+	 * @param block
+	 * @param liveOut
+	 * @param scope
+	 * @param record
+	 * @return
+	 */
+	private Set<Decl.Variable> visitBlock(Stmt.Block block, Set<Decl.Variable> liveOut, Scope scope,
+			boolean record) {
+		Set<Decl.Variable> live = liveOut;
+		for (int i = block.size() - 1; i >= 0; --i) {
+			live = visitStatement(block.get(i), live, scope, record);
+		}
+		return live;
+	}
+
+	private Set<Decl.Variable> visitStatement(Stmt stmt, Set<Decl.Variable> liveOut, Scope scope,
+			boolean record) {
+		if (stmt instanceof Decl.Variable) {
+			Decl.Variable decl = (Decl.Variable) stmt;
+			List<Expr> operands = new ArrayList<>();
+			if (decl.hasInitialiser()) {
+				operands.add(decl.getInitialiser());
+			}
+			return visitUnit(operands, Collections.singleton(decl), Collections.emptySet(), liveOut, record);
+		} else if (stmt instanceof Stmt.Assign) {
+			return visitAssign((Stmt.Assign) stmt, liveOut, record);
+		} else if (stmt instanceof Stmt.Assert) {
+			return visitUnit(((Stmt.Assert) stmt).getCondition(), liveOut, record);
+		} else if (stmt instanceof Stmt.Assume) {
+			return visitUnit(((Stmt.Assume) stmt).getCondition(), liveOut, record);
+		} else if (stmt instanceof Stmt.Block) {
+			return visitBlock((Stmt.Block) stmt, liveOut, scope, record);
+		} else if (stmt instanceof Stmt.NamedBlock) {
+			return visitBlock(((Stmt.NamedBlock) stmt).getBlock(), liveOut, scope, record);
+		} else if (stmt instanceof Stmt.Break) {
+			return scope.breakLive;
+		} else if (stmt instanceof Stmt.Continue) {
+			return scope.continueLive;
+		} else if (stmt instanceof Stmt.IfElse) {
+			return visitIfElse((Stmt.IfElse) stmt, liveOut, scope, record);
+		} else if (stmt instanceof Stmt.While) {
+			return visitWhile((Stmt.While) stmt, liveOut, scope, record);
+		} else if (stmt instanceof Stmt.DoWhile) {
+			return visitDoWhile((Stmt.DoWhile) stmt, liveOut, scope, record);
+		} else if (stmt instanceof Stmt.Switch) {
+			return visitSwitch((Stmt.Switch) stmt, liveOut, scope, record);
+		} else if (stmt instanceof Stmt.Return) {
+			List<Expr> operands = toList(((Stmt.Return) stmt).getReturns());
+			return visitUnit(operands, Collections.emptySet(), Collections.emptySet(), newIdentitySet(), record);
+		} else if (stmt instanceof Expr) {
+			// Invocations used as statements
+			return visitUnit((Expr) stmt, liveOut, record);
+		} else {
+			// Includes skip, debug and fail statements. Note that fail is
+			// treated as falling through, which is conservative.
+			return liveOut;
+		}
+	}
+
+	private Set<Decl.Variable> visitAssign(Stmt.Assign stmt, Set<Decl.Variable> liveOut, boolean record) {
+		Tuple<LVal> lhs = stmt.getLeftHandSide();
+		Set<Decl.Variable> defs = newIdentitySet();
+		Set<Decl.Variable> roots = newIdentitySet();
+		List<Expr> operands = toList(stmt.getRightHandSide());
+		for (int i = 0; i != lhs.size(); ++i) {
+			LVal lval = lhs.get(i);
+			if (lval instanceof Expr.VariableAccess) {
+				defs.add(((Expr.VariableAccess) lval).getVariableDeclaration());
+			} else {
+				// The root of a compound lval is read, and written through after
+				// the right-hand side is evaluated.
+				roots.add(getRoot(lval));
+				addLValOperands(lval, operands);
+			}
+		}
+		defs.removeAll(roots);
+		return visitUnit(operands, defs, roots, liveOut, record);
+	}
+
+	private Set<Decl.Variable> visitIfElse(Stmt.IfElse stmt, Set<Decl.Variable> liveOut, Scope scope,
+			boolean record) {
+		Set<Decl.Variable> live = newIdentitySet();
+		live.addAll(visitBlock(stmt.getTrueBranch(), liveOut, scope, record));
+		if (stmt.hasFalseBranch()) {
+			live.addAll(visitBlock(stmt.getFalseBranch(), liveOut, scope, record));
+		} else {
+			live.addAll(liveOut);
+		}
+		return visitUnit(stmt.getCondition(), live, record);
+	}
+
+	private Set<Decl.Variable> visitWhile(Stmt.While stmt, Set<Decl.Variable> liveOut, Scope scope,
+			boolean record) {
+		// NOTE: the loop invariant is checked on entry and at the end of the
+		// body. A continue jumps straight to the condition.
+		Set<Decl.Variable> invariant = getUses(stmt.getInvariant());
+		Set<Decl.Variable> head = newIdentitySet();
+		Set<Decl.Variable> bodyOut;
+		Set<Decl.Variable> condOut;
+		int size;
+		do {
+			size = head.size();
+			bodyOut = union(invariant, head);
+			condOut = union(liveOut, visitBlock(stmt.getBody(), bodyOut, new Scope(liveOut, head, scope), false));
+			head.addAll(visitUnit(stmt.getCondition(), condOut, false));
+		} while (head.size() != size);
+		if (record) {
+			visitBlock(stmt.getBody(), bodyOut, new Scope(liveOut, head, scope), true);
+			visitUnit(stmt.getCondition(), condOut, true);
+		}
+		return union(invariant, head);
+	}
+
+	private Set<Decl.Variable> visitDoWhile(Stmt.DoWhile stmt, Set<Decl.Variable> liveOut, Scope scope,
+			boolean record) {
+		Set<Decl.Variable> invariant = getUses(stmt.getInvariant());
+		Set<Decl.Variable> head = newIdentitySet();
+		Set<Decl.Variable> condOut;
+		Set<Decl.Variable> condIn;
+		int size;
+		do {
+			size = head.size();
+			condOut = union(head, liveOut);
+			condIn = visitUnit(stmt.getCondition(), condOut, false);
+			head.addAll(visitBlock(stmt.getBody(), union(invariant, condIn), new Scope(liveOut, condIn, scope), false));
+		} while (head.size() != size);
+		if (record) {
+			visitUnit(stmt.getCondition(), condOut, true);
+			visitBlock(stmt.getBody(), union(invariant, condIn), new Scope(liveOut, condIn, scope), true);
+		}
+		return head;
+	}
+
+	private Set<Decl.Variable> visitSwitch(Stmt.Switch stmt, Set<Decl.Variable> liveOut, Scope scope,
+			boolean record) {
+		// NOTE: a break within a switch exits the switch in JavaScript.
+		Scope switchScope = new Scope(liveOut, scope == null ? null : scope.continueLive, scope);
+		Set<Decl.Variable> live = newIdentitySet();
+		boolean hasDefault = false;
+		Tuple<Stmt.Case> cases = stmt.getCases();
+		for (int i = 0; i != cases.size(); ++i) {
+			Stmt.Case c = cases.get(i);
+			hasDefault |= c.getConditions().size() == 0;
+			live.addAll(visitBlock(c.getBlock(), liveOut, switchScope, record));
+		}
+		if (!hasDefault) {
+			live.addAll(liveOut);
+		}
+		return visitUnit(stmt.getCondition(), live, record);
+	}
+
+	private Set<Decl.Variable> visitUnit(Expr operand, Set<Decl.Variable> liveOut, boolean record) {
+		return visitUnit(Collections.singletonList(operand), Collections.emptySet(), Collections.emptySet(), liveOut,
+				record);
+	}
+
+	/**
+	 * Determine the variables live before a given "unit" of evaluation, such
+	 * as an assignment or a condition. Within a unit, an access is only
+	 * considered a last use if it is the only access of that variable in the
+	 * unit. This avoids any dependence on the order of evaluation.
+	 *
+	 * @param operands
+	 *            Expressions evaluated in this unit.
+	 * @param defs
+	 *            Variables assigned directly by this unit.
+	 * @param roots
+	 *            Variables which are the roots of compound lvals written by
+	 *            this unit.
+	 * @param liveOut
+	 *            Variables live after this unit.
+	 * @param record
+	 * @return
+	 */
+	private Set<Decl.Variable> visitUnit(List<Expr> operands, Set<Decl.Variable> defs, Set<Decl.Variable> roots,
+			Set<Decl.Variable> liveOut, boolean record) {
+		Uses uses = new Uses();
+		for (Expr operand : operands) {
+			uses.visitExpression(operand, true);
+		}
+		if (record) {
+			for (Expr.VariableAccess access : uses.candidates) {
+				Decl.Variable var = access.getVariableDeclaration();
+				boolean dead = !liveOut.contains(var) || defs.contains(var);
+				if (dead && owned.contains(var) && !roots.contains(var) && uses.count(var) == 1) {
+					elidable.add(access);
+				}
+			}
+		}
+		Set<Decl.Variable> liveIn = newIdentitySet();
+		liveIn.addAll(liveOut);
+		liveIn.removeAll(defs);
+		liveIn.addAll(roots);
+		for (Expr.VariableAccess access : uses.accesses) {
+			liveIn.add(access.getVariableDeclaration());
+		}
+		return liveIn;
+	}
+
+	/**
+	 * Determine the variables used by a loop invariant. These are only
+	 * relevant when invariants are checked at runtime.
+	 *
+	 * @param invariant
+	 * @return
+	 */
+	private Set<Decl.Variable> getUses(Tuple<Expr> invariant) {
+		Set<Decl.Variable> vars = newIdentitySet();
+		if (checkInvariants) {
+			Uses uses = new Uses();
+			for (int i = 0; i != invariant.size(); ++i) {
+				uses.visitExpression(invariant.get(i), false);
+			}
+			for (Expr.VariableAccess access : uses.accesses) {
+				vars.add(access.getVariableDeclaration());
+			}
+		}
+		return vars;
+	}
+
+	/**
+	 * Collects the variable accesses within one or more expressions. Accesses
+	 * within quantifiers and lambdas may be evaluated repeatedly and, hence,
+	 * are never candidates for elision.
+	 */
+	private static class Uses extends AbstractConsumer<Boolean> {
+		public final List<Expr.VariableAccess> accesses = new ArrayList<>();
+		public final List<Expr.VariableAccess> candidates = new ArrayList<>();
+
+		public int count(Decl.Variable var) {
+			int count = 0;
+			for (Expr.VariableAccess access : accesses) {
+				if (access.getVariableDeclaration() == var) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		@Override
+		public void visitVariableAccess(Expr.VariableAccess expr, Boolean candidate) {
+			accesses.add(expr);
+			if (candidate) {
+				candidates.add(expr);
+			}
+		}
+
+		@Override
+		public void visitUniversalQuantifier(Expr.UniversalQuantifier expr, Boolean candidate) {
+			super.visitUniversalQuantifier(expr, false);
+		}
+
+		@Override
+		public void visitExistentialQuantifier(Expr.ExistentialQuantifier expr, Boolean candidate) {
+			super.visitExistentialQuantifier(expr, false);
+		}
+
+		@Override
+		public void visitLambda(Decl.Lambda expr, Boolean candidate) {
+			super.visitLambda(expr, false);
+		}
+	}
+
+	// ======================================================================
+	// Helpers
+	// ======================================================================
+
+	private static Decl.Variable getRoot(LVal lval) {
+		switch (lval.getOpcode()) {
+		case EXPR_arrayaccess:
+		case EXPR_arrayborrow:
+			return getRoot((LVal) ((Expr.ArrayAccess) lval).getFirstOperand());
+		case EXPR_dereference:
+			return getRoot((LVal) ((Expr.Dereference) lval).getOperand());
+		case EXPR_recordaccess:
+		case EXPR_recordborrow:
+			return getRoot((LVal) ((Expr.RecordAccess) lval).getOperand());
+		case EXPR_variablecopy:
+		case EXPR_variablemove:
+			return ((Expr.VariableAccess) lval).getVariableDeclaration();
+		default:
+			throw new IllegalArgumentException("invalid lval: " + lval);
+		}
+	}
+
+	private static void addLValOperands(LVal lval, List<Expr> operands) {
+		switch (lval.getOpcode()) {
+		case EXPR_arrayaccess:
+		case EXPR_arrayborrow: {
+			Expr.ArrayAccess e = (Expr.ArrayAccess) lval;
+			addLValOperands((LVal) e.getFirstOperand(), operands);
+			operands.add(e.getSecondOperand());
+			break;
+		}
+		case EXPR_dereference:
+			addLValOperands((LVal) ((Expr.Dereference) lval).getOperand(), operands);
+			break;
+		case EXPR_recordaccess:
+		case EXPR_recordborrow:
+			addLValOperands((LVal) ((Expr.RecordAccess) lval).getOperand(), operands);
+			break;
+		default:
+			// root variable
+		}
+	}
+
+	private static List<Expr> toList(Tuple<Expr> exprs) {
+		List<Expr> list = new ArrayList<>();
+		for (int i = 0; i != exprs.size(); ++i) {
+			list.add(exprs.get(i));
+		}
+		return list;
+	}
+
+	private static Set<Decl.Variable> union(Set<Decl.Variable> lhs, Set<Decl.Variable> rhs) {
+		Set<Decl.Variable> r = newIdentitySet();
+		r.addAll(lhs);
+		r.addAll(rhs);
+		return r;
+	}
+
+	/**
+	 * Syntactic items use structural equality, which cannot distinguish (for
+	 * example) two declarations of the same variable name and type. Hence,
+	 * identity sets are used throughout.
+	 *
+	 * @return
+	 */
+	private static <T> Set<T> newIdentitySet() {
+		return Collections.newSetFromMap(new IdentityHashMap<>());
+	}
+}
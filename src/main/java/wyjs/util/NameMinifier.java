@@ -0,0 +1,311 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import wyjs.core.JavaScript;
+import wyjs.core.JavaScript.*;
+
+/**
+ * Shortens the identifiers used in the generated code, as necessary for
+ * producing compact output. Two kinds of identifier are renamed:
+ *
+ * <ul>
+ * <li><b>Local variables.</b> The parameters and variables of each function are
+ * renamed to <code>a</code>, <code>b</code>, ..., <code>aa</code>, etc in the
+ * order they are declared. The names of any nested function continue from
+ * those of the enclosing function, so captured variables are never shadowed.
+ * Likewise, names which refer to globals from within the function (e.g.
+ * <code>Wy</code> or <code>Math</code>) are never chosen.</li>
+ * <li><b>Mangled globals.</b> Global names generated by the compiler (e.g.
+ * <code>is$r2I1xI1y</code>) are renamed to <code>$</code> followed by a hash
+ * of the original name. Since this depends only on the name itself, the same
+ * global is renamed consistently across all files, including any shared type
+ * test library. The map of names in use is shared between files in order to
+ * detect collisions. Since the hash is 64 bits, these should never arise in
+ * practice and, hence, a collision is reported as an error rather than being
+ * resolved in a way which depends on the order files are minified. Names
+ * which are not mangled (e.g. exported functions and static variables) are
+ * never renamed, since they may be referenced externally.</li>
+ * </ul>
+ *
+ * Property names are not renamed, since they correspond to the fields of
+ * Whiley records.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class NameMinifier extends AbstractTransformer {
+	private static final String DIGITS = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+	/**
+	 * Number of digits in the hash used to rename a global, which is enough to
+	 * hold any 64-bit hash.
+	 */
+	private static final int HASH_LENGTH = 11;
+	private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList("break", "case", "catch", "class",
+			"const", "continue", "debugger", "default", "delete", "do", "else", "enum", "export", "extends", "false",
+			"finally", "for", "function", "if", "import", "in", "instanceof", "new", "null", "return", "super",
+			"switch", "this", "throw", "true", "try", "typeof", "var", "void", "while", "with", "yield", "let",
+			"static", "implements", "interface", "package", "private", "protected", "public", "await", "arguments",
+			"eval", "NaN", "undefined", "Infinity"));
+	/**
+	 * Renamed globals shared between files, mapping each short name to the
+	 * original name. This may be shared between files minified concurrently
+	 * and, hence, must be thread-safe in that case.
+	 */
+	private final Map<String, String> globals;
+	/**
+	 * Determines which global names were generated by the compiler and,
+	 * hence, can be renamed.
+	 */
+	private final Predicate<String> isMangled;
+	/**
+	 * Maps local variables in scope to their new names, or <code>null</code>
+	 * at the top level.
+	 */
+	private Map<String, String> scope = null;
+	/**
+	 * Global names referenced from within the current top-level function,
+	 * which therefore cannot be chosen for locals.
+	 */
+	private Set<String> reserved = Collections.emptySet();
+	/**
+	 * Number of locals renamed in the current top-level function.
+	 */
+	private int count = 0;
+
+	public NameMinifier(Map<String, String> globals, Predicate<String> isMangled) {
+		this.globals = globals;
+		this.isMangled = isMangled;
+	}
+
+	@Override
+	public JavaScript.Function transformFunction(JavaScript.Function expr) {
+		Map<String, String> enclosing = scope;
+		String name = expr.getName();
+		if (enclosing == null) {
+			reserved = getFreeVariables(expr, Collections.emptySet());
+			count = 0;
+			name = name == null ? null : getGlobalName(name);
+		} else if (name != null) {
+			name = rename(name);
+		}
+		scope = new HashMap<>(enclosing == null ? Collections.emptyMap() : enclosing);
+		for (String local : getDeclarations(expr)) {
+			scope.put(local, getLocalName());
+		}
+		ArrayList<String> parameters = new ArrayList<>();
+		for (String parameter : expr.getParameters()) {
+			parameters.add(scope.get(parameter));
+		}
+		Block body = transformBlock(expr.getBody());
+		scope = enclosing;
+		return new JavaScript.Function(name, parameters, body);
+	}
+
+	@Override
+	public Stmt transformVariableDeclaration(VariableDeclaration stmt) {
+		List<Expr> initialisers = transformExpressions(stmt.getInitialisers());
+		return new VariableDeclaration(rename(stmt.getNames()), initialisers);
+	}
+
+	@Override
+	public Stmt transformFor(For stmt) {
+		VariableDeclaration initialiser = (VariableDeclaration) transformVariableDeclaration(stmt.getInitialiser());
+		Expr condition = transform(stmt.getCondition());
+		Expr increment = transform(stmt.getIncrement());
+		Block body = transformBlock(stmt.getBody());
+		return new For(initialiser, condition, increment, body);
+	}
+
+	@Override
+	public Expr transformVariable(Variable expr) {
+		String name = rename(expr.getName());
+		return name.equals(expr.getName()) ? expr : new Variable(name);
+	}
+
+	private List<String> rename(List<String> names) {
+		ArrayList<String> nNames = new ArrayList<>();
+		for (String name : names) {
+			nNames.add(rename(name));
+		}
+		return nNames;
+	}
+
+	/**
+	 * Determine the new name for a given variable, based on whether or not it
+	 * is a local variable in scope.
+	 *
+	 * @param name
+	 * @return
+	 */
+	private String rename(String name) {
+		String local = scope == null ? null : scope.get(name);
+		return local != null ? local : getGlobalName(name);
+	}
+
+	/**
+	 * Get the next name for a local variable in the current top-level
+	 * function, skipping any which are keywords or which refer to globals.
+	 *
+	 * @return
+	 */
+	private String getLocalName() {
+		while (true) {
+			String name = toIdentifier(count++);
+			if (!KEYWORDS.contains(name) && !reserved.contains(name)) {
+				return name;
+			}
+		}
+	}
+
+	/**
+	 * Get the short name for a given global. This is a hash of the name,
+	 * provided the name is mangled and the hash is actually shorter.
+	 *
+	 * @param name
+	 * @return
+	 * @throws IllegalStateException
+	 *             If the hash is already used for a different global.
+	 */
+	private String getGlobalName(String name) {
+		if (name.length() <= HASH_LENGTH + 1 || !isMangled.test(name)) {
+			return name;
+		}
+		// Use 64-bit FNV-1a hash, since this is stable across platforms
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i != name.length(); ++i) {
+			hash = (hash ^ name.charAt(i)) * 0x100000001b3L;
+		}
+		StringBuilder r = new StringBuilder("$");
+		for (int i = 0; i != HASH_LENGTH; ++i) {
+			r.append(DIGITS.charAt((int) Long.remainderUnsigned(hash, DIGITS.length())));
+			hash = Long.divideUnsigned(hash, DIGITS.length());
+		}
+		String shortName = r.toString();
+		String original = globals.putIfAbsent(shortName, name);
+		if (original != null && !original.equals(name)) {
+			throw new IllegalStateException("minified name " + shortName + " used for both " + original + " and " + name);
+		}
+		return shortName;
+	}
+
+	/**
+	 * Convert a given index into an identifier. The first character is a
+	 * letter, whilst any subsequent characters may also be digits.
+	 *
+	 * @param index
+	 * @return
+	 */
+	private static String toIdentifier(int index) {
+		StringBuilder r = new StringBuilder();
+		r.append(DIGITS.charAt(10 + index % 52));
+		index = index / 52;
+		while (index > 0) {
+			index = index - 1;
+			r.append(DIGITS.charAt(index % DIGITS.length()));
+			index = index / DIGITS.length();
+		}
+		return r.toString();
+	}
+
+	/**
+	 * Get the variables declared within a given function, excluding those
+	 * declared within any nested function. Parameters are given first,
+	 * followed by the remaining variables in the order they are declared.
+	 *
+	 * @param function
+	 * @return
+	 */
+	private static Set<String> getDeclarations(JavaScript.Function function) {
+		LinkedHashSet<String> declarations = new LinkedHashSet<>(function.getParameters());
+		getDeclarations(function.getBody(), declarations);
+		return declarations;
+	}
+
+	private static void getDeclarations(Stmt stmt, Set<String> declarations) {
+		if (stmt instanceof Block) {
+			for (Stmt s : ((Block) stmt).getStatements()) {
+				getDeclarations(s, declarations);
+			}
+		} else if (stmt instanceof VariableDeclaration) {
+			declarations.addAll(((VariableDeclaration) stmt).getNames());
+		} else if (stmt instanceof If) {
+			If s = (If) stmt;
+			getDeclarations(s.getTrueBranch(), declarations);
+			if (s.hasFalseBranch()) {
+				getDeclarations(s.getFalseBranch(), declarations);
+			}
+		} else if (stmt instanceof While) {
+			getDeclarations(((While) stmt).getBody(), declarations);
+		} else if (stmt instanceof DoWhile) {
+			getDeclarations(((DoWhile) stmt).getBody(), declarations);
+		} else if (stmt instanceof For) {
+			getDeclarations(((For) stmt).getInitialiser(), declarations);
+			getDeclarations(((For) stmt).getBody(), declarations);
+		} else if (stmt instanceof Switch) {
+			for (Case c : ((Switch) stmt).getCases()) {
+				getDeclarations(c.getBody(), declarations);
+			}
+		} else if (stmt instanceof Labelled) {
+			getDeclarations(((Labelled) stmt).getBody(), declarations);
+		} else if (stmt instanceof JavaScript.Function) {
+			String name = ((JavaScript.Function) stmt).getName();
+			if (name != null) {
+				declarations.add(name);
+			}
+		}
+	}
+
+	/**
+	 * Get the variables referenced within a given function which are not
+	 * declared within it, or any enclosing function.
+	 *
+	 * @param function
+	 * @param enclosing
+	 *            Variables declared in the enclosing functions.
+	 * @return
+	 */
+	private static Set<String> getFreeVariables(JavaScript.Function function, Set<String> enclosing) {
+		HashSet<String> free = new HashSet<>();
+		HashSet<String> declared = new HashSet<>(enclosing);
+		declared.addAll(getDeclarations(function));
+		new AbstractTransformer() {
+			@Override
+			public Expr transformVariable(Variable expr) {
+				if (!declared.contains(expr.getName())) {
+					free.add(expr.getName());
+				}
+				return expr;
+			}
+
+			@Override
+			public JavaScript.Function transformFunction(JavaScript.Function expr) {
+				free.addAll(getFreeVariables(expr, declared));
+				return expr;
+			}
+		}.transformBlock(function.getBody());
+		return free;
+	}
+}
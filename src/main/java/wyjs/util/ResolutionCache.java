@@ -0,0 +1,110 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import wybs.lang.NameResolver.ResolutionError;
+import wybs.util.AbstractCompilationUnit.Name;
+import wyc.lang.WhileyFile.Decl;
+import wyc.lang.WhileyFile.Type;
+import wyil.type.TypeSystem;
+
+/**
+ * Caches the resolution of nominal types to their declarations, along with
+ * whether or not each nominal type is copyable. This is intended to be shared
+ * between all writers in the same build and, hence, is thread safe. It should
+ * not be reused between builds, since declarations may have changed.
+ *
+ * Since a name is resolved relative to the module containing it, names are
+ * cached by identity rather than structurally. In particular, the same name
+ * may refer to different declarations in different modules. Names within the
+ * declarations of other modules are, however, shared by all writers.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ResolutionCache {
+	private final TypeSystem typeSystem;
+	private final Map<Key, Decl.Type> declarations = new ConcurrentHashMap<>();
+	private final Map<Key, Boolean> copyable = new ConcurrentHashMap<>();
+
+	public ResolutionCache(TypeSystem typeSystem) {
+		this.typeSystem = typeSystem;
+	}
+
+	/**
+	 * Resolve a nominal type name to its declaration. Resolution may load other
+	 * modules from the project and, hence, is not safe to perform concurrently.
+	 * Therefore, it is serialised on the type system, which may be shared more
+	 * widely.
+	 *
+	 * @param name
+	 * @return
+	 * @throws ResolutionError
+	 */
+	public Decl.Type resolveType(Name name) throws ResolutionError {
+		Key key = new Key(name);
+		Decl.Type decl = declarations.get(key);
+		if (decl == null) {
+			synchronized (typeSystem) {
+				decl = typeSystem.resolveExactly(name, Decl.Type.class);
+			}
+			declarations.put(key, decl);
+		}
+		return decl;
+	}
+
+	/**
+	 * Determine whether a nominal type is copyable, given a method for
+	 * determining whether its underlying type is copyable.
+	 *
+	 * @param type
+	 * @param isCopyable
+	 * @return
+	 * @throws ResolutionError
+	 */
+	public boolean isCopyable(Type.Nominal type, Predicate<Type> isCopyable) throws ResolutionError {
+		Key key = new Key(type);
+		Boolean result = copyable.get(key);
+		if (result == null) {
+			result = isCopyable.test(resolveType(type.getName()).getType());
+			copyable.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Wraps an item such that it is compared by identity.
+	 */
+	private static final class Key {
+		private final Object item;
+
+		public Key(Object item) {
+			this.item = item;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && ((Key) o).item == item;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(item);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.testing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import wyc.command.Compile;
+
+/**
+ * Tests for the sites identifying each runtime assertion. Sites are numbered
+ * within each module in the order they are written, and the runtime counts
+ * the number of times each has passed and failed.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class AssertionSiteTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void sites_1() throws IOException, ScriptException {
+		String result = run("Sites",
+				"function inc(int x) -> (int r)",
+				"requires x >= 0",
+				"ensures r > x:",
+				"    return x + 1",
+				"",
+				"public export method test():",
+				"    int y = inc(inc(1))",
+				"    assert y == 3");
+		// Precondition, postcondition and then assertion
+		assertEquals("Sites:0=2/0,Sites:1=2/0,Sites:2=1/0", result);
+	}
+
+	@Test
+	public void sites_2() throws IOException, ScriptException {
+		String result = run("Sites",
+				"public export method test():",
+				"    int i = 0",
+				"    while i < 10 where i >= 0:",
+				"        i = i + 1",
+				"    assert i == 10");
+		// Invariant on entry, invariant restored and then assertion
+		assertEquals("Sites:0=1/0,Sites:1=10/0,Sites:2=1/0", result);
+	}
+
+	@Test
+	public void sites_3() throws IOException, ScriptException {
+		String[] lines = new String[12];
+		lines[0] = "public export method test():";
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i != 11; ++i) {
+			lines[i + 1] = "    assert " + i + " == " + i;
+			expected.append(i == 0 ? "" : ",").append("Sites:" + i + "=1/0");
+		}
+		// Sites are ordered numerically, rather than as strings
+		assertEquals(expected.toString(), run("Sites", lines));
+	}
+
+	/**
+	 * Compile and run a given Whiley module, returning the counts reported
+	 * for each assertion site in the form "site=passed/failed".
+	 *
+	 * @param name
+	 * @param lines
+	 * @return
+	 * @throws IOException
+	 * @throws ScriptException
+	 */
+	private String run(String name, String... lines) throws IOException, ScriptException {
+		File dir = folder.getRoot();
+		File source = new File(dir, name + ".whiley");
+		Files.write(source.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+		Compile.Result r = RuntimeValidTests
+				.compileWhiley2JavaScript(dir.getPath(), Collections.emptyMap(), source.getPath()).first();
+		assertEquals(Compile.Result.SUCCESS, r);
+		ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
+		engine.eval(new FileReader(RuntimeValidTests.WYJS_RUNTIME));
+		engine.eval(new FileReader(new File(dir, name + ".js")));
+		engine.eval("test();");
+		return (String) engine.eval("Wy.dumpAssertions().map(function(a) {"
+				+ " return a.site + '=' + a.passed + '/' + a.failed; }).join(',')");
+	}
+}
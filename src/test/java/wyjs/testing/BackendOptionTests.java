@@ -0,0 +1,282 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import wyc.command.Compile;
+
+/**
+ * Tests for the effect of individual options for the JavaScript backend. Each
+ * test compiles a small module and then checks the generated code has the
+ * intended property, as well as the intended behaviour when run. The valid
+ * test cases are also run under each option, which checks their behaviour is
+ * otherwise unchanged.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class BackendOptionTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final String[] ALIASING = {
+			"function update(int[] xs) -> int[]:",
+			"    int[] ys = xs",
+			"    ys[0] = 0",
+			"    return ys",
+			"",
+			"public export method test():",
+			"    int[] xs = [1, 2, 3]",
+			"    int[] ys = update(xs)",
+			"    assert xs[0] == 1",
+			"    assert ys[0] == 0" };
+
+	@Test
+	public void cow_1() throws IOException, ScriptException {
+		String js = compile("Cow", options("jscow", true), ALIASING);
+		// Values are shared on assignment, rather than copied
+		assertTrue(js.contains("Wy.share("));
+		assertFalse(js.contains("Wy.copy("));
+		run("Cow");
+	}
+
+	@Test
+	public void elide_1() throws IOException, ScriptException {
+		int copies = count(compile("Copied", options(), ALIASING), "Wy.copy(");
+		int elided = count(compile("Elided", options("jselide", true), ALIASING), "Wy.copy(");
+		// Copies of values which are not used again are omitted
+		assertTrue(elided < copies);
+		run("Elided");
+	}
+
+	@Test
+	public void typed_1() throws IOException, ScriptException {
+		String js = compile("Typed", options("jstyped", true),
+				"public export method test():",
+				"    byte[] bs = [0b; 4]",
+				"    bs[1] = 0b101",
+				"    assert bs[1] == 0b101",
+				"    assert bs[0] == 0b");
+		assertTrue(js.contains("Uint8Array"));
+		run("Typed");
+	}
+
+	@Test
+	public void optimise_1() throws IOException, ScriptException {
+		String[] lines = {
+				"function sum(int[] xs) -> int:",
+				"    int i = 0",
+				"    int r = 0",
+				"    while i < |xs|:",
+				"        r = r + xs[i]",
+				"        i = i + 1",
+				"    return r",
+				"",
+				"public export method test():",
+				"    assert sum([1, 2, 3]) == 6" };
+		assertFalse(compile("Plain", options(), lines).contains("$length"));
+		// Array length is loaded once, rather than on every iteration
+		assertTrue(compile("Optimised", options("jsopt", true), lines).contains("$length"));
+		run("Optimised");
+	}
+
+	@Test
+	public void minify_1() throws IOException, ScriptException {
+		String[] lines = {
+				"type Point is {int x, int y}",
+				"",
+				"function isPoint(Point|int p) -> bool:",
+				"    return p is Point",
+				"",
+				"public export method test():",
+				"    assert isPoint({x: 1, y: 2})",
+				"    assert !isPoint(1)" };
+		String plain = compile("Plain", options(), lines);
+		String minified = compile("Minified", options("jsminify", true), lines);
+		assertTrue(minified.length() < plain.length());
+		// Exported functions retain their names
+		run("Minified");
+	}
+
+	private static final String[] PRECONDITION = {
+			"function inc(int x) -> (int r)",
+			"requires x >= 0:",
+			"    return x + 1",
+			"",
+			"public export method test():",
+			"    int x = -1",
+			"    int y = inc(x)" };
+
+	@Test
+	public void checks_1() throws IOException, ScriptException {
+		compile("Unchecked", options("debug", false, "jschecks", "none"), PRECONDITION);
+		run("Unchecked");
+	}
+
+	@Test
+	public void checks_2() throws IOException {
+		compile("Checked", options("debug", false, "jschecks", "entry"), PRECONDITION);
+		try {
+			run("Checked");
+			fail("precondition not checked");
+		} catch (ScriptException e) {
+			// expected
+		}
+	}
+
+	private static final String[] CALLS = {
+			"function inc(int x) -> (int r)",
+			"requires x >= 0:",
+			"    return x + 1",
+			"",
+			"public export method test():",
+			"    int x = inc(inc(inc(inc(0))))" };
+
+	@Test
+	public void sample_1() throws IOException, ScriptException {
+		compile("Sampled", options("jssample", true), CALLS);
+		ScriptEngine engine = run("Sampled", "Wy.setSampling({every: 2});");
+		// Only every other call is checked
+		assertEquals(2, ((Number) engine.eval(PASSED)).intValue());
+	}
+
+	@Test
+	public void sample_2() throws IOException, ScriptException {
+		compile("Unsampled", options(), CALLS);
+		ScriptEngine engine = run("Unsampled", "Wy.setSampling({every: 2});");
+		// Sampling has no effect unless enabled
+		assertEquals(4, ((Number) engine.eval(PASSED)).intValue());
+	}
+
+	@Test
+	public void instrument_1() throws IOException, ScriptException {
+		compile("Instrumented", options("jsinstrument", true, "jstiming", true), CALLS);
+		ScriptEngine engine = run("Instrumented");
+		Object calls = engine.eval("Wy.dumpProfile().filter(function(e) {"
+				+ " return e.name.indexOf('inc') == 0; }).map(function(e) {"
+				+ " return e.calls + '/' + e.samples; }).join(',')");
+		assertEquals("4/4", calls);
+	}
+
+	@Test
+	public void typelib_1() throws IOException, ScriptException {
+		String js = compile("Library", options("jstypelib", "types"),
+				"function isPoint({int x, int y}|int p) -> bool:",
+				"    return p is {int x, int y}",
+				"",
+				"public export method test():",
+				"    assert isPoint({x: 1, y: 2})",
+				"    assert !isPoint(1)");
+		// Type tests are written into the library instead
+		assertFalse(js.contains("function is$"));
+		String library = read(new File(folder.getRoot(), "types.js"));
+		assertTrue(library.contains("function is$"));
+		run("Library", "", "types.js");
+	}
+
+	/**
+	 * Total number of times any assertion passed.
+	 */
+	private static final String PASSED = "Wy.dumpAssertions().reduce(function(n, a) { return n + a.passed; }, 0)";
+
+	/**
+	 * Compile a given Whiley module with a given set of options, returning the
+	 * generated JavaScript.
+	 *
+	 * @param name
+	 * @param options
+	 * @param lines
+	 * @return
+	 * @throws IOException
+	 */
+	private String compile(String name, Map<String, Object> options, String... lines) throws IOException {
+		File dir = folder.getRoot();
+		File source = new File(dir, name + ".whiley");
+		Files.write(source.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+		Compile.Result r = RuntimeValidTests.compileWhiley2JavaScript(dir.getPath(), options, source.getPath())
+				.first();
+		assertEquals(Compile.Result.SUCCESS, r);
+		return read(new File(dir, name + ".js"));
+	}
+
+	/**
+	 * Run the test method of a compiled module, having first loaded the
+	 * runtime, evaluated a given script and loaded any given libraries.
+	 *
+	 * @param name
+	 * @param setup
+	 * @param libraries
+	 * @return The engine in which the module was run.
+	 * @throws IOException
+	 * @throws ScriptException
+	 */
+	private ScriptEngine run(String name, String setup, String... libraries) throws IOException, ScriptException {
+		File dir = folder.getRoot();
+		ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
+		engine.eval(new FileReader(RuntimeValidTests.WYJS_RUNTIME));
+		engine.eval(setup);
+		for (String library : libraries) {
+			engine.eval(new FileReader(new File(dir, library)));
+		}
+		engine.eval(new FileReader(new File(dir, name + ".js")));
+		engine.eval("test();");
+		return engine;
+	}
+
+	private ScriptEngine run(String name) throws IOException, ScriptException {
+		return run(name, "");
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+
+	private static int count(String text, String substring) {
+		int count = 0;
+		for (int i = text.indexOf(substring); i >= 0; i = text.indexOf(substring, i + 1)) {
+			count++;
+		}
+		return count;
+	}
+
+	private static Map<String, Object> options(Object... options) {
+		HashMap<String, Object> map = new HashMap<>();
+		for (int i = 0; i != options.length; i += 2) {
+			map.put((String) options[i], options[i + 1]);
+		}
+		return map;
+	}
+}
@@ -0,0 +1,120 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.testing;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import wyc.command.Compile;
+
+/**
+ * Tests for the persistent cache of translated files. A file which is
+ * unchanged since it was last translated (with the same options) should not be
+ * translated again and, hence, the file generated previously should be left
+ * untouched. To detect this, each generated file is backdated after the first
+ * build, since it would otherwise be overwritten.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class BuildCacheTests {
+	/**
+	 * A time in the past to which generated files are backdated.
+	 */
+	private static final long BACKDATE = 1000000000000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void unchanged_1() throws IOException {
+		File js = build("Record_Valid_1", options());
+		byte[] bytes = Files.readAllBytes(js.toPath());
+		assertTrue(js.setLastModified(BACKDATE));
+		build("Record_Valid_1", options());
+		assertEquals(BACKDATE, js.lastModified());
+		assertArrayEquals(bytes, Files.readAllBytes(js.toPath()));
+	}
+
+	@Test
+	public void unchanged_2() throws IOException {
+		// Unchanged tree, even though the binary file is newer
+		File js = build("Record_Valid_1", options());
+		File wyil = new File(js.getParentFile(), "Record_Valid_1.wyil");
+		assertTrue(js.setLastModified(BACKDATE));
+		assertTrue(wyil.setLastModified(System.currentTimeMillis()));
+		build("Record_Valid_1", options());
+		assertEquals(BACKDATE, js.lastModified());
+	}
+
+	@Test
+	public void changed_1() throws IOException {
+		// Different options, so must be translated again
+		File js = build("Record_Valid_1", options());
+		assertTrue(js.setLastModified(BACKDATE));
+		Map<String, Object> options = options();
+		options.put("jsopt", true);
+		build("Record_Valid_1", options);
+		assertNotEquals(BACKDATE, js.lastModified());
+	}
+
+	@Test
+	public void changed_2() throws IOException {
+		// Generated file removed, so must be translated again
+		File js = build("Record_Valid_1", options());
+		byte[] bytes = Files.readAllBytes(js.toPath());
+		assertTrue(js.delete());
+		build("Record_Valid_1", options());
+		assertArrayEquals(bytes, Files.readAllBytes(js.toPath()));
+	}
+
+	private static Map<String, Object> options() {
+		HashMap<String, Object> options = new HashMap<>();
+		options.put("jscache", true);
+		return options;
+	}
+
+	/**
+	 * Build a given valid test case in the temporary folder, returning the
+	 * generated file.
+	 *
+	 * @param name
+	 * @param options
+	 * @return
+	 * @throws IOException
+	 */
+	private File build(String name, Map<String, Object> options) throws IOException {
+		File dir = folder.getRoot();
+		File source = new File(dir, name + ".whiley");
+		if (!source.exists()) {
+			Files.copy(new File(RuntimeValidTests.WHILEY_SRC_DIR, name + ".whiley").toPath(), source.toPath());
+		}
+		Compile.Result r = RuntimeValidTests.compileWhiley2JavaScript(dir.getPath(), options, source.getPath())
+				.first();
+		assertEquals(Compile.Result.SUCCESS, r);
+		return new File(dir, name + ".js");
+	}
+}
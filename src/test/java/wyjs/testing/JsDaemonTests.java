@@ -0,0 +1,178 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import wyc.command.Compile;
+import wycc.util.Logger;
+import wyjs.commands.JsDaemon;
+
+/**
+ * Tests for the compile daemon, both when reading requests from standard input
+ * and when watching for changes. In both cases, the project is reused between
+ * builds and only those files modified since the last build are compiled
+ * again.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class JsDaemonTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void serve_1() throws IOException {
+		File dir = folder.getRoot();
+		File a = write(dir, "A", 1);
+		File b = write(dir, "B", 2);
+		ByteArrayOutputStream sysout = new ByteArrayOutputStream();
+		JsDaemon daemon = create(dir, sysout);
+		// First request compiles the given files
+		assertEquals(Compile.Result.SUCCESS, serve(daemon, a.getPath() + " " + b.getPath()));
+		File aJs = new File(dir, "A.js");
+		File bJs = new File(dir, "B.js");
+		assertTrue(aJs.exists() && bJs.exists());
+		// Distinguish files written by the second request, without making
+		// them out of date.
+		long stamp = new File(dir, "A.wyil").lastModified() + 5000;
+		assertTrue(aJs.setLastModified(stamp) && bJs.setLastModified(stamp));
+		byte[] before = Files.readAllBytes(bJs.toPath());
+		write(dir, "B", 3);
+		assertTrue(b.setLastModified(new File(dir, "B.wyil").lastModified() + 10000));
+		// Second request compiles only the modified file
+		assertEquals(Compile.Result.SUCCESS, serve(daemon, ""));
+		assertEquals(stamp, aJs.lastModified());
+		assertNotEquals(stamp, bJs.lastModified());
+		assertTrue(!Arrays.equals(before, Files.readAllBytes(bJs.toPath())));
+		// Result of each request is written on a separate line
+		String[] lines = sysout.toString().trim().split("\\R");
+		assertEquals("SUCCESS", lines[lines.length - 1]);
+	}
+
+	@Test
+	public void serve_2() throws IOException {
+		File dir = folder.getRoot();
+		File a = write(dir, "A", 1);
+		ByteArrayOutputStream sysout = new ByteArrayOutputStream();
+		JsDaemon daemon = create(dir, sysout);
+		// Files given initially are compiled before any requests
+		Compile.Result r = daemon.serve(new ByteArrayInputStream(new byte[0]), a.getPath());
+		assertEquals(Compile.Result.SUCCESS, r);
+		assertTrue(new File(dir, "A.js").exists());
+		assertEquals("SUCCESS", sysout.toString().trim());
+	}
+
+	@Test(timeout = 60000)
+	public void watch_1() throws Exception {
+		File dir = folder.getRoot();
+		write(dir, "A", 1);
+		ByteArrayOutputStream sysout = new ByteArrayOutputStream();
+		JsDaemon daemon = create(dir, sysout);
+		daemon.setWatch(true);
+		Thread thread = new Thread(() -> {
+			try {
+				daemon.watch();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		thread.start();
+		try {
+			// Existing files are compiled immediately
+			awaitResults(sysout, 1);
+			assertTrue(new File(dir, "A.js").exists());
+			// New files are compiled once written
+			write(dir, "B", 2);
+			awaitResults(sysout, 2);
+			assertTrue(new File(dir, "B.js").exists());
+		} finally {
+			thread.interrupt();
+			thread.join();
+		}
+	}
+
+	/**
+	 * Construct a daemon for a given source directory.
+	 *
+	 * @param dir
+	 * @param sysout
+	 * @return
+	 * @throws IOException
+	 */
+	private static JsDaemon create(File dir, ByteArrayOutputStream sysout) throws IOException {
+		JsDaemon daemon = new JsDaemon(new wyjs.Activator.Registry(), Logger.NULL, sysout,
+				new ByteArrayOutputStream());
+		daemon.setWhileydir(dir);
+		return daemon;
+	}
+
+	/**
+	 * Send a single request to a given daemon, returning the result.
+	 *
+	 * @param daemon
+	 * @param request
+	 * @return
+	 * @throws IOException
+	 */
+	private static Compile.Result serve(JsDaemon daemon, String request) throws IOException {
+		return daemon.serve(new ByteArrayInputStream((request + "\n").getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Wait until a given number of builds have completed, as indicated by
+	 * their results.
+	 *
+	 * @param sysout
+	 * @param count
+	 * @throws InterruptedException
+	 */
+	private static void awaitResults(ByteArrayOutputStream sysout, int count) throws InterruptedException {
+		while (sysout.toString().split("SUCCESS", -1).length <= count) {
+			Thread.sleep(50);
+		}
+	}
+
+	/**
+	 * Write a Whiley module into a given directory, whose test returns a given
+	 * value.
+	 *
+	 * @param dir
+	 * @param name
+	 * @param value
+	 * @return
+	 * @throws IOException
+	 */
+	private static File write(File dir, String name, int value) throws IOException {
+		File file = new File(dir, name + ".whiley");
+		Files.write(file.toPath(), Arrays.asList("public export method test() -> int:", "    return " + value),
+				StandardCharsets.UTF_8);
+		return file;
+	}
+}
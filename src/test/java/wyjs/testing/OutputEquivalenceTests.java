@@ -0,0 +1,171 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.testing;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import wyc.command.Compile;
+
+/**
+ * Tests for options which affect how the generated files are produced, but
+ * not their contents. All valid test cases are compiled together both with
+ * and without such an option, and every generated file must then be
+ * byte-for-byte identical. Likewise, repeating a build with the same options
+ * must produce identical files.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class OutputEquivalenceTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void streaming_1() throws IOException {
+		assertEquivalent(options(), options("jsstream", true));
+	}
+
+	@Test
+	public void streaming_2() throws IOException {
+		assertEquivalent(options("jsminify", true), options("jsminify", true, "jsstream", true));
+	}
+
+	@Test
+	public void parallel_1() throws IOException {
+		assertEquivalent(options("jsthreads", 1), options("jsthreads", 4));
+	}
+
+	@Test
+	public void parallel_2() throws IOException {
+		assertEquivalent(options("jsthreads", 1, "jsminify", true), options("jsthreads", 4, "jsminify", true));
+	}
+
+	@Test
+	public void parallel_3() throws IOException {
+		assertEquivalent(options("jsthreads", 1, "jstypelib", "types"),
+				options("jsthreads", 4, "jstypelib", "types"));
+	}
+
+	@Test
+	public void parallel_4() throws IOException {
+		assertEquivalent(options("jsthreads", 1, "jssourcemap", true), options("jsthreads", 4, "jssourcemap", true));
+	}
+
+	@Test
+	public void parallel_5() throws IOException {
+		Map<String, Object> options = options("jsminify", true, "jstypelib", "types", "jssourcemap", true);
+		Map<String, Object> parallel = new HashMap<>(options);
+		options.put("jsthreads", 1);
+		parallel.put("jsthreads", 4);
+		assertEquivalent(options, parallel);
+	}
+
+	@Test
+	public void deterministic_1() throws IOException {
+		Map<String, Object> options = options("jsminify", true, "jstypelib", "types", "jsthreads", 4);
+		assertEquivalent(options, options);
+	}
+
+	@Test
+	public void deterministic_2() throws IOException {
+		Map<String, Object> options = options("jstypelib", "types", "jsthreads", 4);
+		assertEquivalent(options, options);
+	}
+
+	/**
+	 * Compile all valid test cases with two sets of options and check that
+	 * the generated files are identical.
+	 *
+	 * @param first
+	 * @param second
+	 * @throws IOException
+	 */
+	private void assertEquivalent(Map<String, Object> first, Map<String, Object> second) throws IOException {
+		File left = folder.newFolder("left");
+		File right = folder.newFolder("right");
+		compile(left, first);
+		compile(right, second);
+		List<Path> files = list(left);
+		assertEquals(files, list(right));
+		for (Path file : files) {
+			byte[] expected = Files.readAllBytes(left.toPath().resolve(file));
+			byte[] actual = Files.readAllBytes(right.toPath().resolve(file));
+			assertArrayEquals(file.toString(), expected, actual);
+		}
+	}
+
+	private static Map<String, Object> options(Object... options) {
+		HashMap<String, Object> map = new HashMap<>();
+		for (int i = 0; i != options.length; i += 2) {
+			map.put((String) options[i], options[i + 1]);
+		}
+		return map;
+	}
+
+	/**
+	 * Compile all valid test cases (except those which are ignored) in one
+	 * build, placing the generated files in a given directory.
+	 *
+	 * @param jsdir
+	 * @param options
+	 * @throws IOException
+	 */
+	private static void compile(File jsdir, Map<String, Object> options) throws IOException {
+		HashMap<String, Object> map = new HashMap<>(options);
+		map.put("jsdir", jsdir.getPath());
+		ArrayList<String> args = new ArrayList<>();
+		for (Object[] test : RuntimeValidTests.data()) {
+			String name = (String) test[0];
+			if (!RuntimeValidTests.IGNORED.containsKey(name)) {
+				args.add(RuntimeValidTests.WHILEY_SRC_DIR + File.separatorChar + name + ".whiley");
+			}
+		}
+		Compile.Result r = RuntimeValidTests
+				.compileWhiley2JavaScript(RuntimeValidTests.WHILEY_SRC_DIR, map, args.toArray(new String[args.size()]))
+				.first();
+		assertEquals(Compile.Result.SUCCESS, r);
+	}
+
+	/**
+	 * List the files in a given directory (recursively) relative to it, in a
+	 * deterministic order.
+	 *
+	 * @param dir
+	 * @return
+	 * @throws IOException
+	 */
+	private static List<Path> list(File dir) throws IOException {
+		try (Stream<Path> stream = Files.walk(dir.toPath())) {
+			return stream.filter(Files::isRegularFile).map(dir.toPath()::relativize).sorted()
+					.collect(Collectors.toList());
+		}
+	}
+}
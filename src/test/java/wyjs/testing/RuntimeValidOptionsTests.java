@@ -0,0 +1,131 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.testing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Run through all valid test cases with each configuration of the JavaScript
+ * backend which changes the generated code, but not its behaviour. For
+ * example, copies may be elided or the output minified. Since every test file
+ * is valid, every test should pass exactly as it does without.
+ *
+ * Each test is compiled in a separate directory, such that the generated files
+ * are not mixed with those of other tests (or other configurations). This is
+ * necessary for a shared type test library in particular, since this is
+ * generated from every binary file in the build directory.
+ *
+ * @author David J. Pearce
+ *
+ */
+@RunWith(Parameterized.class)
+public class RuntimeValidOptionsTests extends RuntimeValidTests {
+	/**
+	 * The name of the shared type test library, when one is generated.
+	 */
+	private static final String LIBRARY = "types";
+
+	/**
+	 * The configurations under which every test is run, and the options for
+	 * the JavaScript backend which determine them.
+	 */
+	private static final Map<String, Map<String, Object>> CONFIGURATIONS = new LinkedHashMap<>();
+
+	static {
+		// Values shared on assignment and cloned when first written through
+		CONFIGURATIONS.put("cow", options("jscow", true));
+		// Copies elided on last use
+		CONFIGURATIONS.put("elided", options("jselide", true));
+		// Arrays of bytes and of bounded integers backed by typed arrays
+		CONFIGURATIONS.put("typed", options("jstyped", true));
+		// Constant folding, dead code and common subexpression elimination
+		CONFIGURATIONS.put("optimised", options("jsopt", true));
+		// Comments and whitespace removed, and names shortened
+		CONFIGURATIONS.put("minified", options("jsminify", true));
+		// Every contract checked, even though debug mode is disabled
+		CONFIGURATIONS.put("checked", options("debug", false, "jschecks", "full"));
+		// Contracts checked on sampled occasions (by default, all of them)
+		CONFIGURATIONS.put("sampled", options("jssample", true));
+		// Every function counted and timed
+		CONFIGURATIONS.put("instrumented", options("jsinstrument", true, "jstiming", true));
+		// Type tests written into a shared library
+		CONFIGURATIONS.put("typelib", options("jstypelib", LIBRARY));
+	}
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final String configuration;
+
+	public RuntimeValidOptionsTests(String configuration, String testName) {
+		super(testName);
+		this.configuration = configuration;
+	}
+
+	// Here we enumerate every test case under every configuration.
+	@Parameters(name = "{0}:{1}")
+	public static Collection<Object[]> data() {
+		ArrayList<Object[]> data = new ArrayList<>();
+		for (String configuration : CONFIGURATIONS.keySet()) {
+			for (Object[] test : RuntimeValidTests.data()) {
+				data.add(new Object[] { configuration, test[0] });
+			}
+		}
+		return data;
+	}
+
+	@Override
+	protected void runTest(String name) throws IOException {
+		File dir = folder.getRoot();
+		Files.copy(new File(WHILEY_SRC_DIR, name + ".whiley").toPath(), new File(dir, name + ".whiley").toPath());
+		runTest(dir.getPath(), name);
+	}
+
+	@Override
+	protected Map<String, Object> getOptions() {
+		return CONFIGURATIONS.get(configuration);
+	}
+
+	@Override
+	protected List<String> getLibraries() {
+		if (getOptions().containsKey("jstypelib")) {
+			return Collections.singletonList(LIBRARY + ".js");
+		} else {
+			return Collections.emptyList();
+		}
+	}
+
+	private static Map<String, Object> options(Object... options) {
+		HashMap<String, Object> map = new HashMap<>();
+		for (int i = 0; i != options.length; i += 2) {
+			map.put((String) options[i], options[i + 1]);
+		}
+		return map;
+	}
+}
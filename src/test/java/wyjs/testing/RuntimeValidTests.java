@@ -20,7 +20,9 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.script.ScriptEngine;
@@ -34,6 +36,7 @@ import org.junit.runners.Parameterized.Parameters;
 
 import wyc.command.Compile;
 import wyc.util.TestUtils;
+import wycc.lang.Feature.ConfigurationError;
 import wycc.util.Logger;
 import wycc.util.Pair;
 import wyfs.lang.Content;
@@ -128,11 +131,26 @@ public class RuntimeValidTests {
 	// ======================================================================
 
  	protected void runTest(String name) throws IOException {
- 		String whileyFilename = WHILEY_SRC_DIR + File.separatorChar + name + ".whiley";
- 		String jsFilename = WHILEY_SRC_DIR + File.separatorChar + name + ".js";
+ 		runTest(WHILEY_SRC_DIR, name);
+ 	}
+
+	/**
+	 * Compile and execute a given test case located in a given directory.
+	 *
+	 * @param whileydir
+	 *            --- location of the source file for the test case, in which
+	 *            the generated files are also placed.
+	 * @param name
+	 *            --- name of the test case.
+	 * @throws IOException
+	 */
+ 	protected void runTest(String whileydir, String name) throws IOException {
+ 		String whileyFilename = whileydir + File.separatorChar + name + ".whiley";
+ 		String jsFilename = whileydir + File.separatorChar + name + ".js";
 		// Compile to Java Bytecode
 		Pair<Compile.Result, String> p = compileWhiley2JavaScript(
-				WHILEY_SRC_DIR, // location of source directory
+				whileydir, // location of source directory
+				getOptions(), // options for the JavaScript backend
 				whileyFilename); // name of test to compile
 
 		Compile.Result r = p.first();
@@ -145,7 +163,7 @@ public class RuntimeValidTests {
 		}
 		// Execute the generated JavaScript Program.
 		try {
-			execJS(jsFilename);
+			execJS(whileydir, jsFilename);
 		} catch(ScriptException e) {
 			System.err.println("=========================================================");
 			System.err.println("TEST: " + name);
@@ -166,12 +184,37 @@ public class RuntimeValidTests {
 	 * @throws IOException
 	 */
 	public static Pair<Compile.Result,String> compileWhiley2JavaScript(String whileydir, String... args) throws IOException {
+		return compileWhiley2JavaScript(whileydir, Collections.emptyMap(), args);
+	}
+
+	/**
+	 * Run the Whiley Compiler with the given options for the JavaScript
+	 * backend (e.g. <code>jsopt=true</code>) and the given list of arguments to
+	 * produce a JavaScript source file.
+	 *
+	 * @param options
+	 *            --- options to configure the JavaScript backend with.
+	 * @param args
+	 *            --- list of command-line arguments to provide to the Whiley
+	 *            Compiler.
+	 * @return
+	 * @throws IOException
+	 */
+	public static Pair<Compile.Result, String> compileWhiley2JavaScript(String whileydir, Map<String, Object> options,
+			String... args) throws IOException {
 		ByteArrayOutputStream syserr = new ByteArrayOutputStream();
 		ByteArrayOutputStream sysout = new ByteArrayOutputStream();
 		Content.Registry registry = new wyc.Activator.Registry();
 		JsCompile cmd = new JsCompile(registry,Logger.NULL,sysout,syserr);
 		cmd.setWhileydir(new File(whileydir));
 		cmd.setVerbose();
+		try {
+			for (Map.Entry<String, Object> option : options.entrySet()) {
+				cmd.set(option.getKey(), option.getValue());
+			}
+		} catch (ConfigurationError e) {
+			throw new IllegalArgumentException(e);
+		}
 		Compile.Result result = cmd.execute(args);
 		byte[] errBytes = syserr.toByteArray();
 		byte[] outBytes = sysout.toByteArray();
@@ -183,21 +226,47 @@ public class RuntimeValidTests {
 	 * Execute a given JavaScript file stored on disk using the built-in
 	 * "Nashorn" interpreter.
 	 *
+	 * @param dir
+	 *            The directory containing any generated libraries.
 	 * @param filename
 	 *            The fully qualified name of the JavaScript file to be
 	 *            executed.
 	 * @throws ScriptException
 	 * @throws IOException
 	 */
-	private void execJS(String filename) throws ScriptException, IOException {
+	private void execJS(String dir, String filename) throws ScriptException, IOException {
 		ScriptEngine engine = new ScriptEngineManager().getEngineByName("nashorn");
 		// Load the WyJS runtime which provides necessary support methods.
 		engine.eval(new FileReader(WYJS_RUNTIME));
+		// Load any libraries generated alongside the js script
+		for (String library : getLibraries()) {
+			engine.eval(new FileReader(dir + File.separatorChar + library));
+		}
 		// Load the js script from the filesystem
 		engine.eval(new FileReader(filename));
 		// Execute the test() method
 		engine.eval("test();");
 	}
+	/**
+	 * Get the options for the JavaScript backend with which each test is
+	 * compiled. By default, none are given.
+	 *
+	 * @return
+	 */
+	protected Map<String, Object> getOptions() {
+		return Collections.emptyMap();
+	}
+
+	/**
+	 * Get the names of any JavaScript files generated alongside each test,
+	 * which must be loaded before it is executed. By default, there are none.
+	 *
+	 * @return
+	 */
+	protected List<String> getLibraries() {
+		return Collections.emptyList();
+	}
+
 	// ======================================================================
 	// Tests
 	// ======================================================================
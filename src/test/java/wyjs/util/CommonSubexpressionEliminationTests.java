@@ -0,0 +1,256 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import wyjs.core.JavaScript;
+import wyjs.core.JavaScript.*;
+import wyjs.io.JavaScriptPrinter;
+
+/**
+ * Tests for the elimination of repeated loads from the generated code. A load
+ * may only be reused when nothing in between could have changed its value
+ * and, likewise, may only be hoisted out of a loop when nothing in the loop
+ * could change its value.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class CommonSubexpressionEliminationTests {
+
+	// ======================================================================
+	// Lengths
+	// ======================================================================
+
+	@Test
+	public void length_1() {
+		assertEliminated("var xs$length;var x=xs$length=xs.length;var y=xs$length;",
+				declare("x", length("xs")), declare("y", length("xs")));
+	}
+
+	@Test
+	public void length_2() {
+		// Only one occurrence, so nothing to reuse
+		assertEliminated("var x=xs.length;var y=ys.length;", declare("x", length("xs")), declare("y", length("ys")));
+	}
+
+	@Test
+	public void length_3() {
+		// Assigning the array invalidates its length
+		assertEliminated("var x=xs.length;xs=ys;var y=xs.length;", declare("x", length("xs")),
+				assign(variable("xs"), variable("ys")), declare("y", length("xs")));
+	}
+
+	@Test
+	public void length_4() {
+		// Invocations do not change the length of an array
+		assertEliminated("var xs$length;var x=xs$length=xs.length;f();var y=xs$length;",
+				declare("x", length("xs")), call("f"), declare("y", length("xs")));
+	}
+
+	@Test
+	public void length_5() {
+		// Not reused beyond a conditional assignment
+		assertEliminated("var x=xs.length;if(c){xs=ys;}var y=xs.length;", declare("x", length("xs")),
+				new If(variable("c"), new Block(assign(variable("xs"), variable("ys")))), declare("y", length("xs")));
+	}
+
+	@Test
+	public void length_6() {
+		// Loads which are only evaluated conditionally are not reused
+		assertEliminated("var x=c&&xs.length;var y=xs.length;",
+				declare("x", new Operator(Operator.Kind.AND, variable("c"), length("xs"))),
+				declare("y", length("xs")));
+	}
+
+	// ======================================================================
+	// Dereferences
+	// ======================================================================
+
+	@Test
+	public void deref_1() {
+		assertEliminated("var p$deref;var x=p$deref=Wy.deref(p);var y=p$deref;", declare("x", deref("p")),
+				declare("y", deref("p")));
+	}
+
+	@Test
+	public void deref_2() {
+		// Writing through any reference invalidates dereferences
+		assertEliminated("var x=Wy.deref(p);q.$ref=1;var y=Wy.deref(p);", declare("x", deref("p")),
+				assign(new PropertyAccess(variable("q"), "$ref"), new Constant(1)), declare("y", deref("p")));
+	}
+
+	@Test
+	public void deref_3() {
+		// An impure invocation may write through a reference
+		assertEliminated("var x=Wy.deref(p);f();var y=Wy.deref(p);", declare("x", deref("p")), call("f"),
+				declare("y", deref("p")));
+	}
+
+	@Test
+	public void deref_4() {
+		// Whilst a pure invocation cannot
+		assertEliminated("var p$deref;var x=p$deref=Wy.deref(p);Wy.assert(c);var y=p$deref;",
+				declare("x", deref("p")), new Invoke(name("Wy", "assert"), variable("c")), declare("y", deref("p")));
+	}
+
+	@Test
+	public void deref_5() {
+		// Assigning the reference itself invalidates its dereference
+		assertEliminated("var x=Wy.deref(p);p=q;var y=Wy.deref(p);", declare("x", deref("p")),
+				assign(variable("p"), variable("q")), declare("y", deref("p")));
+	}
+
+	@Test
+	public void deref_6() {
+		// The arguments are evaluated before the invocation has any effect
+		assertEliminated("var p$deref;f(p$deref=Wy.deref(p),p$deref);",
+				new Invoke(variable("f"), deref("p"), deref("p")));
+	}
+
+	// ======================================================================
+	// Loops
+	// ======================================================================
+
+	@Test
+	public void loop_1() {
+		assertEliminated("var xs$length;xs$length=xs.length;while(i<xs$length){i=i+1;}",
+				new While(new Operator(Operator.Kind.LT, variable("i"), length("xs")), new Block(increment("i"))));
+	}
+
+	@Test
+	public void loop_2() {
+		// Not hoisted when the loop assigns the array
+		assertEliminated("while(i<xs.length){xs=f();}", new While(
+				new Operator(Operator.Kind.LT, variable("i"), length("xs")),
+				new Block(assign(variable("xs"), new Invoke(variable("f"))))));
+	}
+
+	@Test
+	public void loop_3() {
+		// Not hoisted when the loop invokes an impure function
+		assertEliminated("while(i<Wy.deref(p)){f();}",
+				new While(new Operator(Operator.Kind.LT, variable("i"), deref("p")), new Block(call("f"))));
+	}
+
+	@Test
+	public void loop_4() {
+		assertEliminated("var p$deref;p$deref=Wy.deref(p);while(i<p$deref){i=i+1;}",
+				new While(new Operator(Operator.Kind.LT, variable("i"), deref("p")), new Block(increment("i"))));
+	}
+
+	@Test
+	public void loop_5() {
+		// Not hoisted when the loop writes through a reference
+		assertEliminated("while(i<Wy.deref(p)){q.$ref=i;}",
+				new While(new Operator(Operator.Kind.LT, variable("i"), deref("p")),
+						new Block(assign(new PropertyAccess(variable("q"), "$ref"), variable("i")))));
+	}
+
+	@Test
+	public void loop_6() {
+		// Not hoisted when only evaluated conditionally
+		assertEliminated("while(c&&i<xs.length){i=i+1;}",
+				new While(new Operator(Operator.Kind.AND, variable("c"),
+						new Operator(Operator.Kind.LT, variable("i"), length("xs"))), new Block(increment("i"))));
+	}
+
+	@Test
+	public void loop_7() {
+		// Loads before the loop are not available within it when invalidated
+		assertEliminated("var x=xs.length;while(c){xs=ys;var y=xs.length;}", declare("x", length("xs")),
+				new While(variable("c"),
+						new Block(assign(variable("xs"), variable("ys")), declare("y", length("xs")))));
+	}
+
+	// ======================================================================
+	// Function expressions
+	// ======================================================================
+
+	@Test
+	public void function_1() {
+		// Loads are not shared with function expressions
+		JavaScript.Function g = new JavaScript.Function(null, Collections.emptyList(),
+				new Block(new Return(length("xs"))));
+		assertEliminated("var x=xs.length;var g=function(){return xs.length;};", declare("x", length("xs")),
+				declare("g", g));
+	}
+
+	@Test
+	public void function_2() {
+		// Though function expressions are themselves considered
+		JavaScript.Function g = new JavaScript.Function(null, Collections.emptyList(),
+				new Block(declare("x", length("xs")), new Return(length("xs"))));
+		assertEliminated("var g=function(){var xs$length;var x=xs$length=xs.length;return xs$length;};",
+				declare("g", g));
+	}
+
+	// ======================================================================
+	// Helpers
+	// ======================================================================
+
+	private static void assertEliminated(String expected, Stmt... stmts) {
+		Stmt f = new JavaScript.Function("f", Collections.emptyList(), new Block(stmts));
+		StringWriter buffer = new StringWriter();
+		PrintWriter writer = new PrintWriter(buffer);
+		JavaScriptPrinter printer = new JavaScriptPrinter(writer);
+		printer.setCompact(true);
+		printer.print(new CommonSubexpressionElimination().transform(f));
+		writer.flush();
+		assertEquals("function f(){" + expected + "}", buffer.toString().trim());
+	}
+
+	private static Stmt declare(String name, Expr initialiser) {
+		return new VariableDeclaration(name, initialiser);
+	}
+
+	private static Stmt assign(Expr lhs, Expr rhs) {
+		return new Assignment(lhs, rhs);
+	}
+
+	private static Stmt increment(String name) {
+		return assign(variable(name), new Operator(Operator.Kind.ADD, variable(name), new Constant(1)));
+	}
+
+	private static Stmt call(String name) {
+		return new Invoke(variable(name));
+	}
+
+	private static Expr length(String name) {
+		return new PropertyAccess(variable(name), "length");
+	}
+
+	private static Expr deref(String name) {
+		return new Invoke(name("Wy", "deref"), variable(name));
+	}
+
+	private static Expr name(String... components) {
+		Expr expr = variable(components[0]);
+		for (int i = 1; i != components.length; ++i) {
+			expr = new PropertyAccess(expr, components[i]);
+		}
+		return expr;
+	}
+
+	private static Expr variable(String name) {
+		return new Variable(name);
+	}
+}
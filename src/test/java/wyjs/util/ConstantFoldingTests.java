@@ -0,0 +1,259 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+import wyjs.core.JavaScript.*;
+import wyjs.io.JavaScriptPrinter;
+
+/**
+ * Tests for constant folding of the generated code. In particular, folding
+ * must never change the value computed by JavaScript, which means it must
+ * avoid integers which cannot be represented exactly and results of
+ * <code>-0</code>.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ConstantFoldingTests {
+	private static final BigInteger MAX_SAFE_INTEGER = BigInteger.valueOf(2).pow(53);
+
+	// ======================================================================
+	// Arithmetic
+	// ======================================================================
+
+	@Test
+	public void arithmetic_1() {
+		assertFolded("3", op(Operator.Kind.ADD, constant(1), constant(2)));
+	}
+
+	@Test
+	public void arithmetic_2() {
+		assertFolded("-7", op(Operator.Kind.SUB, op(Operator.Kind.MUL, constant(2), constant(3)), constant(13)));
+	}
+
+	@Test
+	public void arithmetic_3() {
+		assertFolded("-3", op(Operator.Kind.DIV, constant(6), constant(-2)));
+	}
+
+	@Test
+	public void arithmetic_4() {
+		// Not an integer result
+		assertFolded("7 / 2", op(Operator.Kind.DIV, constant(7), constant(2)));
+	}
+
+	@Test
+	public void arithmetic_5() {
+		assertFolded("x + 1", op(Operator.Kind.ADD, variable("x"), op(Operator.Kind.SUB, constant(3), constant(2))));
+	}
+
+	// ======================================================================
+	// Safe integers
+	// ======================================================================
+
+	@Test
+	public void safe_1() {
+		// 2^53 itself is represented exactly
+		assertFolded(MAX_SAFE_INTEGER.toString(),
+				op(Operator.Kind.ADD, constant(MAX_SAFE_INTEGER.subtract(BigInteger.ONE)), constant(1)));
+	}
+
+	@Test
+	public void safe_2() {
+		// 2^53 + 1 is not represented exactly
+		assertFolded(MAX_SAFE_INTEGER + " + 1", op(Operator.Kind.ADD, constant(MAX_SAFE_INTEGER), constant(1)));
+	}
+
+	@Test
+	public void safe_3() {
+		// Result is safe, but an operand is not
+		BigInteger big = MAX_SAFE_INTEGER.add(BigInteger.valueOf(2));
+		assertFolded(big + " - 2", op(Operator.Kind.SUB, constant(big), constant(2)));
+	}
+
+	@Test
+	public void safe_4() {
+		assertFolded("-" + MAX_SAFE_INTEGER + " * 2",
+				op(Operator.Kind.MUL, constant(MAX_SAFE_INTEGER.negate()), constant(2)));
+	}
+
+	@Test
+	public void safe_5() {
+		// Equality of integers which are not represented exactly
+		BigInteger big = MAX_SAFE_INTEGER.add(BigInteger.ONE);
+		assertFolded(big + " === " + MAX_SAFE_INTEGER,
+				op(Operator.Kind.EEQ, constant(big), constant(MAX_SAFE_INTEGER)));
+	}
+
+	@Test
+	public void safe_6() {
+		// Bitwise operators only apply to 32-bit integers
+		assertFolded("2147483648 & 1", op(Operator.Kind.BITWISEAND, constant(2147483648L), constant(1)));
+	}
+
+	@Test
+	public void safe_7() {
+		assertFolded("2", op(Operator.Kind.BITWISEAND, constant(6), constant(3)));
+	}
+
+	@Test
+	public void safe_8() {
+		// Shifting wraps around as for JavaScript
+		assertFolded("-2147483648", op(Operator.Kind.LEFTSHIFT, constant(1), constant(31)));
+	}
+
+	// ======================================================================
+	// Negative zero
+	// ======================================================================
+
+	@Test
+	public void zero_1() {
+		assertFolded("-0", op(Operator.Kind.NEG, constant(0)));
+	}
+
+	@Test
+	public void zero_2() {
+		assertFolded("-5", op(Operator.Kind.NEG, constant(5)));
+	}
+
+	@Test
+	public void zero_3() {
+		assertFolded("0 * -1", op(Operator.Kind.MUL, constant(0), constant(-1)));
+	}
+
+	@Test
+	public void zero_4() {
+		assertFolded("-1 * 0", op(Operator.Kind.MUL, constant(-1), constant(0)));
+	}
+
+	@Test
+	public void zero_5() {
+		assertFolded("0", op(Operator.Kind.MUL, constant(0), constant(1)));
+	}
+
+	@Test
+	public void zero_6() {
+		assertFolded("0 / -5", op(Operator.Kind.DIV, constant(0), constant(-5)));
+	}
+
+	@Test
+	public void zero_7() {
+		// Remainder takes the sign of the dividend
+		assertFolded("-4 % 2", op(Operator.Kind.REM, constant(-4), constant(2)));
+	}
+
+	@Test
+	public void zero_8() {
+		assertFolded("1", op(Operator.Kind.REM, constant(7), constant(-3)));
+	}
+
+	@Test
+	public void zero_9() {
+		assertFolded("Math.floor(0 / -5)", floor(op(Operator.Kind.DIV, constant(0), constant(-5))));
+	}
+
+	// ======================================================================
+	// Invocations
+	// ======================================================================
+
+	@Test
+	public void invoke_1() {
+		assertFolded("-4", floor(op(Operator.Kind.DIV, constant(-7), constant(2))));
+	}
+
+	@Test
+	public void invoke_2() {
+		assertFolded("3", floor(op(Operator.Kind.DIV, constant(7), constant(2))));
+	}
+
+	@Test
+	public void invoke_3() {
+		assertFolded("-4", floor(op(Operator.Kind.DIV, constant(7), constant(-2))));
+	}
+
+	@Test
+	public void invoke_4() {
+		assertFolded("Math.floor(x / 2)", floor(op(Operator.Kind.DIV, variable("x"), constant(2))));
+	}
+
+	@Test
+	public void invoke_5() {
+		assertFolded("10", new Invoke(variable("parseInt"), constant("1010"), constant(2)));
+	}
+
+	// ======================================================================
+	// Logical operators
+	// ======================================================================
+
+	@Test
+	public void logical_1() {
+		assertFolded("x", op(Operator.Kind.AND, constant(true), variable("x")));
+	}
+
+	@Test
+	public void logical_2() {
+		assertFolded("x", op(Operator.Kind.AND, variable("x"), constant(true)));
+	}
+
+	@Test
+	public void logical_3() {
+		// The left operand may have side effects
+		assertFolded("f() && false", op(Operator.Kind.AND, new Invoke(variable("f")), constant(false)));
+	}
+
+	@Test
+	public void logical_4() {
+		assertFolded("true", op(Operator.Kind.OR, op(Operator.Kind.LT, constant(1), constant(2)), variable("x")));
+	}
+
+	@Test
+	public void logical_5() {
+		// Strings are conservatively ignored
+		assertFolded("\"1\" == 1", op(Operator.Kind.EQ, constant("1"), constant(1)));
+	}
+
+	// ======================================================================
+	// Helpers
+	// ======================================================================
+
+	private static void assertFolded(String expected, Expr expr) {
+		assertEquals(expected, JavaScriptPrinter.toString(new ConstantFolding().transform(expr)));
+	}
+
+	private static Expr op(Operator.Kind kind, Expr... operands) {
+		return new Operator(kind, operands);
+	}
+
+	private static Expr floor(Expr operand) {
+		return new Invoke(new PropertyAccess(variable("Math"), "floor"), operand);
+	}
+
+	private static Expr constant(long value) {
+		return new Constant(value);
+	}
+
+	private static Expr constant(Object value) {
+		return new Constant(value);
+	}
+
+	private static Expr variable(String name) {
+		return new Variable(name);
+	}
+}
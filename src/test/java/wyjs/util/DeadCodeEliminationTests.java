@@ -0,0 +1,164 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyjs.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import wyjs.core.JavaScript;
+import wyjs.core.JavaScript.*;
+import wyjs.io.JavaScriptPrinter;
+
+/**
+ * Tests for the removal of unreachable statements from the generated code.
+ * Statements are only removed when control can never reach them and, hence,
+ * those following a statement which may complete normally must be retained.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class DeadCodeEliminationTests {
+
+	// ======================================================================
+	// Truncation
+	// ======================================================================
+
+	@Test
+	public void truncate_1() {
+		assertEliminated("return 1;", new Return(constant(1)), call("f"));
+	}
+
+	@Test
+	public void truncate_2() {
+		assertEliminated("f();return;", call("f"), new Return(), call("g"), new Return());
+	}
+
+	@Test
+	public void truncate_3() {
+		// Within the body of a loop
+		assertEliminated("while(x){break;}", new While(variable("x"), new Block(new Break(), call("f"))));
+	}
+
+	@Test
+	public void truncate_4() {
+		assertEliminated("while(x){continue;}", new While(variable("x"), new Block(new Continue(), new Break())));
+	}
+
+	@Test
+	public void truncate_5() {
+		// Both branches of the conditional terminate
+		assertEliminated("if(x){return 1;}else{return 2;}", new If(variable("x"),
+				new Block(new Return(constant(1))), new Block(new Return(constant(2)))), call("f"));
+	}
+
+	@Test
+	public void truncate_6() {
+		// Only one branch of the conditional terminates
+		assertEliminated("if(x){return 1;}f();", new If(variable("x"), new Block(new Return(constant(1)))), call("f"));
+	}
+
+	@Test
+	public void truncate_7() {
+		assertEliminated("{f();return;}", new Block(call("f"), new Return()), call("g"));
+	}
+
+	@Test
+	public void truncate_8() {
+		// A labelled block is conservatively assumed to be exited by a break
+		assertEliminated("lab:{return;}f();", new Labelled("lab", new Block(new Return())), call("f"));
+	}
+
+	@Test
+	public void truncate_9() {
+		// The break after each case is removed when the case returns
+		Switch s = new Switch(variable("x"),
+				Arrays.asList(new Case(Arrays.asList(constant(1)), new Block(new Return(constant(1)), new Break())),
+						new Case(Collections.emptyList(), new Block(call("f"), new Break()))));
+		assertEliminated("switch(x) {case 1:return 1;default:f();break;}", s);
+	}
+
+	// ======================================================================
+	// Constant conditions
+	// ======================================================================
+
+	@Test
+	public void constant_1() {
+		assertEliminated("f();", new If(constant(true), new Block(call("f")), new Block(call("g"))));
+	}
+
+	@Test
+	public void constant_2() {
+		assertEliminated("g();", new If(constant(false), new Block(call("f")), new Block(call("g"))));
+	}
+
+	@Test
+	public void constant_3() {
+		assertEliminated("g();", new If(constant(false), new Block(call("f"))), call("g"));
+	}
+
+	@Test
+	public void constant_4() {
+		assertEliminated("", new While(constant(false), new Block(call("f"))));
+	}
+
+	@Test
+	public void constant_5() {
+		// An unconditional loop is not dead code
+		assertEliminated("while(true){f();}", new While(constant(true), new Block(call("f"))));
+	}
+
+	@Test
+	public void constant_6() {
+		// The returning branch is selected, so what follows it is dead
+		assertEliminated("return 1;",
+				new If(constant(true), new Block(new Return(constant(1))), new Block(call("g"))), call("f"));
+	}
+
+	// ======================================================================
+	// Helpers
+	// ======================================================================
+
+	private static void assertEliminated(String expected, Stmt... stmts) {
+		Stmt f = new JavaScript.Function("f", Collections.emptyList(), new Block(stmts));
+		StringWriter buffer = new StringWriter();
+		PrintWriter writer = new PrintWriter(buffer);
+		JavaScriptPrinter printer = new JavaScriptPrinter(writer);
+		printer.setCompact(true);
+		printer.print(new DeadCodeElimination().transform(f));
+		writer.flush();
+		assertEquals("function f(){" + expected + "}", buffer.toString().trim());
+	}
+
+	private static Stmt call(String name) {
+		return new Invoke(variable(name));
+	}
+
+	private static Expr constant(Object value) {
+		return new Constant(value);
+	}
+
+	private static Expr constant(long value) {
+		return new Constant(value);
+	}
+
+	private static Expr variable(String name) {
+		return new Variable(name);
+	}
+}